@@ -20,6 +20,7 @@
 package org.nuxeo.ecm.platform.actions;
 
 import java.util.HashMap;
+import java.util.Map;
 
 import org.nuxeo.ecm.core.api.CoreSession;
 import org.nuxeo.ecm.core.api.DocumentModel;
@@ -44,6 +45,8 @@ public class ActionContext extends HashMap<String, Object> {
 
     private NuxeoPrincipal currentPrincipal;
 
+    private transient Map<String, Object> localCache;
+
     public final void setCurrentDocument(DocumentModel doc) {
         currentDocument = doc;
     }
@@ -68,4 +71,26 @@ public class ActionContext extends HashMap<String, Object> {
         this.currentPrincipal = currentPrincipal;
     }
 
+    /**
+     * Returns an object cached by the action service while evaluating filters
+     * against this context, or null. Such objects are held apart from the
+     * context variables, so that filter conditions do not see them.
+     *
+     * @since 5.7.2
+     */
+    public final Object getLocalCacheValue(String key) {
+        return localCache == null ? null : localCache.get(key);
+    }
+
+    /**
+     * @see #getLocalCacheValue(String)
+     * @since 5.7.2
+     */
+    public final void putLocalCacheValue(String key, Object value) {
+        if (localCache == null) {
+            localCache = new HashMap<String, Object>();
+        }
+        localCache.put(key, value);
+    }
+
 }
@@ -0,0 +1,112 @@
+/*
+ * (C) Copyright 2013 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ */
+
+package org.nuxeo.ecm.platform.actions;
+
+import java.util.AbstractMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Variables of the filter conditions, reading through an
+ * {@link ActionContext} instead of copying it.
+ * <p>
+ * Lookups give, in order, the variables assigned by the expression being
+ * evaluated, the entries of the action context, then the document and
+ * principal of the context under the names "document", "currentDocument",
+ * "principal" and "currentUser". Assignments are kept apart and dropped by
+ * {@link #reset()}, so that the action context is never modified.
+ *
+ * @since 5.7.2
+ */
+public class ActionContextVariables extends AbstractMap<String, Object> {
+
+    protected final ActionContext context;
+
+    protected Map<String, Object> assigned;
+
+    public ActionContextVariables(ActionContext context) {
+        this.context = context;
+    }
+
+    /**
+     * Drops the variables assigned by the evaluated expressions.
+     */
+    public void reset() {
+        assigned = null;
+    }
+
+    protected Object getBound(Object key) {
+        if ("document".equals(key) || "currentDocument".equals(key)) {
+            return context.getCurrentDocument();
+        }
+        if ("principal".equals(key) || "currentUser".equals(key)) {
+            return context.getCurrentPrincipal();
+        }
+        return null;
+    }
+
+    protected static boolean isBound(Object key) {
+        return "document".equals(key) || "currentDocument".equals(key)
+                || "principal".equals(key) || "currentUser".equals(key);
+    }
+
+    @Override
+    public Object get(Object key) {
+        if (assigned != null && assigned.containsKey(key)) {
+            return assigned.get(key);
+        }
+        Object value = context.get(key);
+        if (value != null || context.containsKey(key)) {
+            return value;
+        }
+        return getBound(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return (assigned != null && assigned.containsKey(key))
+                || context.containsKey(key) || isBound(key);
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        if (assigned == null) {
+            assigned = new HashMap<String, Object>();
+        }
+        return assigned.put(key, value);
+    }
+
+    /**
+     * Returns a copy of the variables, only meant for debugging.
+     */
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        Map<String, Object> vars = new HashMap<String, Object>();
+        vars.put("document", context.getCurrentDocument());
+        vars.put("currentDocument", context.getCurrentDocument());
+        vars.put("principal", context.getCurrentPrincipal());
+        vars.put("currentUser", context.getCurrentPrincipal());
+        vars.putAll(context);
+        if (assigned != null) {
+            vars.putAll(assigned);
+        }
+        return vars.entrySet();
+    }
+
+}
@@ -39,6 +39,9 @@ public class ActionFilterRegistry implements Serializable {
 
     private final Map<String, ActionFilter> filters;
 
+    // compiled on demand, reset when filters change
+    private transient volatile CompiledFilterRules compiledRules;
+
     public ActionFilterRegistry() {
         filters = new HashMap<String, ActionFilter>();
     }
@@ -53,6 +56,7 @@ public class ActionFilterRegistry implements Serializable {
             }
         }
         filters.put(id, filter);
+        compiledRules = null;
     }
 
     public synchronized ActionFilter removeFilter(String id) {
@@ -60,6 +64,7 @@ public class ActionFilterRegistry implements Serializable {
             log.debug("Un-Registering action filter: " + id);
         }
 
+        compiledRules = null;
         return filters.remove(id);
     }
 
@@ -71,4 +76,25 @@ public class ActionFilterRegistry implements Serializable {
         return filters.get(id);
     }
 
+    /**
+     * Returns the rules of the registered filters compiled for evaluation
+     * with results cached across contexts.
+     *
+     * @since 5.7.2
+     */
+    public CompiledFilterRules getCompiledRules() {
+        CompiledFilterRules compiled = compiledRules;
+        if (compiled == null) {
+            synchronized (this) {
+                compiled = compiledRules;
+                if (compiled == null) {
+                    compiled = CompiledFilterRules.compile(filters.values(),
+                            CompiledFilterRules.DEFAULT_CACHE_SIZE);
+                    compiledRules = compiled;
+                }
+            }
+        }
+        return compiled;
+    }
+
 }
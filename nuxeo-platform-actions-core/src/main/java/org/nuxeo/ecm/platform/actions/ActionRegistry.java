@@ -21,12 +21,14 @@ package org.nuxeo.ecm.platform.actions;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
@@ -47,6 +49,21 @@ public class ActionRegistry implements Serializable {
 
     private List<TypeCompatibility> typeCategoryRelations;
 
+    /**
+     * Immutable snapshot of the registered actions, replaced on each change.
+     *
+     * @since 5.7.2
+     */
+    private volatile Map<String, Action> actionIndex = Collections.emptyMap();
+
+    /**
+     * Immutable snapshot of the sorted enabled actions of each category,
+     * the entries of the changed categories being rebuilt on each change.
+     *
+     * @since 5.7.2
+     */
+    private volatile Map<String, CategoryActions> categoryIndex = Collections.emptyMap();
+
     public ActionRegistry() {
         actions = new HashMap<String, Action>();
         categories = new HashMap<String, List<String>>();
@@ -66,7 +83,7 @@ public class ActionRegistry implements Serializable {
         if (action.getLabel() == null) {
             action.setLabel(action.getId());
         }
-        actions.put(id, action);
+        Action previous = actions.put(id, action);
         for (String category : action.getCategories()) {
             List<String> acts = categories.get(category);
             if (acts == null) {
@@ -77,6 +94,12 @@ public class ActionRegistry implements Serializable {
             }
             categories.put(category, acts);
         }
+        Set<String> changedCategories = new HashSet<String>(
+                Arrays.asList(action.getCategories()));
+        if (previous != null) {
+            changedCategories.addAll(Arrays.asList(previous.getCategories()));
+        }
+        updateIndex(changedCategories);
     }
 
     public synchronized Action removeAction(String id) {
@@ -92,45 +115,82 @@ public class ActionRegistry implements Serializable {
                     acts.remove(id);
                 }
             }
+            updateIndex(Arrays.asList(action.getCategories()));
         }
         return action;
     }
 
-    public synchronized Collection<Action> getActions() {
-        return Collections.unmodifiableCollection(sortActions(actions.values()));
+    /**
+     * Publishes new snapshots of the actions and of the given categories.
+     * Must be called with the registry lock held.
+     */
+    protected void updateIndex(Collection<String> changedCategories) {
+        actionIndex = Collections.unmodifiableMap(new HashMap<String, Action>(
+                actions));
+        Map<String, CategoryActions> index = new HashMap<String, CategoryActions>(
+                categoryIndex);
+        for (String category : changedCategories) {
+            CategoryActions categoryActions = buildCategory(category);
+            if (categoryActions == null) {
+                index.remove(category);
+            } else {
+                index.put(category, categoryActions);
+            }
+        }
+        categoryIndex = Collections.unmodifiableMap(index);
     }
 
-    public List<Action> getActions(String category) {
-        List<Action> result = new LinkedList<Action>();
-        Collection<String> ids;
-        synchronized (this) {
-            ids = categories.get(category);
-        }
-        if (ids != null) {
-            for (String id : ids) {
-                Action action = actions.get(id);
-                if (action != null && action.isEnabled()) {
-                    // UI type action compat check
-                    if (action.getType() == null) {
-                        for (TypeCompatibility compat : typeCategoryRelations) {
-                            for (String categoryCompat : compat.getCategories()) {
-                                if (StringUtils.equals(categoryCompat, category)) {
-                                    action.setType(compat.getType());
-                                }
-                            }
+    protected CategoryActions buildCategory(String category) {
+        List<String> ids = categories.get(category);
+        if (ids == null || ids.isEmpty()) {
+            return null;
+        }
+        List<Action> enabled = new ArrayList<Action>(ids.size());
+        for (String id : ids) {
+            Action action = actions.get(id);
+            // return only enabled actions
+            if (action != null && action.isEnabled()) {
+                enabled.add(action);
+            }
+        }
+        if (enabled.isEmpty()) {
+            return null;
+        }
+        Collections.sort(enabled);
+        Action[] sorted = enabled.toArray(new Action[enabled.size()]);
+        // UI type action compat check
+        String[] types = new String[sorted.length];
+        for (int i = 0; i < sorted.length; i++) {
+            if (sorted[i].getType() == null) {
+                for (TypeCompatibility compat : typeCategoryRelations) {
+                    for (String categoryCompat : compat.getCategories()) {
+                        if (StringUtils.equals(categoryCompat, category)) {
+                            types[i] = compat.getType();
                         }
                     }
-                    // return only enabled actions
-                    result.add(getClonedAction(action));
                 }
             }
         }
-        result = sortActions(result);
-        return result;
+        return new CategoryActions(sorted, types);
+    }
+
+    public Collection<Action> getActions() {
+        return Collections.unmodifiableCollection(sortActions(actionIndex.values()));
+    }
+
+    /**
+     * Returns copies of the enabled actions of the given category, sorted.
+     */
+    public List<Action> getActions(String category) {
+        CategoryActions categoryActions = categoryIndex.get(category);
+        if (categoryActions == null) {
+            return new ArrayList<Action>();
+        }
+        return categoryActions.copy();
     }
 
-    public synchronized Action getAction(String id) {
-        Action action = actions.get(id);
+    public Action getAction(String id) {
+        Action action = actionIndex.get(id);
         return getClonedAction(action);
     }
 
@@ -150,13 +210,57 @@ public class ActionRegistry implements Serializable {
         return sortedActions;
     }
 
+    /**
+     * Returns the type compatibility descriptors. Use
+     * {@link #addTypeCompatibility(TypeCompatibility)} to register a new one,
+     * so that the actions of its categories get its type.
+     */
     public List<TypeCompatibility> getTypeCategoryRelations() {
         return typeCategoryRelations;
     }
 
-    public void setTypeCategoryRelations(
+    public synchronized void setTypeCategoryRelations(
             List<TypeCompatibility> typeCategoryRelations) {
         this.typeCategoryRelations = typeCategoryRelations;
+        updateIndex(categories.keySet());
+    }
+
+    /**
+     * @since 5.7.2
+     */
+    public synchronized void addTypeCompatibility(TypeCompatibility compat) {
+        typeCategoryRelations.add(compat);
+        updateIndex(compat.getCategories());
+    }
+
+    /**
+     * The sorted enabled actions of a category, with the UI type given to
+     * the actions without type by the type compatibility descriptors.
+     */
+    protected static class CategoryActions implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        protected final Action[] actions;
+
+        protected final String[] types;
+
+        protected CategoryActions(Action[] actions, String[] types) {
+            this.actions = actions;
+            this.types = types;
+        }
+
+        protected List<Action> copy() {
+            List<Action> result = new ArrayList<Action>(actions.length);
+            for (int i = 0; i < actions.length; i++) {
+                Action action = actions[i].clone();
+                if (types[i] != null) {
+                    action.setType(types[i]);
+                }
+                result.add(action);
+            }
+            return result;
+        }
     }
 
 }
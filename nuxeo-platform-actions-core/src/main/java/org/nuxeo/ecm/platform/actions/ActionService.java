@@ -26,6 +26,8 @@ import java.util.List;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.nuxeo.ecm.platform.actions.ejb.ActionManager;
+import org.nuxeo.ecm.platform.actions.elcache.CachedJEXLManager;
+import org.nuxeo.runtime.api.Framework;
 import org.nuxeo.runtime.model.ComponentContext;
 import org.nuxeo.runtime.model.ComponentInstance;
 import org.nuxeo.runtime.model.ComponentName;
@@ -51,6 +53,27 @@ public class ActionService extends DefaultComponent implements ActionManager {
     public void activate(ComponentContext context) {
         filters = new FilterContributionHandler();
         actions = new ActionContributionHandler(filters);
+        configureExpressionCache();
+    }
+
+    /**
+     * Configures the JEXL expression cache from the runtime properties.
+     *
+     * @since 5.7.2
+     */
+    protected void configureExpressionCache() {
+        String size = Framework.getProperty(CachedJEXLManager.MAX_CACHE_SIZE_PROPERTY);
+        if (size != null) {
+            try {
+                CachedJEXLManager.setMaxCacheSize(Integer.parseInt(size.trim()));
+            } catch (IllegalArgumentException e) {
+                log.error("Invalid value for property "
+                        + CachedJEXLManager.MAX_CACHE_SIZE_PROPERTY + ": "
+                        + size);
+            }
+        }
+        CachedJEXLManager.setBatchConditions(Boolean.parseBoolean(Framework.getProperty(
+                CachedJEXLManager.BATCH_CONDITIONS_PROPERTY, "false")));
     }
 
     @Override
@@ -81,8 +104,21 @@ public class ActionService extends DefaultComponent implements ActionManager {
         return filters.getRegistry();
     }
 
+    /**
+     * Binds to the context the results of the filter rules conditions that
+     * do not need to be evaluated for each context.
+     *
+     * @since 5.7.2
+     */
+    protected void bindCompiledRules(ActionContext context) {
+        if (context != null) {
+            getFilterRegistry().getCompiledRules().bind(context);
+        }
+    }
+
     private void applyFilters(ActionContext context, List<Action> actions) {
         ActionFilterRegistry filterReg = getFilterRegistry();
+        bindCompiledRules(context);
         Iterator<Action> it = actions.iterator();
         while (it.hasNext()) {
             Action action = it.next();
@@ -162,6 +198,7 @@ public class ActionService extends DefaultComponent implements ActionManager {
         Action action = getActionRegistry().getAction(actionId);
         if (action != null) {
             ActionFilterRegistry filterReg = getFilterRegistry();
+            bindCompiledRules(context);
             if (hideUnavailableAction) {
                 if (!checkFilters(context, action, filterReg)) {
                     return null;
@@ -196,6 +233,7 @@ public class ActionService extends DefaultComponent implements ActionManager {
 
     public boolean isEnabled(Action action, ActionContext context) {
         ActionFilterRegistry filterReg = getFilterRegistry();
+        bindCompiledRules(context);
         for (String filterId : action.getFilterIds()) {
             ActionFilter filter = filterReg.getFilter(filterId);
             if (filter != null && !filter.accept(action, context)) {
@@ -231,6 +269,7 @@ public class ActionService extends DefaultComponent implements ActionManager {
         if (filter == null) {
             return false;
         }
+        bindCompiledRules(context);
         return filter.accept(null, context);
     }
 
@@ -247,7 +286,7 @@ public class ActionService extends DefaultComponent implements ActionManager {
                 filters.addContribution((DefaultActionFilter) contribution);
             }
         } else if ("typeCompatibility".equals(extensionPoint)) {
-            actions.getRegistry().getTypeCategoryRelations().add(
+            actions.getRegistry().addTypeCompatibility(
                     (TypeCompatibility) contribution);
         }
     }
@@ -0,0 +1,413 @@
+/*
+ * (C) Copyright 2013 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ */
+
+package org.nuxeo.ecm.platform.actions;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.NuxeoPrincipal;
+
+/**
+ * Rules of the registered {@link DefaultActionFilter} instances, compiled into
+ * checks shared by all the rules.
+ * <p>
+ * The facet, type, schema and group conditions of a rule only depend on the
+ * type and facets of the current document and on the groups of the current
+ * principal, so their results are kept across requests for these features,
+ * each distinct check being evaluated once whatever the number of rules using
+ * it. Only the permission and JEXL conditions of the rules are evaluated for
+ * each context.
+ * <p>
+ * Instances are immutable apart from their result cache, a new one is
+ * compiled when filters are registered or removed.
+ *
+ * @since 5.7.2
+ */
+public class CompiledFilterRules {
+
+    /**
+     * Local cache key of the static results bound to the context.
+     */
+    public static final String CONTEXT_KEY = "CompiledFilterRules";
+
+    public static final int DEFAULT_CACHE_SIZE = 1000;
+
+    protected static final int[] NO_CHECKS = new int[0];
+
+    protected final Map<FilterRule, int[]> rules = new HashMap<FilterRule, int[]>();
+
+    protected final List<StaticCheck> checks = new ArrayList<StaticCheck>();
+
+    protected final Map<StaticCheck, Integer> checkIds = new HashMap<StaticCheck, Integer>();
+
+    protected final Map<StaticKey, StaticResults> cache;
+
+    protected final AtomicLong hitCount = new AtomicLong();
+
+    protected final AtomicLong missCount = new AtomicLong();
+
+    protected CompiledFilterRules(final int cacheSize) {
+        cache = new LinkedHashMap<StaticKey, StaticResults>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<StaticKey, StaticResults> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    /**
+     * Compiles the rules of the given filters, filters that are not
+     * {@link DefaultActionFilter} instances being ignored.
+     */
+    public static CompiledFilterRules compile(
+            Collection<ActionFilter> filters, int cacheSize) {
+        CompiledFilterRules compiled = new CompiledFilterRules(cacheSize);
+        for (ActionFilter filter : filters) {
+            if (!(filter instanceof DefaultActionFilter)) {
+                continue;
+            }
+            FilterRule[] filterRules = ((DefaultActionFilter) filter).getRules();
+            if (filterRules == null) {
+                continue;
+            }
+            for (FilterRule rule : filterRules) {
+                if (rule != null) {
+                    compiled.addRule(rule);
+                }
+            }
+        }
+        return compiled;
+    }
+
+    protected void addRule(FilterRule rule) {
+        if (rules.containsKey(rule)) {
+            return;
+        }
+        List<Integer> ids = new ArrayList<Integer>(4);
+        addCheck(ids, StaticCheck.FACETS, rule.facets);
+        addCheck(ids, StaticCheck.TYPES, rule.types);
+        addCheck(ids, StaticCheck.SCHEMAS, rule.schemas);
+        addCheck(ids, StaticCheck.GROUPS, rule.groups);
+        int[] array = NO_CHECKS;
+        if (!ids.isEmpty()) {
+            array = new int[ids.size()];
+            for (int i = 0; i < array.length; i++) {
+                array[i] = ids.get(i).intValue();
+            }
+        }
+        rules.put(rule, array);
+    }
+
+    protected void addCheck(List<Integer> ids, int kind, String[] values) {
+        if (values == null || values.length == 0) {
+            return;
+        }
+        StaticCheck check = new StaticCheck(kind, values);
+        Integer id = checkIds.get(check);
+        if (id == null) {
+            id = Integer.valueOf(checks.size());
+            checks.add(check);
+            checkIds.put(check, id);
+        }
+        ids.add(id);
+    }
+
+    public int getRuleCount() {
+        return rules.size();
+    }
+
+    public int getCheckCount() {
+        return checks.size();
+    }
+
+    public int getCacheSize() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    public long getCacheHitCount() {
+        return hitCount.get();
+    }
+
+    public long getCacheMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * Binds to the given context the static results for its document and
+     * principal, unless already done.
+     */
+    public void bind(ActionContext context) {
+        if (context == null) {
+            return;
+        }
+        Object bound = context.getLocalCacheValue(CONTEXT_KEY);
+        if (bound instanceof Binding
+                && ((Binding) bound).compiled == this
+                && ((Binding) bound).isBoundTo(context)) {
+            return;
+        }
+        DocumentModel doc = context.getCurrentDocument();
+        NuxeoPrincipal principal = context.getCurrentPrincipal();
+        StaticKey key = new StaticKey(doc, principal);
+        StaticResults results;
+        synchronized (cache) {
+            results = cache.get(key);
+            if (results == null) {
+                results = new StaticResults(checks.size());
+                cache.put(key, results);
+                missCount.incrementAndGet();
+            } else {
+                hitCount.incrementAndGet();
+            }
+        }
+        context.putLocalCacheValue(CONTEXT_KEY, new Binding(this, results,
+                doc, principal));
+    }
+
+    /**
+     * Returns the result of the facet, type, schema and group conditions of
+     * the rule for the given context, or null if no compiled rules are bound
+     * to the context or if they don't know the rule.
+     */
+    public static Boolean checkStatic(FilterRule rule, ActionContext context) {
+        Object bound = context.getLocalCacheValue(CONTEXT_KEY);
+        if (!(bound instanceof Binding)) {
+            return null;
+        }
+        Binding binding = (Binding) bound;
+        if (!binding.isBoundTo(context)) {
+            // document or principal changed since binding
+            return null;
+        }
+        return binding.check(rule);
+    }
+
+    /**
+     * The features of the document and principal the static conditions
+     * depend on.
+     */
+    protected static class StaticKey {
+
+        protected final String type;
+
+        protected final List<String> facets;
+
+        protected final List<String> groups;
+
+        protected final int hash;
+
+        protected StaticKey(DocumentModel doc, NuxeoPrincipal principal) {
+            type = doc == null ? null : doc.getType();
+            facets = doc == null ? Collections.<String> emptyList()
+                    : sorted(doc.getFacets());
+            groups = principal == null ? Collections.<String> emptyList()
+                    : sorted(principal.getAllGroups());
+            int h = type == null ? 0 : type.hashCode();
+            h = 31 * h + facets.hashCode();
+            hash = 31 * h + groups.hashCode();
+        }
+
+        protected static List<String> sorted(Collection<String> values) {
+            if (values == null || values.isEmpty()) {
+                return Collections.emptyList();
+            }
+            List<String> list = new ArrayList<String>(values);
+            Collections.sort(list);
+            return list;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj == this) {
+                return true;
+            }
+            if (!(obj instanceof StaticKey)) {
+                return false;
+            }
+            StaticKey other = (StaticKey) obj;
+            return hash == other.hash
+                    && (type == null ? other.type == null
+                            : type.equals(other.type))
+                    && facets.equals(other.facets)
+                    && groups.equals(other.groups);
+        }
+    }
+
+    /**
+     * Results of the checks for a given key, computed on first use.
+     */
+    protected static class StaticResults {
+
+        protected final BitSet computed;
+
+        protected final BitSet values;
+
+        protected StaticResults(int size) {
+            computed = new BitSet(size);
+            values = new BitSet(size);
+        }
+
+        protected synchronized boolean check(int id, StaticCheck check,
+                DocumentModel doc, NuxeoPrincipal principal) {
+            if (!computed.get(id)) {
+                values.set(id, check.evaluate(doc, principal));
+                computed.set(id);
+            }
+            return values.get(id);
+        }
+    }
+
+    /**
+     * The static results bound to a context.
+     */
+    protected static class Binding {
+
+        protected final CompiledFilterRules compiled;
+
+        protected final StaticResults results;
+
+        protected final DocumentModel doc;
+
+        protected final NuxeoPrincipal principal;
+
+        protected Binding(CompiledFilterRules compiled, StaticResults results,
+                DocumentModel doc, NuxeoPrincipal principal) {
+            this.compiled = compiled;
+            this.results = results;
+            this.doc = doc;
+            this.principal = principal;
+        }
+
+        protected boolean isBoundTo(ActionContext context) {
+            return doc == context.getCurrentDocument()
+                    && principal == context.getCurrentPrincipal();
+        }
+
+        protected Boolean check(FilterRule rule) {
+            int[] ids = compiled.rules.get(rule);
+            if (ids == null) {
+                return null;
+            }
+            for (int id : ids) {
+                if (!results.check(id, compiled.checks.get(id), doc,
+                        principal)) {
+                    return Boolean.FALSE;
+                }
+            }
+            return Boolean.TRUE;
+        }
+    }
+
+    /**
+     * A facet, type, schema or group condition, true if one of its values
+     * matches.
+     */
+    protected static class StaticCheck {
+
+        protected static final int FACETS = 0;
+
+        protected static final int TYPES = 1;
+
+        protected static final int SCHEMAS = 2;
+
+        protected static final int GROUPS = 3;
+
+        protected final int kind;
+
+        protected final String[] values;
+
+        protected StaticCheck(int kind, String[] values) {
+            this.kind = kind;
+            this.values = values.clone();
+            Arrays.sort(this.values);
+        }
+
+        protected boolean evaluate(DocumentModel doc, NuxeoPrincipal principal) {
+            switch (kind) {
+            case FACETS:
+                if (doc != null) {
+                    for (String facet : values) {
+                        if (doc.hasFacet(facet)) {
+                            return true;
+                        }
+                    }
+                }
+                return false;
+            case TYPES:
+                // no document: consider we're on the Server root
+                String docType = doc == null ? "Root" : doc.getType();
+                return Arrays.binarySearch(values, docType) >= 0;
+            case SCHEMAS:
+                if (doc != null) {
+                    for (String schema : values) {
+                        if (doc.hasSchema(schema)) {
+                            return true;
+                        }
+                    }
+                }
+                return false;
+            default:
+                if (principal != null) {
+                    for (String group : values) {
+                        if (principal.isMemberOf(group)) {
+                            return true;
+                        }
+                    }
+                }
+                return false;
+            }
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * kind + Arrays.hashCode(values);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj == this) {
+                return true;
+            }
+            if (!(obj instanceof StaticCheck)) {
+                return false;
+            }
+            StaticCheck other = (StaticCheck) obj;
+            return kind == other.kind && Arrays.equals(values, other.values);
+        }
+    }
+
+}
@@ -133,7 +133,22 @@ public class DefaultActionFilter implements ActionFilter, Cloneable {
             return precomputed.get(rule);
         }
         // compute filter result
-        boolean result = (rule.facets == null || rule.facets.length == 0 || checkFacets(
+        boolean result;
+        Boolean staticResult = CompiledFilterRules.checkStatic(rule, context);
+        if (staticResult != null) {
+            // facets, types, schemas and groups already resolved for the
+            // document and principal of the context
+            result = staticResult.booleanValue()
+                    && (rule.permissions == null
+                            || rule.permissions.length == 0 || checkPermissions(
+                                context, rule.permissions))
+                    && (rule.conditions == null
+                            || rule.conditions.length == 0 || checkRuleConditions(
+                                context, rule));
+            precomputed.put(rule, Boolean.valueOf(result));
+            return result;
+        }
+        result = (rule.facets == null || rule.facets.length == 0 || checkFacets(
                 context, rule.facets))
                 && (rule.types == null || rule.types.length == 0 || checkTypes(
                         context, rule.types))
@@ -143,13 +158,27 @@ public class DefaultActionFilter implements ActionFilter, Cloneable {
                         context, rule.permissions))
                 && (rule.groups == null || rule.groups.length == 0 || checkGroups(
                         context, rule.groups))
-                && (rule.conditions == null || rule.conditions.length == 0 || checkConditions(
-                        context, rule.conditions));
+                && (rule.conditions == null || rule.conditions.length == 0 || checkRuleConditions(
+                        context, rule));
         // put in cache
         precomputed.put(rule, Boolean.valueOf(result));
         return result;
     }
 
+    /**
+     * Evaluates the conditions of the rule one by one, or as a single
+     * expression if {@link CachedJEXLManager#isBatchConditions()}.
+     *
+     * @since 5.7.2
+     */
+    protected final boolean checkRuleConditions(ActionContext context,
+            FilterRule rule) {
+        if (CachedJEXLManager.isBatchConditions() && rule.conditions.length > 1) {
+            return checkBatchCondition(context, rule);
+        }
+        return checkConditions(context, rule.conditions);
+    }
+
     /**
      * Returns true if document has one of the given facets, else false.
      *
@@ -194,16 +223,8 @@ public class DefaultActionFilter implements ActionFilter, Cloneable {
         if (docMgr == null) {
             return false;
         }
-        for (String permission : permissions) {
-            try {
-                if (docMgr.hasPermission(doc.getRef(), permission)) {
-                    return true;
-                }
-            } catch (Exception e) {
-                log.error(e, e);
-            }
-        }
-        return false;
+        // permissions already checked for this document are not asked again
+        return PermissionSnapshot.get(context).hasOnePermission(permissions);
     }
 
     protected final boolean checkGroups(ActionContext context, String[] groups) {
@@ -219,6 +240,14 @@ public class DefaultActionFilter implements ActionFilter, Cloneable {
         return false;
     }
 
+    /**
+     * Local cache key of the JEXL context reused by the conditions evaluated
+     * against an action context.
+     *
+     * @since 5.7.2
+     */
+    protected static final String CONDITION_CONTEXT_KEY = "ConditionContext";
+
     /**
      * Returns true if one of the conditions is verified, else false.
      * <p>
@@ -228,25 +257,11 @@ public class DefaultActionFilter implements ActionFilter, Cloneable {
      */
     protected final boolean checkConditions(ActionContext context,
             String[] conditions) {
-        DocumentModel doc = context.getCurrentDocument();
-        NuxeoPrincipal currentPrincipal = context.getCurrentPrincipal();
-
+        Context ctx = getConditionContext(context);
+        ActionContextVariables vars = (ActionContextVariables) ctx.getVars();
         for (String condition : conditions) {
             try {
                 JexlExpression exp = CachedJEXLManager.getExpression(condition);
-                Context ctx = new Context();
-                ctx.put("document", doc);
-                ctx.put("principal", currentPrincipal);
-                // aliases for consistency with seam variables, available since
-                // 5.5
-                ctx.put("currentDocument", doc);
-                ctx.put("currentUser", currentPrincipal);
-                // get custom context from ActionContext
-                for (String key : context.keySet()) {
-                    ctx.put(key, context.get(key));
-                }
-                ctx.put("SeamContext", context.get("SeamContext"));
-
                 Object eval = exp.eval(ctx);
                 if (eval == null) {
                     log.error("evaluation of condition " + condition
@@ -258,11 +273,52 @@ public class DefaultActionFilter implements ActionFilter, Cloneable {
                 log.error("evaluation of condition " + condition
                         + " failed: returning false", e);
                 return false;
+            } finally {
+                vars.reset();
             }
         }
         return false;
     }
 
+    /**
+     * Returns true if the conditions of the rule, joined as a single
+     * expression, are verified, else false.
+     *
+     * @since 5.7.2
+     */
+    protected final boolean checkBatchCondition(ActionContext context,
+            FilterRule rule) {
+        String condition = rule.getBatchCondition();
+        Context ctx = getConditionContext(context);
+        try {
+            JexlExpression exp = CachedJEXLManager.getExpression(condition);
+            return Boolean.TRUE.equals(exp.eval(ctx));
+        } catch (Exception e) {
+            log.error("evaluation of condition " + condition
+                    + " failed: returning false", e);
+            return false;
+        } finally {
+            ((ActionContextVariables) ctx.getVars()).reset();
+        }
+    }
+
+    /**
+     * Returns the JEXL context reading through the given action context,
+     * created on first use and kept in the local cache of the action context.
+     *
+     * @since 5.7.2
+     */
+    protected static Context getConditionContext(ActionContext context) {
+        Object ctx = context.getLocalCacheValue(CONDITION_CONTEXT_KEY);
+        if (ctx instanceof Context
+                && ((Context) ctx).getVars() instanceof ActionContextVariables) {
+            return (Context) ctx;
+        }
+        Context newCtx = new Context(new ActionContextVariables(context));
+        context.putLocalCacheValue(CONDITION_CONTEXT_KEY, newCtx);
+        return newCtx;
+    }
+
     /**
      * Returns true if document type is one of the given types, else false.
      * <p>
@@ -55,6 +55,8 @@ public class FilterRule {
 
     protected String cacheKey;
 
+    protected String batchCondition;
+
     public FilterRule() {
     }
 
@@ -157,6 +159,28 @@ public class FilterRule {
         return cacheKey;
     }
 
+    /**
+     * Returns the conditions of the rule joined as a single expression, true
+     * if one of them is.
+     *
+     * @since 5.7.2
+     */
+    public String getBatchCondition() {
+        if (batchCondition == null && conditions != null) {
+            StringBuilder sb = new StringBuilder();
+            for (String cond : conditions) {
+                if (sb.length() > 0) {
+                    sb.append(" || ");
+                }
+                sb.append('(');
+                sb.append(cond.trim());
+                sb.append(')');
+            }
+            batchCondition = sb.toString();
+        }
+        return batchCondition;
+    }
+
     @Override
     public String toString() {
         return getCacheKey();
@@ -0,0 +1,119 @@
+/*
+ * (C) Copyright 2013 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ */
+
+package org.nuxeo.ecm.platform.actions;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.DocumentModel;
+
+/**
+ * Permissions granted on the current document of an {@link ActionContext},
+ * each permission being checked against the core session once whatever the
+ * number of filters and rules referencing it.
+ * <p>
+ * The snapshot is kept in the action context and dropped as soon as the
+ * current document or session of the context changes.
+ *
+ * @since 5.7.2
+ */
+public class PermissionSnapshot {
+
+    private static final Log log = LogFactory.getLog(PermissionSnapshot.class);
+
+    /**
+     * Local cache key of the snapshot of the context.
+     */
+    public static final String CONTEXT_KEY = "PermissionSnapshot";
+
+    protected final DocumentModel doc;
+
+    protected final CoreSession session;
+
+    protected final Map<String, Boolean> granted = new HashMap<String, Boolean>();
+
+    protected int checkCount;
+
+    protected PermissionSnapshot(DocumentModel doc, CoreSession session) {
+        this.doc = doc;
+        this.session = session;
+    }
+
+    /**
+     * Returns the snapshot for the current document and session of the
+     * context, creating it if needed.
+     * <p>
+     * The context must hold a document and a session.
+     */
+    public static PermissionSnapshot get(ActionContext context) {
+        DocumentModel doc = context.getCurrentDocument();
+        CoreSession session = context.getDocumentManager();
+        Object bound = context.getLocalCacheValue(CONTEXT_KEY);
+        if (bound instanceof PermissionSnapshot
+                && ((PermissionSnapshot) bound).doc == doc
+                && ((PermissionSnapshot) bound).session == session) {
+            return (PermissionSnapshot) bound;
+        }
+        PermissionSnapshot snapshot = new PermissionSnapshot(doc, session);
+        context.putLocalCacheValue(CONTEXT_KEY, snapshot);
+        return snapshot;
+    }
+
+    /**
+     * Returns true if the permission is granted on the document, false if not
+     * or if it cannot be checked.
+     */
+    public boolean hasPermission(String permission) {
+        Boolean value = granted.get(permission);
+        if (value == null) {
+            checkCount++;
+            try {
+                value = Boolean.valueOf(session.hasPermission(doc.getRef(),
+                        permission));
+            } catch (Exception e) {
+                log.error(e, e);
+                value = Boolean.FALSE;
+            }
+            granted.put(permission, value);
+        }
+        return value.booleanValue();
+    }
+
+    /**
+     * Returns true if one of the permissions is granted on the document.
+     */
+    public boolean hasOnePermission(String[] permissions) {
+        for (String permission : permissions) {
+            if (hasPermission(permission)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the number of permissions checked against the session.
+     */
+    public int getCheckCount() {
+        return checkCount;
+    }
+
+}
@@ -19,8 +19,9 @@
 
 package org.nuxeo.ecm.platform.actions.elcache;
 
-import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class CachedJEXLManager {
 
@@ -28,7 +29,35 @@ public class CachedJEXLManager {
 
     public static boolean useCache = true;
 
-    private static final Map<String, JexlExpression> expCache = new ConcurrentHashMap<String, JexlExpression>();
+    /**
+     * Runtime property holding the maximum number of cached expressions.
+     *
+     * @since 5.7.2
+     */
+    public static final String MAX_CACHE_SIZE_PROPERTY = "org.nuxeo.ecm.platform.actions.jexl.cacheSize";
+
+    /**
+     * Runtime property enabling the evaluation of the conditions of a filter
+     * rule as a single expression.
+     *
+     * @since 5.7.2
+     */
+    public static final String BATCH_CONDITIONS_PROPERTY = "org.nuxeo.ecm.platform.actions.jexl.batchConditions";
+
+    /**
+     * @since 5.7.2
+     */
+    public static final int DEFAULT_MAX_CACHE_SIZE = 1000;
+
+    private static volatile int maxCacheSize = DEFAULT_MAX_CACHE_SIZE;
+
+    private static volatile boolean batchConditions = false;
+
+    private static final ConcurrentMap<String, JexlExpression> expCache = new ConcurrentHashMap<String, JexlExpression>();
+
+    private static final AtomicLong hitCount = new AtomicLong();
+
+    private static final AtomicLong missCount = new AtomicLong();
 
     public static JexlExpression getExpression(String elString)
             throws Exception {
@@ -36,18 +65,99 @@ public class CachedJEXLManager {
             return new JexlExpression(elString);
         }
 
-        JexlExpression exp = expCache.get(elString);
+        // surrounding blanks don't change the expression
+        String key = elString.trim();
+        JexlExpression exp = expCache.get(key);
 
         if (exp == null) {
+            missCount.incrementAndGet();
             if (enforceThreadSafe) {
-                exp = new ThreadSafeJexlExpression(elString);
+                exp = new ThreadSafeJexlExpression(key);
             } else {
-                exp = new JexlExpression(elString);
+                exp = new JexlExpression(key);
             }
-            expCache.put(elString, exp);
+            if (expCache.size() >= maxCacheSize) {
+                // approximate bound: the expressions in use are compiled
+                // again on next access
+                expCache.clear();
+            }
+            expCache.put(key, exp);
+        } else {
+            hitCount.incrementAndGet();
         }
 
         return exp;
     }
 
+    /**
+     * Returns the maximum number of cached expressions, the cache being
+     * cleared when it is reached.
+     *
+     * @since 5.7.2
+     */
+    public static int getMaxCacheSize() {
+        return maxCacheSize;
+    }
+
+    /**
+     * @since 5.7.2
+     */
+    public static void setMaxCacheSize(int maxCacheSize) {
+        if (maxCacheSize <= 0) {
+            throw new IllegalArgumentException("Invalid cache size: "
+                    + maxCacheSize);
+        }
+        CachedJEXLManager.maxCacheSize = maxCacheSize;
+    }
+
+    /**
+     * Returns true if all the conditions of a filter rule are evaluated as a
+     * single expression joining them with "||". A condition failing to
+     * evaluate then makes the whole rule fail.
+     *
+     * @since 5.7.2
+     */
+    public static boolean isBatchConditions() {
+        return batchConditions;
+    }
+
+    /**
+     * @since 5.7.2
+     */
+    public static void setBatchConditions(boolean batchConditions) {
+        CachedJEXLManager.batchConditions = batchConditions;
+    }
+
+    /**
+     * @since 5.7.2
+     */
+    public static int getCacheSize() {
+        return expCache.size();
+    }
+
+    /**
+     * @since 5.7.2
+     */
+    public static long getCacheHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * @since 5.7.2
+     */
+    public static long getCacheMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * Drops the cached expressions and resets the statistics.
+     *
+     * @since 5.7.2
+     */
+    public static void clearCache() {
+        expCache.clear();
+        hitCount.set(0);
+        missCount.set(0);
+    }
+
 }
@@ -46,6 +46,11 @@ public final class MockDocumentModel extends DocumentModelImpl {
         return facets;
     }
 
+    @Override
+    public Set<String> getFacets() {
+        return facets;
+    }
+
     @Override
     public String getId() {
         return "My Document ID";
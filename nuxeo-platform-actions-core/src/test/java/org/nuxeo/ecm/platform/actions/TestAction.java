@@ -415,6 +415,49 @@ public class TestAction extends NXRuntimeTestCase {
         assertEquals("id2", actions.get(1).getId());
     }
 
+    @Test
+    public void testCategoryIndex() {
+        ActionRegistry registry = new ActionRegistry();
+        Action a1 = new Action("a1", new String[] { "cat" });
+        a1.setOrder(20);
+        Action a2 = new Action("a2", new String[] { "cat", "other" });
+        a2.setOrder(10);
+        registry.addAction(a1);
+        registry.addAction(a2);
+        List<Action> actions = registry.getActions("cat");
+        assertEquals(2, actions.size());
+        assertEquals("a2", actions.get(0).getId());
+        assertEquals("a1", actions.get(1).getId());
+        assertEquals(0, registry.getActions("unknown").size());
+
+        // results are copies
+        actions.remove(0);
+        actions.get(0).setAvailable(false);
+        actions = registry.getActions("cat");
+        assertEquals(2, actions.size());
+        assertTrue(actions.get(1).getAvailable());
+
+        // type compatibility applies to the registered categories
+        TypeCompatibility compat = new TypeCompatibility();
+        compat.setType("link");
+        compat.setCategories(Collections.singletonList("other"));
+        registry.addTypeCompatibility(compat);
+        assertEquals("link", registry.getActions("other").get(0).getType());
+        assertNull(registry.getActions("cat").get(0).getType());
+
+        // disabled and removed actions are dropped
+        Action disabled = new Action("a1", new String[] { "cat" });
+        disabled.setEnabled(false);
+        registry.addAction(disabled);
+        actions = registry.getActions("cat");
+        assertEquals(1, actions.size());
+        assertEquals("a2", actions.get(0).getId());
+        registry.removeAction("a2");
+        assertEquals(0, registry.getActions("cat").size());
+        assertEquals(0, registry.getActions("other").size());
+        assertNotNull(registry.getAction("a1"));
+    }
+
     /**
      * NXP-8739: test that after an action is cloned, availability set on it
      * does not impact the action used on service
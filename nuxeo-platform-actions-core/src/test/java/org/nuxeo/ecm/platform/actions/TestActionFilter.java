@@ -22,12 +22,22 @@ package org.nuxeo.ecm.platform.actions;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 import org.junit.Before;
 import org.junit.Test;
+import org.nuxeo.ecm.core.api.CoreSession;
 import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.platform.actions.elcache.CachedJEXLManager;
 import org.nuxeo.runtime.test.NXRuntimeTestCase;
 
 /**
@@ -206,6 +216,153 @@ public class TestActionFilter extends NXRuntimeTestCase {
         assertNotNull(precomputed);
     }
 
+    @Test
+    public void testCompiledRules() throws Exception {
+        CompiledFilterRules compiled = as.getFilterRegistry().getCompiledRules();
+        assertTrue(compiled.getRuleCount() > 0);
+        // equal type checks of distinct filters are shared
+        assertTrue(compiled.getCheckCount() < compiled.getRuleCount());
+
+        ActionContext context = getActionContext(new MockDocumentModel(
+                "Workspace", new String[0]));
+        assertTrue(as.checkFilter("WorkspaceOrSection", context));
+        assertTrue(context.getLocalCacheValue(CompiledFilterRules.CONTEXT_KEY) != null);
+        assertFalse(context.containsKey(CompiledFilterRules.CONTEXT_KEY));
+        assertEquals(1, compiled.getCacheMissCount());
+
+        // another document with the same type and facets reuses the results
+        context = getActionContext(new MockDocumentModel("Workspace",
+                new String[0]));
+        assertTrue(as.checkFilter("WorkspaceOrSection", context));
+        assertFalse(as.checkFilter("WorkspaceOrSectionFolderish", context));
+        assertEquals(1, compiled.getCacheHitCount());
+        assertEquals(1, compiled.getCacheSize());
+
+        context = getActionContext(new MockDocumentModel("Workspace",
+                new String[] { "Folderish" }));
+        assertTrue(as.checkFilter("WorkspaceOrSectionFolderish", context));
+        assertFalse(as.checkFilter("NotFolderish", context));
+        context = getActionContext(new MockDocumentModel("File",
+                new String[0]));
+        assertFalse(as.checkFilter("WorkspaceOrSection", context));
+        assertEquals(3, compiled.getCacheSize());
+
+        // registering filters compiles the rules again
+        deployContrib("org.nuxeo.ecm.actions.tests", "test-actions-contrib.xml");
+        assertNotSame(compiled, as.getFilterRegistry().getCompiledRules());
+    }
+
+    @Test
+    public void testConditionContext() throws Exception {
+        FilterRule rule = new FilterRule(true, null, null, new String[] {
+                "document.getType() == 'File'", "foo == 'bar'" }, null, null);
+        DefaultActionFilter filter = new DefaultActionFilter("conditions",
+                new FilterRule[] { rule });
+        Action action = new Action();
+
+        ActionContext context = getActionContext(new MockDocumentModel(
+                "Workspace", new String[0]));
+        assertFalse(filter.accept(action, context));
+        // variables of the action context are read without copy
+        context = getActionContext(new MockDocumentModel("Workspace",
+                new String[0]));
+        context.put("foo", "bar");
+        assertTrue(filter.accept(action, context));
+        assertNotNull(context.getLocalCacheValue(DefaultActionFilter.CONDITION_CONTEXT_KEY));
+        // not exposed as a context variable
+        assertFalse(context.containsKey(DefaultActionFilter.CONDITION_CONTEXT_KEY));
+        assertEquals(1, context.size());
+
+        ActionContextVariables vars = new ActionContextVariables(context);
+        assertEquals("bar", vars.get("foo"));
+        assertEquals(context.getCurrentDocument(), vars.get("currentDocument"));
+        vars.put("foo", "baz");
+        assertEquals("baz", vars.get("foo"));
+        assertEquals("bar", context.get("foo"));
+        vars.reset();
+        assertEquals("bar", vars.get("foo"));
+
+        assertEquals(
+                "(document.getType() == 'File') || (foo == 'bar')",
+                rule.getBatchCondition());
+        CachedJEXLManager.setBatchConditions(true);
+        try {
+            context = getActionContext(new MockDocumentModel("File",
+                    new String[0]));
+            assertTrue(filter.accept(action, context));
+            context = getActionContext(new MockDocumentModel("Workspace",
+                    new String[0]));
+            assertFalse(filter.accept(action, context));
+        } finally {
+            CachedJEXLManager.setBatchConditions(false);
+        }
+    }
+
+    @Test
+    public void testExpressionCache() throws Exception {
+        int maxCacheSize = CachedJEXLManager.getMaxCacheSize();
+        CachedJEXLManager.clearCache();
+        CachedJEXLManager.setMaxCacheSize(2);
+        try {
+            CachedJEXLManager.getExpression("1 == 1");
+            CachedJEXLManager.getExpression(" 1 == 1 ");
+            assertEquals(1, CachedJEXLManager.getCacheMissCount());
+            assertEquals(1, CachedJEXLManager.getCacheHitCount());
+            CachedJEXLManager.getExpression("1 == 2");
+            assertEquals(2, CachedJEXLManager.getCacheSize());
+            // the cache is cleared when full
+            CachedJEXLManager.getExpression("1 == 3");
+            assertEquals(1, CachedJEXLManager.getCacheSize());
+        } finally {
+            CachedJEXLManager.setMaxCacheSize(maxCacheSize);
+            CachedJEXLManager.clearCache();
+        }
+    }
+
+    @Test
+    public void testPermissionSnapshot() throws Exception {
+        final List<String> checked = new ArrayList<String>();
+        CoreSession session = (CoreSession) Proxy.newProxyInstance(
+                getClass().getClassLoader(),
+                new Class<?>[] { CoreSession.class }, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method,
+                            Object[] args) {
+                        if (!"hasPermission".equals(method.getName())) {
+                            throw new UnsupportedOperationException(
+                                    method.getName());
+                        }
+                        String permission = (String) args[args.length - 1];
+                        checked.add(permission);
+                        return Boolean.valueOf("Read".equals(permission));
+                    }
+                });
+        DefaultActionFilter canWrite = new DefaultActionFilter("canWrite",
+                new FilterRule[] { new FilterRule(true,
+                        new String[] { "Write" }, null, null, null, null) });
+        DefaultActionFilter canReadOrWrite = new DefaultActionFilter(
+                "canReadOrWrite", new FilterRule[] { new FilterRule(true,
+                        new String[] { "Write", "Read" }, null, null, null,
+                        null) });
+        Action action = new Action();
+
+        ActionContext context = getActionContext(new MockDocumentModel(
+                "Workspace", new String[0]));
+        context.setDocumentManager(session);
+        assertFalse(canWrite.accept(action, context));
+        assertTrue(canReadOrWrite.accept(action, context));
+        // each permission is checked once for the document
+        assertEquals(Arrays.asList("Write", "Read"), checked);
+        assertEquals(2, PermissionSnapshot.get(context).getCheckCount());
+
+        // another document gets a new snapshot
+        context.setCurrentDocument(new MockDocumentModel("Workspace",
+                new String[0]));
+        context.remove(DefaultActionFilter.PRECOMPUTED_KEY);
+        assertFalse(canWrite.accept(action, context));
+        assertEquals(3, checked.size());
+    }
+
     @Test
     public void testGroupFilter() {
         ActionFilter filter = getFilter("GroupFilter");
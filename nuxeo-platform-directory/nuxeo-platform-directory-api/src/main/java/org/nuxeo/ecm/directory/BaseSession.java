@@ -163,6 +163,56 @@ public abstract class BaseSession implements Session {
         return String.format(MULTI_TENANT_ID_FORMAT, tenantId, id);
     }
 
+    /**
+     * Maps each of the given ids to its entry, matching entry ids exactly or
+     * else case insensitively as some backends do. Ids without matching entry
+     * are not present in the returned map.
+     *
+     * @since 5.7.2
+     */
+    public static Map<String, DocumentModel> mapEntriesToIds(
+            Collection<String> ids, Collection<DocumentModel> entries) {
+        Map<String, DocumentModel> byId = new HashMap<String, DocumentModel>();
+        Map<String, DocumentModel> byLowerCaseId = new HashMap<String, DocumentModel>();
+        for (DocumentModel entry : entries) {
+            String entryId = entry.getId();
+            if (entryId != null) {
+                byId.put(entryId, entry);
+                byLowerCaseId.put(entryId.toLowerCase(), entry);
+            }
+        }
+        Map<String, DocumentModel> result = new HashMap<String, DocumentModel>();
+        for (String id : ids) {
+            DocumentModel entry = byId.get(id);
+            if (entry == null && id != null) {
+                entry = byLowerCaseId.get(id.toLowerCase());
+            }
+            if (entry != null) {
+                result.put(id, entry);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Default implementation fetching the entries one at a time, to be
+     * overridden by sessions able to fetch several entries at once.
+     *
+     * @since 5.7.2
+     */
+    @Override
+    public DocumentModelList getEntries(Collection<String> ids,
+            boolean fetchReferences) throws DirectoryException {
+        DocumentModelList entries = new DocumentModelListImpl();
+        for (String id : new LinkedHashSet<String>(ids)) {
+            DocumentModel entry = getEntry(id, fetchReferences);
+            if (entry != null) {
+                entries.add(entry);
+            }
+        }
+        return entries;
+    }
+
     @Override
     public DocumentModelList query(Map<String, Serializable> filter,
                                    Set<String> fulltext, Map<String, String> orderBy,
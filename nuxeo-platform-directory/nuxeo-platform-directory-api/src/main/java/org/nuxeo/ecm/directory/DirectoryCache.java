@@ -1,5 +1,5 @@
 /*
- * (C) Copyright 2007 Nuxeo SAS (http://nuxeo.com/) and contributors.
+ * (C) Copyright 2007-2013 Nuxeo SA (http://nuxeo.com/) and contributors.
  *
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the GNU Lesser General Public License
@@ -18,44 +18,127 @@
 
 package org.nuxeo.ecm.directory;
 
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Calendar;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.DocumentModelList;
+import org.nuxeo.ecm.core.api.impl.DocumentModelListImpl;
 
 /**
- * Very simple cache system to cache directory entry lookups (not search
- * queries).
+ * Cache of directory entry lookups (not search queries).
+ * <p>
+ * Entries are held in lock-striped LRU segments: each segment is guarded by
+ * its own lock so that concurrent lookups of different ids rarely contend, and
+ * once a segment is full only its least recently used entry is evicted.
+ * Expiration is based on {@link System#nanoTime()}.
+ * <p>
+ * Ids that could not be found in the source are remembered in a separate
+ * negative tier, with its own size bound and (usually shorter) time out, so
+ * that repeated lookups or existence checks of missing ids do not hit the
+ * backend. As entry lookups may be filtered (by tenant or read permission),
+ * an id is only remembered once the unfiltered existence check of the source
+ * confirms it is missing, the negative tier being shared by all users.
+ * <p>
+ * Hit, miss, eviction and load time counters are maintained and exposed
+ * through {@link DirectoryCacheMBean}.
  * <p>
  * Beware that this cache is not transaction aware (which is not a problem for
  * LDAP directories anyway).
- * <p>
- * If we want to implement a smarter caching strategy we might prefer to base it
- * on jboss-cache instead of reinventing the wheel.
  *
  * @author Olivier Grisel <ogrisel@nuxeo.com>
  */
-public class DirectoryCache {
+public class DirectoryCache implements DirectoryCacheMBean {
+
+    /**
+     * Maximum number of lock stripes, the actual number is lowered for small
+     * caches so that the global bound is honored.
+     */
+    protected static final int MAX_SEGMENTS = 16;
 
-    protected final Map<String, CachedEntry> entryStore = new HashMap<String, CachedEntry>();
+    /**
+     * Minimum number of entries per lock stripe, so that small caches keep an
+     * exact LRU order.
+     */
+    protected static final int MIN_SEGMENT_CAPACITY = 64;
 
-    protected final Map<String, CachedEntry> entryStoreWithoutReferences = new HashMap<String, CachedEntry>();
+    protected volatile EntryStore entryStore = new EntryStore(0);
+
+    protected volatile EntryStore entryStoreWithoutReferences = new EntryStore(
+            0);
+
+    protected volatile EntryStore negativeStore = new EntryStore(0);
 
     // time out in seconds an entry is kept in cache, entryCacheTimeout <= 0
     // means entries are kept in cache till manual invalidation
-    protected int timeout = 0;
+    protected volatile int timeout = 0;
 
     // maximum number of entries kept in cache, entryCacheMaxSize <= 0 means
-    // cache disabled; if the limit is reached, all entries get invalidated
-    protected int maxSize = 0;
+    // cache disabled; if the limit is reached, least recently used entries
+    // get evicted
+    protected volatile int maxSize = 0;
+
+    // time out in seconds a missing id is remembered, <= 0 means till manual
+    // invalidation
+    protected volatile int negativeTimeout = 0;
+
+    // maximum number of missing ids remembered, <= 0 means negative caching
+    // disabled
+    protected volatile int negativeMaxSize = 0;
+
+    protected final AtomicLong hitCount = new AtomicLong();
+
+    protected final AtomicLong negativeHitCount = new AtomicLong();
+
+    protected final AtomicLong missCount = new AtomicLong();
+
+    protected final AtomicLong evictionCount = new AtomicLong();
+
+    protected final AtomicLong loadCount = new AtomicLong();
+
+    protected final AtomicLong loadTime = new AtomicLong();
 
     protected boolean isCacheEnabled() {
         return maxSize > 0;
     }
 
+    protected boolean isNegativeCacheEnabled() {
+        return negativeMaxSize > 0;
+    }
+
+    protected boolean isKnownMissing(String entryId) {
+        if (isNegativeCacheEnabled() && negativeStore.get(entryId) != null) {
+            negativeHitCount.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    protected void rememberMissing(String entryId) {
+        if (isNegativeCacheEnabled()) {
+            negativeStore.put(entryId, new CachedEntry(null, negativeTimeout));
+        }
+    }
+
+    /**
+     * Remembers an id not returned by a (possibly filtered) entry lookup, if
+     * the entry is not in the source at all.
+     */
+    protected void rememberMissing(String entryId, EntrySource source)
+            throws DirectoryException {
+        if (isNegativeCacheEnabled() && !source.hasEntryInSource(entryId)) {
+            rememberMissing(entryId);
+        }
+    }
+
     public DocumentModel getEntry(String entryId, EntrySource source)
             throws DirectoryException {
         return getEntry(entryId, source, true);
@@ -63,48 +146,148 @@ public class DirectoryCache {
 
     public DocumentModel getEntry(String entryId, EntrySource source,
             boolean fetchReferences) throws DirectoryException {
+        if (isKnownMissing(entryId)) {
+            return null;
+        }
         if (!isCacheEnabled()) {
-            return source.getEntryFromSource(entryId, fetchReferences);
+            DocumentModel dm = source.getEntryFromSource(entryId,
+                    fetchReferences);
+            if (dm == null) {
+                rememberMissing(entryId, source);
+            }
+            return dm;
         }
-
+        EntryStore store = fetchReferences ? entryStore
+                : entryStoreWithoutReferences;
         DocumentModel dm;
-        if (fetchReferences) {
-            CachedEntry entry = entryStore.get(entryId);
-            if (entry == null || entry.isExpired()) {
-                // fetch the entry from the backend and cache it for later reuse
-                dm = source.getEntryFromSource(entryId, fetchReferences);
-                synchronized (this) {
-                    // check that the cache limit has not yet been reached
-                    if (maxSize > 0 && entryStore.size() >= maxSize) {
-                        entryStore.clear();
-                    }
-                    entryStore.put(entryId, new CachedEntry(dm, timeout));
-                }
-            } else {
-                dm = entry.getDocumentModel();
+        CachedEntry entry = store.get(entryId);
+        if (entry == null) {
+            missCount.incrementAndGet();
+            // fetch the entry from the backend and cache it for later reuse
+            dm = loadEntry(entryId, source, fetchReferences);
+            if (dm == null) {
+                rememberMissing(entryId, source);
+                return null;
             }
+            store.put(entryId, new CachedEntry(dm, timeout));
         } else {
-            CachedEntry entry = entryStoreWithoutReferences.get(entryId);
-            if (entry == null || entry.isExpired()) {
-                // fetch the entry from the backend and cache it for later reuse
-                dm = source.getEntryFromSource(entryId, fetchReferences);
-                synchronized (this) {
-                    // check that the cache limit has not yet been reached
-                    if (maxSize > 0
-                            && entryStoreWithoutReferences.size() >= maxSize) {
-                        entryStoreWithoutReferences.clear();
-                    }
-                    entryStoreWithoutReferences.put(entryId, new CachedEntry(
-                            dm, timeout));
-                }
+            hitCount.incrementAndGet();
+            dm = entry.getDocumentModel();
+        }
+        return cloneEntry(dm);
+    }
+
+    /**
+     * Gets several entries at once: cached entries and ids known to be missing
+     * are answered from the cache, all other ids being fetched from the source
+     * with a single bulk request.
+     *
+     * @return the entries found, in the order of the given ids
+     * @since 5.7.2
+     */
+    public DocumentModelList getEntries(Collection<String> entryIds,
+            EntrySource source, boolean fetchReferences)
+            throws DirectoryException {
+        Collection<String> ids = new LinkedHashSet<String>(entryIds);
+        boolean cacheEnabled = isCacheEnabled();
+        EntryStore store = fetchReferences ? entryStore
+                : entryStoreWithoutReferences;
+        Map<String, DocumentModel> found = new HashMap<String, DocumentModel>();
+        List<String> missingIds = new ArrayList<String>();
+        for (String entryId : ids) {
+            if (isKnownMissing(entryId)) {
+                continue;
+            }
+            CachedEntry entry = cacheEnabled ? store.get(entryId) : null;
+            if (entry != null) {
+                hitCount.incrementAndGet();
+                found.put(entryId, cloneEntry(entry.getDocumentModel()));
             } else {
-                dm = entry.getDocumentModel();
+                missingIds.add(entryId);
             }
         }
-        try {
-            if (dm == null) {
-                return null;
+        if (!missingIds.isEmpty()) {
+            List<DocumentModel> loaded;
+            if (cacheEnabled) {
+                missCount.addAndGet(missingIds.size());
+                loaded = loadEntries(missingIds, source, fetchReferences);
+            } else {
+                loaded = source.getEntriesFromSource(missingIds,
+                        fetchReferences);
+            }
+            Map<String, DocumentModel> loadedById = BaseSession.mapEntriesToIds(
+                    missingIds, loaded);
+            for (String entryId : missingIds) {
+                DocumentModel dm = loadedById.get(entryId);
+                if (dm == null) {
+                    rememberMissing(entryId, source);
+                } else if (cacheEnabled) {
+                    store.put(entryId, new CachedEntry(dm, timeout));
+                    found.put(entryId, cloneEntry(dm));
+                } else {
+                    found.put(entryId, dm);
+                }
+            }
+        }
+        DocumentModelList entries = new DocumentModelListImpl();
+        for (String entryId : ids) {
+            DocumentModel dm = found.get(entryId);
+            if (dm != null) {
+                entries.add(dm);
             }
+        }
+        return entries;
+    }
+
+    /**
+     * Checks the existence of an entry, answering from the cached entries or
+     * the negative tier when possible.
+     *
+     * @since 5.7.2
+     */
+    public boolean hasEntry(String entryId, EntrySource source)
+            throws DirectoryException {
+        if (isKnownMissing(entryId)) {
+            return false;
+        }
+        if (isCacheEnabled()
+                && (entryStore.get(entryId) != null || entryStoreWithoutReferences.get(
+                        entryId) != null)) {
+            hitCount.incrementAndGet();
+            return true;
+        }
+        if (source.hasEntryInSource(entryId)) {
+            return true;
+        }
+        rememberMissing(entryId);
+        return false;
+    }
+
+    protected DocumentModel loadEntry(String entryId, EntrySource source,
+            boolean fetchReferences) throws DirectoryException {
+        long start = System.nanoTime();
+        try {
+            return source.getEntryFromSource(entryId, fetchReferences);
+        } finally {
+            loadCount.incrementAndGet();
+            loadTime.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    protected List<DocumentModel> loadEntries(Collection<String> entryIds,
+            EntrySource source, boolean fetchReferences)
+            throws DirectoryException {
+        long start = System.nanoTime();
+        try {
+            return source.getEntriesFromSource(entryIds, fetchReferences);
+        } finally {
+            loadCount.incrementAndGet();
+            loadTime.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    protected DocumentModel cloneEntry(DocumentModel dm) {
+        try {
             DocumentModel clone = dm.clone();
             // DocumentModelImpl#clone does not copy context data, hence
             // propagate the read-only flag manually
@@ -120,11 +303,14 @@ public class DirectoryCache {
 
     public void invalidate(List<String> entryIds) {
         if (isCacheEnabled()) {
-            synchronized (this) {
-                for (String entryId : entryIds) {
-                    entryStore.remove(entryId);
-                    entryStoreWithoutReferences.remove(entryId);
-                }
+            for (String entryId : entryIds) {
+                entryStore.remove(entryId);
+                entryStoreWithoutReferences.remove(entryId);
+            }
+        }
+        if (isNegativeCacheEnabled()) {
+            for (String entryId : entryIds) {
+                negativeStore.remove(entryId);
             }
         }
     }
@@ -133,12 +319,14 @@ public class DirectoryCache {
         invalidate(Arrays.asList(entryIds));
     }
 
+    @Override
     public void invalidateAll() {
         if (isCacheEnabled()) {
-            synchronized (this) {
-                entryStore.clear();
-                entryStoreWithoutReferences.clear();
-            }
+            entryStore.clear();
+            entryStoreWithoutReferences.clear();
+        }
+        if (isNegativeCacheEnabled()) {
+            negativeStore.clear();
         }
     }
 
@@ -146,20 +334,129 @@ public class DirectoryCache {
         this.timeout = timeout;
     }
 
+    /**
+     * Sets the maximum number of entries kept per store; cached entries are
+     * dropped as the stores are resized.
+     */
     public void setMaxSize(int maxSize) {
         this.maxSize = maxSize;
+        entryStore = new EntryStore(maxSize);
+        entryStoreWithoutReferences = new EntryStore(maxSize);
+    }
+
+    public void setNegativeTimeout(int negativeTimeout) {
+        this.negativeTimeout = negativeTimeout;
+    }
+
+    /**
+     * Sets the maximum number of missing ids remembered; remembered ids are
+     * dropped as the store is resized.
+     *
+     * @since 5.7.2
+     */
+    public void setNegativeMaxSize(int negativeMaxSize) {
+        this.negativeMaxSize = negativeMaxSize;
+        negativeStore = new EntryStore(negativeMaxSize);
+    }
+
+    @Override
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    @Override
+    public int getTimeout() {
+        return timeout;
+    }
+
+    @Override
+    public int getSize() {
+        return entryStore.size() + entryStoreWithoutReferences.size();
+    }
+
+    @Override
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    @Override
+    public long getNegativeHitCount() {
+        return negativeHitCount.get();
+    }
+
+    @Override
+    public int getNegativeMaxSize() {
+        return negativeMaxSize;
+    }
+
+    @Override
+    public int getNegativeTimeout() {
+        return negativeTimeout;
+    }
+
+    @Override
+    public int getNegativeSize() {
+        return negativeStore.size();
+    }
+
+    @Override
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    @Override
+    public double getHitRatio() {
+        long hits = hitCount.get();
+        long total = hits + missCount.get();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    @Override
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    @Override
+    public long getLoadCount() {
+        return loadCount.get();
+    }
+
+    @Override
+    public long getTotalLoadTime() {
+        return TimeUnit.NANOSECONDS.toMillis(loadTime.get());
+    }
+
+    @Override
+    public double getAverageLoadTime() {
+        long count = loadCount.get();
+        return count == 0 ? 0 : (double) loadTime.get() / count / 1000000;
+    }
+
+    @Override
+    public void resetStatistics() {
+        hitCount.set(0);
+        negativeHitCount.set(0);
+        missCount.set(0);
+        evictionCount.set(0);
+        loadCount.set(0);
+        loadTime.set(0);
     }
 
     protected static class CachedEntry {
 
         protected final DocumentModel entry;
 
-        protected final Calendar expirationDate;
+        // System.nanoTime() based, 0 means no expiration
+        protected final long expirationTime;
 
         CachedEntry(DocumentModel entry, int timeout) {
             this.entry = entry;
-            expirationDate = Calendar.getInstance();
-            expirationDate.add(Calendar.SECOND, timeout);
+            if (timeout > 0) {
+                expirationTime = System.nanoTime()
+                        + TimeUnit.SECONDS.toNanos(timeout);
+            } else {
+                expirationTime = 0;
+            }
         }
 
         public DocumentModel getDocumentModel() {
@@ -167,7 +464,117 @@ public class DirectoryCache {
         }
 
         public boolean isExpired() {
-            return expirationDate.before(Calendar.getInstance());
+            return expirationTime != 0
+                    && System.nanoTime() - expirationTime > 0;
+        }
+    }
+
+    /**
+     * Bounded map of cached entries split into independently locked LRU
+     * segments.
+     */
+    protected class EntryStore {
+
+        protected final Segment[] segments;
+
+        protected final int segmentMask;
+
+        EntryStore(int maxSize) {
+            int count = 1;
+            while (count < MAX_SEGMENTS
+                    && count * 2 * MIN_SEGMENT_CAPACITY <= maxSize) {
+                count *= 2;
+            }
+            segments = new Segment[count];
+            int capacity = Math.max(1, maxSize / count);
+            for (int i = 0; i < count; i++) {
+                segments[i] = new Segment(capacity);
+            }
+            segmentMask = count - 1;
+        }
+
+        protected Segment segmentFor(String key) {
+            int h = key.hashCode();
+            // spread bits so that similar ids do not share a stripe
+            h ^= (h >>> 20) ^ (h >>> 12);
+            h ^= (h >>> 7) ^ (h >>> 4);
+            return segments[h & segmentMask];
+        }
+
+        public CachedEntry get(String key) {
+            return segmentFor(key).get(key);
+        }
+
+        public void put(String key, CachedEntry entry) {
+            segmentFor(key).put(key, entry);
+        }
+
+        public void remove(String key) {
+            segmentFor(key).remove(key);
+        }
+
+        public void clear() {
+            for (Segment segment : segments) {
+                segment.clear();
+            }
+        }
+
+        public int size() {
+            int size = 0;
+            for (Segment segment : segments) {
+                size += segment.size();
+            }
+            return size;
+        }
+    }
+
+    protected class Segment extends LinkedHashMap<String, CachedEntry> {
+
+        private static final long serialVersionUID = 1L;
+
+        protected final int capacity;
+
+        Segment(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(
+                Map.Entry<String, CachedEntry> eldest) {
+            if (size() > capacity) {
+                evictionCount.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+
+        public synchronized CachedEntry get(String key) {
+            CachedEntry entry = super.get(key);
+            if (entry != null && entry.isExpired()) {
+                super.remove(key);
+                return null;
+            }
+            return entry;
+        }
+
+        @Override
+        public synchronized CachedEntry put(String key, CachedEntry entry) {
+            return super.put(key, entry);
+        }
+
+        public synchronized CachedEntry remove(String key) {
+            return super.remove(key);
+        }
+
+        @Override
+        public synchronized void clear() {
+            super.clear();
+        }
+
+        @Override
+        public synchronized int size() {
+            return super.size();
         }
     }
 
@@ -0,0 +1,74 @@
+/*
+ * (C) Copyright 2013 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ */
+package org.nuxeo.ecm.directory;
+
+/**
+ * Management interface exposing the statistics of a {@link DirectoryCache}.
+ *
+ * @since 5.7.2
+ */
+public interface DirectoryCacheMBean {
+
+    int getMaxSize();
+
+    int getTimeout();
+
+    /**
+     * Number of entries currently held, both with and without references.
+     */
+    int getSize();
+
+    long getHitCount();
+
+    /**
+     * Number of lookups answered by the negative tier, ie for ids known not
+     * to exist.
+     */
+    long getNegativeHitCount();
+
+    int getNegativeMaxSize();
+
+    int getNegativeTimeout();
+
+    int getNegativeSize();
+
+    long getMissCount();
+
+    double getHitRatio();
+
+    long getEvictionCount();
+
+    /**
+     * Number of requests to the source, a bulk lookup counting as one.
+     */
+    long getLoadCount();
+
+    /**
+     * Cumulated time spent fetching entries from the source, in milliseconds.
+     */
+    long getTotalLoadTime();
+
+    /**
+     * Average time spent per request to the source, in milliseconds.
+     */
+    double getAverageLoadTime();
+
+    void resetStatistics();
+
+    void invalidateAll();
+
+}
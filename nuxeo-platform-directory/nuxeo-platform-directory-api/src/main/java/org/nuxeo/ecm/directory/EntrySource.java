@@ -18,6 +18,9 @@
 
 package org.nuxeo.ecm.directory;
 
+import java.util.Collection;
+import java.util.List;
+
 import org.nuxeo.ecm.core.api.DocumentModel;
 
 /**
@@ -30,4 +33,20 @@ public interface EntrySource {
     DocumentModel getEntryFromSource(String entryId, boolean fetchReferences)
             throws DirectoryException;
 
+    /**
+     * Fetches several entries from the backend, bypassing the cache.
+     *
+     * @return the entries found, in no particular order
+     * @since 5.7.2
+     */
+    List<DocumentModel> getEntriesFromSource(Collection<String> entryIds,
+            boolean fetchReferences) throws DirectoryException;
+
+    /**
+     * Checks the existence of an entry in the backend, bypassing the cache.
+     *
+     * @since 5.7.2
+     */
+    boolean hasEntryInSource(String entryId) throws DirectoryException;
+
 }
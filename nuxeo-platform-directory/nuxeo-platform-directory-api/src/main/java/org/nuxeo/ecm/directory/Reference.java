@@ -19,7 +19,9 @@
 
 package org.nuxeo.ecm.directory;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Base interface for references between directory fields.
@@ -60,6 +62,25 @@ public interface Reference {
     List<String> getSourceIdsForTarget(String targetId)
             throws DirectoryException;
 
+    /**
+     * Bulk version of {@link #getTargetIdsForSource}, resolving the references
+     * of several entries with as few backend requests as possible.
+     *
+     * @return a map of each requested source id to its target ids
+     * @since 5.7.2
+     */
+    Map<String, List<String>> getTargetIdsForSources(
+            Collection<String> sourceIds) throws DirectoryException;
+
+    /**
+     * Bulk version of {@link #getSourceIdsForTarget}.
+     *
+     * @return a map of each requested target id to its source ids
+     * @since 5.7.2
+     */
+    Map<String, List<String>> getSourceIdsForTargets(
+            Collection<String> targetIds) throws DirectoryException;
+
     void setTargetIdsForSource(String sourceId, List<String> targetIds)
             throws DirectoryException;
 
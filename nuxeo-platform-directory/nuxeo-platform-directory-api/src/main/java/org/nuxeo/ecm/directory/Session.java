@@ -19,6 +19,7 @@
 package org.nuxeo.ecm.directory;
 
 import java.io.Serializable;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -78,6 +79,22 @@ public interface Session {
      */
     DocumentModelList getEntries() throws ClientException, DirectoryException;
 
+    /**
+     * Retrieves several directory entries using their ids.
+     * <p>
+     * Implementations fetch the entries with as few backend requests as
+     * possible, only ids missing from the directory cache being looked up.
+     * 
+     * @param ids the entry ids
+     * @param fetchReferences boolean stating if references have to be fetched
+     * @return the entries found, in the order of the given ids, ids without
+     *         matching entry being skipped
+     * @throws DirectoryException
+     * @since 5.7.2
+     */
+    DocumentModelList getEntries(Collection<String> ids,
+            boolean fetchReferences) throws DirectoryException;
+
     /**
      * Creates an entry in a directory.
      * 
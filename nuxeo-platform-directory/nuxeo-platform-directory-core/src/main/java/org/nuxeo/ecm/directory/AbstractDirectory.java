@@ -51,6 +51,24 @@ public abstract class AbstractDirectory implements Directory {
         }
     }
 
+    /**
+     * Invalidate the cached lookups of a newly created entry, which includes
+     * its negative lookups, and the caches of linked directories by
+     * references. Other cached entries of this directory are left untouched.
+     *
+     * @since 5.7.2
+     */
+    public void invalidateCachesForNewEntry(String entryId)
+            throws DirectoryException {
+        cache.invalidate(entryId);
+        for (Reference ref : references.values()) {
+            Directory targetDir = ref.getTargetDirectory();
+            if (targetDir != null) {
+                targetDir.invalidateDirectoryCache();
+            }
+        }
+    }
+
     public DirectoryFieldMapper getFieldMapper() {
         if (fieldMapper == null) {
             fieldMapper = new DirectoryFieldMapper();
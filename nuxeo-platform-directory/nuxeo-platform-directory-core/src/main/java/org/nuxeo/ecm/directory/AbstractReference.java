@@ -19,6 +19,11 @@
 
 package org.nuxeo.ecm.directory;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 import org.nuxeo.ecm.directory.api.DirectoryService;
 import org.nuxeo.runtime.api.Framework;
 
@@ -71,6 +76,36 @@ public abstract class AbstractReference implements Reference {
         this.targetDirectoryName = targetDirectoryName;
     }
 
+    /**
+     * Default implementation resolving each source id in turn, to be
+     * overridden by references able to batch lookups.
+     *
+     * @since 5.7.2
+     */
+    public Map<String, List<String>> getTargetIdsForSources(
+            Collection<String> sourceIds) throws DirectoryException {
+        Map<String, List<String>> result = new HashMap<String, List<String>>();
+        for (String sourceId : sourceIds) {
+            result.put(sourceId, getTargetIdsForSource(sourceId));
+        }
+        return result;
+    }
+
+    /**
+     * Default implementation resolving each target id in turn, to be
+     * overridden by references able to batch lookups.
+     *
+     * @since 5.7.2
+     */
+    public Map<String, List<String>> getSourceIdsForTargets(
+            Collection<String> targetIds) throws DirectoryException {
+        Map<String, List<String>> result = new HashMap<String, List<String>>();
+        for (String targetId : targetIds) {
+            result.put(targetId, getSourceIdsForTarget(targetId));
+        }
+        return result;
+    }
+
     protected DirectoryServiceImpl getDirectoryService() {
         if (directoryService == null) {
             directoryService = (DirectoryServiceImpl) Framework.getRuntime().getComponent(
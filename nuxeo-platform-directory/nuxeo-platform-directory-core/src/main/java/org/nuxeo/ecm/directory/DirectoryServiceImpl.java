@@ -21,7 +21,9 @@ package org.nuxeo.ecm.directory;
 import static org.nuxeo.ecm.directory.localconfiguration.DirectoryConfigurationConstants.DIRECTORY_CONFIGURATION_FACET;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -35,6 +37,9 @@ import org.nuxeo.ecm.directory.registry.DirectoryFactoryMapper;
 import org.nuxeo.ecm.directory.registry.DirectoryFactoryMapperRegistry;
 import org.nuxeo.ecm.directory.registry.DirectoryFactoryRegistry;
 import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.management.ObjectNameFactory;
+import org.nuxeo.runtime.management.ResourcePublisher;
+import org.nuxeo.runtime.model.ComponentName;
 import org.nuxeo.runtime.model.ComponentContext;
 import org.nuxeo.runtime.model.DefaultComponent;
 import org.nuxeo.runtime.model.Extension;
@@ -42,6 +47,9 @@ import org.nuxeo.runtime.model.Extension;
 public class DirectoryServiceImpl extends DefaultComponent implements
         DirectoryService {
 
+    public static final ComponentName NAME = new ComponentName(
+            "org.nuxeo.ecm.directory.DirectoryServiceImpl");
+
     protected static final String DELIMITER_BETWEEN_DIRECTORY_NAME_AND_SUFFIX = "_";
 
     private static final Log log = LogFactory.getLog(DirectoryServiceImpl.class);
@@ -50,6 +58,9 @@ public class DirectoryServiceImpl extends DefaultComponent implements
 
     protected DirectoryFactoryMapperRegistry factoriesByDirectoryName;
 
+    // qualified names of the cache management resources published
+    protected final Set<String> publishedCaches = new HashSet<String>();
+
     @Override
     public void applicationStarted(ComponentContext context) throws Exception {
         if (Framework.isTestModeSet()) {
@@ -62,12 +73,48 @@ public class DirectoryServiceImpl extends DefaultComponent implements
         for (Directory dir : getDirectories()) {
             try {
                 dir.getName(); // enough to create tables for SQL directories
+                publishCacheResource(dir);
             } catch (ClientException e) {
                 log.error(e.getMessage(), e);
             }
         }
     }
 
+    /**
+     * Exposes the entry cache statistics of the directory through JMX.
+     *
+     * @since 5.7.2
+     */
+    protected void publishCacheResource(Directory dir)
+            throws DirectoryException {
+        ResourcePublisher publisher = Framework.getLocalService(ResourcePublisher.class);
+        if (publisher == null) {
+            return;
+        }
+        String qualifiedName = ObjectNameFactory.formatMetricQualifiedName(
+                NAME, "directory-cache-" + dir.getName());
+        synchronized (publishedCaches) {
+            if (publishedCaches.contains(qualifiedName)) {
+                return;
+            }
+            publisher.registerResource(null, qualifiedName,
+                    DirectoryCacheMBean.class, dir.getCache());
+            publishedCaches.add(qualifiedName);
+        }
+    }
+
+    protected void unpublishCacheResources() {
+        ResourcePublisher publisher = Framework.getLocalService(ResourcePublisher.class);
+        synchronized (publishedCaches) {
+            if (publisher != null) {
+                for (String qualifiedName : publishedCaches) {
+                    publisher.unregisterResource(null, qualifiedName);
+                }
+            }
+            publishedCaches.clear();
+        }
+    }
+
     protected DirectoryConfiguration getDirectoryConfiguration(
             DocumentModel documentContext) {
         DirectoryConfiguration configuration = null;
@@ -188,6 +235,7 @@ public class DirectoryServiceImpl extends DefaultComponent implements
 
     @Override
     public void deactivate(ComponentContext context) throws Exception {
+        unpublishCacheResources();
         for (DirectoryFactory factory : factories.getFactories()) {
             factory.shutdown();
         }
@@ -40,8 +40,8 @@ import java.util.Set;
 import javax.naming.Context;
 import javax.naming.NamingException;
 import javax.naming.directory.DirContext;
-import javax.naming.directory.InitialDirContext;
 import javax.naming.directory.SearchControls;
+import javax.naming.ldap.InitialLdapContext;
 import javax.net.SocketFactory;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLException;
@@ -91,6 +91,13 @@ public class LDAPDirectory extends AbstractDirectory {
 
     protected final String baseFilter;
 
+    /**
+     * Entry ids by DN, for the references targeting this directory.
+     *
+     * @since 5.7.2
+     */
+    protected final LDAPDnCache dnCache;
+
     // the following attribute is only used for testing purpose
     protected ContextProvider testServer;
 
@@ -144,6 +151,10 @@ public class LDAPDirectory extends AbstractDirectory {
         // cache parameterization
         cache.setMaxSize(config.getCacheMaxSize());
         cache.setTimeout(config.getCacheTimeout());
+        cache.setNegativeMaxSize(config.getNegativeCacheMaxSize());
+        cache.setNegativeTimeout(config.getNegativeCacheTimeout());
+        dnCache = new LDAPDnCache(config.getDnCacheMaxSize(),
+                config.getDnCacheTimeout());
 
         log.debug(String.format(
                 "initialized LDAP directory %s with fields [%s] and references [%s]",
@@ -275,6 +286,33 @@ public class LDAPDirectory extends AbstractDirectory {
         return scts;
     }
 
+    /**
+     * @since 5.7.2
+     */
+    public LDAPDnCache getDnCache() {
+        return dnCache;
+    }
+
+    @Override
+    public void invalidateCaches() throws DirectoryException {
+        super.invalidateCaches();
+        dnCache.invalidateAll();
+    }
+
+    @Override
+    public void invalidateCachesForNewEntry(String entryId)
+            throws DirectoryException {
+        super.invalidateCachesForNewEntry(entryId);
+        // the DN may have been cached without id
+        dnCache.invalidateAll();
+    }
+
+    @Override
+    public void invalidateDirectoryCache() throws DirectoryException {
+        super.invalidateDirectoryCache();
+        dnCache.invalidateAll();
+    }
+
     public SearchControls getSearchControls() {
         return getSearchControls(false);
     }
@@ -307,7 +345,8 @@ public class LDAPDirectory extends AbstractDirectory {
                 String ldapUrls = serverConfig.getLdapUrls();
                 contextProperties.put(Context.PROVIDER_URL, ldapUrls);
             }
-            return new InitialDirContext(contextProperties);
+            // LDAP context to allow request controls like paged results
+            return new InitialLdapContext(contextProperties, null);
         } catch (NamingException e) {
             throw new DirectoryException("Cannot connect to LDAP directory '"
                     + getName() + "': " + e.getMessage(), e);
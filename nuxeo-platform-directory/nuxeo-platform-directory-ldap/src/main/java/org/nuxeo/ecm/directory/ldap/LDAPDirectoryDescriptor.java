@@ -69,6 +69,42 @@ public class LDAPDirectoryDescriptor {
     @XNode("cacheMaxSize")
     public int cacheMaxSize = 0;
 
+    /**
+     * @since 5.7.2
+     */
+    @XNode("negativeCacheTimeout")
+    public int negativeCacheTimeout = 0;
+
+    /**
+     * @since 5.7.2
+     */
+    @XNode("negativeCacheMaxSize")
+    public int negativeCacheMaxSize = 0;
+
+    /**
+     * Maximum number of entry ids cached by DN to resolve the references
+     * targeting this directory, 0 to disable the cache.
+     *
+     * @since 5.7.2
+     */
+    @XNode("dnCacheMaxSize")
+    public int dnCacheMaxSize = 0;
+
+    /**
+     * @since 5.7.2
+     */
+    @XNode("dnCacheTimeout")
+    public int dnCacheTimeout = 0;
+
+    /**
+     * Maximum number of DNs resolved by a single search when resolving the
+     * references targeting this directory.
+     *
+     * @since 5.7.2
+     */
+    @XNode("dnResolutionBatchSize")
+    public int dnResolutionBatchSize = 50;
+
     @XNodeMap(value = "fieldMapping", key = "@name", type = HashMap.class, componentType = String.class)
     public Map<String, String> fieldMapping = new HashMap<String, String>();
 
@@ -124,6 +160,15 @@ public class LDAPDirectoryDescriptor {
     @XNode("queryTimeLimit")
     private int queryTimeLimit = 0; // default to wait indefinitely
 
+    /**
+     * Number of entries fetched per request with the paged results control,
+     * 0 to disable paging.
+     *
+     * @since 5.7.2
+     */
+    @XNode("pageSize")
+    protected int pageSize = 0;
+
     protected EntryAdaptor entryAdaptor;
 
     @XObject(value = "entryAdaptor")
@@ -336,6 +381,41 @@ public class LDAPDirectoryDescriptor {
         return cacheMaxSize;
     }
 
+    /**
+     * @since 5.7.2
+     */
+    public int getNegativeCacheTimeout() {
+        return negativeCacheTimeout;
+    }
+
+    /**
+     * @since 5.7.2
+     */
+    public int getNegativeCacheMaxSize() {
+        return negativeCacheMaxSize;
+    }
+
+    /**
+     * @since 5.7.2
+     */
+    public int getDnCacheMaxSize() {
+        return dnCacheMaxSize;
+    }
+
+    /**
+     * @since 5.7.2
+     */
+    public int getDnCacheTimeout() {
+        return dnCacheTimeout;
+    }
+
+    /**
+     * @since 5.7.2
+     */
+    public int getDnResolutionBatchSize() {
+        return dnResolutionBatchSize;
+    }
+
     public int getQuerySizeLimit() {
         return querySizeLimit;
     }
@@ -352,6 +432,20 @@ public class LDAPDirectoryDescriptor {
         return queryTimeLimit;
     }
 
+    /**
+     * @since 5.7.2
+     */
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * @since 5.7.2
+     */
+    public void setPageSize(int pageSize) {
+        this.pageSize = pageSize;
+    }
+
     public EntryAdaptor getEntryAdaptor() {
         return entryAdaptor;
     }
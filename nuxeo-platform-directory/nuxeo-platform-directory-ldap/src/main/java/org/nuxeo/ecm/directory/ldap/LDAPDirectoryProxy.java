@@ -102,7 +102,7 @@ public class LDAPDirectoryProxy implements Directory {
     }
 
     public void invalidateDirectoryCache() throws DirectoryException{
-        getCache().invalidateAll();
+        getDirectory().invalidateDirectoryCache();
     }
 
     @Override
@@ -0,0 +1,122 @@
+/*
+ * (C) Copyright 2013 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ */
+
+package org.nuxeo.ecm.directory.ldap;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded LRU cache of the entry ids of an LDAP directory by DN, used to
+ * resolve the DN-valued references targeting it.
+ * <p>
+ * DNs are expected to be normalized by the caller. DNs without entry or
+ * without id attribute are cached as well, with a {@code null} id.
+ *
+ * @since 5.7.2
+ */
+public class LDAPDnCache {
+
+    protected final int maxSize;
+
+    protected final long timeoutNanos;
+
+    protected final Map<String, CachedId> ids;
+
+    /**
+     * @param maxSize the maximum number of DNs, 0 to disable the cache
+     * @param timeout the time to live of the DNs in seconds, 0 for no
+     *            expiration
+     */
+    public LDAPDnCache(final int maxSize, int timeout) {
+        this.maxSize = maxSize;
+        timeoutNanos = TimeUnit.SECONDS.toNanos(timeout);
+        ids = new LinkedHashMap<String, CachedId>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<String, CachedId> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    public boolean isEnabled() {
+        return maxSize > 0;
+    }
+
+    /**
+     * Returns the cached id of the given DN, whose {@code id} is null if the
+     * DN has no id, or null if the DN is not cached or expired.
+     */
+    public CachedId get(String dn) {
+        if (!isEnabled()) {
+            return null;
+        }
+        synchronized (ids) {
+            CachedId cached = ids.get(dn);
+            if (cached != null && cached.isExpired()) {
+                ids.remove(dn);
+                cached = null;
+            }
+            return cached;
+        }
+    }
+
+    public void put(String dn, String id) {
+        if (!isEnabled()) {
+            return;
+        }
+        long expirationTime = timeoutNanos > 0 ? System.nanoTime()
+                + timeoutNanos : 0;
+        synchronized (ids) {
+            ids.put(dn, new CachedId(id, expirationTime));
+        }
+    }
+
+    public void invalidateAll() {
+        synchronized (ids) {
+            ids.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (ids) {
+            return ids.size();
+        }
+    }
+
+    public static class CachedId {
+
+        public final String id;
+
+        protected final long expirationTime;
+
+        protected CachedId(String id, long expirationTime) {
+            this.id = id;
+            this.expirationTime = expirationTime;
+        }
+
+        protected boolean isExpired() {
+            return expirationTime != 0
+                    && System.nanoTime() - expirationTime > 0;
+        }
+    }
+
+}
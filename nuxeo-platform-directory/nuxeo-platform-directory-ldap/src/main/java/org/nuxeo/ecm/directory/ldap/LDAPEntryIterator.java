@@ -0,0 +1,121 @@
+/*
+ * (C) Copyright 2013 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ */
+
+package org.nuxeo.ecm.directory.ldap;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.SearchResult;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.nuxeo.ecm.core.api.ClientRuntimeException;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.directory.DirectoryException;
+
+/**
+ * Iterator over the entries of an LDAP search, each entry being built when
+ * reached so that the results are never held in memory all at once.
+ * <p>
+ * Errors while reading the results are thrown as
+ * {@link ClientRuntimeException}. The iterator must be closed when done,
+ * which also happens when it is exhausted.
+ *
+ * @see LDAPSession#scan(java.util.Map, java.util.Set, boolean)
+ * @since 5.7.2
+ */
+public class LDAPEntryIterator implements Iterator<DocumentModel> {
+
+    private static final Log log = LogFactory.getLog(LDAPEntryIterator.class);
+
+    protected final LDAPSession session;
+
+    protected final NamingEnumeration<SearchResult> results;
+
+    protected final boolean fetchReferences;
+
+    protected DocumentModel next;
+
+    protected boolean closed;
+
+    public LDAPEntryIterator(LDAPSession session,
+            NamingEnumeration<SearchResult> results, boolean fetchReferences) {
+        this.session = session;
+        this.results = results;
+        this.fetchReferences = fetchReferences;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next != null) {
+            return true;
+        }
+        if (closed) {
+            return false;
+        }
+        try {
+            while (results.hasMore()) {
+                // entries without id are skipped
+                next = session.ldapResultToDocumentModel(results.next(), null,
+                        fetchReferences);
+                if (next != null) {
+                    return true;
+                }
+            }
+        } catch (NamingException e) {
+            close();
+            throw new ClientRuntimeException(new DirectoryException(
+                    "scan failed", e));
+        } catch (DirectoryException e) {
+            close();
+            throw new ClientRuntimeException(e);
+        }
+        close();
+        return false;
+    }
+
+    @Override
+    public DocumentModel next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        DocumentModel entry = next;
+        next = null;
+        return entry;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            results.close();
+        } catch (NamingException e) {
+            log.error("Error closing LDAP search results", e);
+        }
+    }
+
+}
@@ -0,0 +1,209 @@
+/*
+ * (C) Copyright 2013 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ */
+
+package org.nuxeo.ecm.directory.ldap;
+
+import java.io.IOException;
+import java.util.NoSuchElementException;
+
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.SizeLimitExceededException;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.LdapContext;
+import javax.naming.ldap.PagedResultsControl;
+import javax.naming.ldap.PagedResultsResponseControl;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Search results fetched page by page using the RFC 2696 paged results
+ * control, the next page being requested when the current one is exhausted.
+ * <p>
+ * The search runs on its own instance of the context, sharing its connection
+ * but not its request controls, so that the context can be used for other
+ * requests while the results are read. The count limit of the search controls
+ * applies to the whole results, not to each page. Servers not supporting
+ * paging send all the results at once.
+ *
+ * @since 5.7.2
+ */
+public class LDAPPagedSearchEnumeration implements
+        NamingEnumeration<SearchResult> {
+
+    private static final Log log = LogFactory.getLog(LDAPPagedSearchEnumeration.class);
+
+    protected final LdapContext context;
+
+    protected final String name;
+
+    protected final String filterExpr;
+
+    protected final Object[] filterArgs;
+
+    protected final SearchControls searchControls;
+
+    protected final int pageSize;
+
+    protected NamingEnumeration<SearchResult> page;
+
+    protected long count;
+
+    protected int pages;
+
+    /**
+     * Searches the given context, page by page if the page size is positive
+     * and the context supports request controls.
+     */
+    public static NamingEnumeration<SearchResult> search(DirContext dirContext,
+            String name, String filterExpr, Object[] filterArgs,
+            SearchControls searchControls, int pageSize)
+            throws NamingException {
+        if (pageSize <= 0 || !(dirContext instanceof LdapContext)) {
+            return dirContext.search(name, filterExpr, filterArgs,
+                    searchControls);
+        }
+        Control control;
+        try {
+            // non critical: servers without paging support return everything
+            control = new PagedResultsControl(pageSize, Control.NONCRITICAL);
+        } catch (IOException e) {
+            throw new NamingException("Cannot encode paged results control: "
+                    + e.getMessage());
+        }
+        LdapContext context = ((LdapContext) dirContext).newInstance(new Control[] { control });
+        try {
+            return new LDAPPagedSearchEnumeration(context, name, filterExpr,
+                    filterArgs, searchControls, pageSize);
+        } catch (NamingException e) {
+            context.close();
+            throw e;
+        }
+    }
+
+    protected LDAPPagedSearchEnumeration(LdapContext context, String name,
+            String filterExpr, Object[] filterArgs,
+            SearchControls searchControls, int pageSize)
+            throws NamingException {
+        this.context = context;
+        this.name = name;
+        this.filterExpr = filterExpr;
+        this.filterArgs = filterArgs;
+        this.searchControls = searchControls;
+        this.pageSize = pageSize;
+        page = context.search(name, filterExpr, filterArgs, searchControls);
+        pages = 1;
+    }
+
+    @Override
+    public boolean hasMore() throws NamingException {
+        if (page == null) {
+            return false;
+        }
+        while (!page.hasMore()) {
+            if (!nextPage()) {
+                return false;
+            }
+        }
+        long countLimit = searchControls.getCountLimit();
+        if (countLimit > 0 && count >= countLimit) {
+            // same behavior as an unpaged search over the limit
+            throw new SizeLimitExceededException();
+        }
+        return true;
+    }
+
+    /**
+     * Requests the next page, returns false if there are no more pages.
+     */
+    protected boolean nextPage() throws NamingException {
+        byte[] cookie = null;
+        Control[] controls = context.getResponseControls();
+        if (controls != null) {
+            for (Control control : controls) {
+                if (control instanceof PagedResultsResponseControl) {
+                    cookie = ((PagedResultsResponseControl) control).getCookie();
+                }
+            }
+        }
+        page.close();
+        if (cookie == null || cookie.length == 0) {
+            page = null;
+            if (log.isDebugEnabled()) {
+                log.debug(String.format(
+                        "LDAP paged search base='%s' filter='%s' returned %s results in %s pages",
+                        name, filterExpr, Long.valueOf(count),
+                        Integer.valueOf(pages)));
+            }
+            return false;
+        }
+        try {
+            context.setRequestControls(new Control[] { new PagedResultsControl(
+                    pageSize, cookie, Control.CRITICAL) });
+        } catch (IOException e) {
+            throw new NamingException("Cannot encode paged results control: "
+                    + e.getMessage());
+        }
+        page = context.search(name, filterExpr, filterArgs, searchControls);
+        pages++;
+        return true;
+    }
+
+    @Override
+    public SearchResult next() throws NamingException {
+        if (!hasMore()) {
+            throw new NoSuchElementException();
+        }
+        count++;
+        return page.next();
+    }
+
+    @Override
+    public boolean hasMoreElements() {
+        try {
+            return hasMore();
+        } catch (NamingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public SearchResult nextElement() {
+        try {
+            return next();
+        } catch (NamingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void close() throws NamingException {
+        try {
+            if (page != null) {
+                page.close();
+                page = null;
+            }
+        } finally {
+            context.close();
+        }
+    }
+
+}
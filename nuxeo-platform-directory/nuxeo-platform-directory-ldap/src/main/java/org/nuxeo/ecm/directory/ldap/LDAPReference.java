@@ -21,8 +21,13 @@ package org.nuxeo.ecm.directory.ldap;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TreeSet;
 
@@ -784,6 +789,7 @@ public class LDAPReference extends AbstractReference {
             }
 
             if (staticAttribute != null && staticAttributeIdIsDn) {
+                List<String> dns = new ArrayList<String>();
                 NamingEnumeration<?> targetDns = staticAttribute.getAll();
                 try {
                     while (targetDns.hasMore()) {
@@ -798,52 +804,60 @@ public class LDAPReference extends AbstractReference {
                             }
                             continue;
                         }
-                        // find the id of the referenced entry
-                        String id = null;
-
-                        if (targetSession.rdnMatchesIdField()) {
-                            // optim: do not fetch the entry to get its true id
-                            // but
-                            // guess it by reading the targetDn
-                            LdapName name = new LdapName(targetDn);
-                            String rdn = name.get(name.size() - 1);
-                            int pos = rdn.indexOf("=");
-                            id = rdn.substring(pos + 1);
-                        } else {
-                            id = getIdForDn(targetSession, targetDn);
-                            if (id == null) {
-                                log.warn(String.format(
-                                        "ignoring target '%s' (missing attribute '%s') while resolving reference '%s'",
-                                        targetDn, targetSession.idAttribute,
-                                        this));
-                                continue;
-                            }
+                        dns.add(targetDn);
+                    }
+                } finally {
+                    targetDns.close();
+                }
+                Map<String, String> resolvedIds = null;
+                if (!targetSession.rdnMatchesIdField()) {
+                    // the entries have to be fetched to get their ids
+                    resolvedIds = getIdsForDns(targetSession, dns);
+                }
+                for (String targetDn : dns) {
+                    // find the id of the referenced entry
+                    String id = null;
+
+                    if (resolvedIds == null) {
+                        // optim: do not fetch the entry to get its true id
+                        // but
+                        // guess it by reading the targetDn
+                        LdapName name = new LdapName(targetDn);
+                        String rdn = name.get(name.size() - 1);
+                        int pos = rdn.indexOf("=");
+                        id = rdn.substring(pos + 1);
+                    } else {
+                        id = resolvedIds.get(targetDn);
+                        if (id == null) {
+                            log.warn(String.format(
+                                    "ignoring target '%s' (missing attribute '%s') while resolving reference '%s'",
+                                    targetDn, targetSession.idAttribute,
+                                    this));
+                            continue;
                         }
-                        if (forceDnConsistencyCheck) {
-                            // check that the referenced entry is actually part
-                            // of
-                            // the target directory (takes care of the filters
-                            // and
-                            // the scope)
-                            // this check can be very expensive on large groups
-                            // and thus not enabled by default
-                            if (!targetSession.hasEntry(id)) {
-                                if (log.isTraceEnabled()) {
-                                    log.trace(String.format(
-                                            "ignoring target '%s' when resolving '%s' (not part of target"
-                                                    + " directory by forced DN consistency check)",
-                                            targetDn, this));
-                                }
-                                continue;
+                    }
+                    if (forceDnConsistencyCheck) {
+                        // check that the referenced entry is actually part
+                        // of
+                        // the target directory (takes care of the filters
+                        // and
+                        // the scope)
+                        // this check can be very expensive on large groups
+                        // and thus not enabled by default
+                        if (!targetSession.hasEntry(id)) {
+                            if (log.isTraceEnabled()) {
+                                log.trace(String.format(
+                                        "ignoring target '%s' when resolving '%s' (not part of target"
+                                                + " directory by forced DN consistency check)",
+                                        targetDn, this));
                             }
-                        }
-                        // NXP-2461: check that id field is filled
-                        if (id != null) {
-                            targetIds.add(id);
+                            continue;
                         }
                     }
-                } finally {
-                    targetDns.close();
+                    // NXP-2461: check that id field is filled
+                    if (id != null) {
+                        targetIds.add(id);
+                    }
                 }
             }
             // step #2: fetched dynamically referenced ids
@@ -962,6 +976,163 @@ public class LDAPReference extends AbstractReference {
     }
 
     protected String getIdForDn(LDAPSession session, String dn) {
+        LDAPDnCache dnCache = session.directory.getDnCache();
+        String key;
+        try {
+            key = pseudoNormalizeDn(dn);
+        } catch (InvalidNameException e) {
+            return fetchIdForDn(session, dn);
+        }
+        LDAPDnCache.CachedId cached = dnCache.get(key);
+        if (cached != null) {
+            return cached.id;
+        }
+        String id = fetchIdForDn(session, dn);
+        dnCache.put(key, id);
+        return id;
+    }
+
+    /**
+     * Gets the ids of the given target entry DNs, using the DN cache of the
+     * target directory. Uncached DNs are searched by batches, with a filter
+     * OR-ing their RDNs under the search base DN of the target directory.
+     *
+     * @return the ids by DN, without the DNs having no id
+     * @since 5.7.2
+     */
+    protected Map<String, String> getIdsForDns(LDAPSession session,
+            Collection<String> dns) throws InvalidNameException {
+        LDAPDnCache dnCache = session.directory.getDnCache();
+        Map<String, String> ids = new HashMap<String, String>();
+        // uncached DNs by normalized DN
+        Map<String, String> missing = new LinkedHashMap<String, String>();
+        for (String dn : dns) {
+            String key = pseudoNormalizeDn(dn);
+            LDAPDnCache.CachedId cached = dnCache.get(key);
+            if (cached == null) {
+                missing.put(key, dn);
+            } else if (cached.id != null) {
+                ids.put(dn, cached.id);
+            }
+        }
+        int batchSize = session.directory.getConfig().getDnResolutionBatchSize();
+        List<Entry<String, String>> batch = new ArrayList<Entry<String, String>>();
+        for (Entry<String, String> entry : missing.entrySet()) {
+            batch.add(entry);
+            if (batch.size() >= Math.max(batchSize, 1)) {
+                resolveIdsForDns(session, batch, ids);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            resolveIdsForDns(session, batch, ids);
+        }
+        return ids;
+    }
+
+    /**
+     * Resolves the given normalized DN / DN pairs with a single search if
+     * possible, the DNs not matched by the search results being looked up one
+     * by one.
+     */
+    protected void resolveIdsForDns(LDAPSession session,
+            List<Entry<String, String>> batch, Map<String, String> ids) {
+        LDAPDnCache dnCache = session.directory.getDnCache();
+        Map<String, String> found = null;
+        if (batch.size() > 1) {
+            found = searchIdsForDns(session, batch);
+        }
+        for (Entry<String, String> entry : batch) {
+            String id = null;
+            if (found != null) {
+                id = found.get(entry.getKey());
+            }
+            if (id == null) {
+                // not searched, or returned by the server under a DN written
+                // differently: look it up to tell a missing entry apart
+                id = fetchIdForDn(session, entry.getValue());
+            }
+            dnCache.put(entry.getKey(), id);
+            if (id != null) {
+                ids.put(entry.getValue(), id);
+            }
+        }
+    }
+
+    /**
+     * Searches the ids of the given normalized DN / DN pairs at once, matching
+     * the search results on their DNs.
+     *
+     * @return the ids by normalized DN, or null if the search is not possible
+     */
+    protected Map<String, String> searchIdsForDns(LDAPSession session,
+            List<Entry<String, String>> batch) {
+        StringBuilder filter = new StringBuilder("(|");
+        Object[] filterArgs = new Object[batch.size()];
+        try {
+            for (int i = 0; i < batch.size(); i++) {
+                LdapName name = new LdapName(batch.get(i).getValue());
+                Rdn rdn = name.getRdn(name.size() - 1);
+                if (rdn.size() != 1) {
+                    // multi-valued RDN
+                    return null;
+                }
+                filter.append('(').append(rdn.getType()).append("={").append(
+                        i).append("})");
+                filterArgs[i] = rdn.getValue().toString();
+            }
+        } catch (InvalidNameException e) {
+            return null;
+        }
+        filter.append(')');
+        String searchBaseDn = session.directory.getConfig().getSearchBaseDn();
+        SearchControls scts = new SearchControls(
+                SearchControls.SUBTREE_SCOPE, 0,
+                session.directory.getConfig().getQueryTimeLimit(),
+                new String[] { session.idAttribute }, false, false);
+        if (log.isDebugEnabled()) {
+            log.debug(String.format(
+                    "LDAPReference.searchIdsForDns(session, %s DNs): LDAP search base='%s' filter='%s'"
+                            + " args='%s' [%s]", Integer.valueOf(batch.size()),
+                    searchBaseDn, filter, StringUtils.join(filterArgs, ", "),
+                    this));
+        }
+        Map<String, String> found = new HashMap<String, String>();
+        try {
+            NamingEnumeration<SearchResult> results = session.dirContext.search(
+                    searchBaseDn, filter.toString(), filterArgs, scts);
+            try {
+                while (results.hasMore()) {
+                    SearchResult result = results.next();
+                    Attribute attr = result.getAttributes().get(
+                            session.idAttribute);
+                    // NXP-2461: check that id field is filled
+                    if (attr != null && attr.get() != null) {
+                        found.put(
+                                pseudoNormalizeDn(result.getNameInNamespace()),
+                                attr.get().toString());
+                    }
+                }
+            } finally {
+                results.close();
+            }
+        } catch (NamingException e) {
+            log.debug("Cannot search the DNs, looking them up one by one", e);
+            return null;
+        } catch (UnsupportedOperationException e) {
+            // getNameInNamespace is not implemented by the Apache DS server
+            // in embedded mode
+            return null;
+        }
+        return found;
+    }
+
+    /**
+     * Looks up the entry at the given DN to get its id.
+     *
+     * @since 5.7.2
+     */
+    protected String fetchIdForDn(LDAPSession session, String dn) {
         // the entry id is not based on the rdn, we thus need to
         // fetch the LDAP entry to grab it
         String[] attributeIdsToCollect = { session.idAttribute };
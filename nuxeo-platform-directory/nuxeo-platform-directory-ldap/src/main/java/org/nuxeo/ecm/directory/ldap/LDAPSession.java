@@ -30,6 +30,8 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -86,6 +88,14 @@ public class LDAPSession extends BaseSession implements EntrySource {
 
     protected static final String MISSING_ID_UPPER_CASE = "upper";
 
+    /**
+     * Maximum number of ids OR-ed in a single search filter by
+     * {@link #getEntriesFromSource(Collection, boolean)}.
+     *
+     * @since 5.7.2
+     */
+    protected static final int MAX_FILTER_IDS = 50;
+
     private static final Log log = LogFactory.getLog(LDAPSession.class);
 
     protected final String schemaName;
@@ -222,7 +232,7 @@ public class LDAPSession extends BaseSession implements EntrySource {
                 // entry
                 fieldMap.put(dnFieldName, dn);
             }
-            directory.invalidateCaches();
+            directory.invalidateCachesForNewEntry((String) fieldMap.get(getIdField()));
             return fieldMapToDocumentModel(fieldMap);
         } catch (Exception e) {
             handleException(e, "createEntry failed");
@@ -256,10 +266,104 @@ public class LDAPSession extends BaseSession implements EntrySource {
         }
     }
 
+    @Override
+    public DocumentModelList getEntries(Collection<String> ids,
+            boolean fetchReferences) throws DirectoryException {
+        return directory.getCache().getEntries(ids, this, fetchReferences);
+    }
+
+    /**
+     * Fetches the entries with searches OR-ing the id attribute values, by
+     * chunks of at most {@link #MAX_FILTER_IDS} ids.
+     *
+     * @since 5.7.2
+     */
+    @Override
+    public List<DocumentModel> getEntriesFromSource(Collection<String> ids,
+            boolean fetchReferences) throws DirectoryException {
+        List<String> allIds = new ArrayList<String>(ids.size());
+        for (String id : ids) {
+            if (!StringUtils.isEmpty(id)) {
+                allIds.add(id);
+            }
+        }
+        Map<String, DocumentModel> entries = new LinkedHashMap<String, DocumentModel>();
+        Set<String> ambiguousIds = new HashSet<String>();
+        SearchControls scts = directory.getSearchControls();
+        String baseFilter = directory.getBaseFilter();
+        if (!baseFilter.startsWith("(")) {
+            baseFilter = "(" + baseFilter + ")";
+        }
+        try {
+            for (int start = 0; start < allIds.size(); start += MAX_FILTER_IDS) {
+                List<String> chunk = allIds.subList(start,
+                        Math.min(start + MAX_FILTER_IDS, allIds.size()));
+                StringBuilder filter = new StringBuilder("(&(|");
+                for (int i = 0; i < chunk.size(); i++) {
+                    filter.append('(').append(idAttribute).append("={").append(
+                            i).append("})");
+                }
+                filter.append(')').append(baseFilter).append(')');
+                String filterExpr = filter.toString();
+                Object[] filterArgs = chunk.toArray();
+                if (log.isDebugEnabled()) {
+                    log.debug(String.format(
+                            "LDAPSession.getEntries(%s): LDAP search base='%s' filter='%s' "
+                                    + " args='%s' scope='%s' [%s]", chunk,
+                            searchBaseDn, filterExpr, chunk,
+                            scts.getSearchScope(), this));
+                }
+                NamingEnumeration<SearchResult> results;
+                try {
+                    results = dirContext.search(searchBaseDn, filterExpr,
+                            filterArgs, scts);
+                } catch (NameNotFoundException nnfe) {
+                    // same ActiveDirectory quirk as in getLdapEntry
+                    log.error(
+                            "Unexpected response from server while performing query: "
+                                    + nnfe.getMessage(), nnfe);
+                    continue;
+                }
+                try {
+                    while (results.hasMore()) {
+                        DocumentModel entry = ldapResultToDocumentModel(
+                                results.next(), null, fetchReferences);
+                        if (entry == null) {
+                            continue;
+                        }
+                        String entryId = entry.getId();
+                        if (entries.containsKey(entryId)
+                                || ambiguousIds.contains(entryId)) {
+                            // ignore entries that are ambiguous, as
+                            // getLdapEntry does
+                            log.error(String.format(
+                                    "Unable to fetch entry for '%s': found more than one match",
+                                    entryId));
+                            entries.remove(entryId);
+                            ambiguousIds.add(entryId);
+                        } else {
+                            entries.put(entryId, entry);
+                        }
+                    }
+                } finally {
+                    results.close();
+                }
+            }
+        } catch (NamingException e) {
+            throw new DirectoryException("getEntries failed: "
+                    + e.getMessage(), e);
+        }
+        return new ArrayList<DocumentModel>(entries.values());
+    }
+
     @Override
     public boolean hasEntry(String id) throws DirectoryException {
+        return directory.getCache().hasEntry(id, this);
+    }
+
+    @Override
+    public boolean hasEntryInSource(String id) throws DirectoryException {
         try {
-            // TODO: check directory cache first
             return getLdapEntry(id) != null;
         } catch (NamingException e) {
             throw new DirectoryException("hasEntry failed: " + e.getMessage(),
@@ -357,8 +461,8 @@ public class LDAPSession extends BaseSession implements EntrySource {
                                 + " args=* scope=%s [%s]", searchBaseDn,
                         directory.getBaseFilter(), scts.getSearchScope(), this));
             }
-            NamingEnumeration<SearchResult> results = dirContext.search(
-                    searchBaseDn, directory.getBaseFilter(), scts);
+            NamingEnumeration<SearchResult> results = search(
+                    directory.getBaseFilter(), null, scts);
             // skip reference fetching
             return ldapResultsToDocumentModels(results, false);
         } catch (SizeLimitExceededException e) {
@@ -515,74 +619,103 @@ public class LDAPSession extends BaseSession implements EntrySource {
         deleteEntry(id);
     }
 
-    public DocumentModelList query(Map<String, Serializable> filter,
-            Set<String> fulltext, boolean fetchReferences,
-            Map<String, String> orderBy) throws DirectoryException {
-        try {
-            // building the query using filterExpr / filterArgs to
-            // escape special characters and to fulltext search only on
-            // the explicitly specified fields
-            String[] filters = new String[filter.size()];
-            String[] filterArgs = new String[filter.size()];
-
-            if (fulltext == null) {
-                fulltext = Collections.emptySet();
-            }
+    /**
+     * Searches the entries under the search base DN, page by page if a page
+     * size is configured.
+     *
+     * @since 5.7.2
+     */
+    protected NamingEnumeration<SearchResult> search(String filterExpr,
+            Object[] filterArgs, SearchControls scts) throws NamingException {
+        return LDAPPagedSearchEnumeration.search(dirContext, searchBaseDn,
+                filterExpr, filterArgs, scts,
+                directory.getConfig().getPageSize());
+    }
 
-            int index = 0;
-            for (String fieldName : filter.keySet()) {
-                if (directory.isReference(fieldName)) {
-                    log.warn(fieldName
-                            + " is a reference and will be ignored as a query criterion");
-                    continue;
-                }
+    /**
+     * Builds the LDAP filter expression matching the given query filter, its
+     * values being put in the given filter arguments array, of the same size
+     * as the filter.
+     *
+     * @since 5.7.2
+     */
+    protected String getFilterExpression(Map<String, Serializable> filter,
+            Set<String> fulltext, String[] filterArgs) {
+        // building the query using filterExpr / filterArgs to
+        // escape special characters and to fulltext search only on
+        // the explicitly specified fields
+        String[] filters = new String[filter.size()];
+
+        if (fulltext == null) {
+            fulltext = Collections.emptySet();
+        }
 
-                String backendFieldName = directory.getFieldMapper().getBackendField(
-                        fieldName);
-                Object fieldValue = filter.get(fieldName);
+        int index = 0;
+        for (String fieldName : filter.keySet()) {
+            if (directory.isReference(fieldName)) {
+                log.warn(fieldName
+                        + " is a reference and will be ignored as a query criterion");
+                continue;
+            }
 
-                StringBuilder currentFilter = new StringBuilder();
-                currentFilter.append("(");
-                if (fieldValue == null) {
+            String backendFieldName = directory.getFieldMapper().getBackendField(
+                    fieldName);
+            Object fieldValue = filter.get(fieldName);
+
+            StringBuilder currentFilter = new StringBuilder();
+            currentFilter.append("(");
+            if (fieldValue == null) {
+                currentFilter.append("!(" + backendFieldName + "=*)");
+            } else if ("".equals(fieldValue)) {
+                if (fulltext.contains(fieldName)) {
+                    currentFilter.append(backendFieldName + "=*");
+                } else {
                     currentFilter.append("!(" + backendFieldName + "=*)");
-                } else if ("".equals(fieldValue)) {
-                    if (fulltext.contains(fieldName)) {
-                        currentFilter.append(backendFieldName + "=*");
+                }
+            } else {
+                currentFilter.append(backendFieldName + "=");
+                if (fulltext.contains(fieldName)) {
+                    if (LDAPSubstringMatchType.SUBFINAL.equals(substringMatchType)) {
+                        currentFilter.append("*{" + index + "}");
+                    } else if (LDAPSubstringMatchType.SUBANY.equals(substringMatchType)) {
+                        currentFilter.append("*{" + index + "}*");
                     } else {
-                        currentFilter.append("!(" + backendFieldName + "=*)");
+                        // default behavior: subinitial
+                        currentFilter.append("{" + index + "}*");
                     }
                 } else {
-                    currentFilter.append(backendFieldName + "=");
-                    if (fulltext.contains(fieldName)) {
-                        if (LDAPSubstringMatchType.SUBFINAL.equals(substringMatchType)) {
-                            currentFilter.append("*{" + index + "}");
-                        } else if (LDAPSubstringMatchType.SUBANY.equals(substringMatchType)) {
-                            currentFilter.append("*{" + index + "}*");
-                        } else {
-                            // default behavior: subinitial
-                            currentFilter.append("{" + index + "}*");
-                        }
-                    } else {
-                        currentFilter.append("{" + index + "}");
-                    }
+                    currentFilter.append("{" + index + "}");
                 }
-                currentFilter.append(")");
-                filters[index] = currentFilter.toString();
-                if (fieldValue != null && !"".equals(fieldValue)) {
-                    if (fieldValue instanceof Blob) {
-                        // filter arg could be a sequence of \xx where xx is the
-                        // hexadecimal value of the byte
-                        log.warn("Binary search is not supported");
-                    } else {
-                        // XXX: what kind of Objects can we get here? Is
-                        // toString() enough?
-                        filterArgs[index] = fieldValue.toString();
-                    }
+            }
+            currentFilter.append(")");
+            filters[index] = currentFilter.toString();
+            if (fieldValue != null && !"".equals(fieldValue)) {
+                if (fieldValue instanceof Blob) {
+                    // filter arg could be a sequence of \xx where xx is the
+                    // hexadecimal value of the byte
+                    log.warn("Binary search is not supported");
+                } else {
+                    // XXX: what kind of Objects can we get here? Is
+                    // toString() enough?
+                    filterArgs[index] = fieldValue.toString();
                 }
-                index++;
             }
-            String filterExpr = "(&" + directory.getBaseFilter()
-                    + StringUtils.join(filters) + ')';
+            index++;
+        }
+        if (index == 0) {
+            return directory.getBaseFilter();
+        }
+        return "(&" + directory.getBaseFilter() + StringUtils.join(filters)
+                + ')';
+    }
+
+    public DocumentModelList query(Map<String, Serializable> filter,
+            Set<String> fulltext, boolean fetchReferences,
+            Map<String, String> orderBy) throws DirectoryException {
+        try {
+            String[] filterArgs = new String[filter.size()];
+            String filterExpr = getFilterExpression(filter, fulltext,
+                    filterArgs);
             SearchControls scts = directory.getSearchControls();
 
             if (log.isDebugEnabled()) {
@@ -593,8 +726,8 @@ public class LDAPSession extends BaseSession implements EntrySource {
                         scts.getSearchScope(), this));
             }
             try {
-                NamingEnumeration<SearchResult> results = dirContext.search(
-                        searchBaseDn, filterExpr, filterArgs, scts);
+                NamingEnumeration<SearchResult> results = search(filterExpr,
+                        filterArgs, scts);
                 DocumentModelList entries = ldapResultsToDocumentModels(
                         results, fetchReferences);
 
@@ -649,6 +782,41 @@ public class LDAPSession extends BaseSession implements EntrySource {
         return query(filter, fulltext, new HashMap<String, String>());
     }
 
+    /**
+     * Iterates over the entries matching the given filter, each entry being
+     * built when reached. Unlike {@link #query}, the query size limit does not
+     * apply, so that with a page size configured a whole directory can be
+     * scanned with constant memory.
+     * <p>
+     * The returned iterator must be closed if not exhausted.
+     *
+     * @since 5.7.2
+     */
+    public LDAPEntryIterator scan(Map<String, Serializable> filter,
+            Set<String> fulltext, boolean fetchReferences)
+            throws DirectoryException {
+        String[] filterArgs = new String[filter.size()];
+        String filterExpr = getFilterExpression(filter, fulltext, filterArgs);
+        SearchControls scts = directory.getSearchControls();
+        // no count limit
+        scts = new SearchControls(scts.getSearchScope(), 0,
+                scts.getTimeLimit(), scts.getReturningAttributes(),
+                scts.getReturningObjFlag(), scts.getDerefLinkFlag());
+        if (log.isDebugEnabled()) {
+            log.debug(String.format(
+                    "LDAPSession.scan(...): LDAP search base='%s' filter='%s' args='%s' scope='%s' [%s]",
+                    searchBaseDn, filterExpr,
+                    StringUtils.join(filterArgs, ","), scts.getSearchScope(),
+                    this));
+        }
+        try {
+            return new LDAPEntryIterator(this, search(filterExpr, filterArgs,
+                    scts), fetchReferences);
+        } catch (NamingException e) {
+            throw new DirectoryException("scan failed", e);
+        }
+    }
+
     @Override
     public void commit() {
         // No LDAP support for transactions
@@ -679,12 +847,15 @@ public class LDAPSession extends BaseSession implements EntrySource {
     @Override
     public List<String> getProjection(Map<String, Serializable> filter,
             Set<String> fulltext, String columnName) throws DirectoryException {
-        // XXX: this suboptimal code should be either optimized for LDAP or
-        // moved to an abstract class
-        List<String> result = new ArrayList<String>();
-        DocumentModelList docList = query(filter, fulltext);
         String columnNameinDocModel = directory.getFieldMapper().getDirectoryField(
                 columnName);
+        if (isProjectableField(columnNameinDocModel)) {
+            return getAttributeProjection(filter, fulltext,
+                    columnNameinDocModel);
+        }
+        // computed fields need the full entries
+        List<String> result = new ArrayList<String>();
+        DocumentModelList docList = query(filter, fulltext);
         for (DocumentModel docModel : docList) {
             Object obj;
             try {
@@ -703,6 +874,92 @@ public class LDAPSession extends BaseSession implements EntrySource {
         return result;
     }
 
+    /**
+     * Checks if the given field is read as is from a single attribute, so
+     * that it can be projected without building the entries.
+     *
+     * @since 5.7.2
+     */
+    protected boolean isProjectableField(String fieldName) {
+        if (!schemaFieldMap.containsKey(fieldName)
+                || directory.isReference(fieldName)
+                || fieldName.equals(getIdField())
+                || fieldName.equals(getPasswordField())
+                || directory.getConfig().getEntryAdaptor() != null) {
+            return false;
+        }
+        String attributeId = directory.getFieldMapper().getBackendField(
+                fieldName);
+        return !LDAPDirectory.DN_SPECIAL_ATTRIBUTE_KEY.equals(attributeId);
+    }
+
+    /**
+     * Projects the given field with a search returning only its attribute and
+     * the id attribute, entries without id being skipped as in
+     * {@link #query}.
+     *
+     * @since 5.7.2
+     */
+    protected List<String> getAttributeProjection(
+            Map<String, Serializable> filter, Set<String> fulltext,
+            String fieldName) throws DirectoryException {
+        String attributeId = directory.getFieldMapper().getBackendField(
+                fieldName);
+        String[] filterArgs = new String[filter.size()];
+        String filterExpr = getFilterExpression(filter, fulltext, filterArgs);
+        SearchControls scts = directory.getSearchControls();
+        scts = new SearchControls(scts.getSearchScope(),
+                scts.getCountLimit(), scts.getTimeLimit(), new String[] {
+                        idAttribute, attributeId }, false,
+                scts.getDerefLinkFlag());
+        if (log.isDebugEnabled()) {
+            log.debug(String.format(
+                    "LDAPSession.getProjection(...): LDAP search base='%s' filter='%s' args='%s' attribute='%s' [%s]",
+                    searchBaseDn, filterExpr,
+                    StringUtils.join(filterArgs, ","), attributeId, this));
+        }
+        List<String> result = new ArrayList<String>();
+        try {
+            NamingEnumeration<SearchResult> results = search(filterExpr,
+                    filterArgs, scts);
+            try {
+                while (results.hasMore()) {
+                    Attributes attributes = results.next().getAttributes();
+                    Attribute id = attributes.get(idAttribute);
+                    if (id == null || id.get() == null) {
+                        continue;
+                    }
+                    Object value = getFieldValue(attributes.get(attributeId),
+                            fieldName, null, false);
+                    if (value instanceof String) {
+                        result.add((String) value);
+                    } else {
+                        result.add(String.valueOf(value));
+                    }
+                }
+            } catch (SizeLimitExceededException e) {
+                if (result.isEmpty()) {
+                    throw e;
+                }
+                // truncated results, as in query
+                log.debug("SizeLimitExceededException caught,"
+                        + " return truncated results. Original message: "
+                        + e.getMessage());
+            } finally {
+                results.close();
+            }
+        } catch (NameNotFoundException nnfe) {
+            // same as query
+            log.error("Unexpected response from server while performing query: "
+                    + nnfe.getMessage(), nnfe);
+        } catch (LimitExceededException e) {
+            throw new org.nuxeo.ecm.directory.SizeLimitExceededException(e);
+        } catch (NamingException e) {
+            throw new DirectoryException("getProjection failed", e);
+        }
+        return result;
+    }
+
     protected DocumentModel fieldMapToDocumentModel(Map<String, Object> fieldMap)
             throws DirectoryException {
         String id = String.valueOf(fieldMap.get(getIdField()));
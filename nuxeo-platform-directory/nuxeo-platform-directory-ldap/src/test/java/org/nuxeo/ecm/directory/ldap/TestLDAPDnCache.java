@@ -0,0 +1,61 @@
+/*
+ * (C) Copyright 2013 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ */
+
+package org.nuxeo.ecm.directory.ldap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class TestLDAPDnCache {
+
+    @Test
+    public void testDisabled() {
+        LDAPDnCache cache = new LDAPDnCache(0, 0);
+        assertFalse(cache.isEnabled());
+        cache.put("uid=user1,ou=people,dc=example,dc=com", "user1");
+        assertNull(cache.get("uid=user1,ou=people,dc=example,dc=com"));
+    }
+
+    @Test
+    public void testGetPut() {
+        LDAPDnCache cache = new LDAPDnCache(2, 0);
+        cache.put("uid=user1,ou=people", "user1");
+        // DNs without id are cached too
+        cache.put("uid=nobody,ou=people", null);
+        assertEquals("user1", cache.get("uid=user1,ou=people").id);
+        LDAPDnCache.CachedId cached = cache.get("uid=nobody,ou=people");
+        assertNotNull(cached);
+        assertNull(cached.id);
+        assertNull(cache.get("uid=user2,ou=people"));
+
+        // least recently used DN is evicted
+        cache.get("uid=user1,ou=people");
+        cache.put("uid=user2,ou=people", "user2");
+        assertEquals(2, cache.size());
+        assertNull(cache.get("uid=nobody,ou=people"));
+        assertEquals("user1", cache.get("uid=user1,ou=people").id);
+
+        cache.invalidateAll();
+        assertEquals(0, cache.size());
+        assertNull(cache.get("uid=user1,ou=people"));
+    }
+
+}
@@ -459,6 +459,48 @@ public class TestLDAPSession extends LDAPDirectoryTestCase {
         }
     }
 
+    @Test
+    public void testScan() throws ClientException {
+        LDAPDirectory directory = getLDAPDirectory("userDirectory");
+        directory.getConfig().setPageSize(2);
+        LDAPSession session = (LDAPSession) directory.getSession();
+        try {
+            LDAPEntryIterator it = session.scan(
+                    new HashMap<String, Serializable>(), null, false);
+            List<String> entryIds = new ArrayList<String>();
+            try {
+                while (it.hasNext()) {
+                    entryIds.add(it.next().getId());
+                }
+            } finally {
+                it.close();
+            }
+            Collections.sort(entryIds);
+            assertEquals(Arrays.asList("Administrator", "user1", "user2",
+                    "user3"), entryIds);
+            // paged query gives the same results
+            assertEquals(4, session.getEntries().size());
+        } finally {
+            directory.getConfig().setPageSize(0);
+            session.close();
+        }
+    }
+
+    @Test
+    public void testGetProjection() throws ClientException {
+        Session session = getLDAPDirectory("userDirectory").getSession();
+        try {
+            Map<String, Serializable> filter = new HashMap<String, Serializable>();
+            filter.put("lastName", "Manager");
+            assertEquals(Arrays.asList("Administrator"),
+                    session.getProjection(filter, "username"));
+            assertEquals(Arrays.asList("Manager"),
+                    session.getProjection(filter, "lastName"));
+        } finally {
+            session.close();
+        }
+    }
+
     @Test
     public void testCreateEntry() throws Exception {
         if (USE_EXTERNAL_TEST_LDAP_SERVER) {
@@ -21,6 +21,12 @@ package org.nuxeo.ecm.directory.multi;
 
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.nuxeo.ecm.core.api.ClientException;
 import org.nuxeo.ecm.directory.AbstractDirectory;
@@ -35,10 +41,17 @@ import org.nuxeo.ecm.directory.Session;
  */
 public class MultiDirectory extends AbstractDirectory {
 
+    /**
+     * @since 5.7.2
+     */
+    public static final int DEFAULT_PARALLEL_THREADS = 4;
+
     private final MultiDirectoryDescriptor descriptor;
 
     private Set<MultiDirectorySession> sessions;
 
+    private ExecutorService executor;
+
     public MultiDirectory(MultiDirectoryDescriptor descriptor) {
         this.descriptor = descriptor;
         sessions = new HashSet<MultiDirectorySession>();
@@ -85,7 +98,56 @@ public class MultiDirectory extends AbstractDirectory {
         sessions.remove(session);
     }
 
+    /**
+     * Gets the bounded executor used to query the subdirectories in parallel
+     * mode, created on first use.
+     *
+     * @since 5.7.2
+     */
+    protected synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            Integer threads = descriptor.parallelThreads;
+            int size = threads == null || threads.intValue() <= 0 ? DEFAULT_PARALLEL_THREADS
+                    : threads.intValue();
+            final String prefix = "Nuxeo-MultiDirectory-" + getName() + "-";
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(size, size, 60,
+                    TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                    new ThreadFactory() {
+                        private final AtomicInteger count = new AtomicInteger();
+
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, prefix
+                                    + count.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            pool.allowCoreThreadTimeOut(true);
+            executor = pool;
+        }
+        return executor;
+    }
+
+    /**
+     * Maximum time in milliseconds to wait for a subdirectory in parallel
+     * mode, 0 to wait indefinitely.
+     *
+     * @since 5.7.2
+     */
+    protected long getSourceTimeout() {
+        Integer timeout = descriptor.sourceTimeout;
+        return timeout == null || timeout.intValue() < 0 ? 0
+                : timeout.intValue();
+    }
+
     public void shutdown() throws DirectoryException {
+        synchronized (this) {
+            if (executor != null) {
+                executor.shutdownNow();
+                executor = null;
+            }
+        }
         try {
             // use toArray to avoid concurrent modification of list
             for (Object session : sessions.toArray()) {
@@ -47,12 +47,45 @@ public class MultiDirectoryDescriptor implements Cloneable {
     @XNode("querySizeLimit")
     public Integer querySizeLimit;
 
+    /**
+     * If true, the subdirectories are queried concurrently.
+     *
+     * @since 5.7.2
+     */
+    @XNode("parallel")
+    public Boolean parallel;
+
+    /**
+     * Maximum number of threads used to query the subdirectories in parallel
+     * mode.
+     *
+     * @since 5.7.2
+     */
+    @XNode("parallelThreads")
+    public Integer parallelThreads;
+
+    /**
+     * Maximum time in milliseconds to wait for a subdirectory in parallel
+     * mode, 0 to wait indefinitely.
+     *
+     * @since 5.7.2
+     */
+    @XNode("sourceTimeout")
+    public Integer sourceTimeout;
+
     @XNode("@remove")
     public boolean remove = false;
 
     @XNodeList(value = "source", type = SourceDescriptor[].class, componentType = SourceDescriptor.class)
     protected SourceDescriptor[] sources;
 
+    /**
+     * @since 5.7.2
+     */
+    public boolean isParallel() {
+        return Boolean.TRUE.equals(parallel);
+    }
+
     public void merge(MultiDirectoryDescriptor other) {
         merge(other, false);
     }
@@ -73,6 +106,15 @@ public class MultiDirectoryDescriptor implements Cloneable {
         if (other.querySizeLimit != null || overwrite) {
             querySizeLimit = other.querySizeLimit;
         }
+        if (other.parallel != null || overwrite) {
+            parallel = other.parallel;
+        }
+        if (other.parallelThreads != null || overwrite) {
+            parallelThreads = other.parallelThreads;
+        }
+        if (other.sourceTimeout != null || overwrite) {
+            sourceTimeout = other.sourceTimeout;
+        }
         if (other.sources != null || overwrite) {
             if (sources == null) {
                 sources = other.sources;
@@ -98,6 +140,9 @@ public class MultiDirectoryDescriptor implements Cloneable {
         clone.passwordField = passwordField;
         clone.readOnly = readOnly;
         clone.querySizeLimit = querySizeLimit;
+        clone.parallel = parallel;
+        clone.parallelThreads = parallelThreads;
+        clone.sourceTimeout = sourceTimeout;
         clone.remove = remove;
         if (sources != null) {
             clone.sources = new SourceDescriptor[sources.length];
@@ -21,14 +21,24 @@ package org.nuxeo.ecm.directory.multi;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -36,6 +46,8 @@ import org.nuxeo.ecm.core.api.ClientException;
 import org.nuxeo.ecm.core.api.DocumentModel;
 import org.nuxeo.ecm.core.api.DocumentModelList;
 import org.nuxeo.ecm.core.api.impl.DocumentModelListImpl;
+import org.nuxeo.ecm.core.api.local.ClientLoginModule;
+import org.nuxeo.ecm.core.api.local.LoginStack;
 import org.nuxeo.ecm.core.api.model.PropertyException;
 import org.nuxeo.ecm.core.schema.SchemaManager;
 import org.nuxeo.ecm.core.schema.types.Field;
@@ -416,67 +428,246 @@ public class MultiDirectorySession extends BaseSession {
     public DocumentModel getEntry(String id, boolean fetchReferences)
             throws DirectoryException {
         init();
+        if (descriptor.isParallel()) {
+            return getEntryParallel(id, fetchReferences);
+        }
         source_loop: for (SourceInfo sourceInfo : sourceInfos) {
-            boolean isReadOnlyEntry = true;
-            final Map<String, Object> map = new HashMap<String, Object>();
-
+            List<DocumentModel> entries = new ArrayList<DocumentModel>(
+                    sourceInfo.subDirectoryInfos.size());
             for (SubDirectoryInfo dirInfo : sourceInfo.subDirectoryInfos) {
-                final DocumentModel entry = dirInfo.getSession().getEntry(id,
+                DocumentModel entry = dirInfo.getSession().getEntry(id,
                         fetchReferences);
-                boolean isOptional = dirInfo.isOptional;
-                if (entry == null && !isOptional) {
+                if (entry == null && !dirInfo.isOptional) {
                     // not in this source
                     continue source_loop;
                 }
-                if (entry != null && !isReadOnlyEntry(entry)) {
-                    // set readonly to false if at least one source is writable
-                    isReadOnlyEntry = false;
+                entries.add(entry);
+            }
+            return mergeEntries(id, sourceInfo, entries);
+        }
+        return null;
+    }
+
+    /**
+     * Fetches the entry from the subdirectories of all the sources at once,
+     * the first source having it in all its required subdirectories winning.
+     *
+     * @since 5.7.2
+     */
+    protected DocumentModel getEntryParallel(final String id,
+            final boolean fetchReferences) throws DirectoryException {
+        List<DocumentModel> allEntries = callSubDirectories(
+                getSubDirectoryInfos(),
+                new SubDirectoryCall<DocumentModel>() {
+                    @Override
+                    public DocumentModel call(SubDirectoryInfo dirInfo,
+                            Session session) throws ClientException {
+                        return session.getEntry(id, fetchReferences);
+                    }
+                });
+        int offset = 0;
+        source_loop: for (SourceInfo sourceInfo : sourceInfos) {
+            int size = sourceInfo.subDirectoryInfos.size();
+            List<DocumentModel> entries = allEntries.subList(offset, offset
+                    + size);
+            offset += size;
+            for (int i = 0; i < size; i++) {
+                if (entries.get(i) == null
+                        && !sourceInfo.subDirectoryInfos.get(i).isOptional) {
+                    // not in this source
+                    continue source_loop;
                 }
-                try {
-                    if (entry == null && isOptional
-                            && !dirInfo.getSession().isReadOnly()) {
-                        // set readonly to false if null entry is from optional
-                        // and writable directory
-                        isReadOnlyEntry = false;
+            }
+            return mergeEntries(id, sourceInfo, entries);
+        }
+        return null;
+    }
+
+    /**
+     * Fetches the entries of each source with one bulk request per
+     * subdirectory, only ids present in all the required subdirectories of a
+     * source being kept.
+     *
+     * @since 5.7.2
+     */
+    @Override
+    public DocumentModelList getEntries(Collection<String> ids,
+            final boolean fetchReferences) throws DirectoryException {
+        init();
+        Set<String> remaining = new LinkedHashSet<String>(ids);
+        Map<String, DocumentModel> found = new HashMap<String, DocumentModel>();
+        for (SourceInfo sourceInfo : sourceInfos) {
+            if (remaining.isEmpty()) {
+                break;
+            }
+            final List<String> candidates = new ArrayList<String>(remaining);
+            List<Map<String, DocumentModel>> subEntries;
+            if (descriptor.isParallel()) {
+                // all the subdirectories are asked for all the candidates
+                subEntries = callSubDirectories(sourceInfo.subDirectoryInfos,
+                        new SubDirectoryCall<Map<String, DocumentModel>>() {
+                            @Override
+                            public Map<String, DocumentModel> call(
+                                    SubDirectoryInfo dirInfo, Session session)
+                                    throws ClientException {
+                                return BaseSession.mapEntriesToIds(candidates,
+                                        session.getEntries(candidates,
+                                                fetchReferences));
+                            }
+                        });
+                for (int i = 0; i < subEntries.size(); i++) {
+                    if (!sourceInfo.subDirectoryInfos.get(i).isOptional) {
+                        candidates.retainAll(subEntries.get(i).keySet());
                     }
-                } catch (ClientException ce) {
-                    log.error("Cannot get readonly value from directory "
-                            + dirInfo.dirName, ce);
                 }
-                for (Entry<String, String> e : dirInfo.toSource.entrySet()) {
-                    if (entry != null) {
-                        try {
-                            map.put(e.getValue(),
-                                    entry.getProperty(dirInfo.dirSchemaName,
-                                            e.getKey()));
-                        } catch (ClientException e1) {
-                            throw new DirectoryException(e1);
-                        }
-                    } else {
-                        // fill with default values for this directory
-                        if (!map.containsKey(e.getValue())) {
-                            map.put(e.getValue(),
-                                    dirInfo.defaultEntry.get(e.getKey()));
-                        }
+            } else {
+                subEntries = new ArrayList<Map<String, DocumentModel>>(
+                        sourceInfo.subDirectoryInfos.size());
+                for (SubDirectoryInfo dirInfo : sourceInfo.subDirectoryInfos) {
+                    Map<String, DocumentModel> entries = Collections.emptyMap();
+                    if (!candidates.isEmpty()) {
+                        entries = BaseSession.mapEntriesToIds(candidates,
+                                dirInfo.getSession().getEntries(candidates,
+                                        fetchReferences));
                     }
+                    if (!dirInfo.isOptional) {
+                        // ids not in a required subdirectory are not in this
+                        // source
+                        candidates.retainAll(entries.keySet());
+                    }
+                    subEntries.add(entries);
+                }
+            }
+            for (String id : candidates) {
+                List<DocumentModel> entries = new ArrayList<DocumentModel>(
+                        subEntries.size());
+                for (Map<String, DocumentModel> dirEntries : subEntries) {
+                    entries.add(dirEntries.get(id));
                 }
+                found.put(id, mergeEntries(id, sourceInfo, entries));
+                remaining.remove(id);
             }
-            // force the entry in readonly if it's defined on the multidirectory
-            if (isReadOnly()) {
-                isReadOnlyEntry = true;
+        }
+        DocumentModelList result = new DocumentModelListImpl();
+        for (String id : new LinkedHashSet<String>(ids)) {
+            DocumentModel entry = found.get(id);
+            if (entry != null) {
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Builds the multi-directory entry from the entries of the subdirectories
+     * of a source, given in the same order as the subdirectories ({@code null}
+     * for entries missing from optional subdirectories).
+     *
+     * @since 5.7.2
+     */
+    protected DocumentModel mergeEntries(String id, SourceInfo sourceInfo,
+            List<DocumentModel> entries) throws DirectoryException {
+        boolean isReadOnlyEntry = true;
+        Iterator<DocumentModel> entryIt = entries.iterator();
+        for (SubDirectoryInfo dirInfo : sourceInfo.subDirectoryInfos) {
+            final DocumentModel entry = entryIt.next();
+            if (entry != null && !isReadOnlyEntry(entry)) {
+                // set readonly to false if at least one source is writable
+                isReadOnlyEntry = false;
             }
-            // ok we have the data
             try {
-                return BaseSession.createEntryModel(null, schemaName, id, map,
-                        isReadOnlyEntry);
-            } catch (PropertyException e) {
-                throw new DirectoryException(e);
+                if (entry == null && dirInfo.isOptional
+                        && !dirInfo.getSession().isReadOnly()) {
+                    // set readonly to false if null entry is from optional
+                    // and writable directory
+                    isReadOnlyEntry = false;
+                }
+            } catch (ClientException ce) {
+                log.error("Cannot get readonly value from directory "
+                        + dirInfo.dirName, ce);
             }
         }
-        return null;
+        // force the entry in readonly if it's defined on the multidirectory
+        if (isReadOnly()) {
+            isReadOnlyEntry = true;
+        }
+        return mergeEntries(id, sourceInfo, entries, isReadOnlyEntry);
     }
 
-    @SuppressWarnings("boxing")
+    /**
+     * Builds the multi-directory entry from the entries of the subdirectories
+     * of a source, the fields of missing optional entries being filled with
+     * the default values of their subdirectory.
+     *
+     * @since 5.7.2
+     */
+    protected DocumentModel mergeEntries(String id, SourceInfo sourceInfo,
+            List<DocumentModel> entries, boolean isReadOnlyEntry)
+            throws DirectoryException {
+        final Map<String, Object> map = new HashMap<String, Object>();
+        Iterator<DocumentModel> entryIt = entries.iterator();
+        for (SubDirectoryInfo dirInfo : sourceInfo.subDirectoryInfos) {
+            final DocumentModel entry = entryIt.next();
+            for (Entry<String, String> e : dirInfo.toSource.entrySet()) {
+                if (entry != null) {
+                    try {
+                        map.put(e.getValue(),
+                                entry.getProperty(dirInfo.dirSchemaName,
+                                        e.getKey()));
+                    } catch (ClientException e1) {
+                        throw new DirectoryException(e1);
+                    }
+                } else {
+                    // fill with default values for this directory
+                    if (!map.containsKey(e.getValue())) {
+                        map.put(e.getValue(),
+                                dirInfo.defaultEntry.get(e.getKey()));
+                    }
+                }
+            }
+        }
+        // ok we have the data
+        try {
+            return BaseSession.createEntryModel(null, schemaName, id, map,
+                    isReadOnlyEntry);
+        } catch (PropertyException e) {
+            throw new DirectoryException(e);
+        }
+    }
+
+    /**
+     * Indexes the entries of a subdirectory by id, keeping their order.
+     */
+    protected static Map<String, DocumentModel> indexEntries(
+            List<DocumentModel> entries) {
+        Map<String, DocumentModel> index = new LinkedHashMap<String, DocumentModel>(
+                entries.size() * 4 / 3 + 1);
+        for (DocumentModel entry : entries) {
+            if (!index.containsKey(entry.getId())) {
+                index.put(entry.getId(), entry);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Returns true if one of the given subdirectory entries is read-only.
+     */
+    protected static boolean hasReadOnlyEntry(List<DocumentModel> entries) {
+        for (DocumentModel entry : entries) {
+            if (entry != null && BaseSession.isReadOnlyEntry(entry)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the entries of all the subdirectories of each source, joined
+     * directly from the subdirectory results indexed by id: entries are
+     * driven by the first required subdirectory, then looked up in the other
+     * ones.
+     */
     public DocumentModelList getEntries() throws ClientException {
         init();
 
@@ -484,52 +675,39 @@ public class MultiDirectorySession extends BaseSession {
         final DocumentModelList results = new DocumentModelListImpl();
         // entry ids already seen (mapped to the source name)
         final Map<String, String> seen = new HashMap<String, String>();
-        Set<String> readOnlyEntries = new HashSet<String>();
 
+        SubDirectoryCall<DocumentModelList> getEntriesCall = new SubDirectoryCall<DocumentModelList>() {
+            @Override
+            public DocumentModelList call(SubDirectoryInfo dirInfo,
+                    Session session) throws ClientException {
+                return session.getEntries();
+            }
+        };
         for (SourceInfo sourceInfo : sourceInfos) {
-            // accumulated map for each entry
-            final Map<String, Map<String, Object>> maps = new HashMap<String, Map<String, Object>>();
-            // number of dirs seen for each entry
-            final Map<String, Integer> counts = new HashMap<String, Integer>();
-            for (SubDirectoryInfo dirInfo : sourceInfo.requiredSubDirectoryInfos) {
-                final DocumentModelList entries = dirInfo.getSession().getEntries();
-                for (DocumentModel entry : entries) {
-                    final String id = entry.getId();
-                    // find or create map for this entry
-                    Map<String, Object> map = maps.get(id);
-                    if (map == null) {
-                        map = new HashMap<String, Object>();
-                        maps.put(id, map);
-                        counts.put(id, 1);
-                    } else {
-                        counts.put(id, counts.get(id) + 1);
-                    }
-                    // put entry data in map
-                    for (Entry<String, String> e : dirInfo.toSource.entrySet()) {
-                        map.put(e.getValue(),
-                                entry.getProperty(dirInfo.dirSchemaName,
-                                        e.getKey()));
-                    }
-                    if (BaseSession.isReadOnlyEntry(entry)) {
-                        readOnlyEntries.add(id);
-                    }
+            List<SubDirectoryInfo> dirInfos = sourceInfo.subDirectoryInfos;
+            List<DocumentModelList> subResults = callSubDirectories(dirInfos,
+                    getEntriesCall);
+            List<Map<String, DocumentModel>> indexes = new ArrayList<Map<String, DocumentModel>>(
+                    dirInfos.size());
+            Map<String, DocumentModel> driver = null;
+            for (int i = 0; i < dirInfos.size(); i++) {
+                Map<String, DocumentModel> index = indexEntries(subResults.get(i));
+                indexes.add(index);
+                if (driver == null && !dirInfos.get(i).isOptional) {
+                    driver = index;
                 }
             }
-            for (SubDirectoryInfo dirInfo : sourceInfo.optionalSubDirectoryInfos) {
-                final DocumentModelList entries = dirInfo.getSession().getEntries();
-                Set<String> existingIds = new HashSet<String>();
-                for (DocumentModel entry : entries) {
-                    final String id = entry.getId();
-                    final Map<String, Object> map = maps.get(id);
-                    if (map != null) {
-                        existingIds.add(id);
-                        // put entry data in map
-                        for (Entry<String, String> e : dirInfo.toSource.entrySet()) {
-                            map.put(e.getValue(),
-                                    entry.getProperty(dirInfo.dirSchemaName,
-                                            e.getKey()));
-                        }
-                    } else {
+            // report entries which can't be joined
+            Set<String> incomplete = new HashSet<String>();
+            for (int i = 0; i < dirInfos.size(); i++) {
+                SubDirectoryInfo dirInfo = dirInfos.get(i);
+                for (String id : indexes.get(i).keySet()) {
+                    if (driver.containsKey(id)) {
+                        continue;
+                    }
+                    if (!dirInfo.isOptional) {
+                        incomplete.add(id);
+                    } else if (!isInRequiredSubDirectory(id, dirInfos, indexes)) {
                         log.warn(String.format(
                                 "Entry '%s' for source '%s' is present in optional directory '%s' "
                                         + "but not in any required one. "
@@ -537,26 +715,10 @@ public class MultiDirectorySession extends BaseSession {
                                 sourceInfo.source.name, dirInfo.dirName));
                     }
                 }
-                for (Entry<String, Map<String, Object>> mapEntry : maps.entrySet()) {
-                    if (!existingIds.contains(mapEntry.getKey())) {
-                        final Map<String, Object> map = mapEntry.getValue();
-                        // put entry data in map
-                        for (Entry<String, String> e : dirInfo.toSource.entrySet()) {
-                            // fill with default values for this directory
-                            if (!map.containsKey(e.getValue())) {
-                                map.put(e.getValue(),
-                                        dirInfo.defaultEntry.get(e.getKey()));
-                            }
-                        }
-                    }
-                }
             }
-            // now create entries for all full maps
-            int numdirs = sourceInfo.requiredSubDirectoryInfos.size();
             ((ArrayList<?>) results).ensureCapacity(results.size()
-                    + maps.size());
-            for (Entry<String, Map<String, Object>> e : maps.entrySet()) {
-                final String id = e.getKey();
+                    + driver.size());
+            entry_loop: for (String id : driver.keySet()) {
                 if (seen.containsKey(id)) {
                     log.warn(String.format(
                             "Entry '%s' is present in source '%s' but also in source '%s'. "
@@ -564,23 +726,224 @@ public class MultiDirectorySession extends BaseSession {
                             seen.get(id), sourceInfo.source.name));
                     continue;
                 }
-                final Map<String, Object> map = e.getValue();
-                if (counts.get(id) != numdirs) {
-                    log.warn(String.format(
-                            "Entry '%s' for source '%s' is not present in all directories. "
-                                    + "It will be skipped.", id,
-                            sourceInfo.source.name));
-                    continue;
+                List<DocumentModel> entries = new ArrayList<DocumentModel>(
+                        dirInfos.size());
+                for (int i = 0; i < dirInfos.size(); i++) {
+                    DocumentModel entry = indexes.get(i).get(id);
+                    if (entry == null && !dirInfos.get(i).isOptional) {
+                        incomplete.add(id);
+                        continue entry_loop;
+                    }
+                    entries.add(entry);
                 }
                 seen.put(id, sourceInfo.source.name);
-                final DocumentModel entry = BaseSession.createEntryModel(null,
-                        schemaName, id, map, readOnlyEntries.contains(id));
-                results.add(entry);
+                results.add(mergeEntries(id, sourceInfo, entries,
+                        hasReadOnlyEntry(entries)));
+            }
+            for (String id : incomplete) {
+                log.warn(String.format(
+                        "Entry '%s' for source '%s' is not present in all directories. "
+                                + "It will be skipped.", id,
+                        sourceInfo.source.name));
             }
         }
         return results;
     }
 
+    protected static boolean isInRequiredSubDirectory(String id,
+            List<SubDirectoryInfo> dirInfos,
+            List<Map<String, DocumentModel>> indexes) {
+        for (int i = 0; i < dirInfos.size(); i++) {
+            if (!dirInfos.get(i).isOptional && indexes.get(i).containsKey(id)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the subdirectories of all the sources, in order.
+     *
+     * @since 5.7.2
+     */
+    protected List<SubDirectoryInfo> getSubDirectoryInfos()
+            throws DirectoryException {
+        init();
+        List<SubDirectoryInfo> dirInfos = new ArrayList<SubDirectoryInfo>();
+        for (SourceInfo sourceInfo : sourceInfos) {
+            dirInfos.addAll(sourceInfo.subDirectoryInfos);
+        }
+        return dirInfos;
+    }
+
+    /**
+     * Call made on the session of a subdirectory, possibly from another
+     * thread in parallel mode.
+     *
+     * @since 5.7.2
+     */
+    protected interface SubDirectoryCall<T> {
+
+        T call(SubDirectoryInfo dirInfo, Session session)
+                throws ClientException;
+
+    }
+
+    /**
+     * Call on a subdirectory run on the executor in parallel mode, with the
+     * login of the calling thread so that tenant filtering applies.
+     * <p>
+     * The call opens and closes its own session of the subdirectory in the
+     * executor thread: sessions holding a connection, like SQL ones, are
+     * never shared between threads nor bound to the transaction of the
+     * calling thread. A task that is abandoned before it started is skipped,
+     * a running one is never interrupted.
+     *
+     * @since 5.7.2
+     */
+    protected static class SubDirectoryTask<T> implements Callable<T> {
+
+        protected final SubDirectoryCall<T> call;
+
+        protected final SubDirectoryInfo dirInfo;
+
+        protected final DirectoryService directoryService;
+
+        protected final LoginStack.Entry login;
+
+        protected volatile boolean abandoned;
+
+        protected SubDirectoryTask(SubDirectoryCall<T> call,
+                SubDirectoryInfo dirInfo, DirectoryService directoryService,
+                LoginStack.Entry login) {
+            this.call = call;
+            this.dirInfo = dirInfo;
+            this.directoryService = directoryService;
+            this.login = login;
+        }
+
+        @Override
+        public T call() throws ClientException {
+            if (abandoned) {
+                return null;
+            }
+            if (login != null) {
+                ClientLoginModule.getThreadLocalLogin().push(
+                        login.getPrincipal(), login.getCredential(),
+                        login.getSubject());
+            }
+            try {
+                Session session = directoryService.open(dirInfo.dirName);
+                try {
+                    return call.call(dirInfo, session);
+                } finally {
+                    session.close();
+                }
+            } finally {
+                if (login != null) {
+                    ClientLoginModule.getThreadLocalLogin().pop();
+                }
+            }
+        }
+
+        /**
+         * Gives up on this call, which is skipped if it did not start yet.
+         */
+        protected void abandon() {
+            abandoned = true;
+        }
+    }
+
+    /**
+     * Makes the given call on each given subdirectory and returns the results
+     * in the same order.
+     * <p>
+     * In parallel mode the calls are run concurrently on the executor of the
+     * directory, waiting at most the configured source timeout for each. Each
+     * call runs with the login of the calling thread on a session opened for
+     * it in the executor thread, outside of the transaction of the calling
+     * thread: changes not yet committed by the caller are not seen. A call
+     * that timed out is left to complete and close its session.
+     *
+     * @since 5.7.2
+     */
+    protected <T> List<T> callSubDirectories(List<SubDirectoryInfo> dirInfos,
+            final SubDirectoryCall<T> call) throws DirectoryException {
+        List<T> results = new ArrayList<T>(dirInfos.size());
+        if (!descriptor.isParallel() || dirInfos.size() < 2) {
+            for (SubDirectoryInfo dirInfo : dirInfos) {
+                try {
+                    results.add(call.call(dirInfo, dirInfo.getSession()));
+                } catch (DirectoryException e) {
+                    throw e;
+                } catch (ClientException e) {
+                    throw new DirectoryException(e);
+                }
+            }
+            return results;
+        }
+        ExecutorService executor = directory.getExecutor();
+        long timeout = TimeUnit.MILLISECONDS.toNanos(directory.getSourceTimeout());
+        LoginStack.Entry login = ClientLoginModule.getCurrentLogin();
+        List<SubDirectoryTask<T>> tasks = new ArrayList<SubDirectoryTask<T>>(
+                dirInfos.size());
+        List<Future<T>> futures = new ArrayList<Future<T>>(dirInfos.size());
+        try {
+            for (SubDirectoryInfo dirInfo : dirInfos) {
+                SubDirectoryTask<T> task = new SubDirectoryTask<T>(call,
+                        dirInfo, directoryService, login);
+                futures.add(executor.submit(task));
+                tasks.add(task);
+            }
+            long start = System.nanoTime();
+            for (int i = 0; i < futures.size(); i++) {
+                Future<T> future = futures.get(i);
+                String dirName = dirInfos.get(i).dirName;
+                try {
+                    if (timeout > 0) {
+                        // all the calls were submitted together
+                        long wait = Math.max(0, start + timeout
+                                - System.nanoTime());
+                        results.add(future.get(wait, TimeUnit.NANOSECONDS));
+                    } else {
+                        results.add(future.get());
+                    }
+                } catch (TimeoutException e) {
+                    throw new DirectoryException(String.format(
+                            "Directory '%s' timed out after %sms waiting for subdirectory '%s'",
+                            directory.getName(),
+                            Long.valueOf(directory.getSourceTimeout()),
+                            dirName));
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof DirectoryException) {
+                        throw (DirectoryException) cause;
+                    }
+                    throw new DirectoryException(String.format(
+                            "Directory '%s' failed querying subdirectory '%s'",
+                            directory.getName(), dirName), cause);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new DirectoryException(e);
+                }
+            }
+            return results;
+        } catch (RejectedExecutionException e) {
+            throw new DirectoryException(String.format(
+                    "Directory '%s' is shut down", directory.getName()), e);
+        } finally {
+            for (int i = 0; i < tasks.size(); i++) {
+                if (futures.get(i).isDone()) {
+                    continue;
+                }
+                // interrupting a JDBC or LDAP call could leave its
+                // connection in an undefined state: let it complete
+                futures.get(i).cancel(false);
+                tasks.get(i).abandon();
+            }
+        }
+    }
+
     public DocumentModel createEntry(Map<String, Object> fieldMap)
             throws ClientException {
         init();
@@ -707,7 +1070,7 @@ public class MultiDirectorySession extends BaseSession {
     @SuppressWarnings("boxing")
     public DocumentModelList query(Map<String, Serializable> filter,
             Set<String> fulltext, Map<String, String> orderBy,
-            boolean fetchReferences) throws ClientException {
+            final boolean fetchReferences) throws ClientException {
         init();
         // list of entries
         final DocumentModelList results = new DocumentModelListImpl();
@@ -716,17 +1079,14 @@ public class MultiDirectorySession extends BaseSession {
         if (fulltext == null) {
             fulltext = Collections.emptySet();
         }
-        Set<String> readOnlyEntries = new HashSet<String>();
 
         for (SourceInfo sourceInfo : sourceInfos) {
-            // accumulated map for each entry
-            final Map<String, Map<String, Object>> maps = new HashMap<String, Map<String, Object>>();
-            // number of dirs seen for each entry
-            final Map<String, Integer> counts = new HashMap<String, Integer>();
-
-            // list of optional dirs where filter matches default values
-            List<SubDirectoryInfo> optionalDirsMatching = new ArrayList<SubDirectoryInfo>();
-            for (SubDirectoryInfo dirInfo : sourceInfo.subDirectoryInfos) {
+            List<SubDirectoryInfo> dirInfos = sourceInfo.subDirectoryInfos;
+            final Map<SubDirectoryInfo, Map<String, Serializable>> dirFilters = new HashMap<SubDirectoryInfo, Map<String, Serializable>>();
+            final Map<SubDirectoryInfo, Set<String>> dirFulltexts = new HashMap<SubDirectoryInfo, Set<String>>();
+            // optional dirs where filter matches default values
+            final Set<SubDirectoryInfo> optionalDirsMatching = new HashSet<SubDirectoryInfo>();
+            for (SubDirectoryInfo dirInfo : dirInfos) {
                 // compute filter
                 final Map<String, Serializable> dirFilter = new HashMap<String, Serializable>();
                 for (Entry<String, Serializable> e : filter.entrySet()) {
@@ -761,64 +1121,54 @@ public class MultiDirectorySession extends BaseSession {
                         dirFulltext.add(fieldName);
                     }
                 }
-                // make query to subdirectory
-                DocumentModelList l = dirInfo.getSession().query(dirFilter,
-                        dirFulltext, null, fetchReferences);
-                for (DocumentModel entry : l) {
-                    final String id = entry.getId();
-                    Map<String, Object> map = maps.get(id);
-                    if (map == null) {
-                        map = new HashMap<String, Object>();
-                        maps.put(id, map);
-                        counts.put(id, 1);
-                    } else {
-                        counts.put(id, counts.get(id) + 1);
-                    }
-                    for (Entry<String, String> e : dirInfo.toSource.entrySet()) {
-                        map.put(e.getValue(),
-                                entry.getProperty(dirInfo.dirSchemaName,
-                                        e.getKey()));
-                    }
-                    if (BaseSession.isReadOnlyEntry(entry)) {
-                        readOnlyEntries.add(id);
-                    }
-                }
+                dirFilters.put(dirInfo, dirFilter);
+                dirFulltexts.put(dirInfo, dirFulltext);
             }
-            // add default entry values for optional dirs
-            for (SubDirectoryInfo dirInfo : optionalDirsMatching) {
-                // add entry for every data found in other dirs
-                Set<String> existingIds = new HashSet<String>(
-                        dirInfo.getSession().getProjection(
-                                Collections.<String, Serializable> emptyMap(),
-                                dirInfo.idField));
-                for (Entry<String, Map<String, Object>> result : maps.entrySet()) {
-                    final String id = result.getKey();
-                    if (!existingIds.contains(id)) {
-                        counts.put(id, counts.get(id) + 1);
-                        final Map<String, Object> map = result.getValue();
-                        for (Entry<String, String> e : dirInfo.toSource.entrySet()) {
-                            String value = e.getValue();
-                            if (!map.containsKey(value)) {
-                                map.put(value,
-                                        dirInfo.defaultEntry.get(e.getKey()));
+            // make queries to subdirectories
+            List<SubDirectoryQueryResult> subResults = callSubDirectories(
+                    dirInfos, new SubDirectoryCall<SubDirectoryQueryResult>() {
+                        @Override
+                        public SubDirectoryQueryResult call(
+                                SubDirectoryInfo dirInfo, Session session)
+                                throws ClientException {
+                            DocumentModelList entries = session.query(
+                                    dirFilters.get(dirInfo),
+                                    dirFulltexts.get(dirInfo), null,
+                                    fetchReferences);
+                            Set<String> existingIds = null;
+                            if (optionalDirsMatching.contains(dirInfo)) {
+                                // entries not in this dir match with their
+                                // default values
+                                existingIds = new HashSet<String>(
+                                        session.getProjection(
+                                                Collections.<String, Serializable> emptyMap(),
+                                                dirInfo.idField));
                             }
+                            return new SubDirectoryQueryResult(
+                                    indexEntries(entries), existingIds);
                         }
-                    }
+                    });
+            Map<String, DocumentModel> driver = null;
+            for (int i = 0; driver == null; i++) {
+                if (!dirInfos.get(i).isOptional) {
+                    driver = subResults.get(i).entries;
                 }
             }
             // intersection, ignore entries not in all subdirectories
-            final int numdirs = sourceInfo.subDirectoryInfos.size();
-            for (Iterator<String> it = maps.keySet().iterator(); it.hasNext();) {
-                final String id = it.next();
-                if (counts.get(id) != numdirs) {
-                    it.remove();
-                }
-            }
-            // now create entries
             ((ArrayList<?>) results).ensureCapacity(results.size()
-                    + maps.size());
-            for (Entry<String, Map<String, Object>> e : maps.entrySet()) {
-                final String id = e.getKey();
+                    + driver.size());
+            entry_loop: for (String id : driver.keySet()) {
+                List<DocumentModel> entries = new ArrayList<DocumentModel>(
+                        dirInfos.size());
+                for (int i = 0; i < dirInfos.size(); i++) {
+                    SubDirectoryQueryResult subResult = subResults.get(i);
+                    DocumentModel entry = subResult.entries.get(id);
+                    if (entry == null
+                            && (subResult.existingIds == null || subResult.existingIds.contains(id))) {
+                        continue entry_loop;
+                    }
+                    entries.add(entry);
+                }
                 if (seen.containsKey(id)) {
                     log.warn(String.format(
                             "Entry '%s' is present in source '%s' but also in source '%s'. "
@@ -826,11 +1176,9 @@ public class MultiDirectorySession extends BaseSession {
                             seen.get(id), sourceInfo.source.name));
                     continue;
                 }
-                final Map<String, Object> map = e.getValue();
                 seen.put(id, sourceInfo.source.name);
-                final DocumentModel entry = BaseSession.createEntryModel(null,
-                        schemaName, id, map, readOnlyEntries.contains(id));
-                results.add(entry);
+                results.add(mergeEntries(id, sourceInfo, entries,
+                        hasReadOnlyEntry(entries)));
             }
         }
         if (orderBy != null && !orderBy.isEmpty()) {
@@ -839,6 +1187,24 @@ public class MultiDirectorySession extends BaseSession {
         return results;
     }
 
+    /**
+     * Entries of a subdirectory matching a query, and for optional
+     * subdirectories whose default values match it, the ids of all their
+     * entries.
+     */
+    protected static class SubDirectoryQueryResult {
+
+        final Map<String, DocumentModel> entries;
+
+        final Set<String> existingIds;
+
+        SubDirectoryQueryResult(Map<String, DocumentModel> entries,
+                Set<String> existingIds) {
+            this.entries = entries;
+            this.existingIds = existingIds;
+        }
+    }
+
     public List<String> getProjection(Map<String, Serializable> filter,
             String columnName) throws ClientException {
         return getProjection(filter, Collections.<String> emptySet(),
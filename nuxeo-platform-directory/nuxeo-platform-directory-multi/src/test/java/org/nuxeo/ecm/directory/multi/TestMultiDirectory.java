@@ -27,6 +27,9 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.junit.Before;
 import org.junit.After;
@@ -37,6 +40,9 @@ import org.nuxeo.ecm.core.api.ClientException;
 import org.nuxeo.ecm.core.api.DocumentModel;
 import org.nuxeo.ecm.core.api.DocumentModelComparator;
 import org.nuxeo.ecm.core.api.DocumentModelList;
+import org.nuxeo.ecm.core.api.NuxeoPrincipal;
+import org.nuxeo.ecm.core.api.impl.UserPrincipal;
+import org.nuxeo.ecm.core.api.local.ClientLoginModule;
 import org.nuxeo.ecm.directory.BaseSession;
 import org.nuxeo.ecm.directory.DirectoryException;
 import org.nuxeo.ecm.directory.Session;
@@ -194,6 +200,143 @@ public class TestMultiDirectory extends NXRuntimeTestCase {
         assertEquals("foo1", entry.getProperty("schema3", "thefoo"));
     }
 
+    @Test
+    public void testParallel() throws Exception {
+        MultiDirectory parallelDir = (MultiDirectory) directoryService.getDirectory("parallelmulti");
+        Session session = parallelDir.getSession();
+        try {
+            DocumentModel entry = session.getEntry("1");
+            assertEquals("foo1", entry.getProperty("schema3", "thefoo"));
+            assertEquals("bar1", entry.getProperty("schema3", "thebar"));
+            entry = session.getEntry("4");
+            assertEquals("foo4", entry.getProperty("schema3", "thefoo"));
+            assertEquals("bar4", entry.getProperty("schema3", "thebar"));
+            assertNull(session.getEntry("no-such-entry"));
+
+            DocumentModelList l = session.getEntries(
+                    Arrays.asList("3", "no-such-entry", "2"), false);
+            assertEquals(2, l.size());
+            assertEquals("3", l.get(0).getId());
+            assertEquals("2", l.get(1).getId());
+            assertEquals("bar2", l.get(1).getProperty("schema3", "thebar"));
+
+            assertEquals(4, session.getEntries().size());
+
+            Map<String, Serializable> filter = new HashMap<String, Serializable>();
+            filter.put("thebar", "bar2");
+            l = session.query(filter);
+            assertEquals(1, l.size());
+            assertEquals("2", l.get(0).getId());
+            assertEquals("foo2", l.get(0).getProperty("schema3", "thefoo"));
+        } finally {
+            session.close();
+        }
+    }
+
+    @Test
+    public void testParallelCallsRunWithCallerLogin() throws Exception {
+        MultiDirectory parallelDir = (MultiDirectory) directoryService.getDirectory("parallelmulti");
+        MultiDirectorySession session = (MultiDirectorySession) parallelDir.getSession();
+        ClientLoginModule.getThreadLocalLogin().push(
+                new UserPrincipal("bob", null, false, false), null, null);
+        try {
+            List<String> names = session.callSubDirectories(
+                    session.getSubDirectoryInfos(),
+                    new MultiDirectorySession.SubDirectoryCall<String>() {
+                        @Override
+                        public String call(
+                                MultiDirectorySession.SubDirectoryInfo dirInfo,
+                                Session subSession) {
+                            NuxeoPrincipal principal = ClientLoginModule.getCurrentPrincipal();
+                            return principal == null ? null
+                                    : principal.getName();
+                        }
+                    });
+            assertEquals(Arrays.asList("bob", "bob", "bob"), names);
+        } finally {
+            ClientLoginModule.getThreadLocalLogin().pop();
+            session.close();
+        }
+    }
+
+    @Test
+    public void testParallelCallsUseTheirOwnSessions() throws Exception {
+        MultiDirectory parallelDir = (MultiDirectory) directoryService.getDirectory("parallelmulti");
+        MultiDirectorySession session = (MultiDirectorySession) parallelDir.getSession();
+        try {
+            final List<MultiDirectorySession.SubDirectoryInfo> dirInfos = session.getSubDirectoryInfos();
+            final Map<String, Session> callerSessions = new HashMap<String, Session>();
+            for (MultiDirectorySession.SubDirectoryInfo dirInfo : dirInfos) {
+                callerSessions.put(dirInfo.dirName, dirInfo.getSession());
+            }
+            final Thread caller = Thread.currentThread();
+            List<Boolean> own = session.callSubDirectories(dirInfos,
+                    new MultiDirectorySession.SubDirectoryCall<Boolean>() {
+                        @Override
+                        public Boolean call(
+                                MultiDirectorySession.SubDirectoryInfo dirInfo,
+                                Session subSession) {
+                            // memory directories share a single session, so
+                            // only the thread opening it can be checked
+                            return Boolean.valueOf(Thread.currentThread() != caller);
+                        }
+                    });
+            assertEquals(Arrays.asList(Boolean.TRUE, Boolean.TRUE,
+                    Boolean.TRUE), own);
+            // the sessions of the calling thread are left untouched
+            for (MultiDirectorySession.SubDirectoryInfo dirInfo : dirInfos) {
+                assertSame(callerSessions.get(dirInfo.dirName),
+                        dirInfo.session);
+            }
+        } finally {
+            session.close();
+        }
+    }
+
+    @Test
+    public void testParallelTimeoutLeavesCallRunning() throws Exception {
+        MultiDirectory parallelDir = (MultiDirectory) directoryService.getDirectory("parallelmulti");
+        parallelDir.getDescriptor().sourceTimeout = Integer.valueOf(100);
+        MultiDirectorySession session = (MultiDirectorySession) parallelDir.getSession();
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch finished = new CountDownLatch(1);
+        final AtomicBoolean interrupted = new AtomicBoolean();
+        try {
+            List<MultiDirectorySession.SubDirectoryInfo> dirInfos = session.getSubDirectoryInfos();
+            try {
+                session.callSubDirectories(dirInfos,
+                        new MultiDirectorySession.SubDirectoryCall<String>() {
+                            @Override
+                            public String call(
+                                    MultiDirectorySession.SubDirectoryInfo dirInfo,
+                                    Session subSession) {
+                                if (!"dir1".equals(dirInfo.dirName)) {
+                                    return dirInfo.dirName;
+                                }
+                                try {
+                                    release.await();
+                                } catch (InterruptedException e) {
+                                    interrupted.set(true);
+                                } finally {
+                                    finished.countDown();
+                                }
+                                return dirInfo.dirName;
+                            }
+                        });
+                fail("Should have timed out");
+            } catch (DirectoryException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("timed out"));
+            }
+            // the timed out call is not interrupted
+            release.countDown();
+            assertTrue(finished.await(10, TimeUnit.SECONDS));
+            assertFalse(interrupted.get());
+        } finally {
+            release.countDown();
+            session.close();
+        }
+    }
+
     @Test
     public void testCreate() throws Exception {
         Session dir1 = memdir1.getSession();
@@ -0,0 +1,852 @@
+/*
+ * (C) Copyright 2013 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ */
+
+package org.nuxeo.ecm.directory.sql;
+
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Bounded pool of the physical connections of a SQL directory that is not
+ * bound to a container datasource.
+ * <p>
+ * Idle connections are validated when borrowed, evicted after the idle
+ * timeout while the pool holds more than its minimum size, and connections
+ * held longer than the leak timeout are logged with the stack trace of their
+ * borrower. Each physical connection keeps a LRU cache of its prepared
+ * statements, so that the statements repeated by the sessions, such as the
+ * entry lookups, are only prepared once.
+ *
+ * @since 5.7.2
+ */
+public class PooledDataSource implements DataSource, PooledDataSourceMBean {
+
+    private static final Log log = LogFactory.getLog(PooledDataSource.class);
+
+    /** Longest period between two evictions, in seconds. */
+    protected static final int MAX_EVICTION_PERIOD = 30;
+
+    protected final String name;
+
+    protected final DataSource physicalDataSource;
+
+    protected final int minSize;
+
+    protected final int maxSize;
+
+    /** Maximum time to wait for a connection in milliseconds, 0 to wait forever. */
+    protected long maxWait;
+
+    protected String validationQuery;
+
+    /** In seconds, 0 for no eviction. */
+    protected int idleTimeout;
+
+    /** In seconds, 0 for no leak detection. */
+    protected int leakTimeout;
+
+    protected int statementCacheSize;
+
+    /** Most recently used first. */
+    protected final LinkedList<PooledConnection> idle = new LinkedList<PooledConnection>();
+
+    protected final Set<PooledConnection> active = new HashSet<PooledConnection>();
+
+    /** Connections being opened, counted in the size of the pool. */
+    protected int opening;
+
+    protected boolean closed;
+
+    protected Timer evictionTimer;
+
+    protected final AtomicLong createdCount = new AtomicLong();
+
+    protected final AtomicLong destroyedCount = new AtomicLong();
+
+    protected final AtomicLong borrowCount = new AtomicLong();
+
+    protected final AtomicLong waitCount = new AtomicLong();
+
+    protected final AtomicLong waitTime = new AtomicLong();
+
+    protected final AtomicLong timeoutCount = new AtomicLong();
+
+    protected final AtomicLong validationFailureCount = new AtomicLong();
+
+    protected final AtomicLong leakCount = new AtomicLong();
+
+    protected final AtomicLong statementHitCount = new AtomicLong();
+
+    protected final AtomicLong statementMissCount = new AtomicLong();
+
+    /**
+     * @param name the name of the directory, for logging
+     * @param physicalDataSource the datasource opening the physical
+     *            connections
+     * @param minSize the number of connections kept open when idle
+     * @param maxSize the maximum number of open connections
+     */
+    public PooledDataSource(String name, DataSource physicalDataSource,
+            int minSize, int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Invalid pool max size: "
+                    + maxSize);
+        }
+        this.name = name;
+        this.physicalDataSource = physicalDataSource;
+        this.minSize = Math.max(0, Math.min(minSize, maxSize));
+        this.maxSize = maxSize;
+    }
+
+    public void setMaxWait(long maxWait) {
+        this.maxWait = maxWait;
+    }
+
+    /**
+     * Sets the query run on idle connections before lending them. If null,
+     * connections are only checked not to be closed.
+     */
+    public void setValidationQuery(String validationQuery) {
+        this.validationQuery = validationQuery;
+    }
+
+    public void setIdleTimeout(int idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+    public void setLeakTimeout(int leakTimeout) {
+        this.leakTimeout = leakTimeout;
+    }
+
+    public void setStatementCacheSize(int statementCacheSize) {
+        this.statementCacheSize = statementCacheSize;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(maxWait);
+        boolean waited = false;
+        for (;;) {
+            PooledConnection pc = null;
+            synchronized (this) {
+                if (closed) {
+                    throw new SQLException("Connection pool of directory '"
+                            + name + "' is closed");
+                }
+                startEvictionTimer();
+                if (!idle.isEmpty()) {
+                    pc = idle.removeFirst();
+                    pc.markBorrowed();
+                    active.add(pc);
+                } else if (active.size() + opening < maxSize) {
+                    opening++;
+                } else {
+                    waited = true;
+                    waitForRelease(deadline);
+                    continue;
+                }
+            }
+            if (pc == null) {
+                pc = openConnection(true);
+            } else if (!validate(pc)) {
+                synchronized (this) {
+                    active.remove(pc);
+                    notifyAll();
+                }
+                destroy(pc);
+                continue;
+            }
+            borrowCount.incrementAndGet();
+            if (waited) {
+                waitCount.incrementAndGet();
+                waitTime.addAndGet(System.nanoTime() - start);
+            }
+            return pc.borrow();
+        }
+    }
+
+    /**
+     * Waits for a connection to be released, the monitor being held.
+     */
+    protected void waitForRelease(long deadline) throws SQLException {
+        try {
+            if (maxWait <= 0) {
+                wait();
+                return;
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                timeoutCount.incrementAndGet();
+                throw new SQLException(String.format(
+                        "No connection of directory '%s' available after %sms (max size %s)",
+                        name, Long.valueOf(maxWait), Integer.valueOf(maxSize)));
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        } catch (InterruptedException e) {
+            // restore interrupted status
+            Thread.currentThread().interrupt();
+            throw new SQLException("interrupted");
+        }
+    }
+
+    /**
+     * Opens a physical connection whose slot has been reserved by
+     * incrementing {@link #opening}.
+     */
+    protected PooledConnection openConnection(boolean borrowed)
+            throws SQLException {
+        PooledConnection pc = null;
+        try {
+            pc = new PooledConnection(physicalDataSource.getConnection());
+            createdCount.incrementAndGet();
+            return pc;
+        } finally {
+            synchronized (this) {
+                opening--;
+                if (pc != null) {
+                    if (borrowed) {
+                        pc.markBorrowed();
+                        active.add(pc);
+                    } else {
+                        idle.addLast(pc);
+                    }
+                }
+                notifyAll();
+            }
+        }
+    }
+
+    protected boolean validate(PooledConnection pc) {
+        try {
+            if (pc.connection.isClosed()) {
+                validationFailureCount.incrementAndGet();
+                return false;
+            }
+            if (validationQuery != null) {
+                Statement st = pc.connection.createStatement();
+                try {
+                    st.execute(validationQuery);
+                } finally {
+                    st.close();
+                }
+            }
+            return true;
+        } catch (SQLException e) {
+            validationFailureCount.incrementAndGet();
+            log.debug("Invalid connection for directory '" + name + "': "
+                    + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Gives back a connection whose handle has been closed.
+     */
+    protected void release(PooledConnection pc) {
+        boolean reusable = pc.reset();
+        synchronized (this) {
+            active.remove(pc);
+            reusable = reusable && !closed;
+            if (reusable) {
+                pc.lastUsed = System.nanoTime();
+                idle.addFirst(pc);
+            }
+            notifyAll();
+        }
+        if (!reusable) {
+            destroy(pc);
+        }
+    }
+
+    protected void destroy(PooledConnection pc) {
+        destroyedCount.incrementAndGet();
+        pc.closeStatements();
+        try {
+            pc.connection.close();
+        } catch (SQLException e) {
+            log.debug("Cannot close connection of directory '" + name + "': "
+                    + e.getMessage());
+        }
+    }
+
+    protected void startEvictionTimer() {
+        if (evictionTimer != null
+                || (idleTimeout <= 0 && leakTimeout <= 0 && minSize == 0)) {
+            return;
+        }
+        int period = MAX_EVICTION_PERIOD;
+        if (idleTimeout > 0) {
+            period = Math.min(period, idleTimeout);
+        }
+        if (leakTimeout > 0) {
+            period = Math.min(period, leakTimeout);
+        }
+        long periodMillis = TimeUnit.SECONDS.toMillis(period);
+        evictionTimer = new Timer("Nuxeo-SQLDirectory-Pool-" + name, true);
+        evictionTimer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                evict();
+            }
+        }, periodMillis, periodMillis);
+    }
+
+    /**
+     * Closes the connections idle for longer than the idle timeout, reports
+     * the connections held for longer than the leak timeout, and opens the
+     * connections needed to reach the minimum size.
+     */
+    public void evict() {
+        List<PooledConnection> evicted = new ArrayList<PooledConnection>();
+        List<PooledConnection> leaked = new ArrayList<PooledConnection>();
+        int missing;
+        long now = System.nanoTime();
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            int size = idle.size() + active.size() + opening;
+            if (idleTimeout > 0) {
+                long timeout = TimeUnit.SECONDS.toNanos(idleTimeout);
+                // least recently used connections are at the end
+                Iterator<PooledConnection> it = idle.descendingIterator();
+                while (it.hasNext() && size > minSize) {
+                    PooledConnection pc = it.next();
+                    if (now - pc.lastUsed < timeout) {
+                        break;
+                    }
+                    it.remove();
+                    evicted.add(pc);
+                    size--;
+                }
+            }
+            if (leakTimeout > 0) {
+                long timeout = TimeUnit.SECONDS.toNanos(leakTimeout);
+                for (PooledConnection pc : active) {
+                    if (!pc.leakReported && now - pc.borrowTime >= timeout) {
+                        pc.leakReported = true;
+                        leaked.add(pc);
+                    }
+                }
+            }
+            missing = minSize - size;
+            if (missing > 0) {
+                opening += missing;
+            }
+        }
+        for (PooledConnection pc : evicted) {
+            destroy(pc);
+        }
+        for (PooledConnection pc : leaked) {
+            leakCount.incrementAndGet();
+            log.warn(String.format(
+                    "Connection of directory '%s' not closed after %ss, borrowed by:",
+                    name, Integer.valueOf(leakTimeout)), pc.borrowStack);
+        }
+        for (int i = 0; i < missing; i++) {
+            try {
+                openConnection(false);
+            } catch (SQLException e) {
+                log.warn("Cannot open connection for directory '" + name
+                        + "': " + e.getMessage());
+                synchronized (this) {
+                    opening -= missing - i - 1;
+                }
+                break;
+            }
+        }
+    }
+
+    /**
+     * Closes the idle connections and stops lending new ones. Active
+     * connections are closed when released.
+     */
+    public void close() {
+        List<PooledConnection> idleConnections;
+        synchronized (this) {
+            closed = true;
+            if (evictionTimer != null) {
+                evictionTimer.cancel();
+                evictionTimer = null;
+            }
+            idleConnections = new ArrayList<PooledConnection>(idle);
+            idle.clear();
+            notifyAll();
+        }
+        for (PooledConnection pc : idleConnections) {
+            destroy(pc);
+        }
+    }
+
+    @Override
+    public int getMinSize() {
+        return minSize;
+    }
+
+    @Override
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    @Override
+    public synchronized int getActiveCount() {
+        return active.size();
+    }
+
+    @Override
+    public synchronized int getIdleCount() {
+        return idle.size();
+    }
+
+    @Override
+    public long getCreatedCount() {
+        return createdCount.get();
+    }
+
+    @Override
+    public long getDestroyedCount() {
+        return destroyedCount.get();
+    }
+
+    @Override
+    public long getBorrowCount() {
+        return borrowCount.get();
+    }
+
+    @Override
+    public long getWaitCount() {
+        return waitCount.get();
+    }
+
+    @Override
+    public double getAverageWaitTime() {
+        long waits = waitCount.get();
+        return waits == 0 ? 0 : (double) waitTime.get() / waits / 1000000;
+    }
+
+    @Override
+    public long getTimeoutCount() {
+        return timeoutCount.get();
+    }
+
+    @Override
+    public long getValidationFailureCount() {
+        return validationFailureCount.get();
+    }
+
+    @Override
+    public long getLeakCount() {
+        return leakCount.get();
+    }
+
+    @Override
+    public long getStatementCacheHitCount() {
+        return statementHitCount.get();
+    }
+
+    @Override
+    public long getStatementCacheMissCount() {
+        return statementMissCount.get();
+    }
+
+    @Override
+    public double getStatementCacheHitRatio() {
+        long hits = statementHitCount.get();
+        long total = hits + statementMissCount.get();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    @Override
+    public void resetStatistics() {
+        createdCount.set(0);
+        destroyedCount.set(0);
+        borrowCount.set(0);
+        waitCount.set(0);
+        waitTime.set(0);
+        timeoutCount.set(0);
+        validationFailureCount.set(0);
+        leakCount.set(0);
+        statementHitCount.set(0);
+        statementMissCount.set(0);
+    }
+
+    @Override
+    public Connection getConnection(String username, String password)
+            throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    // @Override in CommonDataSource for Java SE 7 / JDBC 4.1
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    protected static Object invoke(Object target, Method method, Object[] args)
+            throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * A physical connection of the pool and its statement cache.
+     */
+    protected class PooledConnection {
+
+        protected final Connection connection;
+
+        protected final boolean autoCommit;
+
+        protected final Map<String, CachedStatement> statements;
+
+        protected long lastUsed;
+
+        protected long borrowTime;
+
+        protected Throwable borrowStack;
+
+        protected boolean leakReported;
+
+        protected PooledConnection(Connection connection) throws SQLException {
+            this.connection = connection;
+            autoCommit = connection.getAutoCommit();
+            lastUsed = System.nanoTime();
+            statements = new LinkedHashMap<String, CachedStatement>(16, 0.75f,
+                    true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(
+                        Map.Entry<String, CachedStatement> eldest) {
+                    if (size() <= statementCacheSize) {
+                        return false;
+                    }
+                    CachedStatement cached = eldest.getValue();
+                    if (cached.inUse) {
+                        // closed when given back
+                        cached.evicted = true;
+                    } else {
+                        cached.close();
+                    }
+                    return true;
+                }
+            };
+        }
+
+        /**
+         * Called with the pool monitor held, before the connection is made
+         * active.
+         */
+        protected void markBorrowed() {
+            borrowTime = System.nanoTime();
+            leakReported = false;
+            borrowStack = leakTimeout > 0 ? new Throwable("borrow stack")
+                    : null;
+        }
+
+        protected Connection borrow() {
+            return (Connection) Proxy.newProxyInstance(
+                    Connection.class.getClassLoader(),
+                    new Class<?>[] { Connection.class }, new ConnectionHandle(
+                            this));
+        }
+
+        protected PreparedStatement prepareStatement(String sql,
+                Connection handle) throws SQLException {
+            if (statementCacheSize <= 0) {
+                return connection.prepareStatement(sql);
+            }
+            CachedStatement cached = statements.get(sql);
+            if (cached != null && cached.evicted && !cached.inUse) {
+                // could not be reset when given back
+                statements.remove(sql);
+                cached = null;
+            }
+            if (cached == null) {
+                statementMissCount.incrementAndGet();
+                cached = new CachedStatement(connection.prepareStatement(sql));
+                statements.put(sql, cached);
+            } else if (cached.inUse) {
+                // same statement open twice, don't share it
+                statementMissCount.incrementAndGet();
+                return connection.prepareStatement(sql);
+            } else {
+                statementHitCount.incrementAndGet();
+            }
+            cached.inUse = true;
+            cached.lease++;
+            return (PreparedStatement) Proxy.newProxyInstance(
+                    PreparedStatement.class.getClassLoader(),
+                    new Class<?>[] { PreparedStatement.class },
+                    new StatementHandle(cached, handle));
+        }
+
+        /**
+         * Restores the state of the connection as opened, returns false if
+         * the connection cannot be reused.
+         */
+        protected boolean reset() {
+            borrowStack = null;
+            Iterator<CachedStatement> it = statements.values().iterator();
+            while (it.hasNext()) {
+                CachedStatement cached = it.next();
+                if (cached.inUse) {
+                    // not closed by the borrower
+                    cached.release();
+                }
+                if (cached.evicted) {
+                    it.remove();
+                }
+            }
+            try {
+                if (!connection.getAutoCommit()) {
+                    connection.rollback();
+                }
+                if (connection.getAutoCommit() != autoCommit) {
+                    connection.setAutoCommit(autoCommit);
+                }
+                connection.clearWarnings();
+                return true;
+            } catch (SQLException e) {
+                log.debug("Cannot reset connection of directory '" + name
+                        + "': " + e.getMessage());
+                return false;
+            }
+        }
+
+        protected void closeStatements() {
+            for (CachedStatement cached : statements.values()) {
+                cached.close();
+            }
+            statements.clear();
+        }
+    }
+
+    protected static class CachedStatement {
+
+        protected final PreparedStatement statement;
+
+        protected boolean inUse;
+
+        protected boolean evicted;
+
+        /** Incremented each time the statement is lent. */
+        protected int lease;
+
+        protected CachedStatement(PreparedStatement statement) {
+            this.statement = statement;
+        }
+
+        /**
+         * Gives the statement back to the cache, closing its result set so
+         * that it does not hold a cursor while idle. The statement is evicted
+         * if it cannot be reset.
+         */
+        protected void release() {
+            inUse = false;
+            if (evicted) {
+                close();
+                return;
+            }
+            try {
+                ResultSet rs = statement.getResultSet();
+                if (rs != null) {
+                    rs.close();
+                }
+                statement.clearParameters();
+            } catch (SQLException e) {
+                log.debug("Cannot reset statement, evicting it: "
+                        + e.getMessage());
+                evicted = true;
+                close();
+            }
+        }
+
+        protected void close() {
+            try {
+                statement.close();
+            } catch (SQLException e) {
+                log.debug("Cannot close statement: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * The connection lent to a borrower, closing it gives the physical
+     * connection back to the pool.
+     */
+    protected class ConnectionHandle implements InvocationHandler {
+
+        protected final PooledConnection pc;
+
+        protected boolean closed;
+
+        protected ConnectionHandle(PooledConnection pc) {
+            this.pc = pc;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args)
+                throws Throwable {
+            String methodName = method.getName();
+            if ("close".equals(methodName)) {
+                if (!closed) {
+                    closed = true;
+                    release(pc);
+                }
+                return null;
+            }
+            if ("isClosed".equals(methodName)) {
+                return Boolean.valueOf(closed || pc.connection.isClosed());
+            }
+            if ("equals".equals(methodName)) {
+                return Boolean.valueOf(proxy == args[0]);
+            }
+            if ("hashCode".equals(methodName)) {
+                return Integer.valueOf(System.identityHashCode(proxy));
+            }
+            if ("toString".equals(methodName)) {
+                return "Pooled connection of directory '" + name + "'";
+            }
+            if (closed) {
+                throw new SQLException("Connection is closed");
+            }
+            if ("prepareStatement".equals(methodName) && args.length == 1) {
+                return pc.prepareStatement((String) args[0],
+                        (Connection) proxy);
+            }
+            return PooledDataSource.invoke(pc.connection, method, args);
+        }
+    }
+
+    /**
+     * A cached statement lent to a borrower, closing it keeps it open in the
+     * cache.
+     */
+    protected static class StatementHandle implements InvocationHandler {
+
+        protected final CachedStatement cached;
+
+        protected final Connection connection;
+
+        protected final int lease;
+
+        protected boolean closed;
+
+        protected StatementHandle(CachedStatement cached, Connection connection) {
+            this.cached = cached;
+            this.connection = connection;
+            lease = cached.lease;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args)
+                throws Throwable {
+            String methodName = method.getName();
+            if ("close".equals(methodName)) {
+                if (!closed) {
+                    closed = true;
+                    // ignore handles left open by a previous borrower
+                    if (lease == cached.lease) {
+                        cached.release();
+                    }
+                }
+                return null;
+            }
+            if ("isClosed".equals(methodName)) {
+                return Boolean.valueOf(closed || cached.statement.isClosed());
+            }
+            if ("equals".equals(methodName)) {
+                return Boolean.valueOf(proxy == args[0]);
+            }
+            if ("hashCode".equals(methodName)) {
+                return Integer.valueOf(System.identityHashCode(proxy));
+            }
+            if ("toString".equals(methodName)) {
+                return cached.statement.toString();
+            }
+            if (closed || lease != cached.lease) {
+                throw new SQLException("Statement is closed");
+            }
+            if ("getConnection".equals(methodName)) {
+                return connection;
+            }
+            return PooledDataSource.invoke(cached.statement, method, args);
+        }
+    }
+
+}
@@ -0,0 +1,72 @@
+/*
+ * (C) Copyright 2013 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ */
+
+package org.nuxeo.ecm.directory.sql;
+
+/**
+ * Management interface of the connection pool of a SQL directory.
+ *
+ * @since 5.7.2
+ */
+public interface PooledDataSourceMBean {
+
+    int getMinSize();
+
+    int getMaxSize();
+
+    int getActiveCount();
+
+    int getIdleCount();
+
+    long getCreatedCount();
+
+    long getDestroyedCount();
+
+    long getBorrowCount();
+
+    /**
+     * Number of borrows that had to wait for a connection to be released.
+     */
+    long getWaitCount();
+
+    /**
+     * Average time spent waiting for a connection, in milliseconds.
+     */
+    double getAverageWaitTime();
+
+    /**
+     * Number of borrows that failed because no connection was released in
+     * time.
+     */
+    long getTimeoutCount();
+
+    long getValidationFailureCount();
+
+    /**
+     * Number of connections held longer than the leak timeout.
+     */
+    long getLeakCount();
+
+    long getStatementCacheHitCount();
+
+    long getStatementCacheMissCount();
+
+    double getStatementCacheHitRatio();
+
+    void resetStatistics();
+
+}
@@ -54,6 +54,8 @@ import org.nuxeo.runtime.RuntimeService;
 import org.nuxeo.runtime.api.ConnectionHelper;
 import org.nuxeo.runtime.api.DataSourceHelper;
 import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.management.ObjectNameFactory;
+import org.nuxeo.runtime.management.ResourcePublisher;
 import org.nuxeo.runtime.metrics.MetricsService;
 import org.nuxeo.runtime.transaction.TransactionHelper;
 
@@ -135,6 +137,9 @@ public class SQLDirectory extends AbstractDirectory {
 
     private DataSource dataSource;
 
+    // qualified name of the connection pool management resource published
+    protected String publishedPool;
+
     private List<Session> sessions = new ArrayList<Session>();
 
     private final Table table;
@@ -167,6 +172,8 @@ public class SQLDirectory extends AbstractDirectory {
         // cache parameterization
         cache.setMaxSize(config.getCacheMaxSize());
         cache.setTimeout(config.getCacheTimeout());
+        cache.setNegativeMaxSize(config.getNegativeCacheMaxSize());
+        cache.setNegativeTimeout(config.getNegativeCacheTimeout());
 
         Connection sqlConnection = getConnection();
         try {
@@ -277,6 +284,9 @@ public class SQLDirectory extends AbstractDirectory {
                 managedSQLSession = false;
                 dataSource = new SimpleDataSource(config.dbUrl,
                         config.dbDriver, config.dbUser, config.dbPassword);
+                if (config.isPooled()) {
+                    dataSource = createPool(dataSource);
+                }
             }
             log.trace("found datasource: " + dataSource);
             return dataSource;
@@ -286,6 +296,46 @@ public class SQLDirectory extends AbstractDirectory {
         }
     }
 
+    /**
+     * Wraps the datasource opening the physical connections into a pool
+     * configured by the directory descriptor, and exposes its statistics
+     * through JMX.
+     *
+     * @since 5.7.2
+     */
+    protected PooledDataSource createPool(DataSource physicalDataSource) {
+        PooledDataSource pool = new PooledDataSource(getName(),
+                physicalDataSource, config.getPoolMinSize(),
+                config.getPoolMaxSize());
+        pool.setMaxWait(config.getPoolMaxWait());
+        pool.setValidationQuery(config.getPoolValidationQuery());
+        pool.setIdleTimeout(config.getPoolIdleTimeout());
+        pool.setLeakTimeout(config.getPoolLeakTimeout());
+        pool.setStatementCacheSize(config.getPoolStatementCacheSize());
+        ResourcePublisher publisher = Framework.getLocalService(ResourcePublisher.class);
+        if (publisher != null) {
+            String qualifiedName = ObjectNameFactory.formatMetricQualifiedName(
+                    DirectoryService.NAME, "directory-pool-" + getName());
+            publisher.registerResource(null, qualifiedName,
+                    PooledDataSourceMBean.class, pool);
+            publishedPool = qualifiedName;
+        }
+        return pool;
+    }
+
+    /**
+     * Returns the connection pool of the directory, or null if it does not
+     * pool its connections.
+     *
+     * @since 5.7.2
+     */
+    public PooledDataSource getPool() {
+        if (dataSource instanceof PooledDataSource) {
+            return (PooledDataSource) dataSource;
+        }
+        return null;
+    }
+
     public Connection getConnection() throws DirectoryException {
         try {
             // try single-datasource non-XA mode
@@ -415,9 +465,6 @@ public class SQLDirectory extends AbstractDirectory {
 
     @Override
     public synchronized void shutdown() {
-        if (sessions.isEmpty()) {
-            return;
-        }
         List<Session> lastSessions = sessions;
         sessions = new ArrayList<Session>();
         for (Session session : lastSessions) {
@@ -428,6 +475,23 @@ public class SQLDirectory extends AbstractDirectory {
                         + "'", e);
             }
         }
+        closePool();
+    }
+
+    protected void closePool() {
+        PooledDataSource pool = getPool();
+        if (pool == null) {
+            return;
+        }
+        pool.close();
+        if (publishedPool != null) {
+            ResourcePublisher publisher = Framework.getLocalService(ResourcePublisher.class);
+            if (publisher != null) {
+                publisher.unregisterResource(null, publishedPool);
+            }
+            publishedPool = null;
+        }
+        dataSource = null;
     }
 
     public Map<String, Field> getSchemaFieldMap() {
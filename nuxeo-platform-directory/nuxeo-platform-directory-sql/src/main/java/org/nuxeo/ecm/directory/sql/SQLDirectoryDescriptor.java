@@ -120,6 +120,72 @@ public class SQLDirectoryDescriptor {
     @XNode("cacheMaxSize")
     public int cacheMaxSize = 0;
 
+    /**
+     * @since 5.7.2
+     */
+    @XNode("negativeCacheTimeout")
+    public int negativeCacheTimeout = 0;
+
+    /**
+     * @since 5.7.2
+     */
+    @XNode("negativeCacheMaxSize")
+    public int negativeCacheMaxSize = 0;
+
+    /**
+     * Maximum number of pooled connections when connecting through
+     * {@link #dbUrl}, 0 to open a connection per session.
+     *
+     * @since 5.7.2
+     */
+    @XNode("poolMaxSize")
+    public int poolMaxSize = 0;
+
+    /**
+     * @since 5.7.2
+     */
+    @XNode("poolMinSize")
+    public int poolMinSize = 0;
+
+    /**
+     * Time to wait for a pooled connection, in milliseconds.
+     *
+     * @since 5.7.2
+     */
+    @XNode("poolMaxWait")
+    public long poolMaxWait = 30000;
+
+    /**
+     * @since 5.7.2
+     */
+    @XNode("poolValidationQuery")
+    public String poolValidationQuery;
+
+    /**
+     * Time after which idle pooled connections are closed, in seconds.
+     *
+     * @since 5.7.2
+     */
+    @XNode("poolIdleTimeout")
+    public int poolIdleTimeout = 600;
+
+    /**
+     * Time after which a pooled connection not given back is logged as
+     * leaked, in seconds.
+     *
+     * @since 5.7.2
+     */
+    @XNode("poolLeakTimeout")
+    public int poolLeakTimeout = 0;
+
+    /**
+     * Number of prepared statements cached by each pooled connection.
+     *
+     * @since 5.7.2
+     */
+    @XNode("poolStatementCacheSize")
+    public int poolStatementCacheSize = 20;
+
     @XNodeList(value = "filters/staticFilter", type = SQLStaticFilter[].class, componentType = SQLStaticFilter.class)
     private SQLStaticFilter[] staticFilters;
 
@@ -344,6 +410,76 @@ public class SQLDirectoryDescriptor {
         return cacheMaxSize;
     }
 
+    /**
+     * @since 5.7.2
+     */
+    public int getNegativeCacheTimeout() {
+        return negativeCacheTimeout;
+    }
+
+    /**
+     * @since 5.7.2
+     */
+    public int getNegativeCacheMaxSize() {
+        return negativeCacheMaxSize;
+    }
+
+    /**
+     * @since 5.7.2
+     */
+    public boolean isPooled() {
+        return poolMaxSize > 0 && dataSourceName == null;
+    }
+
+    /**
+     * @since 5.7.2
+     */
+    public int getPoolMaxSize() {
+        return poolMaxSize;
+    }
+
+    /**
+     * @since 5.7.2
+     */
+    public int getPoolMinSize() {
+        return poolMinSize;
+    }
+
+    /**
+     * @since 5.7.2
+     */
+    public long getPoolMaxWait() {
+        return poolMaxWait;
+    }
+
+    /**
+     * @since 5.7.2
+     */
+    public String getPoolValidationQuery() {
+        return poolValidationQuery;
+    }
+
+    /**
+     * @since 5.7.2
+     */
+    public int getPoolIdleTimeout() {
+        return poolIdleTimeout;
+    }
+
+    /**
+     * @since 5.7.2
+     */
+    public int getPoolLeakTimeout() {
+        return poolLeakTimeout;
+    }
+
+    /**
+     * @since 5.7.2
+     */
+    public int getPoolStatementCacheSize() {
+        return poolStatementCacheSize;
+    }
+
     public SubstringMatchType getSubstringMatchType() {
         return substringMatchType == null ? SubstringMatchType.subinitial
                 : substringMatchType;
@@ -453,6 +589,18 @@ public class SQLDirectoryDescriptor {
         if (overwite) {
             cacheTimeout = other.cacheTimeout;
             cacheMaxSize = other.cacheMaxSize;
+            negativeCacheTimeout = other.negativeCacheTimeout;
+            negativeCacheMaxSize = other.negativeCacheMaxSize;
+        }
+        // pool parameters are only taken from a contribution enabling it
+        if (other.poolMaxSize != 0 || overwite) {
+            poolMaxSize = other.poolMaxSize;
+            poolMinSize = other.poolMinSize;
+            poolMaxWait = other.poolMaxWait;
+            poolValidationQuery = other.poolValidationQuery;
+            poolIdleTimeout = other.poolIdleTimeout;
+            poolLeakTimeout = other.poolLeakTimeout;
+            poolStatementCacheSize = other.poolStatementCacheSize;
         }
         if ((other.staticFilters != null && other.staticFilters.length != 0)
                 || overwite) {
@@ -504,6 +652,15 @@ public class SQLDirectoryDescriptor {
         clone.remove = remove;
         clone.cacheTimeout = cacheTimeout;
         clone.cacheMaxSize = cacheMaxSize;
+        clone.negativeCacheTimeout = negativeCacheTimeout;
+        clone.negativeCacheMaxSize = negativeCacheMaxSize;
+        clone.poolMaxSize = poolMaxSize;
+        clone.poolMinSize = poolMinSize;
+        clone.poolMaxWait = poolMaxWait;
+        clone.poolValidationQuery = poolValidationQuery;
+        clone.poolIdleTimeout = poolIdleTimeout;
+        clone.poolLeakTimeout = poolLeakTimeout;
+        clone.poolStatementCacheSize = poolStatementCacheSize;
         if (staticFilters != null) {
             clone.staticFilters = new SQLStaticFilter[staticFilters.length];
             for (int i = 0; i < staticFilters.length; i++) {
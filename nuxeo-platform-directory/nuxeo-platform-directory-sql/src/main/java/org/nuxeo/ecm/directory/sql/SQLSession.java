@@ -26,6 +26,7 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -114,6 +115,12 @@ public class SQLSession extends BaseSession implements EntrySource {
 
     protected JDBCLogger logger = new JDBCLogger("SQLDirectory");;
 
+    // statements of the entry lookups, built once per session so that the
+    // same SQL string is given to the statement cache of pooled connections
+    protected String getEntrySql;
+
+    protected String hasEntrySql;
+
     public SQLSession(SQLDirectory directory, SQLDirectoryDescriptor config,
             boolean managedSQLSession) throws DirectoryException {
         this.directory = directory;
@@ -290,7 +297,7 @@ public class SQLSession extends BaseSession implements EntrySource {
                 reference.addLinks(sourceId, targetIds);
             }
         }
-        directory.invalidateCaches();
+        directory.invalidateCachesForNewEntry(sourceId);
         return entry;
     }
 
@@ -351,17 +358,21 @@ public class SQLSession extends BaseSession implements EntrySource {
     public DocumentModel getEntryFromSource(String id, boolean fetchReferences)
             throws DirectoryException {
         acquireConnection();
-        // String sql = String.format("SELECT * FROM %s WHERE %s = ?",
-        // tableName, idField);
-        Select select = new Select(table);
-        select.setFrom(table.getQuotedName());
-        select.setWhat("*");
+        if (getEntrySql == null) {
+            // String sql = String.format("SELECT * FROM %s WHERE %s = ?",
+            // tableName, idField);
+            Select select = new Select(table);
+            select.setFrom(table.getQuotedName());
+            select.setWhat("*");
 
-        String whereClause = table.getPrimaryColumn().getQuotedName() + " = ?";
-        whereClause = addFilterWhereClause(whereClause);
+            String whereClause = table.getPrimaryColumn().getQuotedName()
+                    + " = ?";
+            whereClause = addFilterWhereClause(whereClause);
 
-        select.setWhere(whereClause);
-        String sql = select.getStatement();
+            select.setWhere(whereClause);
+            getEntrySql = select.getStatement();
+        }
+        String sql = getEntrySql;
 
         if (logger.isLogEnabled()) {
             List<Serializable> values = new ArrayList<Serializable>();
@@ -388,18 +399,8 @@ public class SQLSession extends BaseSession implements EntrySource {
                 fieldMap.put(fieldName, value);
             }
 
-            if (isMultiTenant()) {
-                // check that the entry is from the current tenant, or no tenant
-                // at all
-                String tenantId = getCurrentTenantId();
-                if (!StringUtils.isBlank(tenantId)) {
-                    String entryTenantId = (String) fieldMap.get(TENANT_ID_FIELD);
-                    if (!StringUtils.isBlank(entryTenantId)) {
-                        if (!entryTenantId.equals(tenantId)) {
-                            return null;
-                        }
-                    }
-                }
+            if (!isFromCurrentTenant(fieldMap)) {
+                return null;
             }
 
             DocumentModel entry = fieldMapToDocumentModel(fieldMap);
@@ -430,6 +431,110 @@ public class SQLSession extends BaseSession implements EntrySource {
         }
     }
 
+    /**
+     * Checks that the entry is from the current tenant, or no tenant at all.
+     *
+     * @since 5.7.2
+     */
+    protected boolean isFromCurrentTenant(Map<String, Object> fieldMap) {
+        if (isMultiTenant()) {
+            String tenantId = getCurrentTenantId();
+            if (!StringUtils.isBlank(tenantId)) {
+                String entryTenantId = (String) fieldMap.get(TENANT_ID_FIELD);
+                if (!StringUtils.isBlank(entryTenantId)) {
+                    if (!entryTenantId.equals(tenantId)) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public DocumentModelList getEntries(Collection<String> ids,
+            boolean fetchReferences) throws DirectoryException {
+        return directory.getCache().getEntries(ids, this, fetchReferences);
+    }
+
+    /**
+     * Fetches the entries with {@code IN} queries on the primary column, by
+     * chunks of at most {@link TableReference#MAX_IN_PARAMETERS} ids, the
+     * references being then resolved for all the entries at once.
+     *
+     * @since 5.7.2
+     */
+    @Override
+    public List<DocumentModel> getEntriesFromSource(Collection<String> ids,
+            boolean fetchReferences) throws DirectoryException {
+        List<DocumentModel> entries = new ArrayList<DocumentModel>();
+        if (ids.isEmpty()) {
+            return entries;
+        }
+        acquireConnection();
+        List<String> allIds = new ArrayList<String>(ids);
+        Column primaryColumn = table.getPrimaryColumn();
+        for (int start = 0; start < allIds.size(); start += TableReference.MAX_IN_PARAMETERS) {
+            List<String> chunk = allIds.subList(
+                    start,
+                    Math.min(start + TableReference.MAX_IN_PARAMETERS,
+                            allIds.size()));
+            Select select = new Select(table);
+            select.setFrom(table.getQuotedName());
+            select.setWhat("*");
+            StringBuilder where = new StringBuilder(
+                    primaryColumn.getQuotedName());
+            where.append(" IN (");
+            for (int i = 0; i < chunk.size(); i++) {
+                where.append(i == 0 ? "?" : ", ?");
+            }
+            where.append(')');
+            select.setWhere(addFilterWhereClause(where.toString()));
+            String sql = select.getStatement();
+
+            if (logger.isLogEnabled()) {
+                List<Serializable> values = new ArrayList<Serializable>(chunk);
+                addFilterValuesForLog(values);
+                logger.logSQL(sql, values);
+            }
+
+            PreparedStatement ps = null;
+            try {
+                ps = sqlConnection.prepareStatement(sql);
+                int index = 1;
+                for (String id : chunk) {
+                    setFieldValue(ps, index++, primaryColumn, id);
+                }
+                addFilterValues(ps, index);
+                ResultSet rs = ps.executeQuery();
+                while (rs.next()) {
+                    // fetch the stored fields
+                    Map<String, Object> fieldMap = new HashMap<String, Object>();
+                    for (String fieldName : storedFieldNames) {
+                        fieldMap.put(fieldName, getFieldValue(rs, fieldName));
+                    }
+                    if (isFromCurrentTenant(fieldMap)) {
+                        entries.add(fieldMapToDocumentModel(fieldMap));
+                    }
+                }
+            } catch (SQLException e) {
+                throw new DirectoryException("getEntries failed", e);
+            } finally {
+                try {
+                    if (ps != null) {
+                        ps.close();
+                    }
+                } catch (SQLException sqle) {
+                    throw new DirectoryException(sqle);
+                }
+            }
+        }
+        if (fetchReferences) {
+            fetchReferences(entries);
+        }
+        return entries;
+    }
+
     @Override
     public DocumentModelList getEntries() throws ClientException {
         Map<String, Serializable> emptyMap = Collections.emptyMap();
@@ -924,17 +1029,12 @@ public class SQLSession extends BaseSession implements EntrySource {
                     }
 
                     DocumentModel docModel = fieldMapToDocumentModel(map);
-
-                    // fetch the reference fields
-                    if (fetchReferences) {
-                        for (Reference reference : directory.getReferences()) {
-                            List<String> targetIds = reference.getTargetIdsForSource(docModel.getId());
-                            docModel.setProperty(schemaName,
-                                    reference.getFieldName(), targetIds);
-                        }
-                    }
                     list.add(docModel);
                 }
+                // fetch the reference fields, one bulk lookup per reference
+                if (fetchReferences) {
+                    fetchReferences(list);
+                }
                 return list;
             } finally {
                 if (ps != null) {
@@ -951,6 +1051,34 @@ public class SQLSession extends BaseSession implements EntrySource {
         }
     }
 
+    /**
+     * Sets the reference fields of the given entries, resolving each
+     * reference for all the entries at once.
+     *
+     * @since 5.7.2
+     */
+    protected void fetchReferences(List<DocumentModel> entries)
+            throws DirectoryException {
+        if (entries.isEmpty()) {
+            return;
+        }
+        List<String> ids = new ArrayList<String>(entries.size());
+        for (DocumentModel entry : entries) {
+            ids.add(entry.getId());
+        }
+        for (Reference reference : directory.getReferences()) {
+            Map<String, List<String>> targetIds = reference.getTargetIdsForSources(ids);
+            for (DocumentModel entry : entries) {
+                try {
+                    entry.setProperty(schemaName, reference.getFieldName(),
+                            targetIds.get(entry.getId()));
+                } catch (ClientException e) {
+                    throw new DirectoryException(e);
+                }
+            }
+        }
+    }
+
     protected void fillPreparedStatementFields(Map<String, Object> filterMap,
             List<Column> orderedColumns, PreparedStatement ps)
             throws DirectoryException {
@@ -1135,12 +1263,20 @@ public class SQLSession extends BaseSession implements EntrySource {
 
     @Override
     public boolean hasEntry(String id) throws ClientException {
+        return directory.getCache().hasEntry(id, this);
+    }
+
+    @Override
+    public boolean hasEntryInSource(String id) throws DirectoryException {
         acquireConnection();
-        Select select = new Select(table);
-        select.setFrom(table.getQuotedName());
-        select.setWhat("*");
-        select.setWhere(table.getPrimaryColumn().getQuotedName() + " = ?");
-        String sql = select.getStatement();
+        if (hasEntrySql == null) {
+            Select select = new Select(table);
+            select.setFrom(table.getQuotedName());
+            select.setWhat("*");
+            select.setWhere(table.getPrimaryColumn().getQuotedName() + " = ?");
+            hasEntrySql = select.getStatement();
+        }
+        String sql = hasEntrySql;
 
         if (logger.isLogEnabled()) {
             logger.logSQL(sql, Collections.<Serializable> singleton(id));
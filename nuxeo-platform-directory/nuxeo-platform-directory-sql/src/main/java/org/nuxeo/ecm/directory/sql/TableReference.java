@@ -21,11 +21,16 @@ import java.io.Serializable;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.nuxeo.common.xmap.annotation.XNode;
@@ -44,6 +49,14 @@ import org.nuxeo.ecm.directory.DirectoryException;
 @XObject(value = "tableReference")
 public class TableReference extends AbstractReference {
 
+    /**
+     * Maximum number of ids bound in the IN clause of a bulk lookup, larger
+     * requests are split in several queries.
+     *
+     * @since 5.7.2
+     */
+    public static final int MAX_IN_PARAMETERS = 100;
+
     @XNode("@field")
     public void setFieldName(String fieldName) {
         this.fieldName = fieldName;
@@ -282,6 +295,89 @@ public class TableReference extends AbstractReference {
         }
     }
 
+    /**
+     * Bulk version of {@link #getIdsFor}, using chunked IN queries.
+     *
+     * @since 5.7.2
+     */
+    protected Map<String, List<String>> getIdsForMany(String valueColumn,
+            String filterColumn, Collection<String> filterValues)
+            throws DirectoryException {
+        Map<String, List<String>> ids = new LinkedHashMap<String, List<String>>();
+        for (String filterValue : filterValues) {
+            ids.put(filterValue, new LinkedList<String>());
+        }
+        if (ids.isEmpty()) {
+            return ids;
+        }
+        // the database may match ids case insensitively
+        Map<String, List<String>> lowerCaseIds = new HashMap<String, List<String>>();
+        for (Map.Entry<String, List<String>> entry : ids.entrySet()) {
+            lowerCaseIds.put(entry.getKey().toLowerCase(), entry.getValue());
+        }
+        List<String> values = new ArrayList<String>(ids.keySet());
+
+        SQLSession session = getSQLSession();
+        Table table = getTable();
+        String quotedValueColumn = table.getColumn(valueColumn).getQuotedName();
+        String quotedFilterColumn = table.getColumn(filterColumn).getQuotedName();
+        PreparedStatement ps = null;
+        try {
+            for (int start = 0; start < values.size(); start += MAX_IN_PARAMETERS) {
+                List<String> chunk = values.subList(start,
+                        Math.min(values.size(), start + MAX_IN_PARAMETERS));
+                StringBuilder where = new StringBuilder(quotedFilterColumn);
+                where.append(" IN (");
+                for (int i = 0; i < chunk.size(); i++) {
+                    where.append(i == 0 ? "?" : ", ?");
+                }
+                where.append(')');
+                Select select = new Select(table);
+                select.setWhat(quotedFilterColumn + ", " + quotedValueColumn);
+                select.setFrom(table.getQuotedName());
+                select.setWhere(where.toString());
+
+                String sql = select.getStatement();
+                if (session.logger.isLogEnabled()) {
+                    session.logger.logSQL(sql,
+                            new ArrayList<Serializable>(chunk));
+                }
+
+                ps = session.sqlConnection.prepareStatement(sql);
+                int index = 1;
+                for (String value : chunk) {
+                    ps.setString(index++, value);
+                }
+                ResultSet rs = ps.executeQuery();
+                while (rs.next()) {
+                    String key = rs.getString(1);
+                    List<String> list = ids.get(key);
+                    if (list == null && key != null) {
+                        list = lowerCaseIds.get(key.toLowerCase());
+                    }
+                    if (list != null) {
+                        list.add(rs.getString(2));
+                    }
+                }
+                ps.close();
+                ps = null;
+            }
+            return ids;
+        } catch (SQLException e) {
+            throw new DirectoryException("error fetching reference values: ", e);
+        } finally {
+            try {
+                if (ps != null) {
+                    ps.close();
+                }
+            } catch (SQLException sqle) {
+                throw new DirectoryException(sqle);
+            } finally {
+                session.close();
+            }
+        }
+    }
+
     @Override
     public List<String> getSourceIdsForTarget(String targetId)
             throws DirectoryException {
@@ -294,6 +390,18 @@ public class TableReference extends AbstractReference {
         return getIdsFor(targetColumn, sourceColumn, sourceId);
     }
 
+    @Override
+    public Map<String, List<String>> getSourceIdsForTargets(
+            Collection<String> targetIds) throws DirectoryException {
+        return getIdsForMany(sourceColumn, targetColumn, targetIds);
+    }
+
+    @Override
+    public Map<String, List<String>> getTargetIdsForSources(
+            Collection<String> sourceIds) throws DirectoryException {
+        return getIdsForMany(targetColumn, sourceColumn, sourceIds);
+    }
+
     public void removeLinksFor(String column, String entryId, SQLSession session)
             throws DirectoryException {
         Table table = getTable();
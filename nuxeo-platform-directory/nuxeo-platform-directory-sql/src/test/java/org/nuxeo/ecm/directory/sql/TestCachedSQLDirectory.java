@@ -19,7 +19,24 @@
 
 package org.nuxeo.ecm.directory.sql;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.nuxeo.ecm.core.api.DocumentModel;
 import org.nuxeo.ecm.directory.DirectoryCache;
+import org.nuxeo.ecm.directory.DirectoryException;
+import org.nuxeo.ecm.directory.EntrySource;
+import org.nuxeo.ecm.directory.Session;
 
 public class TestCachedSQLDirectory extends TestSQLDirectory {
 
@@ -30,6 +47,112 @@ public class TestCachedSQLDirectory extends TestSQLDirectory {
         DirectoryCache cache = dir.getCache();
         cache.setMaxSize(2);
         cache.setTimeout(10);
+        cache.setNegativeMaxSize(10);
+        cache.setNegativeTimeout(10);
+    }
+
+    @Test
+    public void testCacheStatistics() throws Exception {
+        DirectoryCache cache = getSQLDirectory().getCache();
+        cache.invalidateAll();
+        cache.resetStatistics();
+        Session session = getSession();
+        try {
+            assertNotNull(session.getEntry("user_1"));
+            assertNotNull(session.getEntry("user_1"));
+            assertEquals(1, cache.getMissCount());
+            assertEquals(1, cache.getHitCount());
+            assertEquals(1, cache.getLoadCount());
+            assertEquals(0.5, cache.getHitRatio(), 0.001);
+        } finally {
+            session.close();
+        }
+    }
+
+    @Test
+    public void testCacheEvictsLeastRecentlyUsedEntry() throws Exception {
+        DirectoryCache cache = getSQLDirectory().getCache();
+        cache.invalidateAll();
+        cache.resetStatistics();
+        Session session = getSession();
+        try {
+            session.getEntry("user_1");
+            session.getEntry("Administrator");
+            // a full cache only drops its eldest entry
+            session.getEntry("user_3");
+            assertEquals(2, cache.getSize());
+            assertEquals(1, cache.getEvictionCount());
+            session.getEntry("user_3");
+            assertEquals(1, cache.getHitCount());
+        } finally {
+            session.close();
+        }
+    }
+
+    @Test
+    public void testNegativeLookupsAreCached() throws Exception {
+        DirectoryCache cache = getSQLDirectory().getCache();
+        cache.invalidateAll();
+        cache.resetStatistics();
+        Session session = getSession();
+        try {
+            assertFalse(session.hasEntry("user_0"));
+            assertFalse(session.hasEntry("user_0"));
+            assertNull(session.getEntry("user_0"));
+            assertEquals(2, cache.getNegativeHitCount());
+            assertEquals(1, cache.getNegativeSize());
+
+            // creation forgets the missing id
+            Map<String, Object> map = new HashMap<String, Object>();
+            map.put("username", "user_0");
+            map.put("password", "pass_0");
+            session.createEntry(map);
+            assertTrue(session.hasEntry("user_0"));
+            assertNotNull(session.getEntry("user_0"));
+            assertEquals(0, cache.getNegativeSize());
+        } finally {
+            session.close();
+        }
+    }
+
+    @Test
+    public void testHiddenEntriesAreNotRememberedAsMissing() throws Exception {
+        DirectoryCache cache = getSQLDirectory().getCache();
+        cache.invalidateAll();
+        cache.resetStatistics();
+        final SQLSession session = (SQLSession) getSQLDirectory().getSession();
+        try {
+            // lookups filtering out every entry, as done for other tenants
+            EntrySource filtered = new EntrySource() {
+                @Override
+                public DocumentModel getEntryFromSource(String entryId,
+                        boolean fetchReferences) {
+                    return null;
+                }
+
+                @Override
+                public List<DocumentModel> getEntriesFromSource(
+                        Collection<String> entryIds, boolean fetchReferences) {
+                    return Collections.emptyList();
+                }
+
+                @Override
+                public boolean hasEntryInSource(String entryId)
+                        throws DirectoryException {
+                    return session.hasEntryInSource(entryId);
+                }
+            };
+            assertNull(cache.getEntry("user_1", filtered));
+            assertEquals(0, cache.getEntries(
+                    Collections.singletonList("user_1"), filtered, false).size());
+            assertEquals(0, cache.getNegativeSize());
+            assertTrue(session.hasEntry("user_1"));
+
+            assertNull(cache.getEntry("user_0", filtered));
+            assertEquals(1, cache.getNegativeSize());
+        } finally {
+            session.close();
+        }
     }
 
 }
@@ -0,0 +1,235 @@
+/*
+ * (C) Copyright 2013 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ */
+
+package org.nuxeo.ecm.directory.sql;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestPooledDataSource {
+
+    protected static final String SQL = "SELECT 1";
+
+    protected PooledDataSource pool;
+
+    @Before
+    public void setUp() {
+        JdbcDataSource physicalDataSource = new JdbcDataSource();
+        physicalDataSource.setURL("jdbc:h2:mem:testpool");
+        pool = new PooledDataSource("test", physicalDataSource, 0, 2);
+        pool.setMaxWait(100);
+        pool.setStatementCacheSize(2);
+    }
+
+    @After
+    public void tearDown() {
+        pool.close();
+    }
+
+    @Test
+    public void testConnectionsAreReused() throws Exception {
+        Connection connection = pool.getConnection();
+        assertEquals(1, pool.getActiveCount());
+        connection.close();
+        assertTrue(connection.isClosed());
+        assertEquals(0, pool.getActiveCount());
+        assertEquals(1, pool.getIdleCount());
+
+        Connection other = pool.getConnection();
+        try {
+            assertNotSame(connection, other);
+            assertFalse(other.isClosed());
+            assertEquals(1, pool.getCreatedCount());
+            assertEquals(2, pool.getBorrowCount());
+        } finally {
+            other.close();
+        }
+        try {
+            connection.createStatement();
+            fail("closed connection should not be usable");
+        } catch (SQLException e) {
+            // ok
+        }
+    }
+
+    @Test
+    public void testMaxSize() throws Exception {
+        Connection c1 = pool.getConnection();
+        Connection c2 = pool.getConnection();
+        try {
+            pool.getConnection();
+            fail("pool should be exhausted");
+        } catch (SQLException e) {
+            assertEquals(1, pool.getTimeoutCount());
+        } finally {
+            c1.close();
+            c2.close();
+        }
+        assertEquals(2, pool.getIdleCount());
+        assertEquals(2, pool.getCreatedCount());
+    }
+
+    @Test
+    public void testStatementCache() throws Exception {
+        Connection connection = pool.getConnection();
+        try {
+            PreparedStatement ps = connection.prepareStatement(SQL);
+            assertSame(connection, ps.getConnection());
+            checkResult(ps);
+            // a statement still open is not shared
+            PreparedStatement other = connection.prepareStatement(SQL);
+            checkResult(other);
+            other.close();
+            ps.close();
+            assertEquals(0, pool.getStatementCacheHitCount());
+            assertEquals(2, pool.getStatementCacheMissCount());
+
+            ps = connection.prepareStatement(SQL);
+            checkResult(ps);
+            ps.close();
+        } finally {
+            connection.close();
+        }
+        // the cache is kept by the physical connection
+        connection = pool.getConnection();
+        try {
+            PreparedStatement ps = connection.prepareStatement(SQL);
+            checkResult(ps);
+            ps.close();
+        } finally {
+            connection.close();
+        }
+        assertEquals(2, pool.getStatementCacheHitCount());
+        assertEquals(0.5, pool.getStatementCacheHitRatio(), 0.001);
+    }
+
+    @Test
+    public void testStatementCacheClosesResultSets() throws Exception {
+        Connection connection = pool.getConnection();
+        ResultSet rs;
+        try {
+            PreparedStatement ps = connection.prepareStatement(SQL);
+            rs = ps.executeQuery();
+            assertTrue(rs.next());
+            // result set left open by the borrower
+            ps.close();
+            assertTrue(rs.isClosed());
+
+            ps = connection.prepareStatement(SQL);
+            checkResult(ps);
+            ps.close();
+            assertEquals(1, pool.getStatementCacheHitCount());
+
+            // nor by a statement not closed before the connection
+            ps = connection.prepareStatement(SQL);
+            rs = ps.executeQuery();
+        } finally {
+            connection.close();
+        }
+        assertTrue(rs.isClosed());
+    }
+
+    protected static void checkResult(PreparedStatement ps)
+            throws SQLException {
+        ResultSet rs = ps.executeQuery();
+        assertTrue(rs.next());
+        assertEquals(1, rs.getInt(1));
+        rs.close();
+    }
+
+    @Test
+    public void testIdleEviction() throws Exception {
+        pool.setIdleTimeout(60);
+        Connection c1 = pool.getConnection();
+        Connection c2 = pool.getConnection();
+        c1.close();
+        c2.close();
+        pool.evict();
+        assertEquals(2, pool.getIdleCount());
+
+        // make the least recently used connection look idle for too long
+        synchronized (pool) {
+            pool.idle.getLast().lastUsed -= TimeUnit.SECONDS.toNanos(61);
+        }
+        pool.evict();
+        assertEquals(1, pool.getIdleCount());
+        assertEquals(1, pool.getDestroyedCount());
+    }
+
+    @Test
+    public void testLeakDetection() throws Exception {
+        pool.setLeakTimeout(60);
+        Connection connection = pool.getConnection();
+        try {
+            pool.evict();
+            assertEquals(0, pool.getLeakCount());
+            synchronized (pool) {
+                pool.active.iterator().next().borrowTime -= TimeUnit.SECONDS.toNanos(61);
+            }
+            pool.evict();
+            pool.evict();
+            // reported once
+            assertEquals(1, pool.getLeakCount());
+        } finally {
+            connection.close();
+        }
+    }
+
+    @Test
+    public void testValidation() throws Exception {
+        pool.setValidationQuery("SELECT 1 FROM NOSUCHTABLE");
+        Connection connection = pool.getConnection();
+        connection.close();
+        // the idle connection is replaced
+        connection = pool.getConnection();
+        connection.close();
+        assertEquals(1, pool.getValidationFailureCount());
+        assertEquals(2, pool.getCreatedCount());
+        assertEquals(1, pool.getDestroyedCount());
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        Connection connection = pool.getConnection();
+        pool.close();
+        assertEquals(0, pool.getIdleCount());
+        connection.close();
+        assertEquals(1, pool.getDestroyedCount());
+        try {
+            pool.getConnection();
+            fail("closed pool should not lend connections");
+        } catch (SQLException e) {
+            // ok
+        }
+    }
+
+}
@@ -22,6 +22,7 @@ package org.nuxeo.ecm.directory.sql;
 import java.io.Serializable;
 import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -170,6 +171,46 @@ public class TestSQLDirectory extends SQLDirectoryTestCase {
         }
     }
 
+    @Test
+    public void testTableReferenceBulkLookup() throws Exception {
+        Reference groupsRef = getDirectory("userDirectory").getReference(
+                "groups");
+        Map<String, List<String>> groups = groupsRef.getTargetIdsForSources(Arrays.asList(
+                "user_1", "Administrator", "user_3"));
+        assertEquals(3, groups.size());
+        assertEquals(new HashSet<String>(Arrays.asList("group_1", "members")),
+                new HashSet<String>(groups.get("user_1")));
+        assertEquals(Arrays.asList("administrators"),
+                groups.get("Administrator"));
+        assertTrue(groups.get("user_3").isEmpty());
+
+        Map<String, List<String>> members = groupsRef.getSourceIdsForTargets(Arrays.asList("members"));
+        assertEquals(Arrays.asList("user_1"), members.get("members"));
+    }
+
+    @Test
+    public void testQueryFetchesReferences() throws Exception {
+        Session session = getSession();
+        try {
+            Map<String, Serializable> filter = Collections.emptyMap();
+            DocumentModelList entries = session.query(filter,
+                    Collections.<String> emptySet(),
+                    Collections.<String, String> emptyMap(), true);
+            assertEquals(3, entries.size());
+            for (DocumentModel entry : entries) {
+                @SuppressWarnings("unchecked")
+                List<String> groups = (List<String>) entry.getProperty(SCHEMA,
+                        "groups");
+                assertNotNull(groups);
+                if ("user_1".equals(entry.getId())) {
+                    assertEquals(2, groups.size());
+                }
+            }
+        } finally {
+            session.close();
+        }
+    }
+
     @SuppressWarnings("unchecked")
     @Test
     public void testCreateEntry() throws Exception {
@@ -332,6 +373,30 @@ public class TestSQLDirectory extends SQLDirectoryTestCase {
         }
     }
 
+    @Test
+    public void testGetEntriesByIds() throws Exception {
+        Session session = getSession();
+        try {
+            DocumentModelList entries = session.getEntries(Arrays.asList(
+                    "user_1", "no_such_user", "Administrator", "user_1"),
+                    true);
+            assertEquals(2, entries.size());
+            assertEquals("user_1", entries.get(0).getId());
+            assertEquals("Administrator", entries.get(1).getId());
+            assertEquals("pass_1",
+                    entries.get(0).getProperty(SCHEMA, "password"));
+            @SuppressWarnings("unchecked")
+            List<String> groups = (List<String>) entries.get(0).getProperty(
+                    SCHEMA, "groups");
+            assertEquals(2, groups.size());
+
+            assertEquals(0,
+                    session.getEntries(Collections.<String> emptyList(), true).size());
+        } finally {
+            session.close();
+        }
+    }
+
     @SuppressWarnings("unchecked")
     @Test
     public void testUpdateEntry() throws Exception {
@@ -0,0 +1,141 @@
+/*
+ * (C) Copyright 2013 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ */
+
+package org.nuxeo.ecm.platform.filemanager.utils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.nuxeo.common.utils.Base64;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.impl.blob.FileBlob;
+import org.nuxeo.ecm.core.api.impl.blob.StreamingBlob;
+import org.nuxeo.runtime.services.streaming.FileSource;
+import org.nuxeo.runtime.services.streaming.StreamSource;
+
+/**
+ * Computes the digests of blobs in one pass over their content, reading the
+ * file of file-backed blobs through a channel.
+ * <p>
+ * Digests are encoded in Base64, as stored in the blob digest field.
+ *
+ * @since 5.7.2
+ */
+public final class BlobDigests {
+
+    protected static final int BUFFER_SIZE = 1024 * 1024;
+
+    protected static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
+    // This is an utility class
+    private BlobDigests() {
+    }
+
+    /**
+     * Returns the digest of the blob for the given algorithm.
+     */
+    public static String computeDigest(Blob blob, String algorithm)
+            throws NoSuchAlgorithmException, IOException {
+        return computeDigests(blob, algorithm).get(algorithm);
+    }
+
+    /**
+     * Returns the digests of the blob for the given algorithms, keyed by
+     * algorithm, the content of the blob being read once.
+     */
+    public static Map<String, String> computeDigests(Blob blob,
+            String... algorithms) throws NoSuchAlgorithmException, IOException {
+        MessageDigest[] digests = new MessageDigest[algorithms.length];
+        for (int i = 0; i < algorithms.length; i++) {
+            digests[i] = MessageDigest.getInstance(algorithms[i]);
+        }
+        File file = getFile(blob);
+        if (file != null) {
+            update(digests, file);
+        } else {
+            InputStream in = blob.getStream();
+            try {
+                update(digests, in);
+            } finally {
+                in.close();
+            }
+        }
+        Map<String, String> res = new LinkedHashMap<String, String>();
+        for (int i = 0; i < algorithms.length; i++) {
+            res.put(algorithms[i], Base64.encodeBytes(digests[i].digest()));
+        }
+        return res;
+    }
+
+    /**
+     * Returns the file holding the content of the blob, or null if the blob
+     * is not backed by a file.
+     */
+    protected static File getFile(Blob blob) {
+        File file = null;
+        if (blob instanceof FileBlob) {
+            file = ((FileBlob) blob).getFile();
+        } else if (blob instanceof StreamingBlob) {
+            StreamSource source = ((StreamingBlob) blob).getStreamSource();
+            if (source instanceof FileSource) {
+                file = ((FileSource) source).getFile();
+            }
+        }
+        return file != null && file.isFile() ? file : null;
+    }
+
+    protected static void update(MessageDigest[] digests, File file)
+            throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            // heap buffer: digests read from its backing array, and direct
+            // buffers are not reclaimed until a full GC
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(
+                    BUFFER_SIZE, Math.max(channel.size(), 1)));
+            int n;
+            while ((n = channel.read(buffer)) != -1) {
+                for (MessageDigest digest : digests) {
+                    digest.update(buffer.array(), 0, n);
+                }
+                buffer.clear();
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    protected static void update(MessageDigest[] digests, InputStream in)
+            throws IOException {
+        byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            for (MessageDigest digest : digests) {
+                digest.update(buffer, 0, n);
+            }
+        }
+    }
+
+}
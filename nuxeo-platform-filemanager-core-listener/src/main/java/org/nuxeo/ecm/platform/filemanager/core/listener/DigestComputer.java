@@ -20,14 +20,11 @@
 package org.nuxeo.ecm.platform.filemanager.core.listener;
 
 import java.io.IOException;
-import java.security.DigestInputStream;
-import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.List;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.nuxeo.common.utils.Base64;
 import org.nuxeo.ecm.core.api.Blob;
 import org.nuxeo.ecm.core.api.ClientException;
 import org.nuxeo.ecm.core.api.ClientRuntimeException;
@@ -39,6 +36,7 @@ import org.nuxeo.ecm.core.event.EventContext;
 import org.nuxeo.ecm.core.event.EventListener;
 import org.nuxeo.ecm.core.event.impl.DocumentEventContext;
 import org.nuxeo.ecm.platform.filemanager.api.FileManager;
+import org.nuxeo.ecm.platform.filemanager.utils.BlobDigests;
 import org.nuxeo.runtime.api.Framework;
 
 import static org.nuxeo.ecm.core.api.event.DocumentEventTypes.ABOUT_TO_CREATE;
@@ -103,20 +101,13 @@ public class DigestComputer implements EventListener {
     private String computeDigest(Blob blob) throws NoSuchAlgorithmException,
             IOException {
 
-        MessageDigest md = MessageDigest.getInstance(digestAlgo);
-
         // make sure the blob can be read several times without exhausting its
         // binary source
         if (!blob.isPersistent()) {
             blob = blob.persist();
         }
 
-        DigestInputStream dis = new DigestInputStream(blob.getStream(), md);
-        while (dis.available() > 0) {
-            dis.read();
-        }
-        byte[] b = md.digest();
-        return Base64.encodeBytes(b);
+        return BlobDigests.computeDigest(blob, digestAlgo);
     }
 
     public void handleEvent(Event event) throws ClientException {
@@ -17,8 +17,6 @@ package org.nuxeo.ecm.platform.filemanager.service;
 
 import java.io.IOException;
 import java.io.Serializable;
-import java.security.DigestInputStream;
-import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.Principal;
 import java.util.ArrayList;
@@ -32,7 +30,6 @@ import java.util.Map;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.nuxeo.common.utils.Base64;
 import org.nuxeo.ecm.core.api.Blob;
 import org.nuxeo.ecm.core.api.ClientException;
 import org.nuxeo.ecm.core.api.CoreInstance;
@@ -58,6 +55,7 @@ import org.nuxeo.ecm.platform.filemanager.service.extension.FolderImporter;
 import org.nuxeo.ecm.platform.filemanager.service.extension.FolderImporterDescriptor;
 import org.nuxeo.ecm.platform.filemanager.service.extension.UnicityExtension;
 import org.nuxeo.ecm.platform.filemanager.service.extension.VersioningDescriptor;
+import org.nuxeo.ecm.platform.filemanager.utils.BlobDigests;
 import org.nuxeo.ecm.platform.filemanager.utils.FileManagerUtils;
 import org.nuxeo.ecm.platform.mimetype.MimetypeDetectionException;
 import org.nuxeo.ecm.platform.mimetype.interfaces.MimetypeRegistry;
@@ -542,15 +540,7 @@ public class FileManagerService extends DefaultComponent implements FileManager
     public String computeDigest(Blob blob) throws NoSuchAlgorithmException,
             IOException {
 
-        MessageDigest md = MessageDigest.getInstance(digestAlgorithm);
-
-        DigestInputStream dis = new DigestInputStream(blob.getStream(), md);
-        while (dis.available() > 0) {
-            dis.read();
-        }
-        byte[] b = md.digest();
-        String base64Digest = Base64.encodeBytes(b);
-        return base64Digest;
+        return BlobDigests.computeDigest(blob, digestAlgorithm);
     }
 
     public List<DocumentLocation> findExistingDocumentWithFile(
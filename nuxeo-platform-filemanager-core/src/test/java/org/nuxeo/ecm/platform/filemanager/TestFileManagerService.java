@@ -26,23 +26,29 @@ import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.net.URL;
+import java.security.MessageDigest;
 import java.util.List;
+import java.util.Map;
 
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.nuxeo.common.utils.Base64;
 import org.nuxeo.common.utils.FileUtils;
+import org.nuxeo.ecm.core.api.Blob;
 import org.nuxeo.ecm.core.api.ClientException;
 import org.nuxeo.ecm.core.api.CoreSession;
 import org.nuxeo.ecm.core.api.DocumentModel;
 import org.nuxeo.ecm.core.api.DocumentRef;
 import org.nuxeo.ecm.core.api.impl.blob.ByteArrayBlob;
+import org.nuxeo.ecm.core.api.impl.blob.FileBlob;
 import org.nuxeo.ecm.core.test.CoreFeature;
 import org.nuxeo.ecm.core.test.annotations.Granularity;
 import org.nuxeo.ecm.core.test.annotations.RepositoryConfig;
 import org.nuxeo.ecm.platform.filemanager.api.FileManager;
 import org.nuxeo.ecm.platform.filemanager.service.FileManagerService;
 import org.nuxeo.ecm.platform.filemanager.service.extension.FileImporter;
+import org.nuxeo.ecm.platform.filemanager.utils.BlobDigests;
 import org.nuxeo.ecm.platform.filemanager.utils.FileManagerUtils;
 import org.nuxeo.runtime.api.Framework;
 import org.nuxeo.runtime.test.runner.Deploy;
@@ -111,6 +117,29 @@ public class TestFileManagerService {
         assertNotNull(doc.getProperty("file", "content"));
     }
 
+    @Test
+    public void testComputeDigest() throws Exception {
+        File file = getTestFile("test-data/hello.doc");
+        byte[] content = FileManagerUtils.getBytesFromFile(file);
+        String expected = Base64.encodeBytes(MessageDigest.getInstance(
+                "sha-256").digest(content));
+
+        // read from a stream
+        Blob blob = new ByteArrayBlob(content, "application/msword");
+        assertEquals(expected,
+                BlobDigests.computeDigest(blob, "sha-256"));
+        // read from the file
+        assertEquals(expected,
+                BlobDigests.computeDigest(new FileBlob(file), "sha-256"));
+
+        // several digests in one pass
+        Map<String, String> digests = BlobDigests.computeDigests(
+                new FileBlob(file), "md5", "sha-256");
+        assertEquals(expected, digests.get("sha-256"));
+        assertEquals(Base64.encodeBytes(MessageDigest.getInstance("md5").digest(
+                content)), digests.get("md5"));
+    }
+
     @Test
     public void testDefaultCreateTwiceFromSameBlob() throws Exception {
         // create doc
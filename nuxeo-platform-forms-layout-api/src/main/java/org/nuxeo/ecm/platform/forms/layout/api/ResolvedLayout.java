@@ -0,0 +1,76 @@
+/*
+ * (C) Copyright 2013 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ */
+package org.nuxeo.ecm.platform.forms.layout.api;
+
+import java.io.Serializable;
+import java.util.Map;
+
+/**
+ * Layout definition resolved for a mode and conversion context: converted by
+ * the layout converters, with the definitions of the widgets it references
+ * converted by the widget converters, and identifiers computed once.
+ * <p>
+ * Resolved layouts are shared by all the callers: the definitions they hold
+ * must not be modified, and have to be cloned first if needed.
+ *
+ * @since 5.7.2
+ */
+public interface ResolvedLayout extends Serializable {
+
+    String getCategory();
+
+    String getMode();
+
+    /**
+     * Returns the converted layout definition.
+     */
+    LayoutDefinition getLayoutDefinition();
+
+    /**
+     * Returns the identifier of the converted layout definition.
+     *
+     * @see org.nuxeo.ecm.platform.forms.layout.functions.LayoutFunctions#computeLayoutDefinitionId(LayoutDefinition)
+     */
+    String getLayoutDefinitionId();
+
+    /**
+     * Returns the template of the layout for the mode.
+     */
+    String getTemplate();
+
+    /**
+     * Returns the converted definition of the widget referenced by the rows
+     * of the layout with given name, or null if the widget is not found or
+     * was removed by a converter.
+     */
+    WidgetDefinition getWidgetDefinition(String name);
+
+    /**
+     * Returns the identifier of the converted definition of the widget with
+     * given name, or null if not found.
+     *
+     * @see org.nuxeo.ecm.platform.forms.layout.functions.LayoutFunctions#computeWidgetDefinitionId(WidgetDefinition)
+     */
+    String getWidgetDefinitionId(String name);
+
+    /**
+     * Returns the converted widget definitions by name, in the order of the
+     * rows.
+     */
+    Map<String, WidgetDefinition> getWidgetDefinitions();
+
+}
@@ -0,0 +1,118 @@
+/*
+ * (C) Copyright 2013 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ */
+package org.nuxeo.ecm.platform.forms.layout.api.impl;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.nuxeo.ecm.platform.forms.layout.api.LayoutDefinition;
+import org.nuxeo.ecm.platform.forms.layout.api.ResolvedLayout;
+import org.nuxeo.ecm.platform.forms.layout.api.WidgetDefinition;
+import org.nuxeo.ecm.platform.forms.layout.functions.LayoutFunctions;
+
+/**
+ * @since 5.7.2
+ */
+public class ResolvedLayoutImpl implements ResolvedLayout {
+
+    private static final long serialVersionUID = 1L;
+
+    protected final String category;
+
+    protected final String mode;
+
+    protected final LayoutDefinition layoutDefinition;
+
+    protected final String layoutDefinitionId;
+
+    protected final String template;
+
+    protected final Map<String, WidgetDefinition> widgetDefinitions;
+
+    protected final Map<String, String> widgetDefinitionIds;
+
+    /**
+     * @param widgetDefinitions the converted widget definitions by name, in
+     *            the order of the rows
+     */
+    public ResolvedLayoutImpl(String category, String mode,
+            LayoutDefinition layoutDefinition,
+            Map<String, WidgetDefinition> widgetDefinitions) {
+        this.category = category;
+        this.mode = mode;
+        this.layoutDefinition = layoutDefinition;
+        layoutDefinitionId = LayoutFunctions.computeLayoutDefinitionId(layoutDefinition);
+        template = layoutDefinition.getTemplate(mode);
+        this.widgetDefinitions = Collections.unmodifiableMap(new LinkedHashMap<String, WidgetDefinition>(
+                widgetDefinitions));
+        Map<String, String> ids = new HashMap<String, String>();
+        for (Map.Entry<String, WidgetDefinition> widget : widgetDefinitions.entrySet()) {
+            ids.put(widget.getKey(),
+                    LayoutFunctions.computeWidgetDefinitionId(widget.getValue()));
+        }
+        widgetDefinitionIds = Collections.unmodifiableMap(ids);
+    }
+
+    @Override
+    public String getCategory() {
+        return category;
+    }
+
+    @Override
+    public String getMode() {
+        return mode;
+    }
+
+    @Override
+    public LayoutDefinition getLayoutDefinition() {
+        return layoutDefinition;
+    }
+
+    @Override
+    public String getLayoutDefinitionId() {
+        return layoutDefinitionId;
+    }
+
+    @Override
+    public String getTemplate() {
+        return template;
+    }
+
+    @Override
+    public WidgetDefinition getWidgetDefinition(String name) {
+        return widgetDefinitions.get(name);
+    }
+
+    @Override
+    public String getWidgetDefinitionId(String name) {
+        return widgetDefinitionIds.get(name);
+    }
+
+    @Override
+    public Map<String, WidgetDefinition> getWidgetDefinitions() {
+        return widgetDefinitions;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ResolvedLayoutImpl(%s, %s, %s)",
+                layoutDefinition.getName(), category, mode);
+    }
+
+}
@@ -20,9 +20,11 @@ import java.io.Serializable;
 import java.util.List;
 
 import org.nuxeo.ecm.platform.forms.layout.api.LayoutDefinition;
+import org.nuxeo.ecm.platform.forms.layout.api.ResolvedLayout;
 import org.nuxeo.ecm.platform.forms.layout.api.WidgetDefinition;
 import org.nuxeo.ecm.platform.forms.layout.api.WidgetType;
 import org.nuxeo.ecm.platform.forms.layout.api.WidgetTypeDefinition;
+import org.nuxeo.ecm.platform.forms.layout.api.converters.LayoutConversionContext;
 import org.nuxeo.ecm.platform.forms.layout.api.converters.LayoutDefinitionConverter;
 import org.nuxeo.ecm.platform.forms.layout.api.converters.WidgetDefinitionConverter;
 
@@ -80,10 +82,37 @@ public interface LayoutStore extends Serializable {
      */
     WidgetDefinition getWidgetDefinition(String category, String widgetName);
 
+    /**
+     * Returns the layout converters of the category, sorted by order.
+     * <p>
+     * Since 5.7.2, converters are instantiated once at registration and the
+     * returned list is not modifiable.
+     */
     List<LayoutDefinitionConverter> getLayoutConverters(String category);
 
+    /**
+     * Returns the widget converters of the category, sorted by order.
+     * <p>
+     * Since 5.7.2, converters are instantiated once at registration and the
+     * returned list is not modifiable.
+     */
     List<WidgetDefinitionConverter> getWidgetConverters(String category);
 
+    /**
+     * Returns the layout with given name, resolved for the given mode and
+     * conversion context.
+     * <p>
+     * Resolved layouts are cached until contributions to the store change,
+     * so that the conversion of a given layout is only done once.
+     *
+     * @param ctx the conversion context, or null to skip conversion
+     * @return the resolved layout, or null if no layout with this name is
+     *         found or if it is removed by a converter
+     * @since 5.7.2
+     */
+    ResolvedLayout getResolvedLayout(String category, String layoutName,
+            String mode, LayoutConversionContext ctx);
+
     // registry API
 
     void registerWidgetType(String category, WidgetTypeDefinition desc);
@@ -21,18 +21,25 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.nuxeo.ecm.platform.forms.layout.api.LayoutDefinition;
+import org.nuxeo.ecm.platform.forms.layout.api.LayoutRowDefinition;
+import org.nuxeo.ecm.platform.forms.layout.api.ResolvedLayout;
 import org.nuxeo.ecm.platform.forms.layout.api.WidgetDefinition;
+import org.nuxeo.ecm.platform.forms.layout.api.WidgetReference;
 import org.nuxeo.ecm.platform.forms.layout.api.WidgetType;
 import org.nuxeo.ecm.platform.forms.layout.api.WidgetTypeDefinition;
+import org.nuxeo.ecm.platform.forms.layout.api.converters.LayoutConversionContext;
 import org.nuxeo.ecm.platform.forms.layout.api.converters.LayoutDefinitionConverter;
 import org.nuxeo.ecm.platform.forms.layout.api.converters.WidgetDefinitionConverter;
+import org.nuxeo.ecm.platform.forms.layout.api.impl.ResolvedLayoutImpl;
 import org.nuxeo.ecm.platform.forms.layout.api.impl.WidgetTypeImpl;
 import org.nuxeo.ecm.platform.forms.layout.api.service.LayoutStore;
 import org.nuxeo.ecm.platform.forms.layout.core.registries.LayoutConverterRegistry;
@@ -46,6 +53,7 @@ import org.nuxeo.ecm.platform.forms.layout.descriptors.LayoutDescriptor;
 import org.nuxeo.ecm.platform.forms.layout.descriptors.WidgetConverterDescriptor;
 import org.nuxeo.ecm.platform.forms.layout.descriptors.WidgetDescriptor;
 import org.nuxeo.ecm.platform.forms.layout.descriptors.WidgetTypeDescriptor;
+import org.nuxeo.runtime.api.Framework;
 import org.nuxeo.runtime.model.ComponentInstance;
 import org.nuxeo.runtime.model.DefaultComponent;
 
@@ -69,6 +77,19 @@ public class LayoutStoreImpl extends DefaultComponent implements LayoutStore {
 
     public static final String WIDGET_CONVERTERS_EP_NAME = "widgetConverters";
 
+    /**
+     * Property holding the maximum number of resolved layouts kept in cache,
+     * 0 disabling the cache.
+     *
+     * @since 5.7.2
+     */
+    public static final String RESOLVED_LAYOUT_CACHE_SIZE_PROPERTY = "org.nuxeo.ecm.platform.forms.layout.resolvedLayoutCache.maxSize";
+
+    /**
+     * @since 5.7.2
+     */
+    public static final int DEFAULT_RESOLVED_LAYOUT_CACHE_SIZE = 1000;
+
     protected final Map<String, WidgetTypeRegistry> widgetTypesByCat;
 
     protected final Map<String, WidgetTypeDefinitionRegistry> widgetTypeDefsByCat;
@@ -81,6 +102,27 @@ public class LayoutStoreImpl extends DefaultComponent implements LayoutStore {
 
     protected final Map<String, LayoutConverterRegistry> layoutConvertersByCat;
 
+    /**
+     * Ordered layout converter instances per category, replaced as a whole
+     * when converters are registered or unregistered.
+     *
+     * @since 5.7.2
+     */
+    protected final Map<String, List<LayoutDefinitionConverter>> layoutConverterChainsByCat;
+
+    /**
+     * Ordered widget converter instances per category, replaced as a whole
+     * when converters are registered or unregistered.
+     *
+     * @since 5.7.2
+     */
+    protected final Map<String, List<WidgetDefinitionConverter>> widgetConverterChainsByCat;
+
+    /**
+     * @since 5.7.2
+     */
+    protected final ResolvedLayoutCache resolvedLayouts;
+
     public LayoutStoreImpl() {
         widgetTypeDefsByCat = new HashMap<String, WidgetTypeDefinitionRegistry>();
         widgetTypesByCat = new HashMap<String, WidgetTypeRegistry>();
@@ -88,6 +130,22 @@ public class LayoutStoreImpl extends DefaultComponent implements LayoutStore {
         widgetsByCat = new HashMap<String, WidgetDefinitionRegistry>();
         widgetConvertersByCat = new HashMap<String, WidgetConverterRegistry>();
         layoutConvertersByCat = new HashMap<String, LayoutConverterRegistry>();
+        layoutConverterChainsByCat = new ConcurrentHashMap<String, List<LayoutDefinitionConverter>>();
+        widgetConverterChainsByCat = new ConcurrentHashMap<String, List<WidgetDefinitionConverter>>();
+        resolvedLayouts = new ResolvedLayoutCache(getResolvedLayoutCacheSize());
+    }
+
+    protected static int getResolvedLayoutCacheSize() {
+        String value = Framework.getProperty(RESOLVED_LAYOUT_CACHE_SIZE_PROPERTY);
+        if (value != null) {
+            try {
+                return Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                log.error(String.format("Invalid value %s for property %s",
+                        value, RESOLVED_LAYOUT_CACHE_SIZE_PROPERTY));
+            }
+        }
+        return DEFAULT_RESOLVED_LAYOUT_CACHE_SIZE;
     }
 
     // Runtime component API
@@ -316,6 +374,7 @@ public class LayoutStoreImpl extends DefaultComponent implements LayoutStore {
             layoutsByCat.put(category, reg);
         }
         reg.addContribution(layoutDef);
+        resolvedLayouts.invalidate();
         log.info(String.format("Registered layout '%s' for category '%s' ",
                 layoutDef.getName(), category));
     }
@@ -324,6 +383,7 @@ public class LayoutStoreImpl extends DefaultComponent implements LayoutStore {
         LayoutDefinitionRegistry reg = layoutsByCat.get(category);
         if (reg != null) {
             reg.removeContribution(layoutDef);
+            resolvedLayouts.invalidate();
             log.info(String.format(
                     "Unregistered layout '%s' for category '%s' ",
                     layoutDef.getName(), category));
@@ -339,6 +399,7 @@ public class LayoutStoreImpl extends DefaultComponent implements LayoutStore {
             widgetsByCat.put(category, reg);
         }
         reg.addContribution(widgetDef);
+        resolvedLayouts.invalidate();
         log.info(String.format("Registered widget '%s' for category '%s' ",
                 widgetDef.getName(), category));
     }
@@ -347,6 +408,7 @@ public class LayoutStoreImpl extends DefaultComponent implements LayoutStore {
         WidgetDefinitionRegistry reg = widgetsByCat.get(category);
         if (reg != null) {
             reg.removeContribution(widgetDef);
+            resolvedLayouts.invalidate();
             log.info(String.format(
                     "Unregistered widget '%s' for category '%s' ",
                     widgetDef.getName(), category));
@@ -363,6 +425,7 @@ public class LayoutStoreImpl extends DefaultComponent implements LayoutStore {
             layoutConvertersByCat.put(category, reg);
         }
         reg.addContribution(layoutConverter);
+        updateLayoutConverterChain(category);
         log.info(String.format(
                 "Registered layout converter '%s' for category '%s' ",
                 layoutConverter.getName(), category));
@@ -373,6 +436,7 @@ public class LayoutStoreImpl extends DefaultComponent implements LayoutStore {
         LayoutConverterRegistry reg = layoutConvertersByCat.get(category);
         if (reg != null) {
             reg.removeContribution(layoutConverter);
+            updateLayoutConverterChain(category);
             log.info(String.format(
                     "Unregistered layout converter '%s' for category '%s' ",
                     layoutConverter.getName(), category));
@@ -387,6 +451,7 @@ public class LayoutStoreImpl extends DefaultComponent implements LayoutStore {
             widgetConvertersByCat.put(category, reg);
         }
         reg.addContribution(widgetConverter);
+        updateWidgetConverterChain(category);
         log.info(String.format(
                 "Registered widget converter '%s' for category '%s' ",
                 widgetConverter.getName(), category));
@@ -397,6 +462,7 @@ public class LayoutStoreImpl extends DefaultComponent implements LayoutStore {
         WidgetConverterRegistry reg = widgetConvertersByCat.get(category);
         if (reg != null) {
             reg.removeContribution(widgetConverter);
+            updateWidgetConverterChain(category);
             log.info(String.format(
                     "Unregistered widget converter '%s' for category '%s' ",
                     widgetConverter.getName(), category));
@@ -464,6 +530,131 @@ public class LayoutStoreImpl extends DefaultComponent implements LayoutStore {
 
     @Override
     public List<LayoutDefinitionConverter> getLayoutConverters(String category) {
+        List<LayoutDefinitionConverter> res = layoutConverterChainsByCat.get(category);
+        if (res == null) {
+            return Collections.emptyList();
+        }
+        return res;
+    }
+
+    @Override
+    public List<WidgetDefinitionConverter> getWidgetConverters(String category) {
+        List<WidgetDefinitionConverter> res = widgetConverterChainsByCat.get(category);
+        if (res == null) {
+            return Collections.emptyList();
+        }
+        return res;
+    }
+
+    @Override
+    public ResolvedLayout getResolvedLayout(String category,
+            String layoutName, String mode, LayoutConversionContext ctx) {
+        if (!resolvedLayouts.isEnabled()) {
+            return resolveLayout(category, layoutName, mode, ctx);
+        }
+        ResolvedLayoutCache.Key key = new ResolvedLayoutCache.Key(category,
+                layoutName, mode, ctx);
+        ResolvedLayout layout = resolvedLayouts.get(key);
+        if (layout == null) {
+            long generation = resolvedLayouts.getGeneration();
+            layout = resolveLayout(category, layoutName, mode, ctx);
+            if (layout != null) {
+                resolvedLayouts.put(key, layout, generation);
+            }
+        }
+        return layout;
+    }
+
+    /**
+     * Returns the cache of resolved layouts, giving access to its statistics.
+     *
+     * @since 5.7.2
+     */
+    public ResolvedLayoutCache getResolvedLayoutCache() {
+        return resolvedLayouts;
+    }
+
+    /**
+     * Runs the converters of the category on the layout and on the widgets
+     * referenced by its rows, converters being skipped if the context is
+     * null.
+     *
+     * @since 5.7.2
+     */
+    protected ResolvedLayout resolveLayout(String category, String layoutName,
+            String mode, LayoutConversionContext ctx) {
+        LayoutDefinition layoutDef = getLayoutDefinition(category, layoutName);
+        if (layoutDef != null && ctx != null) {
+            for (LayoutDefinitionConverter converter : getLayoutConverters(category)) {
+                layoutDef = converter.getLayoutDefinition(layoutDef, ctx);
+                if (layoutDef == null) {
+                    break;
+                }
+            }
+        }
+        if (layoutDef == null) {
+            return null;
+        }
+        Map<String, WidgetDefinition> widgetDefs = new LinkedHashMap<String, WidgetDefinition>();
+        LayoutRowDefinition[] rows = layoutDef.getRows();
+        if (rows != null) {
+            List<WidgetDefinitionConverter> converters = getWidgetConverters(category);
+            for (LayoutRowDefinition row : rows) {
+                WidgetReference[] refs = row == null ? null
+                        : row.getWidgetReferences();
+                if (refs == null) {
+                    continue;
+                }
+                for (WidgetReference ref : refs) {
+                    if (ref == null || ref.getName() == null
+                            || ref.getName().length() == 0
+                            || widgetDefs.containsKey(ref.getName())) {
+                        continue;
+                    }
+                    WidgetDefinition widgetDef = resolveWidget(category,
+                            layoutDef, ref, converters, ctx);
+                    if (widgetDef != null) {
+                        widgetDefs.put(ref.getName(), widgetDef);
+                    }
+                }
+            }
+        }
+        return new ResolvedLayoutImpl(category, mode, layoutDef, widgetDefs);
+    }
+
+    protected WidgetDefinition resolveWidget(String category,
+            LayoutDefinition layoutDef, WidgetReference ref,
+            List<WidgetDefinitionConverter> converters,
+            LayoutConversionContext ctx) {
+        String name = ref.getName();
+        // widgets of the layout come first, then global ones
+        WidgetDefinition widgetDef = layoutDef.getWidgetDefinition(name);
+        if (widgetDef == null) {
+            String widgetCategory = ref.getCategory();
+            if (widgetCategory == null) {
+                widgetCategory = category;
+            }
+            widgetDef = getWidgetDefinition(widgetCategory, name);
+        }
+        if (widgetDef != null && ctx != null) {
+            for (WidgetDefinitionConverter converter : converters) {
+                widgetDef = converter.getWidgetDefinition(widgetDef, ctx);
+                if (widgetDef == null) {
+                    break;
+                }
+            }
+        }
+        return widgetDef;
+    }
+
+    /**
+     * Instantiates the layout converters of the category, sorted by order,
+     * and replaces the converters returned by
+     * {@link #getLayoutConverters(String)}.
+     *
+     * @since 5.7.2
+     */
+    protected void updateLayoutConverterChain(String category) {
         List<LayoutDefinitionConverter> res = new ArrayList<LayoutDefinitionConverter>();
         List<String> orderedConverterNames = new ArrayList<String>();
         LayoutConverterRegistry reg = layoutConvertersByCat.get(category);
@@ -491,11 +682,23 @@ public class LayoutStoreImpl extends DefaultComponent implements LayoutStore {
                     "Ordered layout converters for category '%s': %s",
                     category, orderedConverterNames));
         }
-        return res;
+        if (res.isEmpty()) {
+            layoutConverterChainsByCat.remove(category);
+        } else {
+            layoutConverterChainsByCat.put(category,
+                    Collections.unmodifiableList(res));
+        }
+        resolvedLayouts.invalidate();
     }
 
-    @Override
-    public List<WidgetDefinitionConverter> getWidgetConverters(String category) {
+    /**
+     * Instantiates the widget converters of the category, sorted by order,
+     * and replaces the converters returned by
+     * {@link #getWidgetConverters(String)}.
+     *
+     * @since 5.7.2
+     */
+    protected void updateWidgetConverterChain(String category) {
         List<WidgetDefinitionConverter> res = new ArrayList<WidgetDefinitionConverter>();
         List<String> orderedConverterNames = new ArrayList<String>();
         WidgetConverterRegistry reg = widgetConvertersByCat.get(category);
@@ -523,7 +726,13 @@ public class LayoutStoreImpl extends DefaultComponent implements LayoutStore {
                     "Ordered widget converters for category '%s': %s",
                     category, orderedConverterNames));
         }
-        return res;
+        if (res.isEmpty()) {
+            widgetConverterChainsByCat.remove(category);
+        } else {
+            widgetConverterChainsByCat.put(category,
+                    Collections.unmodifiableList(res));
+        }
+        resolvedLayouts.invalidate();
     }
 
 }
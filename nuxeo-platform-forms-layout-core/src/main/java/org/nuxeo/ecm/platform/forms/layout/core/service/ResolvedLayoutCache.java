@@ -0,0 +1,216 @@
+/*
+ * (C) Copyright 2013 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ */
+package org.nuxeo.ecm.platform.forms.layout.core.service;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.nuxeo.ecm.platform.forms.layout.api.ResolvedLayout;
+import org.nuxeo.ecm.platform.forms.layout.api.converters.LayoutConversionContext;
+
+/**
+ * Cache of the layouts resolved by the {@link LayoutStoreImpl}, keyed by
+ * category, layout name, mode and conversion context.
+ * <p>
+ * The cache keeps at most a given number of layouts, the least recently used
+ * ones being dropped first, and is cleared when contributions to the store
+ * change.
+ *
+ * @since 5.7.2
+ */
+public class ResolvedLayoutCache {
+
+    protected final int maxSize;
+
+    protected final Map<Key, ResolvedLayout> entries;
+
+    protected final AtomicLong hitCount = new AtomicLong();
+
+    protected final AtomicLong missCount = new AtomicLong();
+
+    protected final AtomicLong invalidationCount = new AtomicLong();
+
+    /**
+     * @param maxSize the maximum number of layouts kept, 0 disabling the cache
+     */
+    public ResolvedLayoutCache(final int maxSize) {
+        this.maxSize = maxSize;
+        entries = new LinkedHashMap<Key, ResolvedLayout>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<Key, ResolvedLayout> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    public boolean isEnabled() {
+        return maxSize > 0;
+    }
+
+    /**
+     * Returns the cached layout for the given key, or null if not cached.
+     */
+    public ResolvedLayout get(Key key) {
+        ResolvedLayout layout;
+        synchronized (entries) {
+            layout = entries.get(key);
+        }
+        if (layout == null) {
+            missCount.incrementAndGet();
+        } else {
+            hitCount.incrementAndGet();
+        }
+        return layout;
+    }
+
+    /**
+     * Returns the number of invalidations, to be read before resolving a
+     * layout passed to {@link #put}.
+     */
+    public long getGeneration() {
+        return invalidationCount.get();
+    }
+
+    /**
+     * Caches a layout for the given key, unless the cache was invalidated
+     * since the given generation was read, the layout being possibly stale.
+     */
+    public void put(Key key, ResolvedLayout layout, long generation) {
+        synchronized (entries) {
+            if (generation == invalidationCount.get()) {
+                entries.put(key, layout);
+            }
+        }
+    }
+
+    /**
+     * Drops all the cached layouts.
+     */
+    public void invalidate() {
+        synchronized (entries) {
+            entries.clear();
+            invalidationCount.incrementAndGet();
+        }
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public int getSize() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getInvalidationCount() {
+        return invalidationCount.get();
+    }
+
+    /**
+     * Key of a resolved layout, holding a copy of the conversion context
+     * properties.
+     */
+    public static class Key {
+
+        protected final String category;
+
+        protected final String layoutName;
+
+        protected final String mode;
+
+        protected final boolean converted;
+
+        protected final String language;
+
+        protected final Map<String, Serializable> properties;
+
+        protected final int hashCode;
+
+        public Key(String category, String layoutName, String mode,
+                LayoutConversionContext ctx) {
+            this.category = category;
+            this.layoutName = layoutName;
+            this.mode = mode;
+            converted = ctx != null;
+            if (ctx == null) {
+                language = null;
+                properties = null;
+            } else {
+                language = ctx.getLanguage();
+                properties = ctx.getProperties() == null ? null
+                        : new HashMap<String, Serializable>(
+                                ctx.getProperties());
+            }
+            int h = category == null ? 0 : category.hashCode();
+            h = 31 * h + (layoutName == null ? 0 : layoutName.hashCode());
+            h = 31 * h + (mode == null ? 0 : mode.hashCode());
+            h = 31 * h + (converted ? 1 : 0);
+            h = 31 * h + (language == null ? 0 : language.hashCode());
+            h = 31 * h + (properties == null ? 0 : properties.hashCode());
+            hashCode = h;
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj == this) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return hashCode == other.hashCode
+                    && converted == other.converted
+                    && equals(category, other.category)
+                    && equals(layoutName, other.layoutName)
+                    && equals(mode, other.mode)
+                    && equals(language, other.language)
+                    && equals(properties, other.properties);
+        }
+
+        protected static boolean equals(Object o1, Object o2) {
+            return o1 == null ? o2 == null : o1.equals(o2);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Key(%s, %s, %s, %s, %s)", category,
+                    layoutName, mode, language, properties);
+        }
+    }
+
+}
@@ -0,0 +1,35 @@
+/*
+ * (C) Copyright 2013 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ */
+package org.nuxeo.ecm.platform.layout.core.tests;
+
+import org.nuxeo.ecm.platform.forms.layout.api.LayoutDefinition;
+import org.nuxeo.ecm.platform.forms.layout.api.converters.AbstractLayoutDefinitionConverter;
+import org.nuxeo.ecm.platform.forms.layout.api.converters.LayoutConversionContext;
+
+/**
+ * @since 5.7.2
+ */
+public class DummyLayoutDefinitionConverter extends
+        AbstractLayoutDefinitionConverter {
+
+    @Override
+    public LayoutDefinition getLayoutDefinition(LayoutDefinition orig,
+            LayoutConversionContext ctx) {
+        return orig;
+    }
+
+}
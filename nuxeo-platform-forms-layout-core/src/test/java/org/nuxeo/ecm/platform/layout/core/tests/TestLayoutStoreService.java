@@ -30,10 +30,16 @@ import static org.junit.Assert.*;
 import org.nuxeo.ecm.platform.forms.layout.api.BuiltinModes;
 import org.nuxeo.ecm.platform.forms.layout.api.FieldDefinition;
 import org.nuxeo.ecm.platform.forms.layout.api.LayoutDefinition;
+import org.nuxeo.ecm.platform.forms.layout.api.ResolvedLayout;
 import org.nuxeo.ecm.platform.forms.layout.api.WidgetType;
 import org.nuxeo.ecm.platform.forms.layout.api.WidgetTypeConfiguration;
 import org.nuxeo.ecm.platform.forms.layout.api.WidgetTypeDefinition;
+import org.nuxeo.ecm.platform.forms.layout.api.converters.LayoutConversionContext;
+import org.nuxeo.ecm.platform.forms.layout.api.converters.LayoutDefinitionConverter;
 import org.nuxeo.ecm.platform.forms.layout.api.service.LayoutStore;
+import org.nuxeo.ecm.platform.forms.layout.core.service.LayoutStoreImpl;
+import org.nuxeo.ecm.platform.forms.layout.core.service.ResolvedLayoutCache;
+import org.nuxeo.ecm.platform.forms.layout.functions.LayoutFunctions;
 import org.nuxeo.runtime.api.Framework;
 import org.nuxeo.runtime.test.NXRuntimeTestCase;
 
@@ -113,4 +119,79 @@ public class TestLayoutStoreService extends NXRuntimeTestCase {
         assertEquals(wTypeDef, wTypeDefs.get(0));
     }
 
+    @Test
+    public void testLayoutConverters() throws Exception {
+        assertTrue(service.getLayoutConverters("testCategory").isEmpty());
+
+        deployContrib("org.nuxeo.ecm.platform.forms.layout.core.tests",
+                "layouts-core-test-converters-contrib.xml");
+        List<LayoutDefinitionConverter> converters = service.getLayoutConverters("testCategory");
+        assertEquals(2, converters.size());
+        assertTrue(converters.get(0) instanceof DummyLayoutDefinitionConverter);
+        // converters are instantiated once, at registration
+        assertSame(converters, service.getLayoutConverters("testCategory"));
+        try {
+            converters.clear();
+            fail("Converters should not be modifiable");
+        } catch (UnsupportedOperationException e) {
+            // ok
+        }
+        assertTrue(service.getLayoutConverters("otherCategory").isEmpty());
+
+        undeployContrib("org.nuxeo.ecm.platform.forms.layout.core.tests",
+                "layouts-core-test-converters-contrib.xml");
+        assertTrue(service.getLayoutConverters("testCategory").isEmpty());
+        // previously returned converters are left untouched
+        assertEquals(2, converters.size());
+    }
+
+    @Test
+    public void testResolvedLayout() throws Exception {
+        ResolvedLayoutCache cache = ((LayoutStoreImpl) service).getResolvedLayoutCache();
+        cache.invalidate();
+        LayoutConversionContext ctx = new LayoutConversionContext("en", null);
+
+        ResolvedLayout layout = service.getResolvedLayout("testCategory",
+                "dublincore", BuiltinModes.EDIT, ctx);
+        assertNotNull(layout);
+        assertEquals("edit_template", layout.getTemplate());
+        assertEquals(
+                LayoutFunctions.computeLayoutDefinitionId(layout.getLayoutDefinition()),
+                layout.getLayoutDefinitionId());
+        // only the title widget of the rows is defined
+        assertEquals(1, layout.getWidgetDefinitions().size());
+        assertEquals("text",
+                layout.getWidgetDefinition("title").getType());
+        assertNotNull(layout.getWidgetDefinitionId("title"));
+        assertEquals(0, cache.getHitCount());
+
+        // same layout for the same mode and context
+        assertSame(layout, service.getResolvedLayout("testCategory",
+                "dublincore", BuiltinModes.EDIT, new LayoutConversionContext(
+                        "en", null)));
+        assertEquals(1, cache.getHitCount());
+        assertNotSame(layout, service.getResolvedLayout("testCategory",
+                "dublincore", BuiltinModes.VIEW, ctx));
+        assertNotSame(layout, service.getResolvedLayout("testCategory",
+                "dublincore", BuiltinModes.EDIT, new LayoutConversionContext(
+                        "fr", null)));
+        assertNull(service.getResolvedLayout("testCategory", "unknown",
+                BuiltinModes.EDIT, ctx));
+
+        // global widgets are resolved too
+        ResolvedLayout testLayout = service.getResolvedLayout("testCategory",
+                "testLayout", BuiltinModes.EDIT, ctx);
+        assertEquals(4, testLayout.getWidgetDefinitions().size());
+        assertNotNull(testLayout.getWidgetDefinition("globalTestWidget"));
+
+        // contributions drop the resolved layouts
+        long invalidations = cache.getInvalidationCount();
+        deployContrib("org.nuxeo.ecm.platform.forms.layout.core.tests",
+                "layouts-core-test-converters-contrib.xml");
+        assertTrue(cache.getInvalidationCount() > invalidations);
+        assertEquals(0, cache.getSize());
+        assertNotSame(layout, service.getResolvedLayout("testCategory",
+                "dublincore", BuiltinModes.EDIT, ctx));
+    }
+
 }
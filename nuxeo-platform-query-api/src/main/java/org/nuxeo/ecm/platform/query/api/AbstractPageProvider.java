@@ -732,6 +732,23 @@ public abstract class AbstractPageProvider<T> implements PageProvider<T> {
         return res;
     }
 
+    /**
+     * Returns the cache of the pages of this provider shared by all the
+     * sessions, or null if its definition does not enable it.
+     *
+     * @since 5.7.2
+     */
+    protected PageResultCache getResultCache() {
+        if (!Framework.isInitialized()) {
+            return null;
+        }
+        PageProviderService service = Framework.getLocalService(PageProviderService.class);
+        if (service == null) {
+            return null;
+        }
+        return service.getResultCache(getName());
+    }
+
     @Override
     public void setPageProviderChangedListener(
             PageProviderChangedListener listener) {
@@ -67,6 +67,30 @@ public interface PageProviderDefinition extends Serializable {
 
     Long getMaxPageSize();
 
+    /**
+     * Returns the maximum number of pages kept in the result cache shared by
+     * all the sessions, or 0 if results are not cached.
+     *
+     * @since 5.7.2
+     */
+    int getResultCacheSize();
+
+    /**
+     * Returns the time during which a cached page is valid, in seconds, or 0
+     * for no expiry.
+     *
+     * @since 5.7.2
+     */
+    long getResultCacheTimeout();
+
+    /**
+     * Returns false if the cached pages can be shared by the users having the
+     * same groups, the ACLs of the queried documents not naming users.
+     *
+     * @since 5.7.2
+     */
+    boolean isResultCachePerUser();
+
     /**
      * @since 5.6
      */
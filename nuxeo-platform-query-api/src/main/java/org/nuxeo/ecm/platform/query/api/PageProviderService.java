@@ -119,4 +119,23 @@ public interface PageProviderService extends Serializable {
             Map<String, Serializable> properties, Object... parameters)
             throws ClientException;
 
+    /**
+     * Returns the cache of the pages of the provider with given name, shared
+     * by all the sessions.
+     *
+     * @param name the page provider name
+     * @return the cache, or null if the provider definition does not enable
+     *         it.
+     * @since 5.7.2
+     */
+    PageResultCache getResultCache(String name);
+
+    /**
+     * Drops the pages cached for all the page providers, on repository
+     * changes.
+     *
+     * @since 5.7.2
+     */
+    void invalidateResultCaches();
+
 }
@@ -0,0 +1,277 @@
+/*
+ * (C) Copyright 2013 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ */
+package org.nuxeo.ecm.platform.query.api;
+
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.NuxeoPrincipal;
+
+/**
+ * Cache of the pages of a page provider, shared by all the sessions.
+ * <p>
+ * Pages are cached for a given query, offset, page size and the identity
+ * the security checks of the query depend on. As ACLs may name users, this
+ * identity is by default the principal name and groups, pages being shared
+ * between the sessions of a same user only. When the ACLs of the queried
+ * documents only name groups, the cache can be configured not to be per
+ * user: pages are then shared by the users having the same groups, the
+ * administrators being kept apart. A change of the groups of a user does not
+ * reuse the pages cached before. The cache keeps at most a given number of
+ * pages for a given time, and is cleared on repository changes by the
+ * {@link PageProviderService}.
+ *
+ * @since 5.7.2
+ */
+public class PageResultCache {
+
+    protected final String name;
+
+    protected final int maxSize;
+
+    protected final long timeout;
+
+    protected final boolean perUser;
+
+    protected final Map<String, Entry> entries;
+
+    protected final AtomicLong hitCount = new AtomicLong();
+
+    protected final AtomicLong missCount = new AtomicLong();
+
+    protected final AtomicLong invalidationCount = new AtomicLong();
+
+    /**
+     * @param name the page provider name
+     * @param maxSize the maximum number of pages kept
+     * @param timeout the time during which a page is valid, in seconds, or 0
+     *            for no expiry
+     */
+    public PageResultCache(String name, int maxSize, long timeout) {
+        this(name, maxSize, timeout, true);
+    }
+
+    /**
+     * @param name the page provider name
+     * @param maxSize the maximum number of pages kept
+     * @param timeout the time during which a page is valid, in seconds, or 0
+     *            for no expiry
+     * @param perUser false if the pages can be shared by the users having the
+     *            same groups, ACLs not naming users
+     */
+    public PageResultCache(String name, final int maxSize, long timeout,
+            boolean perUser) {
+        this.name = name;
+        this.maxSize = maxSize;
+        this.timeout = TimeUnit.SECONDS.toMillis(timeout);
+        this.perUser = perUser;
+        entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Returns the cache key of a page of the given query, for the repository
+     * and principal of the session.
+     */
+    public String getKey(CoreSession session, String query, long offset,
+            long pageSize, long maxResults) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(session.getRepositoryName());
+        sb.append('|');
+        sb.append(getSecurityKey(session.getPrincipal(), perUser));
+        sb.append('|');
+        sb.append(offset);
+        sb.append('|');
+        sb.append(pageSize);
+        sb.append('|');
+        sb.append(maxResults);
+        sb.append('|');
+        sb.append(query);
+        return sb.toString();
+    }
+
+    /**
+     * Returns a string identifying the principals the security checks of a
+     * query depend on: the principal name if per user, and its sorted groups.
+     */
+    protected static String getSecurityKey(Principal principal,
+            boolean perUser) {
+        if (principal == null) {
+            return "";
+        }
+        if (!(principal instanceof NuxeoPrincipal)) {
+            return principal.getName();
+        }
+        NuxeoPrincipal nuxeoPrincipal = (NuxeoPrincipal) principal;
+        StringBuilder sb = new StringBuilder();
+        if (perUser) {
+            sb.append(principal.getName());
+        } else if (nuxeoPrincipal.isAdministrator()) {
+            // administrators bypass the security checks
+            sb.append('*');
+        }
+        List<String> groups = nuxeoPrincipal.getAllGroups();
+        if (groups != null && !groups.isEmpty()) {
+            groups = new ArrayList<String>(groups);
+            Collections.sort(groups);
+            for (String group : groups) {
+                sb.append(',');
+                sb.append(group);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns the cached page for the given key, or null if not cached or
+     * expired.
+     */
+    public Entry get(String key) {
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+            if (entry != null && timeout > 0
+                    && System.currentTimeMillis() - entry.created > timeout) {
+                entries.remove(key);
+                entry = null;
+            }
+        }
+        if (entry == null) {
+            missCount.incrementAndGet();
+        } else {
+            hitCount.incrementAndGet();
+        }
+        return entry;
+    }
+
+    /**
+     * Returns the number of invalidations, to be read before running the
+     * query of a page passed to {@link #put}.
+     */
+    public long getGeneration() {
+        return invalidationCount.get();
+    }
+
+    /**
+     * Caches a page for the given key, unless the cache was invalidated since
+     * the given generation was read, the page being possibly stale.
+     */
+    public void put(String key, List<?> items, long resultsCount,
+            long generation) {
+        Entry entry = new Entry(items, resultsCount);
+        synchronized (entries) {
+            if (generation == invalidationCount.get()) {
+                entries.put(key, entry);
+            }
+        }
+    }
+
+    /**
+     * Drops all the cached pages.
+     */
+    public void invalidate() {
+        synchronized (entries) {
+            entries.clear();
+            invalidationCount.incrementAndGet();
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Returns the time during which a page is valid, in seconds, or 0 for no
+     * expiry.
+     */
+    public long getTimeout() {
+        return TimeUnit.MILLISECONDS.toSeconds(timeout);
+    }
+
+    /**
+     * Returns true if the pages are not shared between users.
+     */
+    public boolean isPerUser() {
+        return perUser;
+    }
+
+    public int getSize() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getInvalidationCount() {
+        return invalidationCount.get();
+    }
+
+    /**
+     * A cached page.
+     */
+    public static class Entry {
+
+        protected final List<Object> items;
+
+        protected final long resultsCount;
+
+        protected final long created;
+
+        protected Entry(List<?> items, long resultsCount) {
+            this.items = Collections.unmodifiableList(new ArrayList<Object>(
+                    items));
+            this.resultsCount = resultsCount;
+            created = System.currentTimeMillis();
+        }
+
+        /**
+         * Returns the items of the page, to be copied before being modified.
+         */
+        public List<Object> getItems() {
+            return items;
+        }
+
+        public long getResultsCount() {
+            return resultsCount;
+        }
+    }
+
+}
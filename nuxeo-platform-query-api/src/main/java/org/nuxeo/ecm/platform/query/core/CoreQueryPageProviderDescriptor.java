@@ -61,6 +61,30 @@ public class CoreQueryPageProviderDescriptor implements PageProviderDefinition {
     @XNode("maxPageSize")
     protected Long maxPageSize;
 
+    /**
+     * @since 5.7.2
+     */
+    @XNode("resultCache@size")
+    protected int resultCacheSize = 0;
+
+    /**
+     * @since 5.7.2
+     */
+    @XNode("resultCache@timeout")
+    protected long resultCacheTimeout = 60;
+
+    /**
+     * @since 5.7.2
+     */
+    @XNode("resultCache@perUser")
+    protected boolean resultCachePerUser = true;
+
+    /**
+     * @since 5.7.2
+     */
+    @XNode("keysetPagination")
+    protected boolean keysetPagination = false;
+
     @XNode("sortable")
     protected boolean sortable = true;
 
@@ -157,6 +181,32 @@ public class CoreQueryPageProviderDescriptor implements PageProviderDefinition {
         return maxPageSize;
     }
 
+    /**
+     * Returns true if the following pages are fetched from the sort values of
+     * the last document of the current page instead of an offset, so that
+     * fetching a page does not depend on its index.
+     *
+     * @since 5.7.2
+     */
+    public boolean isKeysetPagination() {
+        return keysetPagination;
+    }
+
+    @Override
+    public int getResultCacheSize() {
+        return resultCacheSize;
+    }
+
+    @Override
+    public long getResultCacheTimeout() {
+        return resultCacheTimeout;
+    }
+
+    @Override
+    public boolean isResultCachePerUser() {
+        return resultCachePerUser;
+    }
+
     /**
      * @since 5.6
      */
@@ -176,6 +226,10 @@ public class CoreQueryPageProviderDescriptor implements PageProviderDefinition {
         clone.pageSize = getPageSize();
         clone.pageSizeBinding = getPageSizeBinding();
         clone.maxPageSize = getMaxPageSize();
+        clone.resultCacheSize = getResultCacheSize();
+        clone.resultCacheTimeout = getResultCacheTimeout();
+        clone.resultCachePerUser = isResultCachePerUser();
+        clone.keysetPagination = isKeysetPagination();
         clone.sortable = isSortable();
         if (sortInfos != null) {
             clone.sortInfos = new ArrayList<SortInfoDescriptor>();
@@ -67,6 +67,24 @@ public class GenericPageProviderDescriptor implements PageProviderDefinition {
     @XNode("maxPageSize")
     protected Long maxPageSize;
 
+    /**
+     * @since 5.7.2
+     */
+    @XNode("resultCache@size")
+    protected int resultCacheSize = 0;
+
+    /**
+     * @since 5.7.2
+     */
+    @XNode("resultCache@timeout")
+    protected long resultCacheTimeout = 60;
+
+    /**
+     * @since 5.7.2
+     */
+    @XNode("resultCache@perUser")
+    protected boolean resultCachePerUser = true;
+
     @XNode("sortable")
     protected boolean sortable = true;
 
@@ -167,6 +185,21 @@ public class GenericPageProviderDescriptor implements PageProviderDefinition {
         return maxPageSize;
     }
 
+    @Override
+    public int getResultCacheSize() {
+        return resultCacheSize;
+    }
+
+    @Override
+    public long getResultCacheTimeout() {
+        return resultCacheTimeout;
+    }
+
+    @Override
+    public boolean isResultCachePerUser() {
+        return resultCachePerUser;
+    }
+
     /**
      * @since 5.6
      */
@@ -187,6 +220,9 @@ public class GenericPageProviderDescriptor implements PageProviderDefinition {
         clone.pageSize = getPageSize();
         clone.pageSizeBinding = getPageSizeBinding();
         clone.maxPageSize = getMaxPageSize();
+        clone.resultCacheSize = getResultCacheSize();
+        clone.resultCacheTimeout = getResultCacheTimeout();
+        clone.resultCachePerUser = isResultCachePerUser();
         clone.sortable = isSortable();
         if (sortInfos != null) {
             clone.sortInfos = new ArrayList<SortInfoDescriptor>();
@@ -20,6 +20,7 @@ import java.io.Serializable;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.nuxeo.ecm.core.api.ClientException;
 import org.nuxeo.ecm.core.api.DocumentModel;
@@ -27,6 +28,7 @@ import org.nuxeo.ecm.core.api.SortInfo;
 import org.nuxeo.ecm.platform.query.api.PageProvider;
 import org.nuxeo.ecm.platform.query.api.PageProviderDefinition;
 import org.nuxeo.ecm.platform.query.api.PageProviderService;
+import org.nuxeo.ecm.platform.query.api.PageResultCache;
 import org.nuxeo.ecm.platform.query.nxql.CoreQueryDocumentPageProvider;
 import org.nuxeo.runtime.model.ComponentInstance;
 import org.nuxeo.runtime.model.DefaultComponent;
@@ -44,6 +46,11 @@ public class PageProviderServiceImpl extends DefaultComponent implements
 
     protected PageProviderRegistry providerReg = new PageProviderRegistry();
 
+    /**
+     * @since 5.7.2
+     */
+    protected final Map<String, PageResultCache> resultCaches = new ConcurrentHashMap<String, PageResultCache>();
+
     public PageProviderDefinition getPageProviderDefinition(String name) {
         return providerReg.getPageProvider(name);
     }
@@ -153,6 +160,51 @@ public class PageProviderServiceImpl extends DefaultComponent implements
                 currentPage, properties, parameters);
     }
 
+    @Override
+    public PageResultCache getResultCache(String name) {
+        if (name == null) {
+            return null;
+        }
+        PageProviderDefinition desc = providerReg.getPageProvider(name);
+        if (desc == null || desc.getResultCacheSize() <= 0) {
+            return null;
+        }
+        PageResultCache cache = resultCaches.get(name);
+        if (!isConfigured(cache, desc)) {
+            synchronized (resultCaches) {
+                cache = resultCaches.get(name);
+                if (!isConfigured(cache, desc)) {
+                    cache = new PageResultCache(name,
+                            desc.getResultCacheSize(),
+                            desc.getResultCacheTimeout(),
+                            desc.isResultCachePerUser());
+                    resultCaches.put(name, cache);
+                }
+            }
+        }
+        return cache;
+    }
+
+    protected static boolean isConfigured(PageResultCache cache,
+            PageProviderDefinition desc) {
+        return cache != null && cache.getMaxSize() == desc.getResultCacheSize()
+                && cache.getTimeout() == desc.getResultCacheTimeout()
+                && cache.isPerUser() == desc.isResultCachePerUser();
+    }
+
+    @Override
+    public void invalidateResultCaches() {
+        for (PageResultCache cache : resultCaches.values()) {
+            cache.invalidate();
+        }
+    }
+
+    protected void dropResultCache(String name) {
+        if (name != null) {
+            resultCaches.remove(name);
+        }
+    }
+
     @Override
     public void registerContribution(Object contribution,
             String extensionPoint, ComponentInstance contributor)
@@ -160,6 +212,7 @@ public class PageProviderServiceImpl extends DefaultComponent implements
         if (PROVIDER_EP.equals(extensionPoint)) {
             PageProviderDefinition desc = (PageProviderDefinition) contribution;
             providerReg.addContribution(desc);
+            dropResultCache(desc.getName());
         }
     }
 
@@ -170,6 +223,7 @@ public class PageProviderServiceImpl extends DefaultComponent implements
         if (PROVIDER_EP.equals(extensionPoint)) {
             PageProviderDefinition desc = (PageProviderDefinition) contribution;
             providerReg.removeContribution(desc);
+            dropResultCache(desc.getName());
         }
     }
 }
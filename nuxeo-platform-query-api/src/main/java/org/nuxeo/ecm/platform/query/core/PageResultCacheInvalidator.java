@@ -0,0 +1,48 @@
+/*
+ * (C) Copyright 2013 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ */
+package org.nuxeo.ecm.platform.query.core;
+
+import org.nuxeo.ecm.core.api.ClientException;
+import org.nuxeo.ecm.core.event.Event;
+import org.nuxeo.ecm.core.event.EventBundle;
+import org.nuxeo.ecm.core.event.PostCommitEventListener;
+import org.nuxeo.ecm.core.event.impl.DocumentEventContext;
+import org.nuxeo.ecm.platform.query.api.PageProviderService;
+import org.nuxeo.runtime.api.Framework;
+
+/**
+ * Drops the cached page provider results once document changes are
+ * committed.
+ *
+ * @since 5.7.2
+ */
+public class PageResultCacheInvalidator implements PostCommitEventListener {
+
+    @Override
+    public void handleEvent(EventBundle events) throws ClientException {
+        for (Event event : events) {
+            if (event.getContext() instanceof DocumentEventContext) {
+                PageProviderService service = Framework.getLocalService(PageProviderService.class);
+                if (service != null) {
+                    service.invalidateResultCaches();
+                }
+                return;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,204 @@
+/*
+ * (C) Copyright 2013 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ */
+package org.nuxeo.ecm.platform.query.nxql;
+
+import java.io.Serializable;
+import java.security.Principal;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.nuxeo.ecm.core.api.CoreInstance;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.repository.Repository;
+import org.nuxeo.ecm.core.api.repository.RepositoryManager;
+import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.transaction.TransactionHelper;
+
+/**
+ * Counts the results of the queries of {@link CoreQueryDocumentPageProvider}
+ * instances in the background, on a bounded executor shared by all the
+ * providers.
+ * <p>
+ * Each count runs in its own transaction and session, opened for the
+ * principal of the provider session. The count is stored in the provider,
+ * that applies it on its next access, and its listener is notified. Counts
+ * that cannot be queued are dropped, the results count of the provider
+ * staying unknown.
+ *
+ * @since 5.7.2
+ */
+public class AsyncResultsCounter {
+
+    private static final Log log = LogFactory.getLog(AsyncResultsCounter.class);
+
+    public static final String THREADS_PROPERTY = "org.nuxeo.ecm.platform.query.asyncCount.threads";
+
+    public static final String QUEUE_SIZE_PROPERTY = "org.nuxeo.ecm.platform.query.asyncCount.queueSize";
+
+    public static final int DEFAULT_THREADS = 2;
+
+    public static final int DEFAULT_QUEUE_SIZE = 100;
+
+    protected static ExecutorService executor;
+
+    private AsyncResultsCounter() {
+    }
+
+    protected static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            int threads = getIntProperty(THREADS_PROPERTY, DEFAULT_THREADS);
+            int queueSize = getIntProperty(QUEUE_SIZE_PROPERTY,
+                    DEFAULT_QUEUE_SIZE);
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads,
+                    60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(
+                            queueSize), new ThreadFactory() {
+                        private final AtomicInteger count = new AtomicInteger();
+
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r,
+                                    "Nuxeo-PageProvider-Count-"
+                                            + count.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            pool.allowCoreThreadTimeOut(true);
+            executor = pool;
+        }
+        return executor;
+    }
+
+    protected static int getIntProperty(String key, int defaultValue) {
+        String value = Framework.getProperty(key);
+        if (value != null) {
+            try {
+                int res = Integer.parseInt(value.trim());
+                if (res > 0) {
+                    return res;
+                }
+            } catch (NumberFormatException e) {
+                // use default
+            }
+            log.warn(String.format("Invalid value %s for property %s", value,
+                    key));
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Schedules the count of the results of the given query, published to the
+     * provider with
+     * {@link CoreQueryDocumentPageProvider#publishResultsCount}.
+     *
+     * @param session the session of the provider, giving the repository and
+     *            principal of the count
+     * @return the future of the count, or null if it could not be scheduled
+     */
+    public static Future<?> submit(CoreQueryDocumentPageProvider provider,
+            CoreSession session, String query, long generation) {
+        Task task = new Task(provider, session.getRepositoryName(),
+                session.getPrincipal(), query, generation);
+        try {
+            return getExecutor().submit(task);
+        } catch (RejectedExecutionException e) {
+            log.debug("Too many pending counts, count of query dropped: "
+                    + query);
+            return null;
+        }
+    }
+
+    /**
+     * Waits for the completion of the scheduled counts, following counts
+     * being run by a new executor.
+     */
+    public static synchronized boolean awaitCompletion(long timeout,
+            TimeUnit unit) throws InterruptedException {
+        if (executor == null) {
+            return true;
+        }
+        ExecutorService old = executor;
+        executor = null;
+        old.shutdown();
+        return old.awaitTermination(timeout, unit);
+    }
+
+    protected static class Task implements Runnable {
+
+        protected final CoreQueryDocumentPageProvider provider;
+
+        protected final String repositoryName;
+
+        protected final Principal principal;
+
+        protected final String query;
+
+        protected final long generation;
+
+        protected Task(CoreQueryDocumentPageProvider provider,
+                String repositoryName, Principal principal, String query,
+                long generation) {
+            this.provider = provider;
+            this.repositoryName = repositoryName;
+            this.principal = principal;
+            this.query = query;
+            this.generation = generation;
+        }
+
+        @Override
+        public void run() {
+            boolean tx = TransactionHelper.startTransaction();
+            CoreSession session = null;
+            try {
+                Repository repository = Framework.getService(
+                        RepositoryManager.class).getRepository(repositoryName);
+                Map<String, Serializable> context = new HashMap<String, Serializable>();
+                context.put("principal", (Serializable) principal);
+                session = repository.open(context);
+                long count = provider.countResults(session, query);
+                provider.publishResultsCount(query, generation, count);
+            } catch (Exception e) {
+                log.warn(String.format("Cannot count results of query '%s'",
+                        query), e);
+                if (tx) {
+                    TransactionHelper.setTransactionRollbackOnly();
+                }
+            } finally {
+                try {
+                    if (session != null) {
+                        CoreInstance.getInstance().close(session);
+                    }
+                } finally {
+                    if (tx) {
+                        TransactionHelper.commitOrRollbackTransaction();
+                    }
+                }
+            }
+        }
+    }
+
+}
@@ -18,9 +18,12 @@ package org.nuxeo.ecm.platform.query.nxql;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -31,12 +34,17 @@ import org.nuxeo.ecm.core.api.IterableQueryResult;
 import org.nuxeo.ecm.core.api.SortInfo;
 import org.nuxeo.ecm.core.query.sql.NXQL;
 import org.nuxeo.ecm.platform.query.api.AbstractPageProvider;
-import org.nuxeo.ecm.platform.query.api.PageProviderDefinition;
+import org.nuxeo.ecm.platform.query.api.PageResultCache;
 import org.nuxeo.ecm.platform.query.api.PageSelections;
+import org.nuxeo.runtime.api.Framework;
 
 /**
  * Page provider performing a queryAndFetch on a core session.
  * <p>
+ * Since 5.7.2, the limit and offset of the current page are added to the
+ * query so that only the rows of the page are fetched, the results being
+ * counted by a separate query, limited by the "maxResults" property if set.
+ * <p>
  * It builds the query at each call so that it can refresh itself when the
  * query changes.
  * <p>
@@ -52,6 +60,32 @@ public class CoreQueryAndFetchPageProvider extends
 
     public static final String CHECK_QUERY_CACHE_PROPERTY = "checkQueryCache";
 
+    /**
+     * @since 5.7.2
+     */
+    public static final String MAX_RESULTS_PROPERTY = CoreQueryDocumentPageProvider.MAX_RESULTS_PROPERTY;
+
+    /**
+     * Runtime property holding the maximum number of results counted when
+     * the page provider has no maximum number of results.
+     *
+     * @since 5.7.2
+     */
+    public static final String MAX_COUNTED_RESULTS_PROPERTY = "org.nuxeo.ecm.platform.query.nxql.maxCountedResults";
+
+    /**
+     * @since 5.7.2
+     */
+    public static final String DEFAULT_MAX_COUNTED_RESULTS = "10000";
+
+    protected static final Pattern LIMIT_PATTERN = Pattern.compile(
+            "\\sLIMIT\\s+\\d+", Pattern.CASE_INSENSITIVE);
+
+    // the select clause of the query, group 1
+    protected static final Pattern SELECT_PATTERN = Pattern.compile(
+            "^\\s*SELECT\\s+(.*?)\\s+FROM\\s", Pattern.CASE_INSENSITIVE
+                    | Pattern.DOTALL);
+
     private static final long serialVersionUID = 1L;
 
     private static final Log log = LogFactory.getLog(CoreQueryDocumentPageProvider.class);
@@ -60,6 +94,8 @@ public class CoreQueryAndFetchPageProvider extends
 
     protected List<Map<String, Serializable>> currentItems;
 
+    protected Long maxResults;
+
     @Override
     public List<Map<String, Serializable>> getCurrentPage() {
         checkQueryCache();
@@ -97,25 +133,70 @@ public class CoreQueryAndFetchPageProvider extends
                             Long.valueOf(offset)));
                 }
 
-                result = coreSession.queryAndFetch(query, NXQL.NXQL);
-                long resultsCount = result.size();
-                setResultsCount(resultsCount);
-                if (offset < resultsCount) {
-                    result.skipTo(offset);
+                PageResultCache cache = getResultCache();
+                String cacheKey = null;
+                long generation = 0;
+                PageResultCache.Entry cached = null;
+                if (cache != null) {
+                    cacheKey = cache.getKey(coreSession, query,
+                            offset, minMaxPageSize, getMaxResults());
+                    generation = cache.getGeneration();
+                    cached = cache.get(cacheKey);
                 }
 
-                Iterator<Map<String, Serializable>> it = result.iterator();
-                int pos = 0;
-                while (it.hasNext() && pos < minMaxPageSize) {
-                    pos += 1;
-                    Map<String, Serializable> item = it.next();
-                    currentItems.add(item);
+                long resultsCount;
+                if (cached != null) {
+                    for (Object item : cached.getItems()) {
+                        currentItems.add(copyItem(item));
+                    }
+                    resultsCount = cached.getResultsCount();
+                } else if (isPagingPushedDown()) {
+                    // only fetch the rows of the page
+                    result = coreSession.queryAndFetch(
+                            getPageQuery(minMaxPageSize, offset), NXQL.NXQL);
+                    Iterator<Map<String, Serializable>> it = result.iterator();
+                    while (it.hasNext()) {
+                        currentItems.add(it.next());
+                    }
+                    result.close();
+                    result = null;
+                    int size = currentItems.size();
+                    if (size < minMaxPageSize && (size > 0 || offset == 0)) {
+                        // last page: no need to count
+                        resultsCount = offset + size;
+                    } else {
+                        resultsCount = countResults(coreSession);
+                    }
+                } else {
+                    result = coreSession.queryAndFetch(query, NXQL.NXQL);
+                    resultsCount = result.size();
+                    if (offset < resultsCount) {
+                        result.skipTo(offset);
+                    }
+
+                    Iterator<Map<String, Serializable>> it = result.iterator();
+                    int pos = 0;
+                    while (it.hasNext() && pos < minMaxPageSize) {
+                        pos += 1;
+                        Map<String, Serializable> item = it.next();
+                        currentItems.add(item);
+                    }
+                }
+                if (cache != null && cached == null) {
+                    List<Map<String, Serializable>> items = new ArrayList<Map<String, Serializable>>(
+                            currentItems.size());
+                    for (Map<String, Serializable> item : currentItems) {
+                        items.add(copyItem(item));
+                    }
+                    cache.put(cacheKey, items, resultsCount, generation);
                 }
+                setResultsCount(resultsCount);
 
                 if (log.isDebugEnabled()) {
                     log.debug(String.format(
-                            "Performed query for provider '%s': got %s hits",
-                            getName(), Long.valueOf(resultsCount)));
+                            "Performed query for provider '%s': got %s hits (limit %s)",
+                            getName(), Long.valueOf(resultsCount),
+                            Long.valueOf(getMaxResults())));
                 }
 
                 // refresh may have triggered display of an empty page => go
@@ -151,6 +232,20 @@ public class CoreQueryAndFetchPageProvider extends
                     }
                 }
 
+                if (getResultsCount() < 0) {
+                    // additional info to handle next page when results count is
+                    // unknown
+                    if (currentItems != null && currentItems.size() > 0) {
+                        int higherNonEmptyPage = getCurrentHigherNonEmptyPageIndex();
+                        int currentFilledPage = Long.valueOf(
+                                getCurrentPageIndex()).intValue();
+                        if ((currentItems.size() >= getPageSize())
+                                && (currentFilledPage > higherNonEmptyPage)) {
+                            setCurrentHigherNonEmptyPageIndex(currentFilledPage);
+                        }
+                    }
+                }
+
             } catch (ClientException e) {
                 errorMessage = e.getMessage();
                 error = e;
@@ -165,18 +260,168 @@ public class CoreQueryAndFetchPageProvider extends
         return currentItems;
     }
 
+    /**
+     * Copies a row, rows being shared with the result cache.
+     *
+     * @since 5.7.2
+     */
+    @SuppressWarnings("unchecked")
+    protected static Map<String, Serializable> copyItem(Object item) {
+        return new HashMap<String, Serializable>(
+                (Map<String, Serializable>) item);
+    }
+
+    /**
+     * Returns true if the limit and offset of the current page are added to
+     * the query, so that only the rows of the page are fetched.
+     * <p>
+     * This is not the case when the query already holds a limit.
+     *
+     * @since 5.7.2
+     */
+    protected boolean isPagingPushedDown() {
+        return query != null && !LIMIT_PATTERN.matcher(query).find();
+    }
+
+    /**
+     * Returns the query fetching the rows of the current page.
+     *
+     * @since 5.7.2
+     */
+    protected String getPageQuery(long limit, long offset) {
+        StringBuilder sb = new StringBuilder(query.trim());
+        sb.append(" LIMIT ").append(limit);
+        if (offset > 0) {
+            sb.append(" OFFSET ").append(offset);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Counts the results of the query, fetching only the document ids, up to
+     * {@link #getMaxResults()} if set or else up to the
+     * {@link #MAX_COUNTED_RESULTS_PROPERTY} runtime property.
+     *
+     * @return the results count, or {@link #UNKNOWN_SIZE_AFTER_QUERY} if it
+     *         exceeds the maximum number of results counted
+     * @since 5.7.2
+     */
+    protected long countResults(CoreSession coreSession)
+            throws ClientException {
+        long max = getMaxResults();
+        if (max <= 0) {
+            max = getMaxCountedResults();
+        }
+        String countQuery = getCountQuery();
+        if (max > 0) {
+            // one more row tells the count is truncated
+            countQuery = countQuery + " LIMIT " + (max + 1);
+        }
+        IterableQueryResult result = coreSession.queryAndFetch(countQuery,
+                NXQL.NXQL);
+        try {
+            long count = result.size();
+            if (max > 0 && count > max) {
+                return UNKNOWN_SIZE_AFTER_QUERY;
+            }
+            return count;
+        } finally {
+            result.close();
+        }
+    }
+
+    /**
+     * Returns the query counting the results: the query selecting only the
+     * document ids, or the query itself if it selects distinct values or
+     * aggregates, which do not give one row per document.
+     *
+     * @since 5.7.2
+     */
+    protected String getCountQuery() {
+        String countQuery = query.trim();
+        Matcher matcher = SELECT_PATTERN.matcher(countQuery);
+        if (!matcher.find()) {
+            return countQuery;
+        }
+        String select = matcher.group(1);
+        if (select.indexOf('(') >= 0
+                || select.toUpperCase().startsWith("DISTINCT")) {
+            return countQuery;
+        }
+        return "SELECT " + NXQL.ECM_UUID + countQuery.substring(matcher.end(1));
+    }
+
+    /**
+     * Returns the maximum number of results counted when there is no maximum
+     * number of results, or <code>0</code> if there is no limit.
+     *
+     * @since 5.7.2
+     */
+    protected long getMaxCountedResults() {
+        String value = Framework.getProperty(MAX_COUNTED_RESULTS_PROPERTY,
+                DEFAULT_MAX_COUNTED_RESULTS);
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            log.warn(String.format(
+                    "Invalid value for property %s: %s, fallback to %s",
+                    MAX_COUNTED_RESULTS_PROPERTY, value,
+                    DEFAULT_MAX_COUNTED_RESULTS));
+            return Long.parseLong(DEFAULT_MAX_COUNTED_RESULTS);
+        }
+    }
+
+    /**
+     * Returns the maximum number of results counted, or <code>0</code> if
+     * there is no limit.
+     * <p>
+     * Accepts the same values as the
+     * {@link CoreQueryDocumentPageProvider#MAX_RESULTS_PROPERTY} property of
+     * {@link CoreQueryDocumentPageProvider}.
+     *
+     * @since 5.7.2
+     */
+    public long getMaxResults() {
+        if (maxResults == null) {
+            maxResults = Long.valueOf(0);
+            String maxResultsStr = (String) getProperties().get(
+                    MAX_RESULTS_PROPERTY);
+            if (maxResultsStr != null) {
+                if (CoreQueryDocumentPageProvider.DEFAULT_NAVIGATION_RESULTS_KEY.equals(maxResultsStr)) {
+                    maxResultsStr = Framework.getProperty(
+                            CoreQueryDocumentPageProvider.DEFAULT_NAVIGATION_RESULTS_PROPERTY,
+                            CoreQueryDocumentPageProvider.DEFAULT_NAVIGATION_RESULTS_VALUE);
+                } else if (CoreQueryDocumentPageProvider.PAGE_SIZE_RESULTS_KEY.equals(maxResultsStr)) {
+                    maxResultsStr = Long.valueOf(getPageSize()).toString();
+                }
+                try {
+                    maxResults = Long.valueOf(maxResultsStr);
+                } catch (NumberFormatException e) {
+                    log.warn(String.format(
+                            "Invalid maxResults property value: %s for page provider: %s, fallback to unlimited.",
+                            maxResultsStr, getName()));
+                }
+            }
+        }
+        return maxResults.longValue();
+    }
+
+    /**
+     * @since 5.7.2
+     */
+    public void setMaxResults(long maxResults) {
+        this.maxResults = Long.valueOf(maxResults);
+    }
+
     protected void buildQuery() {
         try {
-            PageProviderDefinition def = getDefinition();
-            String originalQuery = def.getPattern();
+            NXQLQueryTemplate template = NXQLQueryTemplate.get(getDefinition());
 
             SortInfo[] sortArray = null;
             if (sortInfos != null) {
                 sortArray = sortInfos.toArray(new SortInfo[] {});
             }
-            String newQuery = NXQLQueryBuilder.getQuery(originalQuery,
-                    getParameters(), def.getQuotePatternParameters(),
-                    def.getEscapePatternParameters(), sortArray);
+            String newQuery = template.getQuery(getParameters(), sortArray);
 
             if (query != null && newQuery != null && !newQuery.equals(query)) {
                 // query has changed => refresh
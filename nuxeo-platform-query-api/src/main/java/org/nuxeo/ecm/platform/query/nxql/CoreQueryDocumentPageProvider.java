@@ -19,8 +19,13 @@ package org.nuxeo.ecm.platform.query.nxql;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -29,11 +34,18 @@ import org.nuxeo.ecm.core.api.ClientRuntimeException;
 import org.nuxeo.ecm.core.api.CoreSession;
 import org.nuxeo.ecm.core.api.DocumentModel;
 import org.nuxeo.ecm.core.api.DocumentModelList;
+import org.nuxeo.ecm.core.api.DocumentRef;
 import org.nuxeo.ecm.core.api.Filter;
+import org.nuxeo.ecm.core.api.IdRef;
 import org.nuxeo.ecm.core.api.SortInfo;
+import org.nuxeo.ecm.core.api.impl.DocumentModelListImpl;
+import org.nuxeo.ecm.core.query.sql.NXQL;
 import org.nuxeo.ecm.platform.query.api.AbstractPageProvider;
+import org.nuxeo.ecm.platform.query.api.PageProviderChangedListener;
 import org.nuxeo.ecm.platform.query.api.PageProviderDefinition;
+import org.nuxeo.ecm.platform.query.api.PageResultCache;
 import org.nuxeo.ecm.platform.query.api.PageSelections;
+import org.nuxeo.ecm.platform.query.core.CoreQueryPageProviderDescriptor;
 import org.nuxeo.runtime.api.Framework;
 
 /**
@@ -66,6 +78,40 @@ public class CoreQueryDocumentPageProvider extends
 
     public static final String CHECK_QUERY_CACHE_PROPERTY = "checkQueryCache";
 
+    /**
+     * Property to return pages without waiting for the results count, counted
+     * in the background by the {@link AsyncResultsCounter}.
+     *
+     * @since 5.7.2
+     */
+    public static final String ASYNC_COUNT_PROPERTY = "asyncCount";
+
+    /**
+     * Runtime property telling whether the database sorts null values first
+     * in ascending order, for keyset pagination, see
+     * {@link #getKeysetNullsFirst()}.
+     *
+     * @since 5.7.2
+     */
+    public static final String KEYSET_NULLS_FIRST_PROPERTY = "org.nuxeo.ecm.platform.query.nxql.keysetNullsFirst";
+
+    /**
+     * Server configuration property holding the database template.
+     *
+     * @since 5.7.2
+     */
+    protected static final String DB_TEMPLATE_PROPERTY = "nuxeo.dbtemplate";
+
+    /**
+     * Maximum number of pages whose keyset bounds are kept.
+     *
+     * @since 5.7.2
+     */
+    protected static final int MAX_KEYSET_BOUNDS = 100;
+
+    protected static final Pattern ORDER_BY_PATTERN = Pattern.compile(
+            "\\sORDER\\s+BY\\s", Pattern.CASE_INSENSITIVE);
+
     private static final Log log = LogFactory.getLog(CoreQueryDocumentPageProvider.class);
 
     private static final long serialVersionUID = 1L;
@@ -76,6 +122,88 @@ public class CoreQueryDocumentPageProvider extends
 
     protected Long maxResults;
 
+    /**
+     * The query without sort clause, when using keyset pagination.
+     *
+     * @since 5.7.2
+     */
+    protected String keysetQuery;
+
+    /**
+     * @since 5.7.2
+     */
+    protected SortInfo[] keysetSortInfos;
+
+    /**
+     * Sort values of the last document before a given offset, for the last
+     * visited pages.
+     *
+     * @since 5.7.2
+     */
+    protected Map<Long, Serializable[]> keysetBounds = new KeysetBounds();
+
+    /**
+     * Marker of a null sort value, as opposed to a value that cannot be
+     * compared.
+     *
+     * @since 5.7.2
+     */
+    protected static final Serializable NULL_KEYSET_VALUE = new Serializable() {
+        private static final long serialVersionUID = 1L;
+    };
+
+    /**
+     * Query whose results were counted, when using asynchronous count.
+     *
+     * @since 5.7.2
+     */
+    protected String countedQuery;
+
+    /**
+     * @since 5.7.2
+     */
+    protected long countedResults;
+
+    /**
+     * Incremented on refresh, so that counts scheduled before are ignored.
+     *
+     * @since 5.7.2
+     */
+    protected volatile long countGeneration;
+
+    /**
+     * @since 5.7.2
+     */
+    protected transient Future<?> countFuture;
+
+    /**
+     * Last count published by the {@link AsyncResultsCounter}, applied by the
+     * provider on its next access to the results count.
+     *
+     * @since 5.7.2
+     */
+    protected transient volatile PublishedCount publishedCount;
+
+    /**
+     * Count of the results of a query computed in the background.
+     *
+     * @since 5.7.2
+     */
+    protected static class PublishedCount {
+
+        protected final String query;
+
+        protected final long generation;
+
+        protected final long count;
+
+        protected PublishedCount(String query, long generation, long count) {
+            this.query = query;
+            this.generation = generation;
+            this.count = count;
+        }
+    }
+
     @Override
     public List<DocumentModel> getCurrentPage() {
         checkQueryCache();
@@ -107,22 +235,45 @@ public class CoreQueryDocumentPageProvider extends
                             Long.valueOf(offset)));
                 }
 
-                DocumentModelList docs;
-                if (getMaxResults() > 0) {
-                    docs = coreSession.query(query, getFilter(), minMaxPageSize,
-                            offset, getMaxResults());
-                } else {
-                    // use a totalCount=true instead of countUpTo=-1 to enable
-                    // global limitation described in NXP-9381
-                    docs = coreSession.query(query, getFilter(), minMaxPageSize,
-                            offset, true);
+                // results of filtered queries depend on the filter
+                PageResultCache cache = getFilter() == null ? getResultCache()
+                        : null;
+                String cacheKey = null;
+                long generation = 0;
+                DocumentModelList docs = null;
+                if (cache != null) {
+                    cacheKey = cache.getKey(coreSession, query,
+                            offset, minMaxPageSize, getMaxResults());
+                    generation = cache.getGeneration();
+                    docs = getCachedDocuments(coreSession,
+                            cache.get(cacheKey));
+                }
+                if (docs == null) {
+                    docs = queryPage(coreSession, minMaxPageSize, offset);
+                    if (cache != null) {
+                        List<String> ids = new ArrayList<String>(docs.size());
+                        for (DocumentModel doc : docs) {
+                            ids.add(doc.getId());
+                        }
+                        cache.put(cacheKey, ids, docs.totalSize(), generation);
+                    }
+                }
+                if (keysetQuery != null && !docs.isEmpty()) {
+                    addKeysetBound(offset + docs.size(),
+                            docs.get(docs.size() - 1));
                 }
-                long resultsCount = docs.totalSize();
-                if (resultsCount < 0) {
-                    // results count is truncated
-                    setResultsCount(UNKNOWN_SIZE_AFTER_QUERY);
+                long resultsCount;
+                if (isAsyncCount()) {
+                    resultsCount = setAsyncResultsCount(coreSession, docs,
+                            minMaxPageSize, offset);
                 } else {
-                    setResultsCount(resultsCount);
+                    resultsCount = docs.totalSize();
+                    if (resultsCount < 0) {
+                        // results count is truncated
+                        setResultsCount(UNKNOWN_SIZE_AFTER_QUERY);
+                    } else {
+                        setResultsCount(resultsCount);
+                    }
                 }
                 currentPageDocuments = docs;
 
@@ -189,18 +340,378 @@ public class CoreQueryDocumentPageProvider extends
         return currentPageDocuments;
     }
 
+    /**
+     * Runs the query for the page at given offset, seeking from the sort
+     * values of the last document of the previous page when known.
+     *
+     * @since 5.7.2
+     */
+    protected DocumentModelList queryPage(CoreSession coreSession,
+            long limit, long offset) throws ClientException {
+        Serializable[] bound = null;
+        if (keysetQuery != null && offset > 0) {
+            bound = keysetBounds.get(Long.valueOf(offset));
+        }
+        String pageQuery = query;
+        long pageOffset = offset;
+        if (bound != null) {
+            pageQuery = NXQLQueryBuilder.getKeysetQuery(keysetQuery,
+                    keysetSortInfos, bound, getKeysetNullsFirst());
+            pageOffset = 0;
+        }
+        DocumentModelList docs;
+        boolean asyncCount = isAsyncCount();
+        if (asyncCount) {
+            // counted apart
+            docs = coreSession.query(pageQuery, getFilter(), limit,
+                    pageOffset, false);
+        } else if (getMaxResults() > 0) {
+            docs = coreSession.query(pageQuery, getFilter(), limit,
+                    pageOffset, getMaxResults());
+        } else {
+            // use a totalCount=true instead of countUpTo=-1 to enable
+            // global limitation described in NXP-9381
+            docs = coreSession.query(pageQuery, getFilter(), limit,
+                    pageOffset, true);
+        }
+        if (bound != null && !asyncCount) {
+            // only the documents following the bound were counted
+            long count = docs.totalSize();
+            DocumentModelListImpl res = new DocumentModelListImpl(docs);
+            res.setTotalSize(count < 0 ? count : offset + count);
+            docs = res;
+        }
+        return docs;
+    }
+
+    /**
+     * Returns true if pages are returned without waiting for the results
+     * count, see {@link #ASYNC_COUNT_PROPERTY}.
+     *
+     * @since 5.7.2
+     */
+    public boolean isAsyncCount() {
+        Serializable value = getProperties().get(ASYNC_COUNT_PROPERTY);
+        return value != null && Boolean.parseBoolean(value.toString());
+    }
+
+    /**
+     * Sets the results count for a page fetched without count, and returns
+     * it.
+     * <p>
+     * The count is known when the page is not full, or when the query was
+     * already counted. Otherwise the results count is unknown until the count
+     * scheduled in the background is published, except for an empty page
+     * after the first one that needs the count to go back to the last page.
+     *
+     * @since 5.7.2
+     */
+    protected long setAsyncResultsCount(CoreSession coreSession,
+            List<DocumentModel> docs, long limit, long offset)
+            throws ClientException {
+        applyPublishedResultsCount();
+        long count;
+        if (query.equals(countedQuery)) {
+            count = countedResults;
+        } else if ((limit == 0 || docs.size() < limit)
+                && (offset == 0 || !docs.isEmpty())) {
+            count = offset + docs.size();
+            countedQuery = query;
+            countedResults = count;
+        } else if (docs.isEmpty()) {
+            count = countResults(coreSession, query);
+            countedQuery = query;
+            countedResults = count;
+        } else {
+            count = UNKNOWN_SIZE_AFTER_QUERY;
+            if (countFuture == null || countFuture.isDone()) {
+                countFuture = AsyncResultsCounter.submit(this, coreSession,
+                        query, countGeneration);
+            }
+        }
+        setResultsCount(count);
+        return count;
+    }
+
+    /**
+     * Counts the results of the query, up to the maximum number of results
+     * if any.
+     *
+     * @return the count, or {@link #UNKNOWN_SIZE_AFTER_QUERY} if truncated
+     * @since 5.7.2
+     */
+    protected long countResults(CoreSession coreSession, String countQuery)
+            throws ClientException {
+        DocumentModelList docs;
+        if (getMaxResults() > 0) {
+            docs = coreSession.query(countQuery, getFilter(), 1, 0,
+                    getMaxResults());
+        } else {
+            docs = coreSession.query(countQuery, getFilter(), 1, 0, true);
+        }
+        long count = docs.totalSize();
+        return count < 0 ? UNKNOWN_SIZE_AFTER_QUERY : count;
+    }
+
+    /**
+     * Publishes the count of the results of a query computed in the
+     * background, called from the counting thread.
+     * <p>
+     * The count is stored, to be applied by the provider on its next access to
+     * the results count, and the {@link PageProviderChangedListener} of the
+     * provider, if any, is notified from the counting thread unless the
+     * provider was refreshed since the count was scheduled. As the provider
+     * is not meant to be used concurrently, the listener should only read
+     * {@link #getPublishedResultsCount()} or schedule a refresh of its view.
+     *
+     * @since 5.7.2
+     */
+    protected void publishResultsCount(String countQuery, long generation,
+            long count) {
+        publishedCount = new PublishedCount(countQuery, generation, count);
+        if (generation == countGeneration) {
+            notifyPageChanged();
+        }
+    }
+
+    /**
+     * Returns the results count of the current query computed in the
+     * background, or {@link #UNKNOWN_SIZE} if it is not published yet.
+     * <p>
+     * Unlike {@link #getResultsCount()}, this does not change the state of the
+     * provider: it can be polled by the UI, or called from the
+     * {@link PageProviderChangedListener} notified from the counting thread.
+     *
+     * @since 5.7.2
+     */
+    public long getPublishedResultsCount() {
+        PublishedCount published = publishedCount;
+        String currentQuery = query;
+        if (published == null || published.generation != countGeneration
+                || currentQuery == null || !published.query.equals(currentQuery)) {
+            return UNKNOWN_SIZE;
+        }
+        return published.count;
+    }
+
+    /**
+     * Applies the count published in the background, if it is the count of
+     * the current query.
+     *
+     * @since 5.7.2
+     */
+    protected void applyPublishedResultsCount() {
+        PublishedCount published = publishedCount;
+        if (published == null || published.generation != countGeneration
+                || query == null || !published.query.equals(query)
+                || query.equals(countedQuery)) {
+            return;
+        }
+        countedQuery = published.query;
+        countedResults = published.count;
+        setResultsCount(published.count);
+    }
+
+    @Override
+    public long getResultsCount() {
+        applyPublishedResultsCount();
+        return super.getResultsCount();
+    }
+
+    /**
+     * Returns true if following pages are fetched from the sort values of the
+     * last document of the current page, see
+     * {@link CoreQueryPageProviderDescriptor#isKeysetPagination()}.
+     *
+     * @since 5.7.2
+     */
+    public boolean isKeysetPagination() {
+        PageProviderDefinition def = getDefinition();
+        return def instanceof CoreQueryPageProviderDescriptor
+                && ((CoreQueryPageProviderDescriptor) def).isKeysetPagination();
+    }
+
+    /**
+     * Returns the given sort infos, with the document id as last sort column
+     * so that the sort values of a document are unique.
+     *
+     * @since 5.7.2
+     */
+    protected static SortInfo[] getKeysetSortInfos(SortInfo[] sortArray) {
+        List<SortInfo> res = new ArrayList<SortInfo>();
+        if (sortArray != null) {
+            for (SortInfo sortInfo : sortArray) {
+                res.add(sortInfo);
+                if (NXQL.ECM_UUID.equals(sortInfo.getSortColumn())) {
+                    // unique, following columns are useless
+                    return res.toArray(new SortInfo[res.size()]);
+                }
+            }
+        }
+        res.add(new SortInfo(NXQL.ECM_UUID, true));
+        return res.toArray(new SortInfo[res.size()]);
+    }
+
+    /**
+     * Remembers the sort values of the given document, last one before the
+     * given offset.
+     *
+     * @since 5.7.2
+     */
+    protected void addKeysetBound(long offset, DocumentModel doc) {
+        Boolean nullsFirst = getKeysetNullsFirst();
+        Serializable[] values = new Serializable[keysetSortInfos.length];
+        for (int i = 0; i < values.length; i++) {
+            String column = keysetSortInfos[i].getSortColumn();
+            if (nullsFirst == null
+                    && !NXQLQueryBuilder.isNotNullColumn(column)) {
+                // rows with a null value could not be sought: use the offset
+                return;
+            }
+            values[i] = getKeysetValue(doc, column);
+            if (values[i] == NULL_KEYSET_VALUE) {
+                values[i] = null;
+            } else if (values[i] == null) {
+                // cannot seek on this document, use the offset
+                return;
+            }
+        }
+        keysetBounds.put(Long.valueOf(offset), values);
+    }
+
+    /**
+     * Returns true if the database sorts null values before the other values
+     * in ascending order (H2, MySQL, SQL Server), false if it sorts them after
+     * (PostgreSQL, Oracle), or null if unknown, in which case keyset
+     * pagination only seeks on sort columns that cannot be null and pages
+     * sorted on other columns are fetched from their offset.
+     * <p>
+     * The ordering is read from the {@link #KEYSET_NULLS_FIRST_PROPERTY}
+     * runtime property if set, or else derived from the database template
+     * of the server configuration.
+     *
+     * @since 5.7.2
+     */
+    protected Boolean getKeysetNullsFirst() {
+        String value = Framework.getProperty(KEYSET_NULLS_FIRST_PROPERTY);
+        if (value != null && value.trim().length() > 0) {
+            return Boolean.valueOf(value.trim());
+        }
+        return getNullsFirst(Framework.getProperty(DB_TEMPLATE_PROPERTY));
+    }
+
+    /**
+     * Returns the null ordering of the database of the given template, or null
+     * if unknown.
+     *
+     * @since 5.7.2
+     */
+    protected static Boolean getNullsFirst(String dbTemplate) {
+        if (dbTemplate == null) {
+            return null;
+        }
+        dbTemplate = dbTemplate.trim().toLowerCase();
+        if (dbTemplate.startsWith("postgresql")
+                || dbTemplate.startsWith("oracle")) {
+            return Boolean.FALSE;
+        }
+        if (dbTemplate.equals("default") || dbTemplate.startsWith("h2")
+                || dbTemplate.startsWith("mysql")
+                || dbTemplate.startsWith("mssql")) {
+            return Boolean.TRUE;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the value of the sort column for the document,
+     * {@link #NULL_KEYSET_VALUE} if it is null, or null if it cannot be
+     * compared in a query.
+     *
+     * @since 5.7.2
+     */
+    protected Serializable getKeysetValue(DocumentModel doc, String column) {
+        try {
+            Serializable value;
+            if (NXQL.ECM_UUID.equals(column)) {
+                value = doc.getId();
+            } else if (NXQL.ECM_NAME.equals(column)) {
+                value = doc.getName();
+            } else if (NXQL.ECM_PRIMARYTYPE.equals(column)) {
+                value = doc.getType();
+            } else if (NXQL.ECM_LIFECYCLESTATE.equals(column)) {
+                value = doc.getCurrentLifeCycleState();
+            } else if (column.startsWith(NXQL.ECM_PREFIX)) {
+                return null;
+            } else {
+                value = doc.getPropertyValue(column);
+                if (value == null) {
+                    return NULL_KEYSET_VALUE;
+                }
+            }
+            if (value instanceof String || value instanceof Number
+                    || value instanceof Boolean || value instanceof Calendar
+                    || value instanceof Date) {
+                return value;
+            }
+            return null;
+        } catch (ClientException e) {
+            log.debug(String.format(
+                    "Cannot read sort column %s on document %s", column,
+                    doc.getId()), e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns the documents of a cached page, or null if the page is not
+     * cached or if one of its documents cannot be read anymore.
+     *
+     * @since 5.7.2
+     */
+    protected DocumentModelList getCachedDocuments(CoreSession coreSession,
+            PageResultCache.Entry entry) {
+        if (entry == null) {
+            return null;
+        }
+        List<Object> ids = entry.getItems();
+        DocumentRef[] refs = new DocumentRef[ids.size()];
+        for (int i = 0; i < refs.length; i++) {
+            refs[i] = new IdRef((String) ids.get(i));
+        }
+        try {
+            DocumentModelList docs = coreSession.getDocuments(refs);
+            if (docs.size() != refs.length) {
+                return null;
+            }
+            DocumentModelListImpl res = new DocumentModelListImpl(docs);
+            res.setTotalSize(entry.getResultsCount());
+            return res;
+        } catch (ClientException e) {
+            log.debug("Cannot fetch cached documents, query again", e);
+            return null;
+        }
+    }
+
     protected void buildQuery(CoreSession coreSession) {
         try {
             SortInfo[] sortArray = null;
             if (sortInfos != null) {
                 sortArray = sortInfos.toArray(new SortInfo[] {});
             }
+            boolean keyset = isKeysetPagination();
+            if (keyset) {
+                sortArray = getKeysetSortInfos(sortArray);
+            }
             String newQuery;
+            String newKeysetQuery = null;
             PageProviderDefinition def = getDefinition();
-            if (def.getWhereClause() == null) {
-                newQuery = NXQLQueryBuilder.getQuery(def.getPattern(),
-                        getParameters(), def.getQuotePatternParameters(),
-                        def.getEscapePatternParameters(), sortArray);
+            NXQLQueryTemplate template = NXQLQueryTemplate.get(def);
+            if (!template.hasWhereClause()) {
+                newQuery = template.getQuery(getParameters(), sortArray);
+                if (keyset) {
+                    newKeysetQuery = template.getQuery(getParameters());
+                }
             } else {
                 DocumentModel searchDocumentModel = getSearchDocumentModel();
                 if (searchDocumentModel == null) {
@@ -209,8 +720,12 @@ public class CoreQueryDocumentPageProvider extends
                                     + "no search document model is set",
                             getName()));
                 }
-                newQuery = NXQLQueryBuilder.getQuery(searchDocumentModel,
-                        def.getWhereClause(), getParameters(), sortArray);
+                newQuery = template.getQuery(searchDocumentModel,
+                        getParameters(), sortArray);
+                if (keyset) {
+                    newKeysetQuery = template.getQuery(searchDocumentModel,
+                            getParameters());
+                }
             }
 
             if (query != null && newQuery != null && !newQuery.equals(query)) {
@@ -218,6 +733,13 @@ public class CoreQueryDocumentPageProvider extends
                 refresh();
             }
             query = newQuery;
+            if (newKeysetQuery != null
+                    && ORDER_BY_PATTERN.matcher(newKeysetQuery).find()) {
+                // sorted by the pattern itself: seek is not possible
+                newKeysetQuery = null;
+            }
+            keysetQuery = newKeysetQuery;
+            keysetSortInfos = sortArray;
         } catch (ClientException e) {
             throw new ClientRuntimeException(e);
         }
@@ -301,9 +823,36 @@ public class CoreQueryDocumentPageProvider extends
         super.pageChanged();
     }
 
+    /**
+     * Keyset bounds of the last visited pages.
+     *
+     * @since 5.7.2
+     */
+    protected static class KeysetBounds extends
+            LinkedHashMap<Long, Serializable[]> {
+
+        private static final long serialVersionUID = 1L;
+
+        protected KeysetBounds() {
+            super(16, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(
+                Map.Entry<Long, Serializable[]> eldest) {
+            return size() > MAX_KEYSET_BOUNDS;
+        }
+    }
+
     @Override
     public void refresh() {
         query = null;
+        countedQuery = null;
+        countGeneration++;
+        countFuture = null;
+        publishedCount = null;
+        keysetQuery = null;
+        keysetBounds.clear();
         currentPageDocuments = null;
         super.refresh();
     }
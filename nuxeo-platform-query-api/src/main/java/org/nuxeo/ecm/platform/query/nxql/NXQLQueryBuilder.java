@@ -20,9 +20,14 @@ import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Calendar;
 import java.util.Date;
 import java.util.GregorianCalendar;
 import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.apache.commons.lang.StringUtils;
 import org.nuxeo.ecm.core.api.ClientException;
@@ -51,6 +56,29 @@ public class NXQLQueryBuilder {
     private NXQLQueryBuilder() {
     }
 
+    protected static final Pattern WHERE_PATTERN = Pattern.compile(
+            "\\sWHERE\\s", Pattern.CASE_INSENSITIVE);
+
+    protected static final Pattern PARAMETER_PATTERN = Pattern.compile("\\?");
+
+    protected static final Pattern WHITESPACE_PATTERN = Pattern.compile("[\\s]+");
+
+    /**
+     * Date formats used to serialize date values, not thread-safe.
+     */
+    protected static final ThreadLocal<DateFormat> DATE_FORMAT = new ThreadLocal<DateFormat>() {
+        @Override
+        protected DateFormat initialValue() {
+            return new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        }
+    };
+
+    /**
+     * Ignored characters pattern, compiled for the current value of the
+     * {@link #IGNORED_CHARS_KEY} property.
+     */
+    protected static volatile IgnoredChars ignoredChars;
+
     public static String getSortClause(SortInfo... sortInfos) {
         StringBuilder queryBuilder = new StringBuilder();
         if (sortInfos != null) {
@@ -71,94 +99,247 @@ public class NXQLQueryBuilder {
         return queryBuilder.toString();
     }
 
-    public static String getQuery(DocumentModel model,
-            WhereClauseDefinition whereClause, Object[] params,
-            SortInfo... sortInfos) throws ClientException {
+    /**
+     * Restricts a query to the rows following the given sort values, for
+     * keyset pagination.
+     * <p>
+     * The query must not hold a sort clause: the sort clause for the given
+     * sort infos is appended to the result. The last sort info must be a
+     * unique column, like ecm:uuid, so that rows with equal sort values are
+     * not skipped.
+     * <p>
+     * Sort columns are assumed never to be null, see
+     * {@link #getKeysetQuery(String, SortInfo[], Object[], boolean)} for
+     * nullable columns.
+     *
+     * @param query the query, without sort clause
+     * @param sortInfos the sort infos of the query
+     * @param values the values of the sort columns for the last row of the
+     *            previous page
+     * @since 5.7.2
+     */
+    public static String getKeysetQuery(String query, SortInfo[] sortInfos,
+            Object[] values) {
+        return getKeysetQuery(query, sortInfos, values, null);
+    }
+
+    /**
+     * Restricts a query to the rows following the given sort values, some of
+     * the sort columns possibly holding null values.
+     *
+     * @param nullsFirst true if the database sorts null values before the
+     *            other values in ascending order, false if it sorts them after
+     * @see #getKeysetQuery(String, SortInfo[], Object[])
+     * @since 5.7.2
+     */
+    public static String getKeysetQuery(String query, SortInfo[] sortInfos,
+            Object[] values, boolean nullsFirst) {
+        return getKeysetQuery(query, sortInfos, values,
+                Boolean.valueOf(nullsFirst));
+    }
+
+    protected static String getKeysetQuery(String query, SortInfo[] sortInfos,
+            Object[] values, Boolean nullsFirst) {
+        String clause = getKeysetClause(sortInfos, values, nullsFirst);
         StringBuilder queryBuilder = new StringBuilder();
-        queryBuilder.append("SELECT * FROM Document");
-        if (whereClause != null) {
-            queryBuilder.append(getQueryElement(model, whereClause, params));
+        Matcher m = WHERE_PATTERN.matcher(query);
+        if (m.find()) {
+            // keep the precedence of the original where clause
+            queryBuilder.append(query.substring(0, m.start()));
+            queryBuilder.append(" WHERE (");
+            queryBuilder.append(query.substring(m.end()).trim());
+            queryBuilder.append(") AND ");
+        } else {
+            queryBuilder.append(query.trim());
+            queryBuilder.append(" WHERE ");
         }
+        queryBuilder.append(clause);
         String sortClause = getSortClause(sortInfos);
-        if (sortClause != null && sortClause.length() > 0) {
-            queryBuilder.append(" ");
+        if (sortClause.length() > 0) {
+            queryBuilder.append(' ');
             queryBuilder.append(sortClause);
         }
         return queryBuilder.toString().trim();
     }
 
-    public static String getQueryElement(DocumentModel model,
-            WhereClauseDefinition whereClause, Object[] params)
-            throws ClientException {
-        List<String> elements = new ArrayList<String>();
-        PredicateDefinition[] predicates = whereClause.getPredicates();
-        if (predicates != null) {
-            try {
-                Escaper escaper = null;
-                Class<? extends Escaper> escaperClass = whereClause.getEscaperClass();
-                if (escaperClass != null) {
-                    escaper = escaperClass.newInstance();
-                }
-                for (PredicateDefinition predicate : predicates) {
-                    String predicateString = getQueryElement(model, predicate,
-                            escaper);
-                    if (predicateString == null) {
-                        continue;
-                    }
+    /**
+     * Returns the clause matching the rows sorted after the given sort
+     * values: {@code (a > ?) OR (a = ? AND b > ?) ...}, NXQL having no row
+     * value comparison. Sort columns are assumed never to be null.
+     *
+     * @since 5.7.2
+     */
+    public static String getKeysetClause(SortInfo[] sortInfos, Object[] values) {
+        return getKeysetClause(sortInfos, values, null);
+    }
 
-                    predicateString = predicateString.trim();
-                    if (!predicateString.equals("")) {
-                        elements.add(predicateString);
-                    }
-                }
-            } catch (IllegalAccessException e) {
-                throw new ClientException(e);
-            } catch (InstantiationException e) {
-                throw new ClientException(e);
+    /**
+     * Returns the clause matching the rows sorted after the given sort
+     * values, null values included, for a database sorting null values first
+     * or last in ascending order (and the other way round in descending
+     * order).
+     *
+     * @since 5.7.2
+     */
+    public static String getKeysetClause(SortInfo[] sortInfos,
+            Object[] values, boolean nullsFirst) {
+        return getKeysetClause(sortInfos, values, Boolean.valueOf(nullsFirst));
+    }
+
+    protected static String getKeysetClause(SortInfo[] sortInfos,
+            Object[] values, Boolean nullsFirst) {
+        if (sortInfos == null || values == null
+                || sortInfos.length != values.length || values.length == 0) {
+            throw new IllegalArgumentException(
+                    "Keyset values do not match sort infos");
+        }
+        String[] literals = new String[values.length];
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == null && nullsFirst == null) {
+                throw new IllegalArgumentException("Null keyset value");
             }
+            literals[i] = values[i] == null ? null
+                    : getKeysetLiteral(values[i]);
         }
-        // add fixed part if applicable
-        String fixedPart = whereClause.getFixedPart();
-        if (fixedPart != null && !fixedPart.equals("")) {
-            if (elements.isEmpty()) {
-                elements.add(getQuery(fixedPart, params,
-                        whereClause.getQuoteFixedPartParameters(),
-                        whereClause.getEscapeFixedPartParameters()));
-            } else {
-                elements.add('(' + getQuery(fixedPart, params,
-                        whereClause.getQuoteFixedPartParameters(),
-                        whereClause.getEscapeFixedPartParameters()) + ')');
+        List<String> alternatives = new ArrayList<String>(sortInfos.length);
+        for (int i = 0; i < sortInfos.length; i++) {
+            String after = getKeysetAfterClause(sortInfos[i], literals[i],
+                    nullsFirst);
+            if (after == null) {
+                // no row sorts after this value on this column
+                continue;
             }
+            StringBuilder sb = new StringBuilder();
+            for (int j = 0; j < i; j++) {
+                sb.append(sortInfos[j].getSortColumn());
+                if (literals[j] == null) {
+                    sb.append(" IS NULL");
+                } else {
+                    sb.append(" = ");
+                    sb.append(literals[j]);
+                }
+                sb.append(" AND ");
+            }
+            sb.append(after);
+            alternatives.add(i == 0 ? sb.toString() : '(' + sb.toString()
+                    + ')');
         }
+        if (alternatives.isEmpty()) {
+            throw new IllegalArgumentException(
+                    "No row can follow the keyset values");
+        }
+        return '(' + StringUtils.join(alternatives, " OR ") + ')';
+    }
 
-        if (elements.isEmpty()) {
-            return "";
+    /**
+     * Returns the condition of the rows sorted strictly after the given
+     * literal on a sort column, or null if no row can.
+     */
+    protected static String getKeysetAfterClause(SortInfo sortInfo,
+            String literal, Boolean nullsFirst) {
+        String column = sortInfo.getSortColumn();
+        boolean ascending = sortInfo.getSortAscending();
+        boolean nullsAfter = nullsFirst != null
+                && nullsFirst.booleanValue() != ascending
+                && !isNotNullColumn(column);
+        if (literal == null) {
+            // null rows are all equal
+            return nullsAfter ? null : column + " IS NOT NULL";
         }
+        String after = column + (ascending ? " > " : " < ") + literal;
+        if (nullsAfter) {
+            return '(' + after + " OR " + column + " IS NULL)";
+        }
+        return after;
+    }
 
-        // XXX: for now only a one level implement conjunctive WHERE clause
-        String clauseValues = StringUtils.join(elements, " AND ").trim();
+    /**
+     * Returns true if the given sort column never holds null values.
+     *
+     * @since 5.7.2
+     */
+    public static boolean isNotNullColumn(String column) {
+        return NXQL.ECM_UUID.equals(column)
+                || NXQL.ECM_PRIMARYTYPE.equals(column);
+    }
 
-        // GR: WHERE (x = 1) is invalid NXQL
-        while (elements.size() == 1 && clauseValues.startsWith("(")
-                && clauseValues.endsWith(")")) {
-            clauseValues = clauseValues.substring(1, clauseValues.length() - 1).trim();
+    protected static String getKeysetLiteral(Object value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Null keyset value");
         }
-        if (clauseValues.length() == 0) {
-            return "";
+        if (value instanceof Boolean) {
+            return ((Boolean) value).booleanValue() ? "1" : "0";
+        }
+        if (value instanceof Number) {
+            return value.toString();
         }
-        return " WHERE " + clauseValues;
+        if (value instanceof Calendar || value instanceof Date) {
+            Date date = value instanceof Calendar ? ((Calendar) value).getTime()
+                    : (Date) value;
+            // keep milliseconds, as rows are compared with them
+            DateFormat df = new SimpleDateFormat(
+                    "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+            df.setTimeZone(TimeZone.getTimeZone("UTC"));
+            return "TIMESTAMP '" + df.format(date) + "'";
+        }
+        return NXQL.escapeString(value.toString());
+    }
+
+    public static String getQuery(DocumentModel model,
+            WhereClauseDefinition whereClause, Object[] params,
+            SortInfo... sortInfos) throws ClientException {
+        StringBuilder queryBuilder = new StringBuilder();
+        queryBuilder.append("SELECT * FROM Document");
+        if (whereClause != null) {
+            queryBuilder.append(getQueryElement(model, whereClause, params));
+        }
+        String sortClause = getSortClause(sortInfos);
+        if (sortClause != null && sortClause.length() > 0) {
+            queryBuilder.append(" ");
+            queryBuilder.append(sortClause);
+        }
+        return queryBuilder.toString().trim();
+    }
+
+    public static String getQueryElement(DocumentModel model,
+            WhereClauseDefinition whereClause, Object[] params)
+            throws ClientException {
+        return new NXQLQueryTemplate(whereClause).getQueryElement(model,
+                params);
     }
 
     public static String getQuery(String pattern, Object[] params,
             boolean quoteParameters, boolean escape, SortInfo... sortInfos)
             throws ClientException {
+        return fillQuery(pattern, params == null ? null
+                : splitPattern(pattern), params, quoteParameters, escape,
+                sortInfos);
+    }
+
+    /**
+     * Splits a pattern around its parameter placeholders.
+     *
+     * @since 5.7.2
+     */
+    protected static String[] splitPattern(String pattern) {
+        // XXX: the + " " is a workaround for the buggy implementation
+        // of the split function in case the pattern ends with '?'
+        return PARAMETER_PATTERN.split(pattern + ' ');
+    }
+
+    /**
+     * Fills the parameters of a pattern already split by
+     * {@link #splitPattern(String)}.
+     *
+     * @since 5.7.2
+     */
+    protected static String fillQuery(String pattern, String[] queryStrList,
+            Object[] params, boolean quoteParameters, boolean escape,
+            SortInfo[] sortInfos) {
         StringBuilder queryBuilder;
         if (params == null) {
             queryBuilder = new StringBuilder(pattern + ' ');
         } else {
-            // XXX: the + " " is a workaround for the buggy implementation
-            // of the split function in case the pattern ends with '?'
-            String[] queryStrList = (pattern + ' ').split("\\?");
             queryBuilder = new StringBuilder(queryStrList[0]);
             for (int i = 0; i < params.length; i++) {
                 if (params[i] instanceof String[]) {
@@ -237,20 +418,26 @@ public class NXQLQueryBuilder {
             return atomicQueryElement(model, predicateDescriptor, escaper);
         }
         if (PredicateDefinition.SUB_CLAUSE_PREDICATE.equals(type)) {
-            return subClauseQueryElement(model, predicateDescriptor);
+            return subClauseQueryElement(model, predicateDescriptor, null);
         }
         throw new ClientException("Unknown predicate type: " + type);
     }
 
+    /**
+     * @param fieldTypes cache of the field types, or null
+     * @since 5.7.2
+     */
     protected static String subClauseQueryElement(DocumentModel model,
-            PredicateDefinition predicateDescriptor) throws ClientException {
+            PredicateDefinition predicateDescriptor,
+            Map<String, String> fieldTypes) throws ClientException {
         PredicateFieldDefinition[] values = predicateDescriptor.getValues();
         if (values == null || values.length != 1) {
             throw new ClientException(
                     "subClause predicate needs exactly one field");
         }
         PredicateFieldDefinition fieldDescriptor = values[0];
-        if (!getFieldType(model, fieldDescriptor).equals("string")) {
+        String fieldType = getFieldType(model, fieldDescriptor, fieldTypes);
+        if (!fieldType.equals("string")) {
             if (fieldDescriptor.getXpath() != null) {
                 throw new ClientException(String.format(
                         "type of field %s is not string",
@@ -272,14 +459,40 @@ public class NXQLQueryBuilder {
     protected static String atomicQueryElement(DocumentModel model,
             PredicateDefinition predicateDescriptor, Escaper escaper)
             throws ClientException {
-        String operator = null;
+        return atomicQueryElement(model, predicateDescriptor,
+                getOperatorFieldDescriptor(predicateDescriptor), escaper,
+                null);
+    }
+
+    /**
+     * Returns the field holding the operator of the predicate, or null if the
+     * operator is fixed.
+     *
+     * @since 5.7.2
+     */
+    protected static PredicateFieldDefinition getOperatorFieldDescriptor(
+            PredicateDefinition predicateDescriptor) {
         String operatorField = predicateDescriptor.getOperatorField();
         String operatorSchema = predicateDescriptor.getOperatorSchema();
+        if (operatorField != null && operatorSchema != null) {
+            return new FieldDescriptor(operatorSchema, operatorField);
+        }
+        return null;
+    }
+
+    /**
+     * @param operatorFieldDescriptor the field holding the operator, or null
+     * @param fieldTypes cache of the field types, or null
+     * @since 5.7.2
+     */
+    protected static String atomicQueryElement(DocumentModel model,
+            PredicateDefinition predicateDescriptor,
+            PredicateFieldDefinition operatorFieldDescriptor, Escaper escaper,
+            Map<String, String> fieldTypes) throws ClientException {
+        String operator = null;
         String parameter = predicateDescriptor.getParameter();
         PredicateFieldDefinition[] values = predicateDescriptor.getValues();
-        if (operatorField != null && operatorSchema != null) {
-            PredicateFieldDefinition operatorFieldDescriptor = new FieldDescriptor(
-                    operatorSchema, operatorField);
+        if (operatorFieldDescriptor != null) {
             operator = getPlainStringValue(model, operatorFieldDescriptor);
             if (operator != null) {
                 operator = operator.toUpperCase();
@@ -295,7 +508,7 @@ public class NXQLQueryBuilder {
                 || operator.equals("<>") || operator.equals("LIKE")
                 || operator.equals("ILIKE")) {
             // Unary predicate
-            String value = getStringValue(model, values[0]);
+            String value = getStringValue(model, values[0], fieldTypes);
             if (value == null) {
                 // value not provided: ignore predicate
                 return "";
@@ -307,8 +520,8 @@ public class NXQLQueryBuilder {
             return serializeUnary(parameter, operator, value);
 
         } else if (operator.equals("BETWEEN")) {
-            String min = getStringValue(model, values[0]);
-            String max = getStringValue(model, values[1]);
+            String min = getStringValue(model, values[0], fieldTypes);
+            String max = getStringValue(model, values[1], fieldTypes);
 
             if (min != null && max != null) {
                 StringBuilder builder = new StringBuilder();
@@ -348,9 +561,9 @@ public class NXQLQueryBuilder {
                 return builder.toString();
             }
         } else if (operator.equals("STARTSWITH")) {
-            String fieldType = getFieldType(model, values[0]);
+            String fieldType = getFieldType(model, values[0], fieldTypes);
             if (fieldType.equals("string")) {
-                String value = getStringValue(model, values[0]);
+                String value = getStringValue(model, values[0], fieldTypes);
                 if (value == null) {
                     return "";
                 } else {
@@ -432,26 +645,53 @@ public class NXQLQueryBuilder {
         // parser should be robust to any user input however this is much more
         // complicated to implement correctly than the following simple user
         // input filtering scheme.
-        String ignoredChars = Framework.getProperty(IGNORED_CHARS_KEY,
-                DEFAULT_SPECIAL_CHARACTERS_REGEXP);
-        String res = "";
-        value = value.replaceAll("[" + ignoredChars + "]", " ");
+        StringBuilder res = new StringBuilder();
+        value = getIgnoredCharsPattern().matcher(value).replaceAll(" ");
         value = value.trim();
-        String[] tokens = value.split("[\\s]+");
+        String[] tokens = WHITESPACE_PATTERN.split(value);
         for (int i = 0; i < tokens.length; i++) {
             if ("-".equals(tokens[i])) {
                 continue;
             }
             if (res.length() > 0) {
-                res += " ";
+                res.append(' ');
             }
             if (tokens[i].startsWith("-")) {
-                res += tokens[i];
+                res.append(tokens[i]);
             } else {
-                res += tokens[i].replace("-", " ");
+                res.append(tokens[i].replace('-', ' '));
             }
         }
-        return res;
+        return res.toString();
+    }
+
+    /**
+     * Returns the pattern matching the ignored characters, compiled again
+     * only when the {@link #IGNORED_CHARS_KEY} property changes.
+     *
+     * @since 5.7.2
+     */
+    protected static Pattern getIgnoredCharsPattern() {
+        String chars = Framework.getProperty(IGNORED_CHARS_KEY,
+                DEFAULT_SPECIAL_CHARACTERS_REGEXP);
+        IgnoredChars compiled = ignoredChars;
+        if (compiled == null || !compiled.chars.equals(chars)) {
+            compiled = new IgnoredChars(chars);
+            ignoredChars = compiled;
+        }
+        return compiled.pattern;
+    }
+
+    protected static class IgnoredChars {
+
+        protected final String chars;
+
+        protected final Pattern pattern;
+
+        protected IgnoredChars(String chars) {
+            this.chars = chars;
+            pattern = Pattern.compile("[" + chars + "]");
+        }
     }
 
     public static String serializeFullText(String value) {
@@ -497,6 +737,29 @@ public class NXQLQueryBuilder {
         }
     }
 
+    /**
+     * Returns the type of the field, looked up in the given cache first.
+     *
+     * @param fieldTypes cache of the field types, or null
+     * @since 5.7.2
+     */
+    protected static String getFieldType(DocumentModel model,
+            PredicateFieldDefinition fieldDescriptor,
+            Map<String, String> fieldTypes) throws ClientException {
+        if (fieldTypes == null) {
+            return getFieldType(model, fieldDescriptor);
+        }
+        String xpath = fieldDescriptor.getXpath();
+        String key = xpath != null ? xpath : fieldDescriptor.getSchema()
+                + ':' + fieldDescriptor.getName();
+        String type = fieldTypes.get(key);
+        if (type == null) {
+            type = getFieldType(model, fieldDescriptor);
+            fieldTypes.put(key, type);
+        }
+        return type;
+    }
+
     public static String getFieldType(DocumentModel model,
             PredicateFieldDefinition fieldDescriptor) throws ClientException {
         String xpath = fieldDescriptor.getXpath();
@@ -546,6 +809,16 @@ public class NXQLQueryBuilder {
 
     public static String getStringValue(DocumentModel model,
             PredicateFieldDefinition fieldDescriptor) throws ClientException {
+        return getStringValue(model, fieldDescriptor, null);
+    }
+
+    /**
+     * @param fieldTypes cache of the field types, or null
+     * @since 5.7.2
+     */
+    protected static String getStringValue(DocumentModel model,
+            PredicateFieldDefinition fieldDescriptor,
+            Map<String, String> fieldTypes) throws ClientException {
         Object rawValue = getRawValue(model, fieldDescriptor);
         if (rawValue == null) {
             return null;
@@ -567,7 +840,8 @@ public class NXQLQueryBuilder {
             if (value.equals("")) {
                 return null;
             }
-            String fieldType = getFieldType(model, fieldDescriptor);
+            String fieldType = getFieldType(model, fieldDescriptor,
+                    fieldTypes);
             if ("long".equals(fieldType) || "integer".equals(fieldType)
                     || "double".equals(fieldType)) {
                 return value;
@@ -579,8 +853,8 @@ public class NXQLQueryBuilder {
     }
 
     protected static DateFormat getDateFormat() {
-        // not thread-safe so don't use a static instance
-        return new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        // not thread-safe so use a per-thread instance
+        return DATE_FORMAT.get();
     }
 
     @SuppressWarnings("unchecked")
@@ -0,0 +1,296 @@
+/*
+ * (C) Copyright 2013 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ */
+package org.nuxeo.ecm.platform.query.nxql;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.lang.StringUtils;
+import org.nuxeo.ecm.core.api.ClientException;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.SortInfo;
+import org.nuxeo.ecm.core.search.api.client.querymodel.Escaper;
+import org.nuxeo.ecm.platform.query.api.PageProviderDefinition;
+import org.nuxeo.ecm.platform.query.api.PredicateDefinition;
+import org.nuxeo.ecm.platform.query.api.PredicateFieldDefinition;
+import org.nuxeo.ecm.platform.query.api.WhereClauseDefinition;
+
+/**
+ * Query of a page provider definition, compiled once so that building the
+ * query of a page only fills in the parameters.
+ * <p>
+ * A pattern is kept split around its parameter placeholders, and each
+ * predicate of a where clause is bound to the field holding its operator, if
+ * any. The types of the predicate fields are looked up once.
+ * <p>
+ * Queries built from a template are the same as the ones built by the
+ * {@link NXQLQueryBuilder} methods.
+ *
+ * @since 5.7.2
+ */
+public class NXQLQueryTemplate {
+
+    protected static final Map<PageProviderDefinition, NXQLQueryTemplate> templates = Collections.synchronizedMap(new WeakHashMap<PageProviderDefinition, NXQLQueryTemplate>());
+
+    protected final String pattern;
+
+    protected final String[] segments;
+
+    protected final boolean quoteParameters;
+
+    protected final boolean escape;
+
+    protected final WhereClauseDefinition whereClause;
+
+    protected final PredicateDefinition[] predicates;
+
+    protected final PredicateBinder[] binders;
+
+    protected final NXQLQueryTemplate fixedPart;
+
+    protected final Map<String, String> fieldTypes = new ConcurrentHashMap<String, String>();
+
+    /**
+     * Compiles a pattern.
+     */
+    public NXQLQueryTemplate(String pattern, boolean quoteParameters,
+            boolean escape) {
+        this.pattern = pattern;
+        segments = pattern == null ? null
+                : NXQLQueryBuilder.splitPattern(pattern);
+        this.quoteParameters = quoteParameters;
+        this.escape = escape;
+        whereClause = null;
+        predicates = null;
+        binders = null;
+        fixedPart = null;
+    }
+
+    /**
+     * Compiles a where clause.
+     */
+    public NXQLQueryTemplate(WhereClauseDefinition whereClause) {
+        pattern = null;
+        segments = null;
+        quoteParameters = false;
+        escape = false;
+        this.whereClause = whereClause;
+        predicates = whereClause.getPredicates();
+        if (predicates == null) {
+            binders = null;
+        } else {
+            binders = new PredicateBinder[predicates.length];
+            for (int i = 0; i < predicates.length; i++) {
+                binders[i] = new PredicateBinder(predicates[i]);
+            }
+        }
+        String fixed = whereClause.getFixedPart();
+        if (fixed != null && !fixed.equals("")) {
+            fixedPart = new NXQLQueryTemplate(fixed,
+                    whereClause.getQuoteFixedPartParameters(),
+                    whereClause.getEscapeFixedPartParameters());
+        } else {
+            fixedPart = null;
+        }
+    }
+
+    /**
+     * Returns the template of the given definition, compiled on first use and
+     * again when the pattern or where clause of the definition changes.
+     */
+    public static NXQLQueryTemplate get(PageProviderDefinition def) {
+        NXQLQueryTemplate template = templates.get(def);
+        if (template == null || !template.isCompiledFrom(def)) {
+            if (def.getWhereClause() == null) {
+                template = new NXQLQueryTemplate(def.getPattern(),
+                        def.getQuotePatternParameters(),
+                        def.getEscapePatternParameters());
+            } else {
+                template = new NXQLQueryTemplate(def.getWhereClause());
+            }
+            templates.put(def, template);
+        }
+        return template;
+    }
+
+    /**
+     * Returns true if the template was compiled from the current state of the
+     * given definition.
+     */
+    public boolean isCompiledFrom(PageProviderDefinition def) {
+        WhereClauseDefinition defWhereClause = def.getWhereClause();
+        if (defWhereClause == null) {
+            return whereClause == null
+                    && StringUtils.equals(pattern, def.getPattern())
+                    && quoteParameters == def.getQuotePatternParameters()
+                    && escape == def.getEscapePatternParameters();
+        }
+        if (defWhereClause != whereClause
+                || defWhereClause.getPredicates() != predicates) {
+            return false;
+        }
+        String fixed = defWhereClause.getFixedPart();
+        if (fixedPart == null) {
+            return fixed == null || fixed.equals("");
+        }
+        return fixedPart.pattern.equals(fixed)
+                && fixedPart.quoteParameters == defWhereClause.getQuoteFixedPartParameters()
+                && fixedPart.escape == defWhereClause.getEscapeFixedPartParameters();
+    }
+
+    public boolean hasWhereClause() {
+        return whereClause != null;
+    }
+
+    /**
+     * Returns the query for the given parameters, the template being compiled
+     * from a pattern.
+     *
+     * @see NXQLQueryBuilder#getQuery(String, Object[], boolean, boolean,
+     *      SortInfo...)
+     */
+    public String getQuery(Object[] params, SortInfo... sortInfos) {
+        if (whereClause != null) {
+            throw new IllegalStateException("Template has no pattern");
+        }
+        return NXQLQueryBuilder.fillQuery(pattern, segments, params,
+                quoteParameters, escape, sortInfos);
+    }
+
+    /**
+     * Returns the query for the given search document and parameters, the
+     * template being compiled from a where clause.
+     *
+     * @see NXQLQueryBuilder#getQuery(DocumentModel, WhereClauseDefinition,
+     *      Object[], SortInfo...)
+     */
+    public String getQuery(DocumentModel model, Object[] params,
+            SortInfo... sortInfos) throws ClientException {
+        if (whereClause == null) {
+            throw new IllegalStateException("Template has no where clause");
+        }
+        StringBuilder queryBuilder = new StringBuilder();
+        queryBuilder.append("SELECT * FROM Document");
+        queryBuilder.append(getQueryElement(model, params));
+        String sortClause = NXQLQueryBuilder.getSortClause(sortInfos);
+        if (sortClause != null && sortClause.length() > 0) {
+            queryBuilder.append(" ");
+            queryBuilder.append(sortClause);
+        }
+        return queryBuilder.toString().trim();
+    }
+
+    /**
+     * Returns the where clause for the given search document and parameters.
+     *
+     * @see NXQLQueryBuilder#getQueryElement(DocumentModel,
+     *      WhereClauseDefinition, Object[])
+     */
+    public String getQueryElement(DocumentModel model, Object[] params)
+            throws ClientException {
+        List<String> elements = new ArrayList<String>();
+        if (binders != null) {
+            Escaper escaper = newEscaper();
+            for (PredicateBinder binder : binders) {
+                String predicateString = binder.bind(model, escaper);
+                if (predicateString == null) {
+                    continue;
+                }
+
+                predicateString = predicateString.trim();
+                if (!predicateString.equals("")) {
+                    elements.add(predicateString);
+                }
+            }
+        }
+        // add fixed part if applicable
+        if (fixedPart != null) {
+            if (elements.isEmpty()) {
+                elements.add(fixedPart.getQuery(params));
+            } else {
+                elements.add('(' + fixedPart.getQuery(params) + ')');
+            }
+        }
+
+        if (elements.isEmpty()) {
+            return "";
+        }
+
+        // XXX: for now only a one level implement conjunctive WHERE clause
+        String clauseValues = StringUtils.join(elements, " AND ").trim();
+
+        // GR: WHERE (x = 1) is invalid NXQL
+        while (elements.size() == 1 && clauseValues.startsWith("(")
+                && clauseValues.endsWith(")")) {
+            clauseValues = clauseValues.substring(1, clauseValues.length() - 1).trim();
+        }
+        if (clauseValues.length() == 0) {
+            return "";
+        }
+        return " WHERE " + clauseValues;
+    }
+
+    protected Escaper newEscaper() throws ClientException {
+        // escapers are not known to be thread-safe: one per query
+        Class<? extends Escaper> escaperClass = whereClause.getEscaperClass();
+        if (escaperClass == null) {
+            return null;
+        }
+        try {
+            return escaperClass.newInstance();
+        } catch (IllegalAccessException e) {
+            throw new ClientException(e);
+        } catch (InstantiationException e) {
+            throw new ClientException(e);
+        }
+    }
+
+    /**
+     * A predicate of the where clause, bound to the field holding its
+     * operator.
+     */
+    protected class PredicateBinder {
+
+        protected final PredicateDefinition predicate;
+
+        protected final PredicateFieldDefinition operatorField;
+
+        protected PredicateBinder(PredicateDefinition predicate) {
+            this.predicate = predicate;
+            operatorField = NXQLQueryBuilder.getOperatorFieldDescriptor(predicate);
+        }
+
+        protected String bind(DocumentModel model, Escaper escaper)
+                throws ClientException {
+            String type = predicate.getType();
+            if (PredicateDefinition.ATOMIC_PREDICATE.equals(type)) {
+                return NXQLQueryBuilder.atomicQueryElement(model, predicate,
+                        operatorField, escaper, fieldTypes);
+            }
+            if (PredicateDefinition.SUB_CLAUSE_PREDICATE.equals(type)) {
+                return NXQLQueryBuilder.subClauseQueryElement(model,
+                        predicate, fieldTypes);
+            }
+            throw new ClientException("Unknown predicate type: " + type);
+        }
+    }
+
+}
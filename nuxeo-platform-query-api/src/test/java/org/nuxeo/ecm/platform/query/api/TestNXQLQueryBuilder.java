@@ -20,10 +20,14 @@ package org.nuxeo.ecm.platform.query.api;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 
 import java.io.Serializable;
 import java.util.Arrays;
+import java.util.Calendar;
 import java.util.List;
+import java.util.TimeZone;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -32,6 +36,7 @@ import org.nuxeo.ecm.core.api.SortInfo;
 import org.nuxeo.ecm.core.api.impl.DocumentModelImpl;
 import org.nuxeo.ecm.core.storage.sql.SQLRepositoryTestCase;
 import org.nuxeo.ecm.platform.query.nxql.NXQLQueryBuilder;
+import org.nuxeo.ecm.platform.query.nxql.NXQLQueryTemplate;
 import org.nuxeo.runtime.api.Framework;
 
 public class TestNXQLQueryBuilder extends SQLRepositoryTestCase {
@@ -48,6 +53,109 @@ public class TestNXQLQueryBuilder extends SQLRepositoryTestCase {
                 "test-pageprovider-contrib.xml");
     }
 
+    @Test
+    public void testKeysetQuery() throws Exception {
+        SortInfo[] sortInfos = { new SortInfo("dc:title", true),
+                new SortInfo("dc:created", false),
+                new SortInfo("ecm:uuid", true) };
+        Calendar created = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        created.clear();
+        created.set(2013, Calendar.JUNE, 1, 10, 0, 0);
+        created.set(Calendar.MILLISECOND, 500);
+        Object[] values = { "it's", created, "1234" };
+        assertEquals(
+                "(dc:title > 'it\\'s'"
+                        + " OR (dc:title = 'it\\'s' AND dc:created < TIMESTAMP '2013-06-01T10:00:00.500Z')"
+                        + " OR (dc:title = 'it\\'s' AND dc:created = TIMESTAMP '2013-06-01T10:00:00.500Z' AND ecm:uuid > '1234'))",
+                NXQLQueryBuilder.getKeysetClause(sortInfos, values));
+
+        sortInfos = new SortInfo[] { new SortInfo("ecm:uuid", true) };
+        values = new Object[] { "1234" };
+        assertEquals(
+                "SELECT * FROM Document WHERE (ecm:parentId = 'a' OR ecm:isProxy = 1)"
+                        + " AND (ecm:uuid > '1234') ORDER BY ecm:uuid",
+                NXQLQueryBuilder.getKeysetQuery(
+                        "SELECT * FROM Document WHERE ecm:parentId = 'a' OR ecm:isProxy = 1",
+                        sortInfos, values));
+        assertEquals(
+                "SELECT * FROM Document WHERE (ecm:uuid > '1234') ORDER BY ecm:uuid",
+                NXQLQueryBuilder.getKeysetQuery("SELECT * FROM Document",
+                        sortInfos, values));
+    }
+
+    @Test
+    public void testKeysetQueryWithNullValues() throws Exception {
+        SortInfo[] sortInfos = { new SortInfo("dc:title", true),
+                new SortInfo("ecm:uuid", true) };
+        // nulls sorted first: nulls precede any title
+        assertEquals("(dc:title > 'a' OR (dc:title = 'a' AND ecm:uuid > '1234'))",
+                NXQLQueryBuilder.getKeysetClause(sortInfos, new Object[] {
+                        "a", "1234" }, true));
+        assertEquals(
+                "(dc:title IS NOT NULL OR (dc:title IS NULL AND ecm:uuid > '1234'))",
+                NXQLQueryBuilder.getKeysetClause(sortInfos, new Object[] {
+                        null, "1234" }, true));
+        // nulls sorted last: nulls follow any title
+        assertEquals(
+                "((dc:title > 'a' OR dc:title IS NULL) OR (dc:title = 'a' AND ecm:uuid > '1234'))",
+                NXQLQueryBuilder.getKeysetClause(sortInfos, new Object[] {
+                        "a", "1234" }, false));
+        assertEquals("((dc:title IS NULL AND ecm:uuid > '1234'))",
+                NXQLQueryBuilder.getKeysetClause(sortInfos, new Object[] {
+                        null, "1234" }, false));
+        // descending order reverses the position of nulls
+        sortInfos[0] = new SortInfo("dc:title", false);
+        assertEquals(
+                "((dc:title < 'a' OR dc:title IS NULL) OR (dc:title = 'a' AND ecm:uuid > '1234'))",
+                NXQLQueryBuilder.getKeysetClause(sortInfos, new Object[] {
+                        "a", "1234" }, true));
+        assertEquals("(dc:title < 'a' OR (dc:title = 'a' AND ecm:uuid > '1234'))",
+                NXQLQueryBuilder.getKeysetClause(sortInfos, new Object[] {
+                        "a", "1234" }, false));
+    }
+
+    @Test
+    public void testQueryTemplate() throws Exception {
+        PageProviderService pps = Framework.getService(PageProviderService.class);
+        PageProviderDefinition def = pps.getPageProviderDefinition("ADVANCED_SEARCH");
+        NXQLQueryTemplate template = NXQLQueryTemplate.get(def);
+        assertSame(template, NXQLQueryTemplate.get(def));
+        SortInfo sortInfos = new SortInfo("dc:title", true);
+        String[] params = { "foo" };
+        DocumentModel model = new DocumentModelImpl("/", "doc",
+                "AdvancedSearch");
+        model.setPropertyValue("search:title", "bar");
+        model.setPropertyValue("search:isPresent", Boolean.TRUE);
+        assertEquals(NXQLQueryBuilder.getQuery(model, def.getWhereClause(),
+                params, sortInfos), template.getQuery(model, params, sortInfos));
+        assertEquals(
+                "SELECT * FROM Document WHERE dc:title LIKE 'bar' AND dc:modified IS NULL AND (ecm:parentId = 'foo') ORDER BY dc:title",
+                template.getQuery(model, params, sortInfos));
+
+        template = new NXQLQueryTemplate("SELECT * FROM ? WHERE ? = '?'",
+                false, true);
+        Object[] values = { "Document", "dc:title", null };
+        assertEquals(NXQLQueryBuilder.getQuery(
+                "SELECT * FROM ? WHERE ? = '?'", values, false, true),
+                template.getQuery(values));
+        assertEquals("SELECT * FROM Document WHERE dc:title = ''",
+                template.getQuery(values));
+
+        // compiled again when the definition changes
+        def = pps.getPageProviderDefinition("CURRENT_DOCUMENT_CHILDREN");
+        template = NXQLQueryTemplate.get(def);
+        String pattern = def.getPattern();
+        try {
+            def.setPattern("SELECT * FROM Document WHERE ecm:parentId = ?");
+            NXQLQueryTemplate other = NXQLQueryTemplate.get(def);
+            assertNotSame(template, other);
+            assertEquals("SELECT * FROM Document WHERE ecm:parentId = 'foo'",
+                    other.getQuery(params));
+        } finally {
+            def.setPattern(pattern);
+        }
+    }
+
     @Test
     public void testBuildIsNullQuery() throws Exception {
         PageProviderService pps = Framework.getService(PageProviderService.class);
@@ -0,0 +1,62 @@
+/*
+ * (C) Copyright 2013 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ */
+package org.nuxeo.ecm.platform.query.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+import org.nuxeo.ecm.core.api.impl.UserPrincipal;
+
+public class TestPageResultCache {
+
+    @Test
+    public void testSecurityKey() {
+        UserPrincipal bob = new UserPrincipal("bob",
+                Arrays.asList("members", "editors"), false, false);
+        UserPrincipal joe = new UserPrincipal("joe",
+                Arrays.asList("editors", "members"), false, false);
+        UserPrincipal admin = new UserPrincipal("admin",
+                Arrays.asList("editors", "members"), false, true);
+
+        // per user: ACLs may name users
+        assertFalse(PageResultCache.getSecurityKey(bob, true).equals(
+                PageResultCache.getSecurityKey(joe, true)));
+
+        // shared by the users having the same groups
+        assertEquals(PageResultCache.getSecurityKey(bob, false),
+                PageResultCache.getSecurityKey(joe, false));
+        assertFalse(PageResultCache.getSecurityKey(bob, false).equals(
+                PageResultCache.getSecurityKey(admin, false)));
+        assertFalse(PageResultCache.getSecurityKey(bob, false).equals(
+                PageResultCache.getSecurityKey(new UserPrincipal("bob",
+                        Arrays.asList("members"), false, false), false)));
+    }
+
+    @Test
+    public void testNoExpiry() throws Exception {
+        PageResultCache cache = new PageResultCache("test", 10, 0);
+        cache.put("key", Collections.emptyList(), 0, cache.getGeneration());
+        Thread.sleep(20);
+        assertNotNull(cache.get("key"));
+    }
+
+}
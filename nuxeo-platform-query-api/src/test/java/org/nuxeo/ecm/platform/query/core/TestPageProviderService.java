@@ -23,19 +23,31 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.nuxeo.ecm.core.api.AbstractSession;
 import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.SortInfo;
+import org.nuxeo.ecm.core.storage.sql.DatabaseHelper;
+import org.nuxeo.ecm.core.storage.sql.DatabaseOracle;
+import org.nuxeo.ecm.core.storage.sql.DatabasePostgreSQL;
 import org.nuxeo.ecm.core.storage.sql.SQLRepositoryTestCase;
 import org.nuxeo.ecm.platform.query.api.PageProvider;
+import org.nuxeo.ecm.platform.query.api.PageProviderChangedListener;
 import org.nuxeo.ecm.platform.query.api.PageProviderDefinition;
 import org.nuxeo.ecm.platform.query.api.PageProviderService;
+import org.nuxeo.ecm.platform.query.api.PageResultCache;
+import org.nuxeo.ecm.platform.query.nxql.AsyncResultsCounter;
+import org.nuxeo.ecm.platform.query.nxql.CoreQueryAndFetchPageProvider;
 import org.nuxeo.ecm.platform.query.nxql.CoreQueryDocumentPageProvider;
 import org.nuxeo.runtime.api.Framework;
 
@@ -47,6 +59,12 @@ public class TestPageProviderService extends SQLRepositoryTestCase {
 
     private static final String CURRENT_DOCUMENT_CHILDREN = "CURRENT_DOCUMENT_CHILDREN";
 
+    private static final String CURRENT_DOCUMENT_CHILDREN_FETCH = "CURRENT_DOCUMENT_CHILDREN_FETCH";
+
+    private static final String CACHED_DOCUMENT_CHILDREN_FETCH = "CACHED_DOCUMENT_CHILDREN_FETCH";
+
+    private static final String CURRENT_DOCUMENT_CHILDREN_KEYSET = "CURRENT_DOCUMENT_CHILDREN_KEYSET";
+
     private static final String FOO = "foo";
 
     @Before
@@ -66,6 +84,8 @@ public class TestPageProviderService extends SQLRepositoryTestCase {
         super.deployRepositoryContrib();
         deployContrib("org.nuxeo.ecm.platform.query.api",
                 "OSGI-INF/pageprovider-framework.xml");
+        deployContrib("org.nuxeo.ecm.platform.query.api",
+                "OSGI-INF/pageprovider-cache-listener-contrib.xml");
         deployContrib("org.nuxeo.ecm.platform.query.api.test",
                 "test-pageprovider-contrib.xml");
     }
@@ -155,6 +175,295 @@ public class TestPageProviderService extends SQLRepositoryTestCase {
         assertEquals(0, p.size());
     }
 
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testQueryAndFetchPaging() throws Exception {
+        String rootId = session.getRootDocument().getId();
+        for (int i = 0; i < 5; i++) {
+            DocumentModel doc = session.createDocumentModel("/", "doc" + i,
+                    "File");
+            doc.setPropertyValue("dc:title", "Document " + i);
+            session.createDocument(doc);
+        }
+        session.save();
+
+        PageProviderService pps = Framework.getService(PageProviderService.class);
+        HashMap<String, Serializable> props = new HashMap<String, Serializable>();
+        props.put(CoreQueryAndFetchPageProvider.CORE_SESSION_PROPERTY,
+                (AbstractSession) session);
+        PageProvider<Map<String, Serializable>> pp = (PageProvider<Map<String, Serializable>>) pps.getPageProvider(
+                CURRENT_DOCUMENT_CHILDREN_FETCH, null, null, null, props,
+                rootId);
+        List<Map<String, Serializable>> page = pp.getCurrentPage();
+        assertEquals(2, page.size());
+        assertEquals("Document 0", page.get(0).get("dc:title"));
+        assertEquals(5, pp.getResultsCount());
+        pp.nextPage();
+        page = pp.getCurrentPage();
+        assertEquals(2, page.size());
+        assertEquals("Document 2", page.get(0).get("dc:title"));
+        pp.lastPage();
+        page = pp.getCurrentPage();
+        assertEquals(1, page.size());
+        assertEquals("Document 4", page.get(0).get("dc:title"));
+        assertEquals(5, pp.getResultsCount());
+
+        // count capped by maxResults
+        props.put(CoreQueryAndFetchPageProvider.MAX_RESULTS_PROPERTY, "3");
+        pp = (PageProvider<Map<String, Serializable>>) pps.getPageProvider(
+                CURRENT_DOCUMENT_CHILDREN_FETCH, null, null, null, props,
+                rootId);
+        assertEquals(2, pp.getCurrentPage().size());
+        assertEquals(PageProvider.UNKNOWN_SIZE_AFTER_QUERY,
+                pp.getResultsCount());
+        assertTrue(pp.isNextPageAvailable());
+
+        // without maxResults, count capped by the runtime property
+        props.remove(CoreQueryAndFetchPageProvider.MAX_RESULTS_PROPERTY);
+        Framework.getProperties().setProperty(
+                CoreQueryAndFetchPageProvider.MAX_COUNTED_RESULTS_PROPERTY,
+                "4");
+        try {
+            pp = (PageProvider<Map<String, Serializable>>) pps.getPageProvider(
+                    CURRENT_DOCUMENT_CHILDREN_FETCH, null, null, null, props,
+                    rootId);
+            assertEquals(2, pp.getCurrentPage().size());
+            assertEquals(PageProvider.UNKNOWN_SIZE_AFTER_QUERY,
+                    pp.getResultsCount());
+        } finally {
+            Framework.getProperties().remove(
+                    CoreQueryAndFetchPageProvider.MAX_COUNTED_RESULTS_PROPERTY);
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testResultCache() throws Exception {
+        String rootId = session.getRootDocument().getId();
+        DocumentModel doc = session.createDocumentModel("/", "doc", "File");
+        doc.setPropertyValue("dc:title", "Document");
+        doc = session.createDocument(doc);
+        session.save();
+
+        PageProviderService pps = Framework.getService(PageProviderService.class);
+        assertNull(pps.getResultCache(CURRENT_DOCUMENT_CHILDREN_FETCH));
+        PageResultCache cache = pps.getResultCache(CACHED_DOCUMENT_CHILDREN_FETCH);
+        assertNotNull(cache);
+        assertEquals(10, cache.getMaxSize());
+        assertEquals(60, cache.getTimeout());
+
+        HashMap<String, Serializable> props = new HashMap<String, Serializable>();
+        props.put(CoreQueryAndFetchPageProvider.CORE_SESSION_PROPERTY,
+                (AbstractSession) session);
+        PageProvider<Map<String, Serializable>> pp = (PageProvider<Map<String, Serializable>>) pps.getPageProvider(
+                CACHED_DOCUMENT_CHILDREN_FETCH, null, null, null, props,
+                rootId);
+        assertEquals(1, pp.getCurrentPage().size());
+        assertEquals(0, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        // another provider instance shares the results
+        pp = (PageProvider<Map<String, Serializable>>) pps.getPageProvider(
+                CACHED_DOCUMENT_CHILDREN_FETCH, null, null, null, props,
+                rootId);
+        List<Map<String, Serializable>> page = pp.getCurrentPage();
+        assertEquals(1, page.size());
+        assertEquals("Document", page.get(0).get("dc:title"));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getSize());
+
+        // repository changes drop the cached results
+        doc.setPropertyValue("dc:title", "Changed");
+        session.saveDocument(doc);
+        session.save();
+        assertTrue(cache.getInvalidationCount() > 0);
+        assertEquals(0, cache.getSize());
+        pp = (PageProvider<Map<String, Serializable>>) pps.getPageProvider(
+                CACHED_DOCUMENT_CHILDREN_FETCH, null, null, null, props,
+                rootId);
+        assertEquals("Changed", pp.getCurrentPage().get(0).get("dc:title"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testKeysetPagination() throws Exception {
+        String rootId = session.getRootDocument().getId();
+        DocumentModel folder = session.createDocumentModel("/", "folder",
+                "Folder");
+        folder = session.createDocument(folder);
+        for (int i = 0; i < 5; i++) {
+            // two documents per title, sorted by id
+            DocumentModel doc = session.createDocumentModel(
+                    i % 2 == 0 ? "/" : "/folder", "doc" + i, "File");
+            doc.setPropertyValue("dc:title", "Document " + (i / 2));
+            session.createDocument(doc);
+        }
+        session.save();
+
+        PageProviderService pps = Framework.getService(PageProviderService.class);
+        HashMap<String, Serializable> props = new HashMap<String, Serializable>();
+        props.put(CoreQueryDocumentPageProvider.CORE_SESSION_PROPERTY,
+                (AbstractSession) session);
+        // offset pagination gives the expected order
+        PageProvider<DocumentModel> offsetPP = (PageProvider<DocumentModel>) pps.getPageProvider(
+                CURRENT_DOCUMENT_CHILDREN_KEYSET, null, Long.valueOf(0), null,
+                props, rootId, folder.getId());
+        List<DocumentModel> all = offsetPP.getCurrentPage();
+        // folder + 5 documents
+        assertEquals(6, all.size());
+
+        PageProvider<DocumentModel> pp = (PageProvider<DocumentModel>) pps.getPageProvider(
+                CURRENT_DOCUMENT_CHILDREN_KEYSET, null, null, null, props,
+                rootId, folder.getId());
+        assertTrue(((CoreQueryDocumentPageProvider) pp).isKeysetPagination());
+        pp.getCurrentPage();
+        assertTrue(((CoreQueryDocumentPageProvider) pp).getCurrentQuery().endsWith(
+                "ORDER BY dc:title , ecm:uuid"));
+        for (int page = 0; page < 3; page++) {
+            List<DocumentModel> docs = pp.getCurrentPage();
+            assertEquals(2, docs.size());
+            assertEquals(all.get(2 * page).getId(), docs.get(0).getId());
+            assertEquals(all.get(2 * page + 1).getId(), docs.get(1).getId());
+            assertEquals(6, pp.getResultsCount());
+            pp.nextPage();
+        }
+        // back to a page seeked before
+        pp.setCurrentPage(1);
+        assertEquals(all.get(2).getId(), pp.getCurrentPage().get(0).getId());
+    }
+
+    @Test
+    public void testKeysetPaginationWithNullSortValues() throws Exception {
+        DocumentModel folder = session.createDocumentModel("/", "folder",
+                "Folder");
+        folder = session.createDocument(folder);
+        String[] titles = { null, "A", null, "B", null, "A", null };
+        for (int i = 0; i < titles.length; i++) {
+            DocumentModel doc = session.createDocumentModel("/folder", "doc"
+                    + i, "File");
+            doc.setPropertyValue("dc:title", titles[i]);
+            session.createDocument(doc);
+        }
+        session.save();
+
+        PageProviderService pps = Framework.getService(PageProviderService.class);
+        CoreQueryPageProviderDescriptor def = ((CoreQueryPageProviderDescriptor) pps.getPageProviderDefinition(CURRENT_DOCUMENT_CHILDREN_KEYSET)).clone();
+        // null ordering of the test database
+        boolean nullsFirst = !(DatabaseHelper.DATABASE instanceof DatabasePostgreSQL
+                || DatabaseHelper.DATABASE instanceof DatabaseOracle);
+        for (Boolean ordering : Arrays.asList(Boolean.valueOf(nullsFirst),
+                null)) {
+            if (ordering == null) {
+                // unknown: pages sorted on nullable columns use the offset
+                Framework.getProperties().remove(
+                        CoreQueryDocumentPageProvider.KEYSET_NULLS_FIRST_PROPERTY);
+            } else {
+                Framework.getProperties().setProperty(
+                        CoreQueryDocumentPageProvider.KEYSET_NULLS_FIRST_PROPERTY,
+                        ordering.toString());
+            }
+            try {
+                for (boolean ascending : new boolean[] { true, false }) {
+                    checkKeysetPages(pps, def, folder.getId(), ascending);
+                }
+            } finally {
+                Framework.getProperties().remove(
+                        CoreQueryDocumentPageProvider.KEYSET_NULLS_FIRST_PROPERTY);
+            }
+        }
+    }
+
+    /**
+     * Checks that the keyset pages of the definition hold the same documents
+     * as its offset pages, null sort values being spread across pages.
+     */
+    @SuppressWarnings("unchecked")
+    protected void checkKeysetPages(PageProviderService pps,
+            PageProviderDefinition def, String folderId, boolean ascending)
+            throws Exception {
+        HashMap<String, Serializable> props = new HashMap<String, Serializable>();
+        props.put(CoreQueryDocumentPageProvider.CORE_SESSION_PROPERTY,
+                (AbstractSession) session);
+        List<SortInfo> sortInfos = Arrays.asList(new SortInfo("dc:title",
+                ascending));
+        PageProvider<DocumentModel> offsetPP = (PageProvider<DocumentModel>) pps.getPageProvider(
+                CURRENT_DOCUMENT_CHILDREN_KEYSET, def, null, sortInfos,
+                Long.valueOf(0), Long.valueOf(0), props, folderId, folderId);
+        List<DocumentModel> all = offsetPP.getCurrentPage();
+        assertEquals(7, all.size());
+
+        PageProvider<DocumentModel> pp = (PageProvider<DocumentModel>) pps.getPageProvider(
+                CURRENT_DOCUMENT_CHILDREN_KEYSET, def, null, sortInfos, null,
+                Long.valueOf(0), props, folderId, folderId);
+        List<String> ids = new ArrayList<String>();
+        for (int page = 0; page < 4; page++) {
+            for (DocumentModel doc : pp.getCurrentPage()) {
+                ids.add(doc.getId());
+            }
+            pp.nextPage();
+        }
+        List<String> expected = new ArrayList<String>();
+        for (DocumentModel doc : all) {
+            expected.add(doc.getId());
+        }
+        assertEquals(expected, ids);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testAsyncCount() throws Exception {
+        DocumentModel folder = session.createDocumentModel("/", "folder",
+                "Folder");
+        folder = session.createDocument(folder);
+        for (int i = 0; i < 5; i++) {
+            DocumentModel doc = session.createDocumentModel("/folder", "doc"
+                    + i, "File");
+            session.createDocument(doc);
+        }
+        session.save();
+
+        PageProviderService pps = Framework.getService(PageProviderService.class);
+        HashMap<String, Serializable> props = new HashMap<String, Serializable>();
+        props.put(CoreQueryDocumentPageProvider.CORE_SESSION_PROPERTY,
+                (AbstractSession) session);
+        props.put(CoreQueryDocumentPageProvider.ASYNC_COUNT_PROPERTY, "true");
+        PageProvider<DocumentModel> pp = (PageProvider<DocumentModel>) pps.getPageProvider(
+                CURRENT_DOCUMENT_CHILDREN, null, Long.valueOf(2), null, props,
+                folder.getId());
+        assertTrue(((CoreQueryDocumentPageProvider) pp).isAsyncCount());
+        final List<Long> counts = Collections.synchronizedList(new ArrayList<Long>());
+        pp.setPageProviderChangedListener(new PageProviderChangedListener() {
+            @Override
+            public void pageChanged(PageProvider pageProvider) {
+                counts.add(Long.valueOf(((CoreQueryDocumentPageProvider) pageProvider).getPublishedResultsCount()));
+            }
+
+            @Override
+            public void refreshed(PageProvider pageProvider) {
+            }
+        });
+        assertEquals(2, pp.getCurrentPage().size());
+        assertEquals(PageProvider.UNKNOWN_SIZE_AFTER_QUERY,
+                pp.getResultsCount());
+        // counted in the background, the listener being notified
+        assertTrue(AsyncResultsCounter.awaitCompletion(10, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(Long.valueOf(5)), counts);
+        assertEquals(5,
+                ((CoreQueryDocumentPageProvider) pp).getPublishedResultsCount());
+        assertEquals(5, pp.getResultsCount());
+
+        // count is kept for the following pages
+        pp.nextPage();
+        assertEquals(2, pp.getCurrentPage().size());
+        assertEquals(5, pp.getResultsCount());
+
+        // an incomplete page gives the count
+        pp.refresh();
+        pp.setCurrentPage(2);
+        assertEquals(1, pp.getCurrentPage().size());
+        assertEquals(5, pp.getResultsCount());
+    }
+
     @Test
     @SuppressWarnings("unchecked")
     public void testMergedProperties() throws Exception {
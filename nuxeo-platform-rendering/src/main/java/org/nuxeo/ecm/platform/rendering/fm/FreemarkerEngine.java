@@ -65,6 +65,8 @@ public class FreemarkerEngine implements RenderingEngine {
 
     protected ResourceTemplateLoader loader;
 
+    protected boolean streaming;
+
     public FreemarkerEngine() {
         this(null, null);
     }
@@ -143,6 +145,27 @@ public class FreemarkerEngine implements RenderingEngine {
         }
     }
 
+    /**
+     * Returns true if the rendered content is written as soon as possible,
+     * instead of being written once the whole template is rendered.
+     *
+     * @since 5.7.2
+     */
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    /**
+     * Sets the streaming mode: only the blocks of the templates are buffered,
+     * the rest of the content being written as soon as rendered. When
+     * rendering fails, part of the content may have been written already.
+     *
+     * @since 5.7.2
+     */
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
     public DocumentObjectWrapper getObjectWrapper() {
         return wrapper;
     }
@@ -188,11 +211,22 @@ public class FreemarkerEngine implements RenderingEngine {
                 template = "fs://" + template;
             }
             Template temp = cfg.getTemplate(template);
-            BlockWriter bw = new BlockWriter(temp.getName(), "",
-                    new BlockWriterRegistry());
+            BlockWriter bw;
+            if (streaming) {
+                bw = new BlockWriter(temp.getName(), "",
+                        new BlockWriterRegistry(), writer);
+            } else {
+                bw = new BlockWriter(temp.getName(), "",
+                        new BlockWriterRegistry());
+            }
             Environment env = temp.createProcessingEnvironment(input, bw,
                     wrapper);
-            env.process();
+            wrapper.beginRender();
+            try {
+                env.process();
+            } finally {
+                wrapper.endRender();
+            }
             bw.copyTo(writer);
         } catch (SocketException e) {
             log.debug("Output closed while rendering " + template);
@@ -14,6 +14,10 @@
 
 package org.nuxeo.ecm.platform.rendering.fm.adapters;
 
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
 import org.nuxeo.ecm.core.api.Blob;
 import org.nuxeo.ecm.core.api.DocumentModel;
 import org.nuxeo.ecm.core.api.model.Property;
@@ -34,28 +38,140 @@ import freemarker.template.TemplateModelException;
  */
 public class DocumentObjectWrapper extends DefaultObjectWrapper {
 
+    /**
+     * Maximum number of models cached during a rendering.
+     *
+     * @since 5.7.2
+     */
+    public static final int MAX_RENDER_CACHE_SIZE = 10000;
+
     protected final FreemarkerEngine engine;
 
+    /**
+     * @since 5.7.2
+     */
+    protected final PropertyWrapper propertyWrapper = new PropertyWrapper(this);
+
+    /**
+     * @since 5.7.2
+     */
+    protected final ThreadLocal<RenderCache> renderCache = new ThreadLocal<RenderCache>();
+
+    /**
+     * @since 5.7.2
+     */
+    protected volatile boolean useRenderCache = true;
+
     public DocumentObjectWrapper(FreemarkerEngine engine) {
         this.engine = engine;
     }
 
+    /**
+     * Returns true if the models of documents, schemas and non scalar
+     * properties are reused during a rendering.
+     *
+     * @since 5.7.2
+     */
+    public boolean isUseRenderCache() {
+        return useRenderCache;
+    }
+
+    /**
+     * Enables or disables the reuse of models during a rendering, for
+     * instance to compare the allocations with and without it.
+     *
+     * @since 5.7.2
+     */
+    public void setUseRenderCache(boolean useRenderCache) {
+        this.useRenderCache = useRenderCache;
+    }
+
+    /**
+     * Starts a rendering in the current thread: until the matching
+     * {@link #endRender()}, wrapping the same object gives the same model.
+     *
+     * @since 5.7.2
+     */
+    public void beginRender() {
+        if (!useRenderCache) {
+            return;
+        }
+        RenderCache cache = renderCache.get();
+        if (cache == null) {
+            cache = new RenderCache();
+            renderCache.set(cache);
+        }
+        cache.depth++;
+    }
+
+    /**
+     * Ends a rendering started with {@link #beginRender()}, dropping the
+     * cached models when it is not nested in another rendering.
+     *
+     * @since 5.7.2
+     */
+    public void endRender() {
+        RenderCache cache = renderCache.get();
+        if (cache != null && --cache.depth <= 0) {
+            renderCache.remove();
+        }
+    }
+
+    /**
+     * Returns the model cached for the object by the current rendering, if
+     * any.
+     *
+     * @since 5.7.2
+     */
+    protected TemplateModel getCachedModel(Object obj) {
+        RenderCache cache = renderCache.get();
+        return cache == null ? null : cache.get(obj);
+    }
+
+    /**
+     * Caches the model of the object for the current rendering, if any.
+     *
+     * @since 5.7.2
+     */
+    protected TemplateModel cacheModel(Object obj, TemplateModel model) {
+        RenderCache cache = renderCache.get();
+        if (cache != null && model != null) {
+            cache.put(obj, model);
+        }
+        return model;
+    }
+
     @Override
     public final TemplateModel wrap(Object obj) throws TemplateModelException {
         if (obj == null) {
             return null;
         }
         if (obj instanceof DocumentModel) {
-            return new DocumentTemplate(this, (DocumentModel) obj);
+            TemplateModel model = getCachedModel(obj);
+            if (model == null) {
+                model = cacheModel(obj, new DocumentTemplate(this,
+                        (DocumentModel) obj));
+            }
+            return model;
         } else if (obj instanceof SchemaTemplate.DocumentSchema) {
-            return new SchemaTemplate(this, (SchemaTemplate.DocumentSchema) obj);
+            TemplateModel model = getCachedModel(obj);
+            if (model == null) {
+                model = cacheModel(obj, new SchemaTemplate(this,
+                        (SchemaTemplate.DocumentSchema) obj));
+            }
+            return model;
         } else if (obj instanceof Property) {
             Property p = (Property) obj;
             if (p.isScalar()) {
-                return new PropertyWrapper(this).wrap(p);
+                return propertyWrapper.wrap(p);
             } else if (p.isList()) {
                 if (obj instanceof ListProperty) {
-                    return new ListPropertyTemplate(this, (ListProperty) obj);
+                    TemplateModel model = getCachedModel(obj);
+                    if (model == null) {
+                        model = cacheModel(obj, new ListPropertyTemplate(this,
+                                (ListProperty) obj));
+                    }
+                    return model;
                 } else if (obj instanceof ArrayProperty) {
                     Object value;
                     try {
@@ -81,10 +197,48 @@ public class DocumentObjectWrapper extends DefaultObjectWrapper {
                     throw new TemplateModelException(e);
                 }
             } else {
-                return new ComplexPropertyTemplate(this, (Property) obj);
+                TemplateModel model = getCachedModel(obj);
+                if (model == null) {
+                    model = cacheModel(obj, new ComplexPropertyTemplate(this,
+                            (Property) obj));
+                }
+                return model;
             }
         }
         return super.wrap(obj);
     }
 
+    /**
+     * Models of the current rendering, documents and non scalar properties
+     * being compared by identity and schemas by document and name.
+     *
+     * @since 5.7.2
+     */
+    protected static class RenderCache {
+
+        protected final Map<Object, TemplateModel> models = new IdentityHashMap<Object, TemplateModel>();
+
+        protected final Map<SchemaTemplate.DocumentSchema, TemplateModel> schemas = new HashMap<SchemaTemplate.DocumentSchema, TemplateModel>();
+
+        protected int depth;
+
+        protected TemplateModel get(Object obj) {
+            if (obj instanceof SchemaTemplate.DocumentSchema) {
+                return schemas.get(obj);
+            }
+            return models.get(obj);
+        }
+
+        protected void put(Object obj, TemplateModel model) {
+            if (models.size() + schemas.size() >= MAX_RENDER_CACHE_SIZE) {
+                return;
+            }
+            if (obj instanceof SchemaTemplate.DocumentSchema) {
+                schemas.put((SchemaTemplate.DocumentSchema) obj, model);
+            } else {
+                models.put(obj, model);
+            }
+        }
+    }
+
 }
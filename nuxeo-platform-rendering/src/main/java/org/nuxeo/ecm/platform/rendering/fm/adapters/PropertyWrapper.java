@@ -55,8 +55,13 @@ public class PropertyWrapper {
                 return wrapper.wrap(value);
             } else if (property.isList()) {
                 if (property.isContainer()) {
-                    return new ListPropertyTemplate(wrapper,
-                            (ListProperty) property);
+                    TemplateModel model = wrapper.getCachedModel(property);
+                    if (model == null) {
+                        model = wrapper.cacheModel(property,
+                                new ListPropertyTemplate(wrapper,
+                                        (ListProperty) property));
+                    }
+                    return model;
                 } else {
                     Object value;
                     try {
@@ -80,7 +85,12 @@ public class PropertyWrapper {
             } else if (property.getClass() == BlobProperty.class) {
                 return new BlobTemplate(wrapper, (Blob) property.getValue());
             } else {
-                return new ComplexPropertyTemplate(wrapper, property);
+                TemplateModel model = wrapper.getCachedModel(property);
+                if (model == null) {
+                    model = wrapper.cacheModel(property,
+                            new ComplexPropertyTemplate(wrapper, property));
+                }
+                return model;
             }
         } catch (Exception e) {
             throw new TemplateModelException(e);
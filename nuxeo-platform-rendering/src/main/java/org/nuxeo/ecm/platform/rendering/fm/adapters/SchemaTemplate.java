@@ -39,6 +39,28 @@ public class SchemaTemplate extends PropertyWrapper implements
             this.doc = doc;
             this.schemaName = schemaName;
         }
+
+        /**
+         * Schemas are equal for the same document instance.
+         *
+         * @since 5.7.2
+         */
+        @Override
+        public boolean equals(Object obj) {
+            if (obj == this) {
+                return true;
+            }
+            if (!(obj instanceof DocumentSchema)) {
+                return false;
+            }
+            DocumentSchema other = (DocumentSchema) obj;
+            return doc == other.doc && schemaName.equals(other.schemaName);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(doc) + schemaName.hashCode();
+        }
     }
 
     public SchemaTemplate(DocumentObjectWrapper wrapper, DocumentSchema schema) {
@@ -53,12 +53,33 @@ public class BlockWriter extends Writer {
     // the extended base template will be parsed)
     boolean suppressOutput = false;
 
+    // the writer receiving the content of a root block as soon as it does not
+    // depend on blocks rendered later - null if the content is buffered until
+    // copyTo is called
+    Writer out;
+
     public BlockWriter(String page, String name, BlockWriterRegistry reg) {
         this.reg = reg;
         this.name = name;
         this.page = page;
     }
 
+    /**
+     * Creates a root block writer streaming its content to the given writer.
+     * <p>
+     * Only the content of the blocks, and the content following a block
+     * depending on blocks not yet rendered, are buffered. The rest is written
+     * to the given writer, {@link #copyTo(Writer)} writing the remaining
+     * content once rendering is done.
+     *
+     * @since 5.7.2
+     */
+    public BlockWriter(String page, String name, BlockWriterRegistry reg,
+            Writer out) {
+        this(page, name, reg);
+        this.out = out;
+    }
+
     public final BlockWriterRegistry getRegistry() {
         return reg;
     }
@@ -82,7 +103,10 @@ public class BlockWriter extends Writer {
 
     @Override
     public void flush() throws IOException {
-        // do nothing
+        if (out != null && !suppressOutput) {
+            flushBlocks();
+            out.flush();
+        }
     }
 
     public boolean isEmpty() {
@@ -92,12 +116,20 @@ public class BlockWriter extends Writer {
     @Override
     public void write(char[] cbuf, int off, int len) throws IOException {
         if (!suppressOutput) {
-            buf.append(cbuf, off, len);
+            if (out != null && flushBlocks()) {
+                out.write(cbuf, off, len);
+            } else {
+                buf.append(cbuf, off, len);
+            }
         }
     }
 
-    public void writeBlock(BlockWriter bw) {
+    public void writeBlock(BlockWriter bw) throws IOException {
         if (!suppressOutput) {
+            if (out != null) {
+                // previous blocks are rendered
+                flushBlocks();
+            }
             // add the current buffer to the segments list
             segments.add(buf.toString());
             // reset buffer
@@ -119,6 +151,63 @@ public class BlockWriter extends Writer {
         }
     }
 
+    /**
+     * Writes to the target writer the segments and blocks that are rendered
+     * and don't depend on blocks not yet rendered.
+     *
+     * @return true if nothing is left in the buffer
+     */
+    protected boolean flushBlocks() throws IOException {
+        if (segments.isEmpty()) {
+            return buf.length() == 0;
+        }
+        int i = 0;
+        for (int len = segments.size(); i < len; i++) {
+            BlockWriter bw = getChild(blocks.get(i));
+            if (bw == null || !bw.isResolved()) {
+                break;
+            }
+            out.write(segments.get(i));
+            try {
+                bw.copyTo(out);
+            } catch (TemplateException e) {
+                throw new IOException(e);
+            }
+        }
+        if (i == 0) {
+            return false;
+        }
+        segments.subList(0, i).clear();
+        blocks.subList(0, i).clear();
+        if (!segments.isEmpty()) {
+            return false;
+        }
+        out.write(buf.toString());
+        buf.setLength(0);
+        return true;
+    }
+
+    protected BlockWriter getChild(String key) {
+        return key == ".." ? superBlock : reg.getBlock(key);
+    }
+
+    /**
+     * Returns true if the content of this block no longer depends on blocks
+     * to be rendered.
+     */
+    protected boolean isResolved() {
+        if (ifBlockDefined != null && reg.getBlock(ifBlockDefined) == null) {
+            return false;
+        }
+        for (String key : blocks) {
+            BlockWriter bw = getChild(key);
+            if (bw == null || !bw.isResolved()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     public void copyTo(Writer writer) throws TemplateException, IOException {
         // check first if you need to suppress this block
         if (ifBlockDefined != null) {
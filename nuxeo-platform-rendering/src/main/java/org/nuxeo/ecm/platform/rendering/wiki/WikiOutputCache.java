@@ -0,0 +1,165 @@
+/*
+ * (C) Copyright 2013 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ */
+package org.nuxeo.ecm.platform.rendering.wiki;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of the output of a {@link WikiSerializer}, keyed by a hash of the
+ * wiki content, so that unchanged pages are not parsed again.
+ * <p>
+ * The cache keeps the most recently used outputs, and is cleared when the
+ * filters, macros or expressions of the serializer change.
+ *
+ * @since 5.7.2
+ */
+public class WikiOutputCache {
+
+    protected static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    protected volatile int maxSize;
+
+    protected final Map<String, String> entries;
+
+    protected final AtomicLong hitCount = new AtomicLong();
+
+    protected final AtomicLong missCount = new AtomicLong();
+
+    protected final AtomicLong invalidationCount = new AtomicLong();
+
+    /**
+     * @param maxSize the maximum number of outputs kept, 0 disabling the cache
+     */
+    public WikiOutputCache(int maxSize) {
+        this.maxSize = maxSize;
+        entries = new LinkedHashMap<String, String>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > WikiOutputCache.this.maxSize;
+            }
+        };
+    }
+
+    /**
+     * Returns the cache key of the given wiki content: the hex encoded SHA-1
+     * digest of its UTF-8 bytes.
+     */
+    public static String getKey(String content) {
+        byte[] digest;
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            digest = md.digest(content.getBytes("UTF-8"));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        char[] chars = new char[digest.length * 2];
+        for (int i = 0; i < digest.length; i++) {
+            chars[2 * i] = HEX_DIGITS[(digest[i] >> 4) & 0xf];
+            chars[2 * i + 1] = HEX_DIGITS[digest[i] & 0xf];
+        }
+        return new String(chars);
+    }
+
+    public boolean isEnabled() {
+        return maxSize > 0;
+    }
+
+    /**
+     * Returns the cached output for the given key, or null if not cached.
+     */
+    public String get(String key) {
+        String output;
+        synchronized (entries) {
+            output = entries.get(key);
+        }
+        if (output == null) {
+            missCount.incrementAndGet();
+        } else {
+            hitCount.incrementAndGet();
+        }
+        return output;
+    }
+
+    /**
+     * Returns the number of invalidations, to be read before serializing an
+     * output passed to {@link #put}.
+     */
+    public long getGeneration() {
+        return invalidationCount.get();
+    }
+
+    /**
+     * Caches an output for the given key, unless the cache was invalidated
+     * since the given generation was read, the output being possibly stale.
+     */
+    public void put(String key, String output, long generation) {
+        synchronized (entries) {
+            if (maxSize > 0 && generation == invalidationCount.get()) {
+                entries.put(key, output);
+            }
+        }
+    }
+
+    /**
+     * Drops all the cached outputs.
+     */
+    public void invalidate() {
+        synchronized (entries) {
+            entries.clear();
+            invalidationCount.incrementAndGet();
+        }
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Sets the maximum number of outputs kept, 0 disabling the cache.
+     */
+    public void setMaxSize(int maxSize) {
+        synchronized (entries) {
+            this.maxSize = maxSize;
+            entries.clear();
+            invalidationCount.incrementAndGet();
+        }
+    }
+
+    public int getSize() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+}
@@ -16,14 +16,19 @@ package org.nuxeo.ecm.platform.rendering.wiki;
 
 import java.io.IOException;
 import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
 import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.nuxeo.ecm.platform.rendering.wiki.extensions.MultiPatternFilter;
+import org.nuxeo.ecm.platform.rendering.wiki.extensions.PatternFilter;
 import org.wikimodel.wem.WikiParserException;
 import org.wikimodel.wem.common.CommonWikiParser;
 
@@ -41,6 +46,23 @@ public class WikiSerializer {
     protected final Map<String, WikiExpression> expressions = new HashMap<String, WikiExpression>();
     protected final List<WikiFilter> filters = new ArrayList<WikiFilter>();
 
+    /**
+     * Default maximum number of outputs kept by the output cache.
+     *
+     * @since 5.7.2
+     */
+    public static final int DEFAULT_CACHE_SIZE = 100;
+
+    /**
+     * @since 5.7.2
+     */
+    protected volatile List<WikiFilter> compiledFilters;
+
+    /**
+     * @since 5.7.2
+     */
+    protected final WikiOutputCache cache = new WikiOutputCache(DEFAULT_CACHE_SIZE);
+
     public WikiSerializer() {
         parser = new CommonWikiParser();
         registerMacro(new TocMacro());
@@ -48,21 +70,119 @@ public class WikiSerializer {
 
     public void registerMacro(WikiMacro macro) {
         macros.put(macro.getName(), macro);
+        cache.invalidate();
     }
 
     public void registerExpression(WikiExpression expression) {
         expressions.put(expression.getName(), expression);
+        cache.invalidate();
     }
 
     public void addFilter(WikiFilter filter) {
         filters.add(filter);
+        compiledFilters = null;
+        cache.invalidate();
+    }
+
+    /**
+     * Returns the filters to apply, consecutive pattern filters being
+     * compiled into a {@link MultiPatternFilter}, which like the filters it
+     * replaces gives the result of the first of them matching a text.
+     *
+     * @since 5.7.2
+     */
+    public List<WikiFilter> getCompiledFilters() {
+        List<WikiFilter> compiled = compiledFilters;
+        if (compiled == null) {
+            compiled = new ArrayList<WikiFilter>();
+            List<PatternFilter> patterns = new ArrayList<PatternFilter>();
+            for (WikiFilter filter : filters) {
+                if (filter instanceof PatternFilter
+                        && MultiPatternFilter.canMerge((PatternFilter) filter)) {
+                    patterns.add((PatternFilter) filter);
+                } else {
+                    addPatternFilters(compiled, patterns);
+                    compiled.add(filter);
+                }
+            }
+            addPatternFilters(compiled, patterns);
+            compiled = Collections.unmodifiableList(compiled);
+            compiledFilters = compiled;
+        }
+        return compiled;
+    }
+
+    protected static void addPatternFilters(List<WikiFilter> compiled,
+            List<PatternFilter> patterns) {
+        if (patterns.size() == 1) {
+            compiled.add(patterns.get(0));
+        } else if (patterns.size() > 1) {
+            compiled.add(new MultiPatternFilter(patterns));
+        }
+        patterns.clear();
+    }
+
+    /**
+     * Returns the cache of the outputs of this serializer.
+     *
+     * @since 5.7.2
+     */
+    public WikiOutputCache getCache() {
+        return cache;
     }
 
     public void serialize(Reader reader, Writer writer) throws IOException, WikiParserException {
+        if (cache.isEnabled()) {
+            StringBuilder sb = new StringBuilder();
+            char[] buffer = new char[4096];
+            int n;
+            while ((n = reader.read(buffer)) != -1) {
+                sb.append(buffer, 0, n);
+            }
+            serialize(sb.toString(), writer);
+            return;
+        }
         WikiSerializerHandler serializer = new WikiSerializerHandler(this);
         parser.parse(reader, serializer);
         serializer.getWriter().writeTo(serializer, writer);
         writer.flush();
     }
 
+    /**
+     * Serializes the given wiki content, the output being taken from the
+     * cache when the same content was already serialized.
+     * <p>
+     * Outputs depending on macros or expressions other than the table of
+     * contents are not cached, as they may depend on the rendering context.
+     *
+     * @since 5.7.2
+     */
+    public void serialize(String content, Writer writer) throws IOException,
+            WikiParserException {
+        String key = null;
+        long generation = 0;
+        if (cache.isEnabled()) {
+            key = WikiOutputCache.getKey(content);
+            String output = cache.get(key);
+            if (output != null) {
+                writer.write(output);
+                writer.flush();
+                return;
+            }
+            generation = cache.getGeneration();
+        }
+        WikiSerializerHandler serializer = new WikiSerializerHandler(this);
+        parser.parse(new StringReader(content), serializer);
+        if (key != null && serializer.isCacheable()) {
+            StringWriter out = new StringWriter();
+            serializer.getWriter().writeTo(serializer, out);
+            String output = out.toString();
+            cache.put(key, output, generation);
+            writer.write(output);
+        } else {
+            serializer.getWriter().writeTo(serializer, writer);
+        }
+        writer.flush();
+    }
+
 }
@@ -14,6 +14,8 @@
 
 package org.nuxeo.ecm.platform.rendering.wiki;
 
+import java.util.List;
+
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.nuxeo.ecm.platform.rendering.wiki.extensions.WikiBlockWriter;
@@ -35,15 +37,18 @@ public class WikiSerializerHandler extends PrintListener {
 
     protected final WikiSerializer engine;
     protected final StringBuilder words = new StringBuilder();
+    protected final List<WikiFilter> filters;
 
     protected Environment env;
     protected WikiWriter writer;
     protected int mark = -1; // used to mark the current buffer to be able to retrieve printed text that starts at the mark
     protected Toc toc;
+    protected boolean cacheable = true;
 
     public WikiSerializerHandler(WikiSerializer engine) {
         super(null); // cannot base on the wikiprinter - so we don't use it
         this.engine = engine;
+        filters = engine.getCompiledFilters();
         writer = new WikiWriter();
         if (engine.macros.containsKey("toc")) {
             toc =new Toc();
@@ -69,6 +74,16 @@ public class WikiSerializerHandler extends PrintListener {
         return writer;
     }
 
+    /**
+     * Returns true if the output only depends on the wiki content, no macro
+     * or expression depending on the rendering context being evaluated.
+     *
+     * @since 5.7.2
+     */
+    public boolean isCacheable() {
+        return cacheable;
+    }
+
     public Environment getEnvironment() {
         if (env == null) {
             env = Environment.getCurrentEnvironment();
@@ -90,8 +105,8 @@ public class WikiSerializerHandler extends PrintListener {
         }
         String text = words.toString();
         words.setLength(0);
-        for (int i=0, len=engine.filters.size(); i<len; i++) {
-            String result = engine.filters.get(i).apply(text);
+        for (int i=0, len=filters.size(); i<len; i++) {
+            String result = filters.get(i).apply(text);
             if (result != null) {
                 print(result);
                 return;
@@ -381,6 +396,9 @@ public class WikiSerializerHandler extends PrintListener {
         flushWords();
         WikiMacro expression = engine.macros.get(macroName);
         if (expression != null) {
+            if (!(expression instanceof TocMacro)) {
+                cacheable = false;
+            }
             try {
                 expression.eval(params, content, this);
             } catch (Exception e) {
@@ -397,6 +415,9 @@ public class WikiSerializerHandler extends PrintListener {
         flushWords();
         WikiMacro expression = engine.macros.get(macroName);
         if (expression != null) {
+            if (!(expression instanceof TocMacro)) {
+                cacheable = false;
+            }
             try {
                 expression.evalInline(params, content, this);
             } catch (Exception e) {
@@ -412,6 +433,7 @@ public class WikiSerializerHandler extends PrintListener {
         flushWords();
         WikiExpression expression = engine.expressions.get(extensionName);
         if (expression != null) {
+            cacheable = false;
             try {
                 expression.eval(params, this);
             } catch (Exception e) {
@@ -427,6 +449,7 @@ public class WikiSerializerHandler extends PrintListener {
         flushWords();
         WikiExpression expression = engine.expressions.get(extensionName);
         if (expression != null) {
+            cacheable = false;
             try {
                 expression.evalInline(params, this);
             } catch (Exception e) {
@@ -472,8 +495,8 @@ public class WikiSerializerHandler extends PrintListener {
     }
 
     protected void writeWord(String word) {
-        for (int i=0, len=engine.filters.size(); i<len; i++) {
-            String result = engine.filters.get(i).apply(word);
+        for (int i=0, len=filters.size(); i<len; i++) {
+            String result = filters.get(i).apply(word);
             if (result != null) {
                 print(result);
                 return;
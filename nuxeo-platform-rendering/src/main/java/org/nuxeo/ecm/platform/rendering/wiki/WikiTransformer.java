@@ -20,7 +20,6 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
-import java.io.StringReader;
 import java.io.StringWriter;
 import java.io.Writer;
 import java.net.URL;
@@ -71,6 +70,18 @@ public class WikiTransformer implements TemplateDirectiveModel {
         }
     }
 
+    /**
+     * @since 5.7.2
+     */
+    public void transform(String content, Writer writer)
+            throws RenderingException {
+        try {
+            serializer.serialize(content, writer);
+        } catch (Exception e) {
+            throw new RenderingException(e);
+        }
+    }
+
     public void transform(URL url, Writer writer)
             throws RenderingException {
         Reader reader = null;
@@ -131,7 +142,7 @@ public class WikiTransformer implements TemplateDirectiveModel {
                 StringWriter writer = new StringWriter();
                 body.render(writer);
                 String content = writer.getBuffer().toString();
-                transform(new StringReader(content), env.getOut());
+                transform(content, env.getOut());
             } else {
                 if (src.contains(":/")) {
                     URL url = engine.getResourceLocator().getResourceURL(src);
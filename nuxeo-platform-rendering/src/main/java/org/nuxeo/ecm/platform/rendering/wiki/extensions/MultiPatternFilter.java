@@ -0,0 +1,135 @@
+/*
+ * (C) Copyright 2013 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ */
+package org.nuxeo.ecm.platform.rendering.wiki.extensions;
+
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.nuxeo.ecm.platform.rendering.wiki.WikiFilter;
+
+/**
+ * Pattern filters compiled into a single pattern, so that content matched by
+ * none of them is scanned once whatever the number of filters.
+ * <p>
+ * The result is the one of the filters applied in order, the first one
+ * matching the content winning: the compiled pattern finds that filter in a
+ * single pass, then only its matches are replaced, using its own pattern and
+ * replacement.
+ *
+ * @since 5.7.2
+ */
+public class MultiPatternFilter implements WikiFilter {
+
+    protected static final String FLAG_CHARS = "imsuxd";
+
+    protected static final int[] FLAGS = { Pattern.CASE_INSENSITIVE,
+            Pattern.MULTILINE, Pattern.DOTALL, Pattern.UNICODE_CASE,
+            Pattern.COMMENTS, Pattern.UNIX_LINES };
+
+    protected final Pattern pattern;
+
+    protected final int[] groups;
+
+    protected final PatternFilter[] filters;
+
+    /**
+     * @param filters the filters to compile, in the order they are applied,
+     *            all accepted by {@link #canMerge(PatternFilter)}
+     */
+    public MultiPatternFilter(List<PatternFilter> filters) {
+        StringBuilder sb = new StringBuilder();
+        this.filters = filters.toArray(new PatternFilter[filters.size()]);
+        groups = new int[filters.size()];
+        int group = 1;
+        for (int i = 0; i < filters.size(); i++) {
+            PatternFilter filter = filters.get(i);
+            if (i > 0) {
+                sb.append('|');
+            }
+            sb.append("((?").append(getFlags(filter.pattern)).append(':');
+            sb.append(filter.pattern.pattern()).append("))");
+            groups[i] = group;
+            group += filter.pattern.matcher("").groupCount() + 1;
+        }
+        pattern = Pattern.compile(sb.toString());
+    }
+
+    /**
+     * Returns true if the filter can be compiled with other ones: it has a
+     * replacement and its pattern uses neither back references, the end of
+     * the previous match nor flags without an inline equivalent.
+     */
+    public static boolean canMerge(PatternFilter filter) {
+        if (filter.pattern == null || filter.replacement == null
+                || getFlags(filter.pattern) == null) {
+            return false;
+        }
+        String regex = filter.pattern.pattern();
+        for (int i = 0; i < regex.length() - 1; i++) {
+            if (regex.charAt(i) == '\\') {
+                char c = regex.charAt(++i);
+                if ((c >= '1' && c <= '9') || c == 'G') {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the inline flags equivalent to the flags of the pattern, or
+     * null if there are none.
+     */
+    protected static String getFlags(Pattern pattern) {
+        int flags = pattern.flags();
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < FLAGS.length; i++) {
+            if ((flags & FLAGS[i]) != 0) {
+                sb.append(FLAG_CHARS.charAt(i));
+                flags &= ~FLAGS[i];
+            }
+        }
+        return flags == 0 ? sb.toString() : null;
+    }
+
+    @Override
+    public String apply(String content) {
+        Matcher matcher = pattern.matcher(content);
+        // at each position the compiled pattern reports the first filter
+        // matching there; resuming right after the position of a match
+        // rather than after its end, every position where some filter
+        // matches is seen in a single pass and a match of a previous filter
+        // cannot be hidden by a longer match of a later one
+        int first = groups.length;
+        int from = 0;
+        while (first > 0 && from <= content.length() && matcher.find(from)) {
+            for (int i = 0; i < first; i++) {
+                if (matcher.start(groups[i]) != -1) {
+                    first = i;
+                    break;
+                }
+            }
+            from = matcher.start() + 1;
+        }
+        if (first == groups.length) {
+            return null;
+        }
+        return filters[first].apply(content);
+    }
+
+}
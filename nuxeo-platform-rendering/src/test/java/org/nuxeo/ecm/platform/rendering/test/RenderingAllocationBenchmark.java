@@ -0,0 +1,197 @@
+/*
+ * (C) Copyright 2013 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ */
+package org.nuxeo.ecm.platform.rendering.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeNotNull;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.Before;
+import org.junit.Test;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.impl.DataModelImpl;
+import org.nuxeo.ecm.core.api.impl.DocumentModelImpl;
+import org.nuxeo.ecm.core.api.model.DocumentPart;
+import org.nuxeo.ecm.platform.rendering.fm.FreemarkerEngine;
+import org.nuxeo.runtime.test.NXRuntimeTestCase;
+
+/**
+ * Measures the memory allocated per rendered document with and without the
+ * wrapper render cache.
+ * <p>
+ * Skipped unless the {@value #BENCHMARK_PROPERTY} system property is true,
+ * run it with
+ * {@code mvn test -Dtest=RenderingAllocationBenchmark -Dnuxeo.rendering.benchmark=true}.
+ * The allocation is measured with the thread allocation counter of the
+ * HotSpot JVM, and the benchmark is skipped on other JVMs.
+ *
+ * @since 5.7.2
+ */
+public class RenderingAllocationBenchmark extends NXRuntimeTestCase {
+
+    private static final Log log = LogFactory.getLog(RenderingAllocationBenchmark.class);
+
+    public static final String BENCHMARK_PROPERTY = "nuxeo.rendering.benchmark";
+
+    protected static final int DOCS = 200;
+
+    protected static final int WARMUP = 50;
+
+    protected static final int ITERATIONS = 200;
+
+    protected FreemarkerEngine engine;
+
+    protected Map<String, Object> input;
+
+    protected Method getThreadAllocatedBytes;
+
+    @Override
+    @Before
+    public void setUp() throws Exception {
+        assumeTrue(Boolean.getBoolean(BENCHMARK_PROPERTY));
+        getThreadAllocatedBytes = getAllocationCounter();
+        assumeNotNull(getThreadAllocatedBytes);
+
+        super.setUp();
+        deployBundle("org.nuxeo.ecm.core.schema");
+        deployContrib("org.nuxeo.ecm.platform.rendering.tests",
+                "OSGI-INF/test-schema.xml");
+
+        engine = new FreemarkerEngine();
+        engine.setResourceLocator(new MyResourceLocator());
+
+        List<DocumentModel> docs = new ArrayList<DocumentModel>();
+        for (int i = 0; i < DOCS; i++) {
+            DocumentModelImpl doc = new DocumentModelImpl("/root/folder",
+                    "doc" + i, "File");
+            doc.addDataModel(new DataModelImpl("dublincore"));
+            DocumentPart part = doc.getPart("dublincore");
+            part.get("title").setValue("Title of document " + i);
+            part.get("description").setValue("Description of document " + i);
+            part.get("creator").setValue("Administrator");
+            part.get("subjects").setValue(new String[] { "a", "b", "c" });
+            docs.add(doc);
+        }
+        input = new HashMap<String, Object>();
+        input.put("docs", docs);
+    }
+
+    /**
+     * Returns the method giving the bytes allocated by a thread, or null if
+     * the JVM does not provide it.
+     */
+    protected static Method getAllocationCounter() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        try {
+            Method method = bean.getClass().getMethod(
+                    "getThreadAllocatedBytes", long.class);
+            method.setAccessible(true);
+            method.invoke(bean, Long.valueOf(Thread.currentThread().getId()));
+            return method;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    @Test
+    public void benchmark() throws Exception {
+        // same output either way
+        engine.getObjectWrapper().setUseRenderCache(false);
+        String expected = render(new StringWriter()).toString();
+        engine.getObjectWrapper().setUseRenderCache(true);
+        assertEquals(expected, render(new StringWriter()).toString());
+
+        long without = measure(false);
+        long with = measure(true);
+        log.info(String.format("Allocated per document: %d bytes without"
+                + " render cache, %d bytes with render cache",
+                Long.valueOf(without), Long.valueOf(with)));
+        assertTrue(String.format(
+                "Render cache allocates more: %d bytes instead of %d", with,
+                without), with <= without);
+    }
+
+    /**
+     * Returns the bytes allocated per rendered document.
+     */
+    protected long measure(boolean useRenderCache) throws Exception {
+        engine.getObjectWrapper().setUseRenderCache(useRenderCache);
+        try {
+            for (int i = 0; i < WARMUP; i++) {
+                render(NullWriter.INSTANCE);
+            }
+            long before = getAllocatedBytes();
+            for (int i = 0; i < ITERATIONS; i++) {
+                render(NullWriter.INSTANCE);
+            }
+            long after = getAllocatedBytes();
+            return (after - before) / ((long) ITERATIONS * DOCS);
+        } finally {
+            engine.getObjectWrapper().setUseRenderCache(true);
+        }
+    }
+
+    protected long getAllocatedBytes() throws Exception {
+        Object res = getThreadAllocatedBytes.invoke(
+                ManagementFactory.getThreadMXBean(),
+                Long.valueOf(Thread.currentThread().getId()));
+        return ((Long) res).longValue();
+    }
+
+    protected Writer render(Writer writer) throws Exception {
+        engine.render("testdata/list.ftl", input, writer);
+        return writer;
+    }
+
+    /**
+     * Discards the output, so that only the rendering allocates.
+     */
+    protected static class NullWriter extends Writer {
+
+        protected static final NullWriter INSTANCE = new NullWriter();
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+        }
+
+        @Override
+        public void write(String str, int off, int len) {
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+}
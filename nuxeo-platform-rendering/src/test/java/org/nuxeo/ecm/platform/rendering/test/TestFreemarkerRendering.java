@@ -15,11 +15,14 @@
 package org.nuxeo.ecm.platform.rendering.test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 
 import java.io.FileInputStream;
 import java.io.InputStream;
 import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
+import java.io.Writer;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -34,6 +37,7 @@ import org.nuxeo.ecm.core.api.impl.blob.StreamingBlob;
 import org.nuxeo.ecm.core.api.model.DocumentPart;
 import org.nuxeo.ecm.core.schema.Prefetch;
 import org.nuxeo.ecm.platform.rendering.fm.FreemarkerEngine;
+import org.nuxeo.ecm.platform.rendering.fm.adapters.DocumentObjectWrapper;
 import org.nuxeo.ecm.platform.rendering.wiki.WikiTransformer;
 import org.nuxeo.ecm.platform.rendering.wiki.extensions.FreemarkerMacro;
 import org.nuxeo.ecm.platform.rendering.wiki.extensions.PatternFilter;
@@ -78,6 +82,32 @@ public class TestFreemarkerRendering extends NXRuntimeTestCase {
 
     @Test
     public void testRendering() throws Exception {
+        checkRendering();
+    }
+
+    @Test
+    public void testStreamingRendering() throws Exception {
+        engine.setStreaming(true);
+        checkRendering();
+
+        // templates without blocks are not buffered: the content is written
+        // when the rendering flushes its output
+        final StringBuilder flushed = new StringBuilder();
+        Writer writer = new StringWriter() {
+            @Override
+            public void flush() {
+                flushed.setLength(0);
+                flushed.append(toString());
+            }
+        };
+        Map<String, Object> input = new HashMap<String, Object>();
+        input.put("parameter", "\u00e9/");
+        engine.render("testdata/url.ftl", input, writer);
+        assertEquals("<p>http://google.com?q=%C3%A9%2F</p>", writer.toString());
+        assertEquals(writer.toString(), flushed.toString());
+    }
+
+    protected void checkRendering() throws Exception {
         DocumentModelImpl doc1 = new DocumentModelImpl(null, "File", null,
                 new Path("/root/folder/wiki1"), null, null, null, new String[] {
                         "dublincore", "file" }, null, null, "default");
@@ -136,6 +166,31 @@ public class TestFreemarkerRendering extends NXRuntimeTestCase {
         // }
     }
 
+    @Test
+    public void testWrapperRenderCache() throws Exception {
+        DocumentModelImpl doc = new DocumentModelImpl("/root/folder/wiki1",
+                "Test Doc", "File");
+        doc.addDataModel(new DataModelImpl("dublincore"));
+        doc.getPart("dublincore").get("title").setValue("The title");
+        DocumentObjectWrapper wrapper = engine.getObjectWrapper();
+
+        // outside of a rendering, models are not kept
+        assertNotSame(wrapper.wrap(doc), wrapper.wrap(doc));
+
+        wrapper.beginRender();
+        try {
+            assertSame(wrapper.wrap(doc), wrapper.wrap(doc));
+            DocumentPart part = doc.getPart("dublincore");
+            assertSame(wrapper.wrap(part), wrapper.wrap(part));
+            // scalar values are cheap to wrap, they are not kept
+            Object title = doc.getPropertyValue("dc:title");
+            assertNotSame(wrapper.wrap(title), wrapper.wrap(title));
+        } finally {
+            wrapper.endRender();
+        }
+        assertNotSame(wrapper.wrap(doc), wrapper.wrap(doc));
+    }
+
     @Test
     public void testUrlEscaping() throws Exception {
         StringWriter writer = new StringWriter();
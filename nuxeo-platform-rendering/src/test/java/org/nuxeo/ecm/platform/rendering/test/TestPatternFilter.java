@@ -17,6 +17,9 @@ package org.nuxeo.ecm.platform.rendering.test;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
+import java.util.Arrays;
+
+import org.nuxeo.ecm.platform.rendering.wiki.extensions.MultiPatternFilter;
 import org.nuxeo.ecm.platform.rendering.wiki.extensions.PatternFilter;
 
 public class TestPatternFilter {
@@ -36,4 +39,64 @@ public class TestPatternFilter {
         assertNull(filter.apply("NXP1234"));
     }
 
+    @Test
+    public void testMultiPattern() {
+        PatternFilter italic = new PatternFilter("_([-A-Za-z0-9]+)_",
+                "<i>$1</i>");
+        PatternFilter link = new PatternFilter("[A-Z]+[a-z]+[A-Z][A-Za-z]*",
+                "<link>$0</link>");
+        PatternFilter jira = new PatternFilter("NXP-([0-9]+)",
+                "<a href=\"http://jira.nuxeo.org/browse/$0\">\\$$1</a>");
+        assertTrue(MultiPatternFilter.canMerge(italic));
+        assertTrue(MultiPatternFilter.canMerge(jira));
+        assertFalse(MultiPatternFilter.canMerge(new PatternFilter("(a)\\1",
+                "b")));
+        assertFalse(MultiPatternFilter.canMerge(new PatternFilter("\\Ga",
+                "b")));
+
+        MultiPatternFilter filter = new MultiPatternFilter(Arrays.asList(
+                italic, link, jira));
+        for (String word : new String[] { "_word_", "MyName", "NXP-1234",
+                "nothing" }) {
+            String expected = italic.apply(word);
+            if (expected == null) {
+                expected = link.apply(word);
+            }
+            if (expected == null) {
+                expected = jira.apply(word);
+            }
+            assertEquals(expected, filter.apply(word));
+        }
+        assertNull(filter.apply("nothing"));
+        // only the first filter matching the content is applied
+        assertEquals("MyName,<i>word</i>", filter.apply("MyName,_word_"));
+        assertEquals("<link>MyName</link>,NXP-1",
+                filter.apply("MyName,NXP-1"));
+    }
+
+    @Test
+    public void testMultiPatternOverlappingFilters() {
+        // the second filter matches first in the compiled pattern and hides
+        // the match of the first one, which must still win
+        PatternFilter inner = new PatternFilter("bc", "[$0]");
+        PatternFilter outer = new PatternFilter("abcd", "<$0>");
+        MultiPatternFilter filter = new MultiPatternFilter(Arrays.asList(
+                inner, outer));
+        assertEquals("a[bc]d", filter.apply("abcd"));
+        assertEquals("a[bc]d,a[bc]", filter.apply("abcd,abc"));
+        // in the other order the outer filter wins, the inner one is ignored
+        filter = new MultiPatternFilter(Arrays.asList(outer, inner));
+        assertEquals("<abcd>,abc", filter.apply("abcd,abc"));
+    }
+
+    @Test
+    public void testMultiPatternFlags() {
+        // inline flags do not apply to the other filters
+        MultiPatternFilter filter = new MultiPatternFilter(Arrays.asList(
+                new PatternFilter("(?i)nxp-[0-9]+", "<b>$0</b>"),
+                new PatternFilter("x", "y")));
+        assertEquals("<b>nxp-1</b>Xx", filter.apply("nxp-1Xx"));
+        assertEquals("Xy", filter.apply("Xx"));
+    }
+
 }
@@ -18,6 +18,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.io.StringReader;
 import java.io.StringWriter;
 
 import org.junit.Test;
@@ -88,4 +89,29 @@ public class TestWiki {
         System.out.println(out);
     }
 
+    @Test
+    public void testOutputCache() throws Exception {
+        WikiSerializer engine = new WikiSerializer();
+        engine.addFilter(new PatternFilter("[A-Z]+[a-z]+[A-Z][A-Za-z]*", "<link>$0</link>"));
+        engine.addFilter(new PatternFilter("NXP-[0-9]+",
+                "<a href=\"http://jira.nuxeo.org/browse/$0\">$0</a>"));
+        String content = "{toc}\n= Title =\nSee MyPage and NXP-1234";
+
+        StringWriter writer = new StringWriter();
+        engine.serialize(content, writer);
+        String out = writer.toString();
+        assertTrue(out.contains("<link>MyPage</link>"));
+        assertEquals(0, engine.getCache().getHitCount());
+        assertEquals(1, engine.getCache().getSize());
+
+        writer = new StringWriter();
+        engine.serialize(new StringReader(content), writer);
+        assertEquals(out, writer.toString());
+        assertEquals(1, engine.getCache().getHitCount());
+
+        // changing the filters drops the cached outputs
+        engine.addFilter(new PatternFilter("Title", "Header"));
+        assertEquals(0, engine.getCache().getSize());
+    }
+
 }
@@ -0,0 +1,6 @@
+<#list docs as doc>
+<h2>${doc.dublincore.title}</h2>
+<p>${doc.dublincore.description} (${doc.dublincore.creator})</p>
+<p><#list doc.dublincore.subjects as subject>${subject} </#list></p>
+<a href="${doc.path}" title="${doc.dublincore.title}">${doc.name}</a>
+</#list>
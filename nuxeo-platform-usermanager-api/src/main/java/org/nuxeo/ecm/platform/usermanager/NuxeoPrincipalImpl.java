@@ -22,7 +22,7 @@ package org.nuxeo.ecm.platform.usermanager;
 import java.security.Principal;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
@@ -33,7 +33,6 @@ import org.nuxeo.ecm.core.api.ClientException;
 import org.nuxeo.ecm.core.api.ClientRuntimeException;
 import org.nuxeo.ecm.core.api.DataModel;
 import org.nuxeo.ecm.core.api.DocumentModel;
-import org.nuxeo.ecm.core.api.NuxeoGroup;
 import org.nuxeo.ecm.core.api.NuxeoPrincipal;
 import org.nuxeo.ecm.core.api.impl.DataModelImpl;
 import org.nuxeo.ecm.core.api.impl.DocumentModelImpl;
@@ -318,54 +317,47 @@ public class NuxeoPrincipalImpl implements NuxeoPrincipal {
         } catch (Exception e) {
             throw new ClientException(e);
         }
-        Set<String> checkedGroups = new HashSet<String>();
-        List<String> groupsToProcess = new ArrayList<String>();
-        List<String> resultingGroups = new ArrayList<String>();
-        groupsToProcess.addAll(getGroups());
-
-        while (!groupsToProcess.isEmpty()) {
-            String groupName = groupsToProcess.remove(0);
-            if (!checkedGroups.contains(groupName)) {
-                checkedGroups.add(groupName);
-                NuxeoGroup nxGroup = null;
-                if (userManager != null) {
-                    try {
-                        nxGroup = userManager.getGroup(groupName);
-                    } catch (DirectoryException de) {
-                        if (virtualGroups.contains(groupName)) {
-                            // do not fail while retrieving a virtual group
-                            log.warn("Failed to get group '"
-                                    + groupName
-                                    + "' due to '"
-                                    + de.getMessage()
-                                    + "': permission resolution involving groups may not be correct");
-                            nxGroup = null;
-                        } else {
-                            throw de;
-                        }
-                    }
-                }
-                if (nxGroup == null) {
+        Set<String> resultingGroups = new LinkedHashSet<String>();
+        for (String groupName : new LinkedHashSet<String>(getGroups())) {
+            if (resultingGroups.contains(groupName)) {
+                continue;
+            }
+            List<String> groupAndAncestors = null;
+            if (userManager != null) {
+                try {
+                    // resolved at once from the group hierarchy known by the
+                    // user manager instead of fetching each ancestor group
+                    groupAndAncestors = userManager.getGroupAndAncestors(groupName);
+                } catch (DirectoryException de) {
                     if (virtualGroups.contains(groupName)) {
-                        // just add the virtual group as is
-                        resultingGroups.add(groupName);
-                    } else if (userManager != null) {
-                        // XXX this should only happens in case of
-                        // inconsistency in DB
-                        log.error("User " + getName() + " references the "
-                                + groupName + " group that does not exists");
+                        // do not fail while retrieving a virtual group
+                        log.warn("Failed to get group '"
+                                + groupName
+                                + "' due to '"
+                                + de.getMessage()
+                                + "': permission resolution involving groups may not be correct");
+                        groupAndAncestors = null;
+                    } else {
+                        throw de;
                     }
-                } else {
-                    groupsToProcess.addAll(nxGroup.getParentGroups());
-                    // fetch the group name from the returned entry in case
-                    // it does not have the same case than the actual entry in
-                    // directory (for case insensitive directories)
-                    resultingGroups.add(nxGroup.getName());
-                    // XXX: maybe remove group from virtual groups if it
-                    // actually exists? otherwise it would be ignored when
-                    // setting groups
                 }
             }
+            if (groupAndAncestors == null) {
+                if (virtualGroups.contains(groupName)) {
+                    // just add the virtual group as is
+                    resultingGroups.add(groupName);
+                } else if (userManager != null) {
+                    // XXX this should only happens in case of
+                    // inconsistency in DB
+                    log.error("User " + getName() + " references the "
+                            + groupName + " group that does not exists");
+                }
+            } else {
+                // group names are the ones returned from the directory in
+                // case they do not have the same case than the actual entry
+                // (for case insensitive directories)
+                resultingGroups.addAll(groupAndAncestors);
+            }
         }
 
         allGroups = new ArrayList<String>(resultingGroups);
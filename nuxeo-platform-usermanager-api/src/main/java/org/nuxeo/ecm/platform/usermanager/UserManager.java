@@ -295,6 +295,16 @@ public interface UserManager extends Authenticator, Serializable {
     List<String> getUsersInGroupAndSubGroups(String groupId)
             throws ClientException;
 
+    /**
+     * Returns the given group followed by all the groups it is a direct or
+     * indirect subgroup of, using the group names as stored in the directory.
+     * 
+     * @param groupName ID of the group
+     * @return the group and its ancestors, or null if the group does not exist
+     * @since 5.7.2
+     */
+    List<String> getGroupAndAncestors(String groupName) throws ClientException;
+
     /**
      * Returns true is users referential is read only (ie : LDAP) -> can not add
      * users -> can not delete users.
@@ -187,6 +187,23 @@ public class UserManagerDescriptor implements Serializable {
     @XNode("digestAuthRealm")
     public String digestAuthRealm;
 
+    /**
+     * Maximum number of principals kept by the user manager, the cache being
+     * disabled when not set.
+     *
+     * @since 5.7.2
+     */
+    @XNode("principalCache/maxSize")
+    public Integer principalCacheMaxSize;
+
+    /**
+     * Time to live of the cached principals, in seconds.
+     *
+     * @since 5.7.2
+     */
+    @XNode("principalCache/timeout")
+    public Integer principalCacheTimeout;
+
     /**
      * Merge with data from another descriptor.
      */
@@ -297,6 +314,12 @@ public class UserManagerDescriptor implements Serializable {
         if (other.digestAuthRealm != null) {
             digestAuthRealm = other.digestAuthRealm;
         }
+        if (other.principalCacheMaxSize != null) {
+            principalCacheMaxSize = other.principalCacheMaxSize;
+        }
+        if (other.principalCacheTimeout != null) {
+            principalCacheTimeout = other.principalCacheTimeout;
+        }
     }
 
 }
@@ -121,6 +121,13 @@ public class UserManagerWithComputedGroups extends UserManagerImpl {
         return grp;
     }
 
+    @Override
+    protected boolean isGroupClosureIndexEnabled() {
+        // computed groups are not in the index and may override or contain
+        // the directory groups
+        return !activateComputedGroup();
+    }
+
     @Override
     public List<String> getGroupIds() throws ClientException {
         List<String> ids = super.getGroupIds();
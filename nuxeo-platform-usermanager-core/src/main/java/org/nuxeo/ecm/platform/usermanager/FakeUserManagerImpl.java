@@ -340,6 +340,11 @@ public class FakeUserManagerImpl implements UserManager {
         throw new UnsupportedOperationException();
     }
 
+    public List<String> getGroupAndAncestors(String groupName)
+            throws ClientException {
+        throw new UnsupportedOperationException();
+    }
+
     public List<String> getGroupIds() throws ClientException {
         throw new UnsupportedOperationException();
     }
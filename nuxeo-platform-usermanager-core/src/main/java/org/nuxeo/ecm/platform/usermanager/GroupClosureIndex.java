@@ -0,0 +1,308 @@
+/*
+ * (C) Copyright 2013 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ */
+
+package org.nuxeo.ecm.platform.usermanager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * In-memory index of the group hierarchy giving the transitive closure of the
+ * "subgroup of" relation.
+ * <p>
+ * Groups are numbered with compact int ids and the closure of each group is
+ * kept as a {@link BitSet} of those ids, computed once on first use. An index
+ * is immutable: a group change produces a new index sharing the hierarchy of
+ * the unchanged groups, so that only the closures are to be recomputed, not
+ * the directory to be read again.
+ *
+ * @since 5.7.2
+ */
+public class GroupClosureIndex {
+
+    protected static final int[] NO_IDS = new int[0];
+
+    protected final Map<String, Integer> ids;
+
+    protected final Map<String, Integer> lowerCaseIds;
+
+    /** Group names by id, null for deleted groups. */
+    protected final String[] names;
+
+    protected final int[][] parents;
+
+    protected final int[][] children;
+
+    protected final ConcurrentMap<Integer, BitSet> ancestors = new ConcurrentHashMap<Integer, BitSet>();
+
+    protected final ConcurrentMap<Integer, BitSet> descendants = new ConcurrentHashMap<Integer, BitSet>();
+
+    protected GroupClosureIndex(Map<String, Integer> ids, String[] names,
+            int[][] parents, int[][] children) {
+        this.ids = ids;
+        this.names = names;
+        this.parents = parents;
+        this.children = children;
+        lowerCaseIds = new HashMap<String, Integer>();
+        for (Entry<String, Integer> entry : ids.entrySet()) {
+            lowerCaseIds.put(entry.getKey().toLowerCase(), entry.getValue());
+        }
+    }
+
+    /**
+     * Builds the index from the parent groups of all the groups, parent groups
+     * not present as keys being ignored.
+     */
+    public static GroupClosureIndex build(Map<String, List<String>> parentGroups) {
+        int size = parentGroups.size();
+        Map<String, Integer> ids = new HashMap<String, Integer>();
+        String[] names = new String[size];
+        for (String name : parentGroups.keySet()) {
+            names[ids.size()] = name;
+            ids.put(name, Integer.valueOf(ids.size()));
+        }
+        List<List<Integer>> childLists = new ArrayList<List<Integer>>(size);
+        for (int i = 0; i < size; i++) {
+            childLists.add(new ArrayList<Integer>(0));
+        }
+        int[][] parents = new int[size][];
+        for (int id = 0; id < size; id++) {
+            List<Integer> parentIds = new ArrayList<Integer>();
+            List<String> parentNames = parentGroups.get(names[id]);
+            if (parentNames != null) {
+                for (String parentName : parentNames) {
+                    Integer parentId = ids.get(parentName);
+                    if (parentId != null && !parentIds.contains(parentId)) {
+                        parentIds.add(parentId);
+                        childLists.get(parentId.intValue()).add(
+                                Integer.valueOf(id));
+                    }
+                }
+            }
+            parents[id] = toArray(parentIds);
+        }
+        int[][] children = new int[size][];
+        for (int id = 0; id < size; id++) {
+            children[id] = toArray(childLists.get(id));
+        }
+        return new GroupClosureIndex(ids, names, parents, children);
+    }
+
+    protected static int[] toArray(Collection<Integer> values) {
+        if (values.isEmpty()) {
+            return NO_IDS;
+        }
+        int[] array = new int[values.size()];
+        int i = 0;
+        for (Integer value : values) {
+            array[i++] = value.intValue();
+        }
+        return array;
+    }
+
+    protected Integer getId(String name) {
+        if (name == null) {
+            return null;
+        }
+        Integer id = ids.get(name);
+        if (id == null) {
+            // case insensitive directories
+            id = lowerCaseIds.get(name.toLowerCase());
+        }
+        return id;
+    }
+
+    public boolean hasGroup(String name) {
+        return getId(name) != null;
+    }
+
+    public int size() {
+        return ids.size();
+    }
+
+    /**
+     * Returns the group followed by all its ancestor groups, or null if the
+     * group is unknown.
+     */
+    public List<String> getGroupAndAncestors(String name) {
+        Integer id = getId(name);
+        if (id == null) {
+            return null;
+        }
+        return toNames(id.intValue(), getClosure(id, parents, ancestors));
+    }
+
+    /**
+     * Returns the group followed by all its descendant groups, or null if the
+     * group is unknown.
+     */
+    public List<String> getGroupAndDescendants(String name) {
+        Integer id = getId(name);
+        if (id == null) {
+            return null;
+        }
+        return toNames(id.intValue(), getClosure(id, children, descendants));
+    }
+
+    protected List<String> toNames(int id, BitSet closure) {
+        List<String> result = new ArrayList<String>(closure.cardinality() + 1);
+        result.add(names[id]);
+        for (int i = closure.nextSetBit(0); i >= 0; i = closure.nextSetBit(i + 1)) {
+            if (i != id) {
+                result.add(names[i]);
+            }
+        }
+        return result;
+    }
+
+    protected BitSet getClosure(Integer id, int[][] links,
+            ConcurrentMap<Integer, BitSet> closures) {
+        BitSet closure = closures.get(id);
+        if (closure == null) {
+            closure = new BitSet();
+            int[] stack = new int[16];
+            int top = 0;
+            stack[top++] = id.intValue();
+            while (top > 0) {
+                int current = stack[--top];
+                for (int linked : links[current]) {
+                    if (!closure.get(linked)) {
+                        // cycles are stopped by the visited bits
+                        closure.set(linked);
+                        if (top == stack.length) {
+                            stack = Arrays.copyOf(stack, top * 2);
+                        }
+                        stack[top++] = linked;
+                    }
+                }
+            }
+            closures.putIfAbsent(id, closure);
+        }
+        return closure;
+    }
+
+    /**
+     * Returns a new index where the given group, created if needed, has
+     * exactly the given parent and child groups, unknown groups being ignored.
+     */
+    public GroupClosureIndex withGroup(String name,
+            Collection<String> parentNames, Collection<String> childNames) {
+        Map<String, Integer> newIds = new HashMap<String, Integer>(ids);
+        String[] newNames = names;
+        int[][] newParents = parents.clone();
+        int[][] newChildren = children.clone();
+        Integer existing = getId(name);
+        int id;
+        if (existing == null) {
+            id = names.length;
+            newNames = Arrays.copyOf(names, id + 1);
+            newNames[id] = name;
+            newIds.put(name, Integer.valueOf(id));
+            newParents = Arrays.copyOf(newParents, id + 1);
+            newChildren = Arrays.copyOf(newChildren, id + 1);
+        } else {
+            id = existing.intValue();
+            unlink(id, newParents, newChildren);
+        }
+        newParents[id] = resolve(parentNames, id);
+        newChildren[id] = resolve(childNames, id);
+        for (int parent : newParents[id]) {
+            newChildren[parent] = add(newChildren[parent], id);
+        }
+        for (int child : newChildren[id]) {
+            newParents[child] = add(newParents[child], id);
+        }
+        return new GroupClosureIndex(newIds, newNames, newParents, newChildren);
+    }
+
+    /**
+     * Returns a new index without the given group.
+     */
+    public GroupClosureIndex withoutGroup(String name) {
+        Integer existing = getId(name);
+        if (existing == null) {
+            return this;
+        }
+        int id = existing.intValue();
+        Map<String, Integer> newIds = new HashMap<String, Integer>(ids);
+        newIds.remove(names[id]);
+        String[] newNames = names.clone();
+        newNames[id] = null;
+        int[][] newParents = parents.clone();
+        int[][] newChildren = children.clone();
+        unlink(id, newParents, newChildren);
+        newParents[id] = NO_IDS;
+        newChildren[id] = NO_IDS;
+        return new GroupClosureIndex(newIds, newNames, newParents, newChildren);
+    }
+
+    protected void unlink(int id, int[][] newParents, int[][] newChildren) {
+        for (int parent : newParents[id]) {
+            newChildren[parent] = remove(newChildren[parent], id);
+        }
+        for (int child : newChildren[id]) {
+            newParents[child] = remove(newParents[child], id);
+        }
+    }
+
+    protected int[] resolve(Collection<String> groupNames, int self) {
+        if (groupNames == null || groupNames.isEmpty()) {
+            return NO_IDS;
+        }
+        List<Integer> resolved = new ArrayList<Integer>(groupNames.size());
+        for (String groupName : groupNames) {
+            Integer groupId = getId(groupName);
+            if (groupId != null && groupId.intValue() != self
+                    && !resolved.contains(groupId)) {
+                resolved.add(groupId);
+            }
+        }
+        return toArray(resolved);
+    }
+
+    protected static int[] add(int[] array, int value) {
+        for (int v : array) {
+            if (v == value) {
+                return array;
+            }
+        }
+        int[] result = Arrays.copyOf(array, array.length + 1);
+        result[array.length] = value;
+        return result;
+    }
+
+    protected static int[] remove(int[] array, int value) {
+        for (int i = 0; i < array.length; i++) {
+            if (array[i] == value) {
+                int[] result = new int[array.length - 1];
+                System.arraycopy(array, 0, result, 0, i);
+                System.arraycopy(array, i + 1, result, i, result.length - i);
+                return result;
+            }
+        }
+        return array;
+    }
+
+}
@@ -0,0 +1,62 @@
+/*
+ * (C) Copyright 2013 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ */
+package org.nuxeo.ecm.platform.usermanager;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.reload.ReloadEventNames;
+import org.nuxeo.runtime.services.event.Event;
+import org.nuxeo.runtime.services.event.EventListener;
+
+/**
+ * Event listener dropping the group closure index of the user manager when a
+ * group is changed by another component than the user manager itself, or when
+ * the caches are flushed.
+ *
+ * @since 5.7.2
+ */
+public class GroupClosureIndexFlusher implements EventListener {
+
+    private static final Log log = LogFactory.getLog(GroupClosureIndexFlusher.class);
+
+    @Override
+    public boolean aboutToHandleEvent(Event event) {
+        return false;
+    }
+
+    @Override
+    public void handleEvent(Event event) {
+        String id = event.getId();
+        if (!UserManagerImpl.GROUPCHANGED_EVENT_ID.equals(id)
+                && !ReloadEventNames.FLUSH_EVENT_ID.equals(id)) {
+            return;
+        }
+        try {
+            UserManager userManager = Framework.getLocalService(UserManager.class);
+            if (!(userManager instanceof UserManagerImpl)
+                    || event.getSource() == userManager) {
+                // the user manager maintains its index on its own changes
+                return;
+            }
+            ((UserManagerImpl) userManager).invalidateGroupClosureIndex();
+        } catch (Exception e) {
+            log.error("Error while flushing the group closure index", e);
+        }
+    }
+
+}
@@ -0,0 +1,264 @@
+/*
+ * (C) Copyright 2013 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ */
+
+package org.nuxeo.ecm.platform.usermanager;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.nuxeo.ecm.core.api.ClientException;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.NuxeoPrincipal;
+
+/**
+ * Bounded LRU cache of the principals built by the user manager, keyed by
+ * user name and by the users directory resolved for the tenant context.
+ * <p>
+ * Principals are mutable, hence a copy of the cached principal is returned on
+ * each hit. Only plain {@link NuxeoPrincipalImpl} instances are cached.
+ *
+ * @since 5.7.2
+ */
+public class PrincipalCache implements PrincipalCacheMBean {
+
+    protected final int maxSize;
+
+    protected final int timeout;
+
+    protected final Map<String, CachedPrincipal> principals;
+
+    protected final AtomicLong hitCount = new AtomicLong();
+
+    protected final AtomicLong missCount = new AtomicLong();
+
+    protected final AtomicLong loadCount = new AtomicLong();
+
+    protected final AtomicLong loadTime = new AtomicLong();
+
+    /**
+     * Incremented on each invalidation, so that principals built from data
+     * read before an invalidation are not cached.
+     */
+    protected final AtomicLong generation = new AtomicLong();
+
+    /**
+     * @param maxSize the maximum number of principals, 0 to disable the cache
+     * @param timeout the time to live of the principals in seconds, 0 for no
+     *            expiration
+     */
+    public PrincipalCache(final int maxSize, int timeout) {
+        this.maxSize = maxSize;
+        this.timeout = timeout;
+        principals = new LinkedHashMap<String, CachedPrincipal>(16, 0.75f,
+                true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<String, CachedPrincipal> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    public boolean isEnabled() {
+        return maxSize > 0;
+    }
+
+    protected static String getKey(String username, String directoryName) {
+        return directoryName + '\u0000' + username;
+    }
+
+    /**
+     * Returns a copy of the cached principal, or null if it is not cached or
+     * expired.
+     */
+    public NuxeoPrincipal get(String username, String directoryName)
+            throws ClientException {
+        CachedPrincipal cached;
+        String key = getKey(username, directoryName);
+        synchronized (principals) {
+            cached = principals.get(key);
+            if (cached != null && cached.isExpired()) {
+                principals.remove(key);
+                cached = null;
+            }
+        }
+        if (cached == null) {
+            missCount.incrementAndGet();
+            return null;
+        }
+        hitCount.incrementAndGet();
+        return copy(cached.principal);
+    }
+
+    /**
+     * Returns the current generation, to be given to
+     * {@link #put(String, String, NuxeoPrincipal, long, long)}.
+     */
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * Caches the given principal, built in the given time, unless the cache
+     * has been invalidated since the given generation.
+     */
+    public void put(String username, String directoryName,
+            NuxeoPrincipal principal, long loadTimeNanos, long loadGeneration)
+            throws ClientException {
+        loadCount.incrementAndGet();
+        loadTime.addAndGet(loadTimeNanos);
+        if (principal == null
+                || principal.getClass() != NuxeoPrincipalImpl.class) {
+            return;
+        }
+        // keep a copy so that the caller may modify the principal
+        CachedPrincipal cached = new CachedPrincipal(username,
+                copy((NuxeoPrincipalImpl) principal), timeout);
+        synchronized (principals) {
+            if (generation.get() == loadGeneration) {
+                principals.put(getKey(username, directoryName), cached);
+            }
+        }
+    }
+
+    protected NuxeoPrincipalImpl copy(NuxeoPrincipalImpl principal)
+            throws ClientException {
+        NuxeoPrincipalImpl copy = new NuxeoPrincipalImpl(principal.getName(),
+                principal.isAnonymous(), principal.isAdministrator, false);
+        copy.setConfig(principal.getConfig());
+        DocumentModel model = principal.getModel();
+        try {
+            model = model.clone();
+        } catch (CloneNotSupportedException e) {
+            // will never happen as long a DocumentModelImpl is used
+        }
+        copy.setModel(model, false);
+        copy.setVirtualGroups(principal.getVirtualGroups(), false);
+        if (principal.allGroups != null) {
+            copy.allGroups = new ArrayList<String>(principal.allGroups);
+        }
+        copy.setRoles(principal.roles);
+        copy.setPrincipalId(principal.getPrincipalId());
+        copy.setOriginatingUser(principal.getOriginatingUser());
+        return copy;
+    }
+
+    /**
+     * Removes the principals of the given user, whatever their tenant.
+     */
+    public void invalidate(String username) {
+        synchronized (principals) {
+            generation.incrementAndGet();
+            Iterator<CachedPrincipal> it = principals.values().iterator();
+            while (it.hasNext()) {
+                if (it.next().username.equals(username)) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void invalidateAll() {
+        synchronized (principals) {
+            generation.incrementAndGet();
+            principals.clear();
+        }
+    }
+
+    @Override
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    @Override
+    public int getTimeout() {
+        return timeout;
+    }
+
+    @Override
+    public int getSize() {
+        synchronized (principals) {
+            return principals.size();
+        }
+    }
+
+    @Override
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    @Override
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    @Override
+    public double getHitRatio() {
+        long hits = hitCount.get();
+        long total = hits + missCount.get();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    @Override
+    public long getTotalLoadTime() {
+        return TimeUnit.NANOSECONDS.toMillis(loadTime.get());
+    }
+
+    @Override
+    public double getAverageLoadTime() {
+        long loads = loadCount.get();
+        return loads == 0 ? 0 : (double) loadTime.get() / loads / 1000000;
+    }
+
+    @Override
+    public void resetStatistics() {
+        hitCount.set(0);
+        missCount.set(0);
+        loadCount.set(0);
+        loadTime.set(0);
+    }
+
+    protected static class CachedPrincipal {
+
+        protected final String username;
+
+        protected final NuxeoPrincipalImpl principal;
+
+        protected final long expirationTime;
+
+        protected CachedPrincipal(String username,
+                NuxeoPrincipalImpl principal, int timeout) {
+            this.username = username;
+            this.principal = principal;
+            expirationTime = timeout > 0 ? System.nanoTime()
+                    + TimeUnit.SECONDS.toNanos(timeout) : 0;
+        }
+
+        public boolean isExpired() {
+            return expirationTime != 0
+                    && System.nanoTime() - expirationTime > 0;
+        }
+    }
+
+}
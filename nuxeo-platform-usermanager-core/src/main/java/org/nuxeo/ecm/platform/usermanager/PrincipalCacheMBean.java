@@ -0,0 +1,56 @@
+/*
+ * (C) Copyright 2013 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ */
+
+package org.nuxeo.ecm.platform.usermanager;
+
+/**
+ * Management interface of the principal cache of the user manager.
+ *
+ * @since 5.7.2
+ */
+public interface PrincipalCacheMBean {
+
+    int getMaxSize();
+
+    /**
+     * Time to live of the cached principals, in seconds.
+     */
+    int getTimeout();
+
+    int getSize();
+
+    long getHitCount();
+
+    long getMissCount();
+
+    double getHitRatio();
+
+    /**
+     * Cumulated time spent building principals, in milliseconds.
+     */
+    long getTotalLoadTime();
+
+    /**
+     * Average time spent building a principal, in milliseconds.
+     */
+    double getAverageLoadTime();
+
+    void resetStatistics();
+
+    void invalidateAll();
+
+}
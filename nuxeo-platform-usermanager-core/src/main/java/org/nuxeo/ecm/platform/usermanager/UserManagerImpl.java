@@ -26,6 +26,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -52,7 +53,9 @@ import org.nuxeo.ecm.core.api.security.ACP;
 import org.nuxeo.ecm.core.api.security.PermissionProvider;
 import org.nuxeo.ecm.core.api.security.SecurityConstants;
 import org.nuxeo.ecm.directory.BaseSession;
+import org.nuxeo.ecm.directory.Directory;
 import org.nuxeo.ecm.directory.DirectoryException;
+import org.nuxeo.ecm.directory.Reference;
 import org.nuxeo.ecm.directory.Session;
 import org.nuxeo.ecm.directory.api.DirectoryService;
 import org.nuxeo.ecm.platform.usermanager.exceptions.GroupAlreadyExistsException;
@@ -157,6 +160,36 @@ public class UserManagerImpl implements UserManager, MultiTenantUserManager {
 
     protected final Map<String, VirtualUserDescriptor> virtualUsers;
 
+    /**
+     * Closure of the group hierarchy, loaded on first use and maintained on
+     * group changes.
+     *
+     * @since 5.7.2
+     */
+    protected transient volatile GroupClosureIndex groupClosureIndex;
+
+    /**
+     * Time after which the closure index is reloaded, to catch changes made
+     * to the group directory without going through the user manager, or 0 if
+     * the index does not expire.
+     *
+     * @since 5.7.2
+     */
+    protected transient volatile long groupClosureIndexExpiration;
+
+    /**
+     * Set when the group directory cannot be indexed (multi-tenant or too
+     * large to be listed), in which case groups are walked one at a time.
+     *
+     * @since 5.7.2
+     */
+    protected transient volatile boolean groupClosureIndexDisabled;
+
+    /**
+     * @since 5.7.2
+     */
+    protected PrincipalCache principalCache = new PrincipalCache(0, 0);
+
     public UserManagerImpl() {
         dirService = Framework.getLocalService(DirectoryService.class);
         virtualUsers = new HashMap<String, VirtualUserDescriptor>();
@@ -204,6 +237,12 @@ public class UserManagerImpl implements UserManager, MultiTenantUserManager {
         digestAuthDirectory = descriptor.digestAuthDirectory;
         digestAuthRealm = descriptor.digestAuthRealm;
 
+        principalCache = new PrincipalCache(
+                descriptor.principalCacheMaxSize == null ? 0
+                        : descriptor.principalCacheMaxSize.intValue(),
+                descriptor.principalCacheTimeout == null ? 0
+                        : descriptor.principalCacheTimeout.intValue());
+
         userConfig = new UserConfig();
         userConfig.emailKey = userEmailField;
         userConfig.schemaName = userSchemaName;
@@ -249,6 +288,7 @@ public class UserManagerImpl implements UserManager, MultiTenantUserManager {
 
     protected void setGroupDirectoryName(String groupDirectoryName) {
         this.groupDirectoryName = groupDirectoryName;
+        invalidateGroupClosureIndex();
         try {
             groupSchemaName = dirService.getDirectorySchema(groupDirectoryName);
             groupIdField = dirService.getDirectoryIdField(groupDirectoryName);
@@ -747,6 +787,7 @@ public class UserManagerImpl implements UserManager, MultiTenantUserManager {
      * sure principals cache is reset.
      */
     protected void notifyUserChanged(String userName) throws ClientException {
+        principalCache.invalidate(userName);
         notify(userName, USERCHANGED_EVENT_ID);
     }
 
@@ -755,6 +796,9 @@ public class UserManagerImpl implements UserManager, MultiTenantUserManager {
      * sure principals cache is reset.
      */
     protected void notifyGroupChanged(String groupName) throws ClientException {
+        updateGroupClosureIndex(groupName);
+        // group membership of any principal may have changed
+        principalCache.invalidateAll();
         notify(groupName, GROUPCHANGED_EVENT_ID);
     }
 
@@ -1291,6 +1335,29 @@ public class UserManagerImpl implements UserManager, MultiTenantUserManager {
         if (virtualUsers.containsKey(username)) {
             return makeVirtualPrincipal(virtualUsers.get(username));
         }
+        PrincipalCache cache = principalCache;
+        String cacheDirectoryName = null;
+        if (cache.isEnabled()) {
+            cacheDirectoryName = getPrincipalCacheDirectoryName(context);
+        }
+        if (cacheDirectoryName == null) {
+            return makePrincipal(username, context);
+        }
+        // same id as the one given to notifyUserChanged
+        String userId = username.trim();
+        NuxeoPrincipal principal = cache.get(userId, cacheDirectoryName);
+        if (principal == null) {
+            long generation = cache.getGeneration();
+            long start = System.nanoTime();
+            principal = makePrincipal(username, context);
+            cache.put(userId, cacheDirectoryName, principal,
+                    System.nanoTime() - start, generation);
+        }
+        return principal;
+    }
+
+    protected NuxeoPrincipal makePrincipal(String username,
+            DocumentModel context) throws ClientException {
         DocumentModel userModel = getUserModel(username, context);
         if (userModel != null) {
             return makePrincipal(userModel);
@@ -1298,6 +1365,33 @@ public class UserManagerImpl implements UserManager, MultiTenantUserManager {
         return null;
     }
 
+    /**
+     * Returns the name of the users directory used in the given context, which
+     * tells apart the principals of the different tenants, or null if the
+     * principals cannot be cached.
+     *
+     * @since 5.7.2
+     */
+    protected String getPrincipalCacheDirectoryName(DocumentModel context)
+            throws ClientException {
+        Directory directory = context == null ? dirService.getDirectory(userDirectoryName)
+                : dirService.getDirectory(userDirectoryName, context);
+        if (directory == null || directory.isMultiTenant()) {
+            // entries depend on the tenant of the current user
+            return null;
+        }
+        return directory.getName();
+    }
+
+    /**
+     * Returns the principal cache, exposed as a management resource.
+     *
+     * @since 5.7.2
+     */
+    public PrincipalCache getPrincipalCache() {
+        return principalCache;
+    }
+
     @Override
     public DocumentModelList searchGroups(String pattern, DocumentModel context)
             throws ClientException {
@@ -1539,18 +1633,278 @@ public class UserManagerImpl implements UserManager, MultiTenantUserManager {
     @Override
     public List<String> getUsersInGroupAndSubGroups(String groupId,
             DocumentModel context) throws ClientException {
-        Set<String> groups = new HashSet<String>();
-        groups.add(groupId);
-        appendSubgroups(groupId, groups, context);
+        GroupClosureIndex index = null;
+        if (context == null) {
+            index = getGroupClosureIndex();
+        }
+        List<String> groups = index == null ? null
+                : index.getGroupAndDescendants(groupId);
+        if (groups == null) {
+            Set<String> groupSet = new HashSet<String>();
+            groupSet.add(groupId);
+            appendSubgroups(groupId, groupSet, context);
+
+            Set<String> users = new HashSet<String>();
+            for (String groupid : groupSet) {
+                users.addAll(getGroup(groupid, context).getMemberUsers());
+            }
+            return new ArrayList<String>(users);
+        }
 
+        // single index lookup, then one bulk fetch of the groups
         Set<String> users = new HashSet<String>();
-        for (String groupid : groups) {
-            users.addAll(getGroup(groupid, context).getMemberUsers());
+        Session groupDir = null;
+        try {
+            groupDir = dirService.open(groupDirectoryName);
+            for (DocumentModel groupEntry : groupDir.getEntries(groups, true)) {
+                users.addAll(makeGroup(groupEntry).getMemberUsers());
+            }
+        } finally {
+            if (groupDir != null) {
+                groupDir.close();
+            }
         }
-
         return new ArrayList<String>(users);
     }
 
+    @Override
+    public List<String> getGroupAndAncestors(String groupName)
+            throws ClientException {
+        GroupClosureIndex index = getGroupClosureIndex();
+        if (index != null) {
+            List<String> groups = index.getGroupAndAncestors(groupName);
+            if (groups != null) {
+                return groups;
+            }
+        }
+        // not a directory group, or no index
+        return walkGroupAndAncestors(groupName);
+    }
+
+    /**
+     * Computes the ancestors of a group by fetching its parent groups one at a
+     * time, for groups not in the closure index.
+     *
+     * @since 5.7.2
+     */
+    protected List<String> walkGroupAndAncestors(String groupName)
+            throws ClientException {
+        NuxeoGroup group = getGroup(groupName);
+        if (group == null) {
+            return null;
+        }
+        GroupClosureIndex index = getGroupClosureIndex();
+        Set<String> checkedGroups = new HashSet<String>();
+        checkedGroups.add(groupName);
+        List<String> groupsToProcess = new ArrayList<String>(
+                group.getParentGroups());
+        Set<String> result = new LinkedHashSet<String>();
+        result.add(group.getName());
+        while (!groupsToProcess.isEmpty()) {
+            String parentName = groupsToProcess.remove(0);
+            if (!checkedGroups.add(parentName)) {
+                continue;
+            }
+            List<String> indexed = index == null ? null
+                    : index.getGroupAndAncestors(parentName);
+            if (indexed != null) {
+                result.addAll(indexed);
+                continue;
+            }
+            NuxeoGroup parent = getGroup(parentName);
+            if (parent == null) {
+                log.error("Group " + group.getName() + " references the "
+                        + parentName + " group that does not exists");
+            } else {
+                result.add(parent.getName());
+                groupsToProcess.addAll(parent.getParentGroups());
+            }
+        }
+        return new ArrayList<String>(result);
+    }
+
+    /**
+     * Returns the closure index of the group hierarchy, loading it if needed,
+     * or null if the group directory cannot be indexed.
+     *
+     * @since 5.7.2
+     */
+    protected GroupClosureIndex getGroupClosureIndex() throws ClientException {
+        if (!isGroupClosureIndexEnabled()) {
+            return null;
+        }
+        GroupClosureIndex index = groupClosureIndex;
+        if (index != null && isGroupClosureIndexExpired()) {
+            invalidateGroupClosureIndex();
+            index = null;
+        }
+        if (index == null && !groupClosureIndexDisabled) {
+            synchronized (this) {
+                index = groupClosureIndex;
+                if (index == null && !groupClosureIndexDisabled) {
+                    index = loadGroupClosureIndex();
+                    groupClosureIndex = index;
+                    groupClosureIndexDisabled = index == null;
+                    int timeout = getGroupClosureIndexTimeout();
+                    groupClosureIndexExpiration = timeout > 0 ? System.currentTimeMillis()
+                            + timeout * 1000L
+                            : 0;
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Tells whether the group hierarchy can be taken from the closure index,
+     * to be overridden by user managers whose groups are not all stored in the
+     * group directory.
+     *
+     * @since 5.7.2
+     */
+    protected boolean isGroupClosureIndexEnabled() {
+        return true;
+    }
+
+    protected boolean isGroupClosureIndexExpired() {
+        long expiration = groupClosureIndexExpiration;
+        return expiration != 0 && System.currentTimeMillis() > expiration;
+    }
+
+    /**
+     * Returns the time to live of the closure index in seconds: the cache
+     * timeout of the group directory, or else the timeout of the principal
+     * cache, 0 meaning no expiration.
+     *
+     * @since 5.7.2
+     */
+    protected int getGroupClosureIndexTimeout() throws ClientException {
+        int timeout = 0;
+        Directory directory = dirService.getDirectory(groupDirectoryName);
+        if (directory != null && directory.getCache() != null) {
+            timeout = directory.getCache().getTimeout();
+        }
+        if (timeout <= 0) {
+            timeout = principalCache.getTimeout();
+        }
+        return timeout;
+    }
+
+    /**
+     * Loads the closure index from the group ids and their parent groups,
+     * without fetching the other references (members) of the groups.
+     *
+     * @since 5.7.2
+     */
+    @SuppressWarnings("unchecked")
+    protected GroupClosureIndex loadGroupClosureIndex() throws ClientException {
+        Directory directory = dirService.getDirectory(groupDirectoryName);
+        if (directory.isMultiTenant()) {
+            // group ids depend on the tenant of the current user
+            return null;
+        }
+        Session groupDir = null;
+        try {
+            groupDir = dirService.open(groupDirectoryName);
+            Map<String, List<String>> parentGroups = new HashMap<String, List<String>>();
+            Reference parentReference = directory.getReference(groupParentGroupsField);
+            if (parentReference != null) {
+                List<String> groupIds = groupDir.getProjection(
+                        Collections.<String, Serializable> emptyMap(),
+                        groupIdField);
+                Map<String, List<String>> parents = parentReference.getTargetIdsForSources(groupIds);
+                for (String groupId : groupIds) {
+                    parentGroups.put(groupId, parents.get(groupId));
+                }
+            } else {
+                // parent groups stored as a plain field of the entries
+                DocumentModelList groups = groupDir.query(
+                        Collections.<String, Serializable> emptyMap(), null,
+                        null, false);
+                // a directory enforcing a size limit reports the total size
+                // of the untruncated results
+                if (groups.totalSize() > groups.size()) {
+                    log.warn("Group directory " + groupDirectoryName
+                            + " returned truncated results: "
+                            + "group hierarchy will not be indexed");
+                    return null;
+                }
+                for (DocumentModel group : groups) {
+                    parentGroups.put(group.getId(),
+                            (List<String>) group.getProperty(groupSchemaName,
+                                    groupParentGroupsField));
+                }
+            }
+            return GroupClosureIndex.build(parentGroups);
+        } catch (org.nuxeo.ecm.directory.SizeLimitExceededException e) {
+            log.warn("Group directory " + groupDirectoryName
+                    + " is too large to be listed: "
+                    + "group hierarchy will not be indexed");
+            return null;
+        } finally {
+            if (groupDir != null) {
+                groupDir.close();
+            }
+        }
+    }
+
+    /**
+     * Updates the closure index after a change of the given group, only the
+     * changed group being read from the directory.
+     *
+     * @since 5.7.2
+     */
+    @SuppressWarnings("unchecked")
+    protected void updateGroupClosureIndex(String groupName) {
+        if (groupClosureIndex == null) {
+            return;
+        }
+        Session groupDir = null;
+        try {
+            groupDir = dirService.open(groupDirectoryName);
+            DocumentModel group = groupDir.getEntry(groupName);
+            synchronized (this) {
+                GroupClosureIndex index = groupClosureIndex;
+                if (index == null) {
+                    return;
+                }
+                if (group == null) {
+                    groupClosureIndex = index.withoutGroup(groupName);
+                } else {
+                    groupClosureIndex = index.withGroup(
+                            group.getId(),
+                            (List<String>) group.getProperty(groupSchemaName,
+                                    groupParentGroupsField),
+                            (List<String>) group.getProperty(groupSchemaName,
+                                    groupSubGroupsField));
+                }
+            }
+        } catch (ClientException e) {
+            log.error("Cannot update the group hierarchy index for group "
+                    + groupName + ", it will be reloaded", e);
+            invalidateGroupClosureIndex();
+        } finally {
+            try {
+                if (groupDir != null) {
+                    groupDir.close();
+                }
+            } catch (ClientException e) {
+                log.error(e, e);
+            }
+        }
+    }
+
+    /**
+     * Drops the closure index of the group hierarchy, to be reloaded on next
+     * use.
+     *
+     * @since 5.7.2
+     */
+    public synchronized void invalidateGroupClosureIndex() {
+        groupClosureIndex = null;
+        groupClosureIndexDisabled = false;
+    }
+
     @Override
     public String[] getUsersForPermission(String perm, ACP acp,
             DocumentModel context) {
@@ -27,7 +27,10 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.nuxeo.ecm.core.api.ClientException;
 import org.nuxeo.ecm.platform.usermanager.UserManager.MatchType;
+import org.nuxeo.runtime.api.Framework;
 import org.nuxeo.runtime.api.login.Authenticator;
+import org.nuxeo.runtime.management.ObjectNameFactory;
+import org.nuxeo.runtime.management.ResourcePublisher;
 import org.nuxeo.runtime.model.ComponentContext;
 import org.nuxeo.runtime.model.ComponentInstance;
 import org.nuxeo.runtime.model.ComponentName;
@@ -44,6 +47,9 @@ public class UserService extends DefaultComponent {
 
     private UserManager userManager;
 
+    // qualified name of the principal cache management resource published
+    protected String publishedPrincipalCache;
+
     public UserManager getUserManager() throws ClientException {
         if (userManager == null) {
             recomputeUserManager(false);
@@ -102,6 +108,40 @@ public class UserService extends DefaultComponent {
             }
         }
         userManager.setConfiguration(merged);
+        publishPrincipalCacheResource();
+    }
+
+    /**
+     * Exposes the principal cache statistics of the user manager through JMX.
+     *
+     * @since 5.7.2
+     */
+    protected void publishPrincipalCacheResource() {
+        unpublishPrincipalCacheResource();
+        if (!(userManager instanceof UserManagerImpl)) {
+            return;
+        }
+        ResourcePublisher publisher = Framework.getLocalService(ResourcePublisher.class);
+        if (publisher == null) {
+            return;
+        }
+        String qualifiedName = ObjectNameFactory.formatMetricQualifiedName(
+                NAME, "principal-cache");
+        publisher.registerResource(null, qualifiedName,
+                PrincipalCacheMBean.class,
+                ((UserManagerImpl) userManager).getPrincipalCache());
+        publishedPrincipalCache = qualifiedName;
+    }
+
+    protected void unpublishPrincipalCacheResource() {
+        if (publishedPrincipalCache == null) {
+            return;
+        }
+        ResourcePublisher publisher = Framework.getLocalService(ResourcePublisher.class);
+        if (publisher != null) {
+            publisher.unregisterResource(null, publishedPrincipalCache);
+        }
+        publishedPrincipalCache = null;
     }
 
     @Override
@@ -123,6 +163,7 @@ public class UserService extends DefaultComponent {
 
     @Override
     public void deactivate(ComponentContext context) {
+        unpublishPrincipalCacheResource();
         log.info("UserService deactivated");
     }
 
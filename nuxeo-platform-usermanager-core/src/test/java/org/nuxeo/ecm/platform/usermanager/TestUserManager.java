@@ -31,6 +31,7 @@ import java.security.Principal;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 
@@ -50,9 +51,13 @@ import org.nuxeo.ecm.core.api.security.SecurityConstants;
 import org.nuxeo.ecm.core.api.security.impl.ACLImpl;
 import org.nuxeo.ecm.core.api.security.impl.ACPImpl;
 import org.nuxeo.ecm.core.storage.sql.DatabaseHelper;
+import org.nuxeo.ecm.directory.Session;
+import org.nuxeo.ecm.directory.api.DirectoryService;
 import org.nuxeo.ecm.platform.usermanager.exceptions.GroupAlreadyExistsException;
 import org.nuxeo.ecm.platform.usermanager.exceptions.UserAlreadyExistsException;
 import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.services.event.Event;
+import org.nuxeo.runtime.services.event.EventService;
 import org.nuxeo.runtime.test.NXRuntimeTestCase;
 
 /**
@@ -633,6 +638,140 @@ public class TestUserManager extends NXRuntimeTestCase {
         assertEquals(expectedUsersInGroup2, usersInGroupAndSubGroups2);
     }
 
+    /**
+     * Test that the ancestor groups of a principal follow the changes made to
+     * the group hierarchy.
+     */
+    @Test
+    public void testGetAllGroupsFollowsHierarchyChanges() throws Exception {
+        deleteTestObjects();
+
+        DocumentModel g1 = getGroup("test_g1");
+        userManager.createGroup(g1);
+        DocumentModel g2 = getGroup("test_g2");
+        g2.setProperty("group", "subGroups", Arrays.asList("test_g1"));
+        userManager.createGroup(g2);
+        DocumentModel g3 = getGroup("test_g3");
+        g3.setProperty("group", "subGroups", Arrays.asList("test_g2"));
+        userManager.createGroup(g3);
+        DocumentModel u1 = getUser("test_u1");
+        u1.setProperty("user", "groups", Arrays.asList("test_g1"));
+        userManager.createUser(u1);
+
+        List<String> groups = userManager.getGroupAndAncestors("test_g1");
+        assertEquals("test_g1", groups.get(0));
+        assertEquals(new HashSet<String>(Arrays.asList("test_g1", "test_g2",
+                "test_g3")), new HashSet<String>(groups));
+        NuxeoPrincipal principal = userManager.getPrincipal("test_u1");
+        assertTrue(principal.isMemberOf("test_g1"));
+        assertTrue(principal.isMemberOf("test_g2"));
+        assertTrue(principal.isMemberOf("test_g3"));
+
+        // detach test_g2 from test_g3
+        g3 = userManager.getGroupModel("test_g3");
+        g3.setProperty("group", "subGroups", Collections.emptyList());
+        userManager.updateGroup(g3);
+        assertEquals(new HashSet<String>(Arrays.asList("test_g1", "test_g2")),
+                new HashSet<String>(userManager.getGroupAndAncestors("test_g1")));
+        principal = userManager.getPrincipal("test_u1");
+        assertTrue(principal.isMemberOf("test_g2"));
+        assertFalse(principal.isMemberOf("test_g3"));
+
+        userManager.deleteGroup("test_g2");
+        assertEquals(Arrays.asList("test_g1"),
+                userManager.getGroupAndAncestors("test_g1"));
+        assertNull(userManager.getGroupAndAncestors("test_g2"));
+    }
+
+    @Test
+    public void testGroupClosureIndexFollowsDirectoryChanges()
+            throws Exception {
+        deleteTestObjects();
+
+        DocumentModel g1 = getGroup("test_g1");
+        userManager.createGroup(g1);
+        DocumentModel g2 = getGroup("test_g2");
+        userManager.createGroup(g2);
+        assertEquals(Arrays.asList("test_g1"),
+                userManager.getGroupAndAncestors("test_g1"));
+
+        // change made to the directory behind the user manager's back
+        DirectoryService dirService = Framework.getLocalService(DirectoryService.class);
+        Session groupDir = dirService.open("groupDirectory");
+        try {
+            g2 = groupDir.getEntry("test_g2");
+            g2.setProperty("group", "subGroups", Arrays.asList("test_g1"));
+            groupDir.updateEntry(g2);
+        } finally {
+            groupDir.close();
+        }
+        // still served by the index
+        assertEquals(Arrays.asList("test_g1"),
+                userManager.getGroupAndAncestors("test_g1"));
+
+        // group change notified by another component
+        Framework.getLocalService(EventService.class).sendEvent(
+                new Event(UserManagerImpl.USERMANAGER_TOPIC,
+                        UserManagerImpl.GROUPCHANGED_EVENT_ID, this, "test_g2"));
+        assertEquals(Arrays.asList("test_g1", "test_g2"),
+                userManager.getGroupAndAncestors("test_g1"));
+
+        groupDir = dirService.open("groupDirectory");
+        try {
+            g2 = groupDir.getEntry("test_g2");
+            g2.setProperty("group", "subGroups", Collections.emptyList());
+            groupDir.updateEntry(g2);
+        } finally {
+            groupDir.close();
+        }
+        // expired index
+        ((UserManagerImpl) userManager).groupClosureIndexExpiration = System.currentTimeMillis() - 1;
+        assertEquals(Arrays.asList("test_g1"),
+                userManager.getGroupAndAncestors("test_g1"));
+    }
+
+    @Test
+    public void testPrincipalCache() throws Exception {
+        deployContrib("org.nuxeo.ecm.platform.usermanager.tests",
+                "test-usermanagerimpl/userservice-principalcache-config.xml");
+        // user manager is recomputed after deployment => refetch it
+        userManager = userService.getUserManager();
+        deleteTestObjects();
+        PrincipalCache cache = ((UserManagerImpl) userManager).getPrincipalCache();
+        assertEquals(10, cache.getMaxSize());
+
+        DocumentModel u1 = getUser("test_u1");
+        u1.setProperty("user", "firstName", "John");
+        userManager.createUser(u1);
+        DocumentModel g1 = getGroup("test_g1");
+        userManager.createGroup(g1);
+
+        NuxeoPrincipal principal = userManager.getPrincipal("test_u1");
+        assertEquals("John", principal.getFirstName());
+        assertEquals(0, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        NuxeoPrincipal cached = userManager.getPrincipal("test_u1");
+        assertEquals(1, cache.getHitCount());
+        // callers get their own copy
+        assertTrue(principal != cached);
+        cached.setFirstName("Jack");
+        assertEquals("John",
+                userManager.getPrincipal("test_u1").getFirstName());
+
+        // user changes invalidate the cache
+        u1 = userManager.getUserModel("test_u1");
+        u1.setProperty("user", "firstName", "Joe");
+        userManager.updateUser(u1);
+        assertEquals("Joe", userManager.getPrincipal("test_u1").getFirstName());
+
+        // so do group changes
+        assertFalse(userManager.getPrincipal("test_u1").isMemberOf("test_g1"));
+        g1 = userManager.getGroupModel("test_g1");
+        g1.setProperty("group", "members", Arrays.asList("test_u1"));
+        userManager.updateGroup(g1);
+        assertTrue(userManager.getPrincipal("test_u1").isMemberOf("test_g1"));
+    }
+
     @Test
     public void testDeletePrincipal() throws Exception {
         deleteTestObjects();